@@ -10,7 +10,7 @@ import wzielin3.proz.server.events.ApplicationEvent;
  * It creates View for client and NetworkManager to communicate with server.
  * It also creates BlockingQueue to which view sends events and NetworkManager reads them from it.
  * 
- * @author Wojciech Zieliski
+ * @author Wojciech Zieliński
  */
 public class Client
 {
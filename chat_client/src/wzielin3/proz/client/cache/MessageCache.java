@@ -0,0 +1,328 @@
+package wzielin3.proz.client.cache;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import wzielin3.proz.server.ChatMessage;
+import wzielin3.proz.server.model.MessageLog;
+
+/**
+ * Local cache of messages received from one server by one user. File starts with the epoch
+ * of the server's history, and messages are appended after it in the same format as
+ * the server's message log, in order of sequence numbers, so on the next start the client
+ * can display them before it connects, and ask the server only for messages after
+ * the last cached one. When the server's history has a different epoch, the cache is cleared.
+ * Only the newest messages are kept in the file, so it's read quickly on every start.
+ * Methods of opened cache are thread safe.
+ * 
+ * @author Wojciech Zieliński
+ */
+public class MessageCache
+{
+	/**maximum number of cached messages that are kept in memory to be displayed*/
+	private static final int MAX_RECENT_MESSAGES = 500;
+	/**maximum number of messages in the file. When there are more, only the recent ones are kept*/
+	private static final int MAX_FILE_MESSAGES = 2 * MAX_RECENT_MESSAGES;
+	/**name of the file in which the last used server and user name are kept*/
+	private static final String LAST_LOGIN_FILE = "last-login";
+	/**file to which messages are appended*/
+	private final RandomAccessFile file;
+	/**newest cached messages, oldest first*/
+	private final ArrayDeque<ChatMessage> recentMessages;
+	/**sequence number of the last cached message. -1 if there is none*/
+	private long lastSequence;
+	/**epoch of the server's history to which cached messages belong. 0 if it's not known*/
+	private long historyEpoch;
+	/**number of messages in the file*/
+	private int fileMessages;
+	
+	/**
+	 * Constructor that opens cache file and reads newest messages from it.
+	 * Incomplete record at the end (left by a crash) is cut off. File without
+	 * the epoch is cleared, and file with too many messages is compacted.
+	 * 
+	 * @param path file of the cache. Created if it doesn't exist.
+	 * @throws IOException if file can't be opened or read
+	 */
+	public MessageCache(final File path) throws IOException
+	{
+		file = new RandomAccessFile(path, "rw");
+		recentMessages = new ArrayDeque<ChatMessage>();
+		lastSequence = -1;
+		fileMessages = 0;
+		try
+		{
+			if(file.length() < 8)
+			{
+				writeHistoryEpoch(0);
+			}
+			file.seek(0);
+			historyEpoch = file.readLong();
+			byte[] frame;
+			while((frame = MessageLog.readFrame(file)) != null)
+			{
+				addRecent(ChatMessage.decode(frame));
+				++fileMessages;
+			}
+			file.setLength(file.getFilePointer());
+			if(fileMessages > MAX_FILE_MESSAGES)
+			{
+				compact();
+			}
+		}
+		catch (final IOException e)
+		{
+			file.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Method that opens cache of messages of given server and user
+	 * in the cache directory.
+	 * 
+	 * @param host name of the server
+	 * @param port port of the server
+	 * @param userName name of the user
+	 * @return opened cache
+	 * @throws IOException if cache can't be opened
+	 */
+	public static MessageCache open(final String host, final String port, final String userName)
+			throws IOException
+	{
+		final File directory = getDirectory();
+		directory.mkdirs();
+		final String name = (host + "_" + port + "_" + userName).replaceAll("[^A-Za-z0-9._-]", "_");
+		return new MessageCache(new File(directory, name + ".cache"));
+	}
+	
+	/**
+	 * Method that returns directory in which caches are kept. It can be changed
+	 * with chat.cacheDir system property.
+	 * 
+	 * @return directory of caches
+	 */
+	private static File getDirectory()
+	{
+		final String directory = System.getProperty("chat.cacheDir");
+		return directory != null ? new File(directory)
+				: new File(System.getProperty("user.home"), ".chatroom");
+	}
+	
+	/**
+	 * Method that remembers server and user name of the last log in,
+	 * so that their cache can be displayed when client starts.
+	 * 
+	 * @param host name of the server
+	 * @param port port of the server
+	 * @param userName name of the user
+	 * @throws IOException if file can't be written
+	 */
+	public static void saveLastLogin(final String host, final String port, final String userName)
+			throws IOException
+	{
+		final File directory = getDirectory();
+		directory.mkdirs();
+		try (final Writer writer = new OutputStreamWriter(
+				new FileOutputStream(new File(directory, LAST_LOGIN_FILE)), StandardCharsets.UTF_8))
+		{
+			writer.write(host + "\n" + port + "\n" + userName + "\n");
+		}
+	}
+	
+	/**
+	 * Method that reads server and user name saved by saveLastLogin().
+	 * 
+	 * @return host, port and user name. null if nothing was saved.
+	 */
+	public static String[] readLastLogin()
+	{
+		final File lastLogin = new File(getDirectory(), LAST_LOGIN_FILE);
+		if(lastLogin.exists() == false)
+		{
+			return null;
+		}
+		try (final BufferedReader reader = new BufferedReader(
+				new InputStreamReader(new FileInputStream(lastLogin), StandardCharsets.UTF_8)))
+		{
+			final String[] login = { reader.readLine(), reader.readLine(), reader.readLine() };
+			return login[2] == null ? null : login;
+		}
+		catch (final IOException e)
+		{
+			return null;
+		}
+	}
+	
+	/**
+	 * Method that adds message to the messages kept in memory.
+	 * 
+	 * @param message message that has been cached
+	 */
+	private void addRecent(final ChatMessage message)
+	{
+		recentMessages.addLast(message);
+		if(recentMessages.size() > MAX_RECENT_MESSAGES)
+		{
+			recentMessages.removeFirst();
+		}
+		lastSequence = message.getSequence();
+	}
+	
+	/**
+	 * Method that returns newest cached messages.
+	 * 
+	 * @return newest cached messages, oldest first
+	 */
+	public synchronized List<ChatMessage> getRecentMessages()
+	{
+		return new ArrayList<ChatMessage>(recentMessages);
+	}
+	
+	/**
+	 * Method that returns sequence number of the last cached message.
+	 * 
+	 * @return sequence number of the last cached message. -1 if there is none.
+	 */
+	public synchronized long getLastSequence()
+	{
+		return lastSequence;
+	}
+	
+	/**
+	 * Method that returns epoch of the server's history to which cached messages belong.
+	 * 
+	 * @return epoch of the cached history. 0 if it's not known.
+	 */
+	public synchronized long getHistoryEpoch()
+	{
+		return historyEpoch;
+	}
+	
+	/**
+	 * Method that clears the cache if the server's history has a different epoch
+	 * than the cached one, because sequence numbers of the cached messages
+	 * don't match the server's ones anymore.
+	 * 
+	 * @param historyEpoch epoch of the server's history
+	 * @return true if the cache has been cleared
+	 * @throws IOException if file can't be written
+	 */
+	public synchronized boolean setHistoryEpoch(final long historyEpoch) throws IOException
+	{
+		if(historyEpoch == this.historyEpoch)
+		{
+			return false;
+		}
+		writeHistoryEpoch(historyEpoch);
+		this.historyEpoch = historyEpoch;
+		recentMessages.clear();
+		lastSequence = -1;
+		fileMessages = 0;
+		return true;
+	}
+	
+	/**
+	 * Method that removes all cached messages and writes the epoch at the beginning of the file.
+	 * File is left positioned after the epoch.
+	 * 
+	 * @param historyEpoch epoch of the server's history
+	 * @throws IOException if file can't be written
+	 */
+	private void writeHistoryEpoch(final long historyEpoch) throws IOException
+	{
+		file.setLength(0);
+		file.seek(0);
+		file.writeLong(historyEpoch);
+	}
+	
+	/**
+	 * Method that rewrites the file with the messages kept in memory only. If the client
+	 * crashes meanwhile, the file keeps the epoch and the oldest of these messages, so newer
+	 * ones are only asked from the server again.
+	 * 
+	 * @throws IOException if file can't be written
+	 */
+	private void compact() throws IOException
+	{
+		final ByteArrayOutputStream records = new ByteArrayOutputStream();
+		for (final ChatMessage message : recentMessages)
+		{
+			records.write(MessageLog.encodeRecord(message.encode()));
+		}
+		writeHistoryEpoch(historyEpoch);
+		file.write(records.toByteArray());
+		fileMessages = recentMessages.size();
+	}
+	
+	/**
+	 * Method that returns date of the last cached message.
+	 * 
+	 * @return date of the last cached message. null if there is none.
+	 */
+	public synchronized Date getLastDate()
+	{
+		return recentMessages.isEmpty() ? null : recentMessages.getLast().getSentDate();
+	}
+	
+	/**
+	 * Method that appends messages to the cache in order of sequence numbers.
+	 * Messages that are not newer than the last cached one are skipped. When the file
+	 * has too many messages, it's compacted.
+	 * 
+	 * @param messages messages to be cached. The list is not modified.
+	 * @throws IOException if messages can't be written
+	 */
+	public synchronized void append(final List<ChatMessage> messages) throws IOException
+	{
+		final ArrayList<ChatMessage> sorted = new ArrayList<ChatMessage>(messages);
+		Collections.sort(sorted, new Comparator<ChatMessage>()
+		{
+			@Override
+			public int compare(final ChatMessage first, final ChatMessage second)
+			{
+				return Long.compare(first.getSequence(), second.getSequence());
+			}
+		});
+		for (final ChatMessage message : sorted)
+		{
+			if(message.getSequence() <= lastSequence)
+			{
+				continue;
+			}
+			file.write(MessageLog.encodeRecord(message.encode()));
+			addRecent(message);
+			++fileMessages;
+		}
+		if(fileMessages > MAX_FILE_MESSAGES)
+		{
+			compact();
+		}
+	}
+	
+	/**
+	 * Method that closes the cache.
+	 */
+	public synchronized void close()
+	{
+		try
+		{
+			file.close();
+		}
+		catch (final IOException e) { }
+	}
+}
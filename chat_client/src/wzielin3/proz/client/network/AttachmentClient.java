@@ -0,0 +1,152 @@
+package wzielin3.proz.client.network;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.StandardOpenOption;
+import wzielin3.proz.server.attachment.AttachmentReference;
+import wzielin3.proz.server.attachment.AttachmentServer;
+
+/**
+ * Class that transfers attachments over connections separate from the chat connection.
+ * Protocol is described in AttachmentServer. Every transfer opens its own connection
+ * and blocks the calling thread until it's finished.
+ * 
+ * @author Wojciech Zieliński
+ */
+class AttachmentClient
+{
+	/**host name of the server*/
+	private final String host;
+	/**port on which the server transfers attachments*/
+	private final int port;
+	
+	/**
+	 * Constructor that creates client of given server.
+	 * 
+	 * @param host host name of the server
+	 * @param port port on which the server transfers attachments
+	 */
+	public AttachmentClient(final String host, final int port)
+	{
+		this.host = host;
+		this.port = port;
+	}
+	
+	/**
+	 * Method that uploads file in chunks. It sends no more chunks than the server
+	 * has allowed, so it never sends faster than the server stores.
+	 * 
+	 * @param file file to be uploaded
+	 * @return reference to the uploaded file
+	 * @throws IOException when file can't be read, connection fails or server refuses the file
+	 */
+	public AttachmentReference upload(final File file) throws IOException
+	{
+		try (final SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port));
+				final FileInputStream fileInput = new FileInputStream(file))
+		{
+			final DataInputStream input = new DataInputStream(
+					new BufferedInputStream(Channels.newInputStream(channel)));
+			final DataOutputStream output = new DataOutputStream(
+					new BufferedOutputStream(Channels.newOutputStream(channel)));
+			output.writeByte(AttachmentServer.UPLOAD);
+			output.writeUTF(file.getName());
+			output.writeLong(file.length());
+			final byte[] chunk = new byte[AttachmentServer.CHUNK_BYTES];
+			int credits = 0;
+			int length;
+			while((length = fileInput.read(chunk)) > 0)
+			{
+				while(credits <= 0)
+				{
+					output.flush();
+					credits = readGrant(input);
+				}
+				output.writeInt(length);
+				output.write(chunk, 0, length);
+				--credits;
+			}
+			output.writeInt(0);
+			output.flush();
+			while(true)
+			{
+				final int answer = readGrant(input);
+				if(answer < 0)
+				{
+					return new AttachmentReference(input.readUTF(), input.readLong(), file.getName());
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Method that reads answer of the server to upload.
+	 * 
+	 * @param input stream from which the answer is read
+	 * @return number of chunks that can be sent. -1 if server has stored the file.
+	 * @throws IOException when connection fails or server refuses the file
+	 */
+	private static int readGrant(final DataInputStream input) throws IOException
+	{
+		final byte answer = input.readByte();
+		if(answer == AttachmentServer.GRANT)
+		{
+			return input.readInt();
+		}
+		if(answer == AttachmentServer.OK)
+		{
+			return -1;
+		}
+		throw new IOException(input.readUTF());
+	}
+	
+	/**
+	 * Method that downloads attachment to a file. Bytes are moved from the connection
+	 * to the file with transferFrom(), without copying them through a buffer of this process.
+	 * 
+	 * @param hash hash of the attachment
+	 * @param file file to which attachment is downloaded
+	 * @return size of the attachment in bytes
+	 * @throws IOException when file can't be written, connection fails or there is no such attachment
+	 */
+	public long download(final String hash, final File file) throws IOException
+	{
+		try (final SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port)))
+		{
+			final DataOutputStream output = new DataOutputStream(Channels.newOutputStream(channel));
+			output.writeByte(AttachmentServer.DOWNLOAD);
+			output.writeUTF(hash);
+			//not buffered - bytes after the answer belong to the file
+			final DataInputStream input = new DataInputStream(Channels.newInputStream(channel));
+			if(input.readByte() != AttachmentServer.OK)
+			{
+				throw new IOException(input.readUTF());
+			}
+			final long size = input.readLong();
+			try (final FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+			{
+				long position = 0;
+				while(position < size)
+				{
+					final long transferred = fileChannel.transferFrom(channel, position, size - position);
+					if(transferred == 0)
+					{
+						throw new IOException("Connection has been closed before the whole attachment has been received");
+					}
+					position += transferred;
+				}
+			}
+			return size;
+		}
+	}
+}
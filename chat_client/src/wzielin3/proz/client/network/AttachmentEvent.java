@@ -0,0 +1,72 @@
+package wzielin3.proz.client.network;
+
+import java.io.File;
+import wzielin3.proz.server.events.ApplicationEvent;
+
+/**
+ * Event that asks to upload file as an attachment, or to download attachment to a file.
+ * It's handled by the client and never sent to the server over the chat connection.
+ * 
+ * @author Wojciech Zieliński
+ */
+public class AttachmentEvent extends ApplicationEvent
+{
+	/**serialVersionUID for this class*/
+	private static final long serialVersionUID = 1L;
+	/**file to be uploaded, or to which attachment is downloaded*/
+	private final File file;
+	/**hash of the attachment to be downloaded. null if file should be uploaded*/
+	private final String hash;
+	
+	/**
+	 * Constructor that creates request to upload file and send it to the chat.
+	 * 
+	 * @param file file to be uploaded
+	 */
+	public AttachmentEvent(final File file)
+	{
+		this(file, null);
+	}
+	
+	/**
+	 * Constructor that creates request to download attachment.
+	 * 
+	 * @param file file to which attachment is downloaded
+	 * @param hash hash of the attachment
+	 */
+	public AttachmentEvent(final File file, final String hash)
+	{
+		this.file = file;
+		this.hash = hash;
+	}
+	
+	/**
+	 * Method that tells if file should be uploaded.
+	 * 
+	 * @return true if file should be uploaded. false if attachment should be downloaded.
+	 */
+	public boolean isUpload()
+	{
+		return hash == null;
+	}
+	
+	/**
+	 * Method that returns file to be uploaded, or to which attachment is downloaded.
+	 * 
+	 * @return the file
+	 */
+	public File getFile()
+	{
+		return file;
+	}
+	
+	/**
+	 * Method that returns hash of the attachment to be downloaded.
+	 * 
+	 * @return hash of the attachment. null if file should be uploaded.
+	 */
+	public String getHash()
+	{
+		return hash;
+	}
+}
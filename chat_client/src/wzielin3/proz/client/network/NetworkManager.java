@@ -1,21 +1,30 @@
 package wzielin3.proz.client.network;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.net.Socket;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import wzielin3.proz.client.cache.MessageCache;
 import wzielin3.proz.client.view.ClientMainView;
 import wzielin3.proz.server.ChatMessage;
 import wzielin3.proz.server.ChatState;
+import wzielin3.proz.server.attachment.AttachmentReference;
+import wzielin3.proz.server.events.AdminQueryEvent;
 import wzielin3.proz.server.events.ApplicationEvent;
 import wzielin3.proz.server.events.LogInEvent;
 import wzielin3.proz.server.events.LogOutEvent;
 import wzielin3.proz.server.events.MessageEvent;
+import wzielin3.proz.server.events.SearchRequestEvent;
 import wzielin3.proz.server.events.StateRequestEvent;
 
 /**
@@ -23,7 +32,7 @@ import wzielin3.proz.server.events.StateRequestEvent;
  * It sends events and receives status updates from server which then
  * are sent to the view.
  * 
- * @author Wojciech Zieliski
+ * @author Wojciech Zieliński
  */
 public class NetworkManager
 {
@@ -35,12 +44,26 @@ public class NetworkManager
 	private final BlockingQueue<ApplicationEvent> eventsBlockingQueue;
 	/**stream that receives objects from the server*/
 	private ObjectInputStream objectInputStream;
-	/**stream that sends objects to the server*/
-	private ObjectOutputStream objectOutputStream;
+	/**stream that sends objects to the server. Only SenderThread writes to it*/
+	private volatile ObjectOutputStream objectOutputStream;
+	/**events waiting to be written to the server by SenderThread*/
+	private final BlockingQueue<ApplicationEvent> outgoingEvents;
+	/**id given to the last message sent by the user*/
+	private final AtomicLong lastMessageId;
+	/**messages that server hasn't answered yet, mapped by their ids in order of sending*/
+	private final LinkedHashMap<Long, MessageEvent> unansweredMessages;
 	/**socket for client-server connections*/
 	private Socket socket;
 	/**Date of last received message*/
 	private Date lastMessageDate;
+	/**cache of messages of the current server and user. null if it can't be used*/
+	private volatile MessageCache cache;
+	/**server, port and user name of the opened cache*/
+	private String cacheKey;
+	/**host name of the server to which this manager connects*/
+	private String serverName;
+	/**client that transfers attachments. null if server doesn't accept them*/
+	private volatile AttachmentClient attachmentClient;
 	
 	/**
 	 * Constructor that sets the view and blockingQueue for this manager.
@@ -56,10 +79,17 @@ public class NetworkManager
 		this.view = view;
 		this.eventsBlockingQueue = eventsBlockingQueue;
 		lastMessageDate = null;
+		outgoingEvents = new LinkedBlockingQueue<ApplicationEvent>();
+		//ids of messages from different runs of the client shouldn't repeat
+		lastMessageId = new AtomicLong(System.currentTimeMillis() * 1000);
+		unansweredMessages = new LinkedHashMap<Long, MessageEvent>();
 		eventToStrategyMap = new HashMap<Class<? extends ApplicationEvent>, NetworkStrategy>();
 		eventToStrategyMap.put(LogInEvent.class, new LogInStrategy());
 		eventToStrategyMap.put(MessageEvent.class, new MessageStrategy());
 		eventToStrategyMap.put(LogOutEvent.class, new LogOutStrategy());	
+		eventToStrategyMap.put(SearchRequestEvent.class, new SearchStrategy());
+		eventToStrategyMap.put(AdminQueryEvent.class, new AdminQueryStrategy());
+		eventToStrategyMap.put(AttachmentEvent.class, new AttachmentStrategy());
 	}
 	
 	/**
@@ -68,6 +98,14 @@ public class NetworkManager
 	 */
 	public void start()
 	{
+		final String[] lastLogin = MessageCache.readLastLogin();
+		if(lastLogin != null)
+		{
+			//show history of the last session before user logs in
+			view.setLoginFields(lastLogin[0], lastLogin[1], lastLogin[2]);
+			openCache(lastLogin[0], lastLogin[1], lastLogin[2]);
+		}
+		new SenderThread().start();
 		new StateRequestThread().start();
 		while(true)
 		{
@@ -87,6 +125,99 @@ public class NetworkManager
 		}
 	}
 	
+	/**
+	 * Method that opens cache of messages of given server and user, and displays
+	 * cached messages. Nothing is done if the cache is already opened.
+	 * 
+	 * @param host name of the server
+	 * @param port port of the server
+	 * @param userName name of the user
+	 */
+	private void openCache(final String host, final String port, final String userName)
+	{
+		final String key = host + ":" + port + ":" + userName;
+		if(key.equals(cacheKey))
+		{
+			return;
+		}
+		if(cache != null)
+		{
+			cache.close();
+		}
+		if(cacheKey != null)
+		{
+			//messages for another server or user won't be sent again
+			synchronized (unansweredMessages)
+			{
+				unansweredMessages.clear();
+			}
+			view.failPendingMessages();
+		}
+		cacheKey = key;
+		try
+		{
+			cache = MessageCache.open(host, port, userName);
+			MessageCache.saveLastLogin(host, port, userName);
+		}
+		catch (final IOException e)
+		{
+			//client works without the cache
+			cache = null;
+			return;
+		}
+		view.showCachedMessages(cache.getRecentMessages());
+	}
+	
+	/**
+	 * Method that appends received messages to the cache. If it fails
+	 * the cache is not used anymore.
+	 * 
+	 * @param messages received messages
+	 */
+	private void cacheMessages(final List<ChatMessage> messages)
+	{
+		final MessageCache cache = this.cache;
+		if(cache == null)
+		{
+			return;
+		}
+		try
+		{
+			cache.append(messages);
+		}
+		catch (final IOException e)
+		{
+			cache.close();
+			this.cache = null;
+		}
+	}
+	
+	/**
+	 * Method that clears the cache if the server's history has a different epoch,
+	 * e.g. server has been started again without its history. Server has then sent
+	 * its recent messages instead of the ones after the last cached message.
+	 * If it fails the cache is not used anymore.
+	 * 
+	 * @param historyEpoch epoch of the server's history
+	 */
+	private void setCachedHistoryEpoch(final long historyEpoch)
+	{
+		final MessageCache cache = this.cache;
+		if(cache == null)
+		{
+			return;
+		}
+		try
+		{
+			cache.setHistoryEpoch(historyEpoch);
+		}
+		catch (final IOException e)
+		{
+			cache.close();
+			this.cache = null;
+		}
+	}
+	
 	/**
 	 * Method that tries connecting this manager to the server.
 	 * 
@@ -97,7 +228,11 @@ public class NetworkManager
 	private void connect(final String host, final int port) throws IOException
 	{
 		socket = new Socket(host, port);
-		objectOutputStream = new ObjectOutputStream(socket.getOutputStream());
+		final ObjectOutputStream objectOutputStream = new ObjectOutputStream(
+				new BufferedOutputStream(socket.getOutputStream()));
+		//server waits for the header of the stream
+		objectOutputStream.flush();
+		this.objectOutputStream = objectOutputStream;
 		objectInputStream = new ObjectInputStream(socket.getInputStream());
 	}
 	
@@ -138,34 +273,75 @@ public class NetworkManager
 	}
 	
 	/**
-	 * Method that attempts to send event to the server. 
+	 * Method that attempts to send event to the server. Event is only queued,
+	 * it's written by SenderThread, so this method never waits for the network.
 	 * 
 	 * @param event ApplicationEvent to be send to the server
 	 */
 	private void sendEventToServer(final ApplicationEvent event)
 	{
-		if(objectOutputStream == null)
-		{
-			return; //nowhere to send
-		}
-		try
+		outgoingEvents.offer(event);
+	}
+	
+	/**
+	 * Thread that writes queued events to the server. All events that are waiting
+	 * when it wakes up are written together and flushed once.
+	 * 
+	 * @author Wojciech Zieliński
+	 */
+	private class SenderThread extends Thread
+	{
+		/**maximum number of events written before the stream is flushed*/
+		static final int MAX_BATCH = 64;
+		
+		/**
+		 * Method that writes queued events until the client is closed.
+		 * Events queued while there is no connection are dropped - messages
+		 * are sent again after logging in.
+		 */
+		@Override
+		public void run()
 		{
-			synchronized (objectOutputStream)
+			final ArrayList<ApplicationEvent> batch = new ArrayList<ApplicationEvent>(MAX_BATCH);
+			while(true)
 			{
-				objectOutputStream.writeObject(event);
+				try
+				{
+					batch.add(outgoingEvents.take());
+				}
+				catch (final InterruptedException e)
+				{
+					continue;
+				}
+				outgoingEvents.drainTo(batch, MAX_BATCH - 1);
+				final ObjectOutputStream objectOutputStream = NetworkManager.this.objectOutputStream;
+				if(objectOutputStream != null)
+				{
+					try
+					{
+						for (final ApplicationEvent event : batch)
+						{
+							objectOutputStream.writeObject(event);
+						}
+						//written events don't have to be remembered by the stream
+						objectOutputStream.reset();
+						objectOutputStream.flush();
+					}
+					catch (final IOException e)
+					{
+						disconnect();
+					}
+				}
+				batch.clear();
 			}
 		}
-		catch (final IOException e)
-		{
-			disconnect();
-		}
 	}
 	
 	/**
 	 * Thread that listens to the server and receives sent objects.
 	 * the objects of type ChatState are forwarded to the view to be displayed
 	 * 
-	 * @author Wojciech Zieliski
+	 * @author Wojciech Zieliński
 	 */
 	private class ServerListener extends Thread
 	{
@@ -185,17 +361,78 @@ public class NetworkManager
 					disconnect(); 
 					return;
 				}
+				if(state.getClientMessageId() != 0)
+				{
+					synchronized (unansweredMessages)
+					{
+						unansweredMessages.remove(state.getClientMessageId());
+					}
+					view.removePendingMessage(state.getClientMessageId());
+				}
+				if(state.getUserStatus() == ChatState.UserStatus.MESSAGE_ACCEPTED
+						&& state.getChatMessages().isEmpty())
+				{
+					//accepted message comes with the next state sent to all users
+					continue;
+				}
+				if(state.getUserStatus() == ChatState.UserStatus.SERVER_OVERLOADED)
+				{
+					//notice has neither messages nor names, chat room isn't changed
+					view.showInformation("Server is overloaded, your message wasn't delivered. Try again later.");
+					continue;
+				}
 				if(state.isLoggedIn() == false)
 				{
 					view.setChatState(state);
 					disconnect();
 					return;
 				}
+				if(state.getUserStatus() == ChatState.UserStatus.DIRECT_MESSAGE)
+				{
+					//direct messages aren't part of the chat room's history
+					view.showDirectMessages(state);
+					continue;
+				}
+				if(state.getUserStatus() == ChatState.UserStatus.QUERY_RESULT)
+				{
+					//found messages are old ones, they don't change the date of last message
+					view.showSearchResults(state);
+					continue;
+				}
+				if(state.getUserStatus() == ChatState.UserStatus.JUST_LOGGED_IN)
+				{
+					setCachedHistoryEpoch(state.getHistoryEpoch());
+				}
 				handleChatStateChange(state);	
+				if(state.getUserStatus() == ChatState.UserStatus.JUST_LOGGED_IN)
+				{
+					attachmentClient = state.getAttachmentPort() == 0 ? null
+							: new AttachmentClient(serverName, state.getAttachmentPort());
+					sendUnansweredMessagesAgain();
+				}
 			}
 		}
 	}
 	
+	/**
+	 * Method that sends again messages that server hasn't answered, e.g. because
+	 * connection has been lost. Server recognizes messages it has already accepted
+	 * by their ids, so they are not added twice.
+	 */
+	private void sendUnansweredMessagesAgain()
+	{
+		final ArrayList<MessageEvent> messages;
+		synchronized (unansweredMessages)
+		{
+			messages = new ArrayList<MessageEvent>(unansweredMessages.values());
+		}
+		for (final MessageEvent message : messages)
+		{
+			message.setPreviousMessageDate(lastMessageDate);
+			sendEventToServer(message);
+		}
+	}
+	
 	/**
 	 * Method that takes care of all the operations that need to be executed
 	 * when a new ChatState object is received. It takes care of changing
@@ -205,6 +442,12 @@ public class NetworkManager
 	 */
 	private void handleChatStateChange(final ChatState state)
 	{
+		if(state.getUserStatus() == ChatState.UserStatus.JUST_LOGGED_IN && lastMessageDate != null)
+		{
+			//server has sent only messages after the last cached one
+			showChatState(state);
+			return;
+		}
 		if(lastMessageDate == null)
 		{
 			lastMessageDate = getLatestDate(state.getChatMessages());
@@ -212,12 +455,26 @@ public class NetworkManager
 		if(state.isCompatibleWithDate(lastMessageDate))
 		{
 			state.deleteAllMessagesBefore(lastMessageDate);
-			view.setChatState(state);
-			final Date lastMessageDate = getLatestDate(state.getChatMessages());
-			if(lastMessageDate != null)
-			{
-				this.lastMessageDate = lastMessageDate;
-			}
+			showChatState(state);
+		}
+	}
+	
+	/**
+	 * Method that displays received ChatState, caches its messages and
+	 * remembers date of the last one.
+	 * 
+	 * @param state received ChatState with only the messages that are new for the client
+	 */
+	private void showChatState(final ChatState state)
+	{
+		//view sorts the messages in its own thread
+		final List<ChatMessage> messages = new ArrayList<ChatMessage>(state.getChatMessages());
+		view.setChatState(state);
+		cacheMessages(messages);
+		final Date lastMessageDate = getLatestDate(messages);
+		if(lastMessageDate != null)
+		{
+			this.lastMessageDate = lastMessageDate;
 		}
 	}
 	
@@ -250,7 +507,7 @@ public class NetworkManager
 	 * to the server every period of time. It helps making sure that user is up to date
 	 * with his messages.
 	 * 
-	 * @author Wojciech Zieliski
+	 * @author Wojciech Zieliński
 	 */
 	private class StateRequestThread extends Thread
 	{
@@ -278,7 +535,7 @@ public class NetworkManager
 	/**
 	 * Common base for all classes that can handle events from the view
 	 * 
-	 * @author Wojciech Zieliski
+	 * @author Wojciech Zieliński
 	 */
 	private abstract class NetworkStrategy
 	{
@@ -293,7 +550,7 @@ public class NetworkManager
 	/**
 	 * Class that responds to LogInEvent.
 	 * 
-	 * @author Wojciech Zieliski
+	 * @author Wojciech Zieliński
 	 */
 	private class LogInStrategy extends NetworkStrategy
 	{
@@ -317,9 +574,19 @@ public class NetworkManager
 			try
 			{
 				final LogInEvent logInEvent = (LogInEvent) event;
-				final String serverName = logInEvent.getServerName();
+				serverName = logInEvent.getServerName();
 				final int port = Integer.parseInt(logInEvent.getPort());
+				openCache(serverName, logInEvent.getPort(), logInEvent.getUserName());
 				connect(serverName, port);
+				final MessageCache cache = NetworkManager.this.cache;
+				if(cache != null)
+				{
+					//server sends only messages after the cached ones
+					logInEvent.setLastCachedSequence(cache.getLastSequence());
+					logInEvent.setCachedHistoryEpoch(cache.getHistoryEpoch());
+					lastMessageDate = cache.getLastDate();
+				}
+				logInEvent.setAcceptingCompression(true);
 				new ServerListener().start();
 			}
 			catch (final IOException | NumberFormatException e)
@@ -331,11 +598,11 @@ public class NetworkManager
 			sendEventToServer(event);
 		}
 	}
-
+	
 	/**
 	 * Strategy that handles MessageEvent.
 	 * 
-	 * @author Wojciech Zieliski
+	 * @author Wojciech Zieliński
 	 */
 	private class MessageStrategy extends NetworkStrategy
 	{
@@ -343,7 +610,8 @@ public class NetworkManager
 		 * Method that forwards MessageEvent to the server.
 		 * It that checks whether given ApplicationEvent is of type MessageEvent.
 		 * If it's not execution finishes. If it is of type MessageEvent, then
-		 * the date of last received message is attached to it and it's forwarded to the server.
+		 * the date of last received message and a new id are attached to it, it's displayed
+		 * as pending until server answers, and it's forwarded to the server.
 		 * 
 		 * @param event ApplicationEvent to be handled. Should be of type MessageEvent.
 		 */
@@ -354,15 +622,150 @@ public class NetworkManager
 			{
 				return;
 			}
-			((MessageEvent)event).setPreviousMessageDate(lastMessageDate);
+			final MessageEvent messageEvent = (MessageEvent) event;
+			messageEvent.setPreviousMessageDate(lastMessageDate);
+			messageEvent.setClientMessageId(lastMessageId.incrementAndGet());
+			synchronized (unansweredMessages)
+			{
+				unansweredMessages.put(messageEvent.getClientMessageId(), messageEvent);
+			}
+			view.addPendingMessage(messageEvent.getClientMessageId(), messageEvent.getMessageString());
+			sendEventToServer(messageEvent);
+		}
+	}
+	
+	/**
+	 * Strategy that handles SearchRequestEvent.
+	 * 
+	 * @author Wojciech Zieliński
+	 */
+	private class SearchStrategy extends NetworkStrategy
+	{
+		/**
+		 * Method that handles ApplicationEvent of type SearchRequestEvent.
+		 * If ApplicationEvent is not of type SearchRequestEvent execution ends.
+		 * In different case the same SearchRequestEvent is simply forwarded to server.
+		 */
+		@Override
+		public void execute(final ApplicationEvent event)
+		{
+			if(event instanceof SearchRequestEvent == false)
+			{
+				return;
+			}
+			sendEventToServer(event);
+		}
+	}
+	
+	/**
+	 * Strategy that handles AdminQueryEvent.
+	 * 
+	 * @author Wojciech Zieliński
+	 */
+	private class AdminQueryStrategy extends NetworkStrategy
+	{
+		/**
+		 * Method that handles ApplicationEvent of type AdminQueryEvent.
+		 * If ApplicationEvent is not of type AdminQueryEvent execution ends.
+		 * In different case the same AdminQueryEvent is simply forwarded to server.
+		 */
+		@Override
+		public void execute(final ApplicationEvent event)
+		{
+			if(event instanceof AdminQueryEvent == false)
+			{
+				return;
+			}
 			sendEventToServer(event);
 		}
 	}
 	
+	/**
+	 * Strategy that handles AttachmentEvent.
+	 * 
+	 * @author Wojciech Zieliński
+	 */
+	private class AttachmentStrategy extends NetworkStrategy
+	{
+		/**
+		 * Method that handles ApplicationEvent of type AttachmentEvent.
+		 * If ApplicationEvent is not of type AttachmentEvent execution ends.
+		 * In different case the attachment is transferred by a new thread, so that
+		 * messages are sent and received while it's transferred.
+		 */
+		@Override
+		public void execute(final ApplicationEvent event)
+		{
+			if(event instanceof AttachmentEvent == false)
+			{
+				return;
+			}
+			final AttachmentClient attachmentClient = NetworkManager.this.attachmentClient;
+			if(attachmentClient == null)
+			{
+				view.showInformation("Server doesn't accept attachments");
+				return;
+			}
+			new TransferThread(attachmentClient, (AttachmentEvent) event).start();
+		}
+	}
+	
+	/**
+	 * Thread that transfers one attachment. Uploaded file is sent to the chat as
+	 * a message that carries only the reference to it.
+	 * 
+	 * @author Wojciech Zieliński
+	 */
+	private class TransferThread extends Thread
+	{
+		/**client that transfers attachments*/
+		private final AttachmentClient attachmentClient;
+		/**event that asks for the transfer*/
+		private final AttachmentEvent event;
+		
+		/**
+		 * Constructor that creates thread for one transfer.
+		 * 
+		 * @param attachmentClient client that transfers attachments
+		 * @param event event that asks for the transfer
+		 */
+		public TransferThread(final AttachmentClient attachmentClient, final AttachmentEvent event)
+		{
+			this.attachmentClient = attachmentClient;
+			this.event = event;
+			setDaemon(true);
+		}
+		
+		@Override
+		public void run()
+		{
+			try
+			{
+				if(event.isUpload())
+				{
+					final AttachmentReference reference = attachmentClient.upload(event.getFile());
+					eventsBlockingQueue.put(new MessageEvent(reference.toContent()));
+				}
+				else
+				{
+					final long size = attachmentClient.download(event.getHash(), event.getFile());
+					view.showInformation("Attachment (" + size + " bytes) saved to " + event.getFile());
+				}
+			}
+			catch (final IOException e)
+			{
+				view.showInformation("Attachment couldn't be transferred: " + e.getMessage());
+			}
+			catch (final InterruptedException e)
+			{
+			}
+		}
+	}
+	
 	/**
 	 * Strategy that responds to LogOutEvent.
 	 * 
-	 * @author Wojciech Zieliski
+	 * @author Wojciech Zieliński
 	 */
 	private class LogOutStrategy extends NetworkStrategy
 	{
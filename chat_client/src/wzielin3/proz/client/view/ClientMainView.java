@@ -6,14 +6,17 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
+import java.io.File;
 import java.text.SimpleDateFormat;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.BlockingQueue;
 import javax.swing.BoxLayout;
 import javax.swing.JButton;
@@ -25,20 +28,24 @@ import javax.swing.JScrollPane;
 import javax.swing.JTextArea;
 import javax.swing.JTextField;
 import javax.swing.SwingUtilities;
+import wzielin3.proz.client.network.AttachmentEvent;
 import wzielin3.proz.server.ChatMessage;
 import wzielin3.proz.server.ChatState;
 import wzielin3.proz.server.ChatState.UserStatus;
+import wzielin3.proz.server.attachment.AttachmentReference;
+import wzielin3.proz.server.events.AdminQueryEvent;
 import wzielin3.proz.server.events.ApplicationEvent;
 import wzielin3.proz.server.events.LogInEvent;
 import wzielin3.proz.server.events.LogOutEvent;
 import wzielin3.proz.server.events.MessageEvent;
+import wzielin3.proz.server.events.SearchRequestEvent;
 
 /**
  * Class responsible for the client view.
  * It creates and displays JFrame. It generates ApplicationEvents which
  * then are sent to blocking queue.
  * 
- * @author Wojciech Zieliski
+ * @author Wojciech Zieliński
  */
 public class ClientMainView
 {
@@ -62,6 +69,10 @@ public class ClientMainView
 	private final JTextArea messageTextArea;
 	/** JButton that clicked fires MessageSentEvent with text inserted on messageTextArea */
 	private final JButton sendMessageButton;
+	/**JTextArea on which messages that are being sent are displayed*/
+	private final JTextArea pendingTextArea;
+	/**contents of messages that are being sent mapped by their ids, in order of sending*/
+	private final LinkedHashMap<Long, String> pendingMessages;
 	/**JPanel on which currently logged in users are displayed*/
 	private final JPanel userDisplayPanel;
 	/**Set of currently logged in user's names*/
@@ -72,6 +83,22 @@ public class ClientMainView
 	private final HashMap<ChatState.UserStatus, String> stateToMessageMap;
 	/**Maximum length of a message that can be sent*/
 	private final static int MESSAGE_MAX_LENGTH = 100;
+	/**Prefix of the message that is sent as search request instead of a message*/
+	private final static String SEARCH_COMMAND = "/search ";
+	/**Prefix of the word of search request that filters by author*/
+	private final static String AUTHOR_FILTER = "from:";
+	/**Maximum number of messages found by one search*/
+	private final static int SEARCH_LIMIT = 20;
+	/**Prefix of the message that asks for latest messages of a user (administrators only)*/
+	private final static String MESSAGES_OF_USER_COMMAND = "/by ";
+	/**Message that asks for statistics of users, optionally followed by name (administrators only)*/
+	private final static String STATISTICS_COMMAND = "/stats";
+	/**Prefix of the message that is sent directly to users, followed by their names separated with commas*/
+	private final static String DIRECT_MESSAGE_COMMAND = "/msg ";
+	/**Prefix of the message that uploads file and sends it to the chat, followed by path of the file*/
+	private final static String SEND_FILE_COMMAND = "/send ";
+	/**Prefix of the message that downloads attachment, followed by its hash and optionally path of the file*/
+	private final static String GET_FILE_COMMAND = "/get ";
 	
 	/**
 	 * Basic constructor that takes as an argument BlockingQueue to which events will be sent.
@@ -126,6 +153,12 @@ public class ClientMainView
 		messageTextArea.setEnabled(false);
 		messageTextArea.addKeyListener(new MessageTextAreaKeyListener());
 		JPanel southPanel = new JPanel(new BorderLayout());
+		pendingTextArea = new JTextArea();
+		pendingTextArea.setEditable(false);
+		pendingTextArea.setLineWrap(true);
+		pendingTextArea.setVisible(false);
+		pendingMessages = new LinkedHashMap<Long, String>();
+		southPanel.add(pendingTextArea, BorderLayout.NORTH);
 		southPanel.add(new JScrollPane(messageTextArea), BorderLayout.CENTER);
 		southPanel.add(sendMessageButton, BorderLayout.EAST);
 		chatPanel.add(southPanel, BorderLayout.SOUTH);
@@ -144,6 +177,7 @@ public class ClientMainView
 		stateToMessageMap.put(UserStatus.MESSAGE_REJECTED, "Your message wasn't delivered. Try again.");
 		stateToMessageMap.put(UserStatus.REJECTED, "You have been removed from the server.");
 		stateToMessageMap.put(UserStatus.USER_NAME_REJECTED, "Username not available. Try another one.");
+		stateToMessageMap.put(UserStatus.READ_ONLY, "This server only serves history. Messages can't be sent here.");
 	}
 	
 	/**
@@ -182,6 +216,187 @@ public class ClientMainView
 		
 	}
 	
+	/**
+	 * Method that displays messages found by the search. They are not
+	 * added to the chat as new messages. This method is thread safe.
+	 * 
+	 * @param state ChatState with QUERY_RESULT status
+	 */
+	public void showSearchResults(final ChatState state)
+	{
+		SwingUtilities.invokeLater(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				final List<ChatMessage> messages = state.getChatMessages();
+				if(messages.size() == 0)
+				{
+					print("\nNo messages found.\n");
+					return;
+				}
+				Collections.sort(messages);
+				print("\nFound messages:");
+				for (final ChatMessage message : messages)
+				{
+					addMessage(message);
+				}
+				print("\nEnd of found messages.\n");
+			}
+		});
+	}
+	
+	/**
+	 * Method that displays direct messages of one conversation. They are not
+	 * added to the chat as messages of the chat room. This method is thread safe.
+	 * 
+	 * @param state ChatState with DIRECT_MESSAGE status
+	 */
+	public void showDirectMessages(final ChatState state)
+	{
+		SwingUtilities.invokeLater(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				final StringBuilder participants = new StringBuilder();
+				for (final String name : state.getLoggedInUserNames())
+				{
+					participants.append(participants.length() == 0 ? "" : ", ").append(name);
+				}
+				final List<ChatMessage> messages = state.getChatMessages();
+				Collections.sort(messages);
+				for (final ChatMessage message : messages)
+				{
+					print("\n[direct: " + participants + "]");
+					addMessage(message);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Method that displays messages cached from previous sessions instead of
+	 * the current content of the chat. This method is thread safe.
+	 * 
+	 * @param messages cached messages, oldest first
+	 */
+	public void showCachedMessages(final List<ChatMessage> messages)
+	{
+		SwingUtilities.invokeLater(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				chatTextArea.setText("");
+				for (final ChatMessage message : messages)
+				{
+					addMessage(message);
+				}
+				print("\nLog in to see new messages.\n");
+			}
+		});
+	}
+	
+	/**
+	 * Method that fills in server and user name, e.g. with the ones
+	 * used last time. This method is thread safe.
+	 * 
+	 * @param host name of the server
+	 * @param port port of the server
+	 * @param userName name of the user
+	 */
+	public void setLoginFields(final String host, final String port, final String userName)
+	{
+		SwingUtilities.invokeLater(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				serverIPTextField.setText(host);
+				serverPortTextField.setText(port);
+				userNameTextField.setText(userName);
+			}
+		});
+	}
+	
+	/**
+	 * Method that displays message that has been sent, but not yet accepted
+	 * by the server. This method is thread safe.
+	 * 
+	 * @param id id given to the message by the network manager
+	 * @param content content of the message
+	 */
+	public void addPendingMessage(final long id, final String content)
+	{
+		SwingUtilities.invokeLater(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				pendingMessages.put(id, content);
+				showPendingMessages();
+			}
+		});
+	}
+	
+	/**
+	 * Method that stops displaying message as being sent, because server has
+	 * answered it. Accepted message is displayed in the chat when server sends it.
+	 * This method is thread safe.
+	 * 
+	 * @param id id given to the message by the network manager
+	 */
+	public void removePendingMessage(final long id)
+	{
+		SwingUtilities.invokeLater(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				pendingMessages.remove(id);
+				showPendingMessages();
+			}
+		});
+	}
+	
+	/**
+	 * Method that displays all messages that are being sent as not delivered,
+	 * e.g. when user logs in to another server. This method is thread safe.
+	 */
+	public void failPendingMessages()
+	{
+		SwingUtilities.invokeLater(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				for (final String content : pendingMessages.values())
+				{
+					print("\nNot delivered: " + content + "\n");
+				}
+				pendingMessages.clear();
+				showPendingMessages();
+			}
+		});
+	}
+	
+	/**
+	 * Method that refreshes the area with messages that are being sent.
+	 */
+	private void showPendingMessages()
+	{
+		final StringBuilder text = new StringBuilder();
+		for (final String content : pendingMessages.values())
+		{
+			text.append(text.length() == 0 ? "" : "\n").append("Sending: ").append(content);
+		}
+		pendingTextArea.setText(text.toString());
+		pendingTextArea.setVisible(pendingMessages.isEmpty() == false);
+		mainFrame.revalidate();
+		mainFrame.repaint();
+	}
+	
 	/**
 	 * Method invoked by network manager when view should be displayed for 
 	 * chat that has lost connection with the server for unknown reasons.
@@ -197,12 +412,34 @@ public class ClientMainView
 				setConnected(false);
 				clearUserNames();
 				print("\nConnection has been lost. Try reconnecting.\n");
+				if(pendingMessages.isEmpty() == false)
+				{
+					print("Messages that are being sent will be sent again after logging in.\n");
+				}
 				mainFrame.revalidate();
 		  		mainFrame.repaint();
 			}
 		});
 	}
 	
+	/**
+	 * Method that displays information that isn't a message, e.g. result of
+	 * a transfer of an attachment. This method is thread safe.
+	 * 
+	 * @param information text to be displayed
+	 */
+	public void showInformation(final String information)
+	{
+		SwingUtilities.invokeLater(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				print("\n" + information + "\n");
+			}
+		});
+	}
+	
 	/**
 	 * Method that sets the view depending on the connection status.
 	 * 
@@ -256,6 +493,13 @@ public class ClientMainView
 		final SimpleDateFormat dateFormat = new SimpleDateFormat("dd MMMM HH:mm:ss", Locale.US);
 		final Date date = chatMessage.getSentDate();
 		print("\n" + dateFormat.format(date) + ", " + chatMessage.getAuthor() + ":");
+		final AttachmentReference reference = AttachmentReference.fromContent(chatMessage.getContent());
+		if(reference != null)
+		{
+			print("\n[file] " + reference.getName() + " (" + reference.getSize() + " bytes), download with: "
+					+ GET_FILE_COMMAND + reference.getHash() + " " + reference.getName() + "\n");
+			return;
+		}
 		print("\n" + chatMessage.getContent() + "\n");
 	}
 	
@@ -288,6 +532,46 @@ public class ClientMainView
 		messageTextArea.setText("");
 		try
 		{
+			if(message.startsWith(SEARCH_COMMAND))
+			{
+				eventsBlockingQueue.put(createSearchRequest(message.substring(SEARCH_COMMAND.length())));
+				return;
+			}
+			if(message.startsWith(MESSAGES_OF_USER_COMMAND))
+			{
+				eventsBlockingQueue.put(new AdminQueryEvent(AdminQueryEvent.Query.MESSAGES_OF_USER,
+						message.substring(MESSAGES_OF_USER_COMMAND.length()).trim(), SEARCH_LIMIT));
+				return;
+			}
+			if(message.equals(STATISTICS_COMMAND) || message.startsWith(STATISTICS_COMMAND + " "))
+			{
+				final String userName = message.substring(STATISTICS_COMMAND.length()).trim();
+				eventsBlockingQueue.put(new AdminQueryEvent(AdminQueryEvent.Query.USER_STATISTICS,
+						userName.length() == 0 ? null : userName, SEARCH_LIMIT));
+				return;
+			}
+			if(message.startsWith(SEND_FILE_COMMAND))
+			{
+				eventsBlockingQueue.put(new AttachmentEvent(new File(message.substring(SEND_FILE_COMMAND.length()).trim())));
+				return;
+			}
+			if(message.startsWith(GET_FILE_COMMAND))
+			{
+				final String[] words = message.substring(GET_FILE_COMMAND.length()).trim().split(" ", 2);
+				final File file = words.length > 1 ? new File(words[1].trim())
+						: new File(System.getProperty("user.home"), words[0]);
+				eventsBlockingQueue.put(new AttachmentEvent(file, words[0]));
+				return;
+			}
+			if(message.startsWith(DIRECT_MESSAGE_COMMAND))
+			{
+				final MessageEvent directMessage = createDirectMessage(message.substring(DIRECT_MESSAGE_COMMAND.length()));
+				if(directMessage != null)
+				{
+					eventsBlockingQueue.put(directMessage);
+				}
+				return;
+			}
 			eventsBlockingQueue.put(new MessageEvent(message));
 		}
 		catch (final InterruptedException e1)
@@ -295,13 +579,66 @@ public class ClientMainView
 		}
 	}
 	
+	/**
+	 * Method that creates direct message from the text typed after direct message command:
+	 * names of recipients separated with commas, and the content after a space.
+	 * 
+	 * @param text text typed after direct message command
+	 * @return direct message to be sent to the server. null if there is no content.
+	 */
+	private MessageEvent createDirectMessage(final String text)
+	{
+		final int space = text.indexOf(' ');
+		if(space <= 0 || space == text.length() - 1)
+		{
+			print("\nUsage: " + DIRECT_MESSAGE_COMMAND + "name[,name...] message\n");
+			return null;
+		}
+		final Set<String> recipients = new TreeSet<String>();
+		for (final String name : text.substring(0, space).split(","))
+		{
+			if(name.length() > 0)
+			{
+				recipients.add(name);
+			}
+		}
+		final MessageEvent event = new MessageEvent(text.substring(space + 1));
+		event.setRecipients(recipients);
+		return event;
+	}
+	
+	/**
+	 * Method that creates search request from the text typed after search command.
+	 * Word "from:name" filters messages by author, other words have to be in the messages.
+	 * 
+	 * @param text text typed after search command
+	 * @return search request to be sent to the server
+	 */
+	private SearchRequestEvent createSearchRequest(final String text)
+	{
+		final StringBuilder query = new StringBuilder();
+		String author = null;
+		for (final String word : text.split(" "))
+		{
+			if(word.startsWith(AUTHOR_FILTER) && word.length() > AUTHOR_FILTER.length())
+			{
+				author = word.substring(AUTHOR_FILTER.length());
+			}
+			else
+			{
+				query.append(word).append(' ');
+			}
+		}
+		return new SearchRequestEvent(query.toString().trim(), author, null, null, SEARCH_LIMIT);
+	}
+	
 	/**
 	 * Class that is responsible for listening to the keys typed on the
 	 * message input TextArea. It doesn't allow to long messages and 
 	 * on enter pressed it sends a message. It also doesn't allow
 	 * white spaces other than SPACE, and doesn't allow two SPACEs near each other.
 	 * 
-	 * @author Wojciech Zieliski
+	 * @author Wojciech Zieliński
 	 */
 	private final class MessageTextAreaKeyListener extends KeyAdapter
 	{
@@ -354,7 +691,7 @@ public class ClientMainView
 	/**
 	 * ActionListener that responds to log in button click
 	 * 
-	 * @author Wojciech Zieliski
+	 * @author Wojciech Zieliński
 	 */
 	private final class LogInButtonListener implements ActionListener
 	{
@@ -387,7 +724,7 @@ public class ClientMainView
 	/**
 	 * ActionListener that responds to log out button click.
 	 * 
-	 * @author Wojciech Zieliski
+	 * @author Wojciech Zieliński
 	 */
 	private final class LogOutButtonActionListener implements ActionListener
 	{
@@ -410,7 +747,7 @@ public class ClientMainView
 	/**
 	 * ActionListener that reacts to the message sending button clicked.
 	 * 
-	 * @author Wojciech Zieliki
+	 * @author Wojciech Zielińśki
 	 */
 	private final class SendButtonActionListener implements ActionListener
 	{
@@ -1,5 +1,10 @@
 package wzielin3.proz.server;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.Date;
 
@@ -7,19 +12,26 @@ import java.util.Date;
  * Class that contains information about string message. It contains information
  * about the author, sent date and content of the message. Objects of this type
  * can be compared (by sent date).
+ * Server keeps millions of messages, so they are compact: date is kept as a number
+ * of milliseconds, names of authors are interned (one string per author, not per message),
+ * and content is kept encoded, the same way as in frames, and decoded only when it's read.
  * 
  * @author Wojciech Zielinski
  */
 public class ChatMessage implements Serializable, Comparable<ChatMessage>
 {
 	/**serialVersionUID for this class*/
-	private static final long serialVersionUID = 1L;
-	/**Content of the message*/
-	private final String content;
-	/**Author of the message*/
+	private static final long serialVersionUID = 2L;
+	/**maximum number of bytes of encoded content*/
+	private static final int MAX_ENCODED_LENGTH = 65535;
+	/**Content of the message, encoded in modified UTF-8 (as by DataOutput.writeUTF)*/
+	private final byte[] content;
+	/**Author of the message. Interned, so all messages of one author share the string*/
 	private final String author;
-	/**Creation Date of the message*/
-	private final Date sentDate;
+	/**Creation time of the message in milliseconds*/
+	private final long sentTime;
+	/**Sequence number given to the message by the server. -1 if it has not been given yet*/
+	private final long sequence;
 	
 	/**
 	 * Constructor for this class.
@@ -30,9 +42,44 @@ public class ChatMessage implements Serializable, Comparable<ChatMessage>
 	 */
 	public ChatMessage(final String content,final String author, final Date sentDate)
 	{
-		this.content = content; 
-		this.author = author;
-		this.sentDate = sentDate;
+		this.content = encodeContent(content); 
+		this.author = author.intern();
+		this.sentTime = sentDate.getTime();
+		this.sequence = -1;
+	}
+	
+	/**
+	 * Constructor that creates message from already encoded content. Used by
+	 * the server to recreate messages kept in compact form.
+	 * 
+	 * @param sequence sequence number of the message. -1 if it has not been given yet.
+	 * @param sentTime creation time of the message in milliseconds
+	 * @param author user name of the sending person
+	 * @param encodedContent content encoded in modified UTF-8, as returned by getEncodedContent().
+	 * The array is not copied, so it shouldn't be changed later.
+	 */
+	public ChatMessage(final long sequence, final long sentTime, final String author,
+			final byte[] encodedContent)
+	{
+		this.content = encodedContent;
+		this.author = author.intern();
+		this.sentTime = sentTime;
+		this.sequence = sequence;
+	}
+	
+	/**
+	 * Constructor that copies given message and gives it a sequence number.
+	 * Used by the server when the message is added to the history.
+	 * 
+	 * @param chatMessage ChatMessage to be copied
+	 * @param sequence sequence number of the message in the server's history
+	 */
+	public ChatMessage(final ChatMessage chatMessage, final long sequence)
+	{
+		this.content = chatMessage.content;
+		this.author = chatMessage.author;
+		this.sentTime = chatMessage.sentTime;
+		this.sequence = sequence;
 	}
 	
 	/**
@@ -44,15 +91,27 @@ public class ChatMessage implements Serializable, Comparable<ChatMessage>
 	{
 		this.content = chatMessage.content;
 		this.author = chatMessage.author;
-		this.sentDate = chatMessage.sentDate;
+		this.sentTime = chatMessage.sentTime;
+		this.sequence = chatMessage.sequence;
 	}
 	
 	/**
-	 * Method returning content of the message
+	 * Method returning content of the message. Content is decoded on every call.
 	 * 
 	 * @return content of the message
 	 */
 	public String getContent()
+	{
+		return decodeContent(content);
+	}
+	
+	/**
+	 * Method returning content of the message encoded in modified UTF-8.
+	 * The array is not copied, so it mustn't be changed.
+	 * 
+	 * @return encoded content of the message
+	 */
+	public byte[] getEncodedContent()
 	{
 		return content;
 	}
@@ -74,17 +133,194 @@ public class ChatMessage implements Serializable, Comparable<ChatMessage>
 	 */
 	public Date getSentDate()
 	{
-		return sentDate;
+		return new Date(sentTime);
+	}
+	
+	/**
+	 * Method returning time in milliseconds when this message was sent.
+	 * Cheaper than getSentDate(), because no object is created.
+	 * 
+	 * @return time in milliseconds when this message was sent
+	 */
+	public long getSentTime()
+	{
+		return sentTime;
+	}
+	
+	/**
+	 * Method returning sequence number of this message in the server's history.
+	 * 
+	 * @return sequence number of this message. -1 if it has not been given yet.
+	 */
+	public long getSequence()
+	{
+		return sequence;
+	}
+	
+	/**
+	 * Method that encodes this message into a compact frame of bytes. Frames
+	 * are much smaller than default serialization of the object and can be
+	 * cached by the server and written many times without encoding again.
+	 * Content is already encoded, so it's only copied.
+	 * 
+	 * @return bytes representing this message
+	 */
+	public byte[] encode()
+	{
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream(32 + author.length() + content.length);
+		try (final DataOutputStream out = new DataOutputStream(bytes))
+		{
+			out.writeLong(sequence);
+			out.writeLong(sentTime);
+			out.writeUTF(author);
+			out.writeShort(content.length);
+			out.write(content);
+		}
+		catch (final IOException e)
+		{
+			//writing to memory doesn't fail
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+	
+	/**
+	 * Method that decodes message from bytes created by encode() method.
+	 * Content is not decoded, only copied.
+	 * 
+	 * @param frame bytes created by encode() method
+	 * @return decoded message
+	 * @throws IOException if bytes are not a proper frame
+	 */
+	public static ChatMessage decode(final byte[] frame) throws IOException
+	{
+		try (final DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame)))
+		{
+			final long sequence = in.readLong();
+			final long sentTime = in.readLong();
+			final String author = in.readUTF();
+			final byte[] content = new byte[in.readUnsignedShort()];
+			in.readFully(content);
+			return new ChatMessage(sequence, sentTime, author, content);
+		}
+	}
+	
+	/**
+	 * Method that checks if text can be content of a message.
+	 * 
+	 * @param text text to be checked
+	 * @return true if text is not null and is not too long to be encoded
+	 */
+	public static boolean isValidContent(final String text)
+	{
+		return text != null && getEncodedLength(text) <= MAX_ENCODED_LENGTH;
+	}
+	
+	/**
+	 * Method that counts bytes of text encoded in modified UTF-8.
+	 * 
+	 * @param text text to be measured
+	 * @return number of bytes of encoded text
+	 */
+	private static int getEncodedLength(final String text)
+	{
+		int length = 0;
+		for (int i = 0; i < text.length(); ++i)
+		{
+			final char c = text.charAt(i);
+			length += (c >= 0x0001 && c <= 0x007F) ? 1 : (c <= 0x07FF ? 2 : 3);
+		}
+		return length;
+	}
+	
+	/**
+	 * Method that encodes text in modified UTF-8, the same way DataOutput.writeUTF()
+	 * does, but without the length.
+	 * 
+	 * @param text text to be encoded
+	 * @return encoded text
+	 * @throws IllegalArgumentException if encoded text is longer than 65535 bytes
+	 */
+	private static byte[] encodeContent(final String text)
+	{
+		final int length = getEncodedLength(text);
+		if(length > MAX_ENCODED_LENGTH)
+		{
+			throw new IllegalArgumentException("Content of the message is too long: " + length + " bytes");
+		}
+		final byte[] bytes = new byte[length];
+		int position = 0;
+		for (int i = 0; i < text.length(); ++i)
+		{
+			final char c = text.charAt(i);
+			if(c >= 0x0001 && c <= 0x007F)
+			{
+				bytes[position++] = (byte) c;
+			}
+			else if(c <= 0x07FF)
+			{
+				bytes[position++] = (byte) (0xC0 | (c >> 6));
+				bytes[position++] = (byte) (0x80 | (c & 0x3F));
+			}
+			else
+			{
+				bytes[position++] = (byte) (0xE0 | (c >> 12));
+				bytes[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				bytes[position++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+		return bytes;
+	}
+	
+	/**
+	 * Method that decodes text encoded by encodeContent().
+	 * 
+	 * @param bytes encoded text
+	 * @return decoded text
+	 */
+	private static String decodeContent(final byte[] bytes)
+	{
+		final char[] chars = new char[bytes.length];
+		int count = 0;
+		int position = 0;
+		while(position < bytes.length)
+		{
+			final int b = bytes[position] & 0xFF;
+			if(b < 0x80)
+			{
+				chars[count++] = (char) b;
+				position += 1;
+			}
+			else if((b & 0xE0) == 0xC0 && position + 1 < bytes.length)
+			{
+				chars[count++] = (char) (((b & 0x1F) << 6) | (bytes[position + 1] & 0x3F));
+				position += 2;
+			}
+			else if((b & 0xF0) == 0xE0 && position + 2 < bytes.length)
+			{
+				chars[count++] = (char) (((b & 0x0F) << 12) | ((bytes[position + 1] & 0x3F) << 6)
+						| (bytes[position + 2] & 0x3F));
+				position += 3;
+			}
+			else
+			{
+				//not a proper encoding, which can happen only with a damaged frame
+				chars[count++] = '\uFFFD';
+				position += 1;
+			}
+		}
+		return new String(chars, 0, count);
 	}
 
 	/**
 	 * Method that compares two messages, by their sending dates.
+	 * Messages sent at the same moment are compared by their sequence numbers.
 	 */
 	@Override
 	public int compareTo(final ChatMessage o)
 	{
-		if(this.sentDate.equals(o.sentDate)) return 0;
-		if(this.sentDate.before(o.sentDate)) return -1;
+		if(this.sentTime == o.sentTime) return Long.compare(this.sequence, o.sequence);
+		if(this.sentTime < o.sentTime) return -1;
 		return 1;
 	}
 }
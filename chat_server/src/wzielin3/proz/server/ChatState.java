@@ -1,9 +1,17 @@
 package wzielin3.proz.server;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -17,19 +25,36 @@ import java.util.TreeSet;
  * he is up to date. The ChatState class also contains information about the user 
  * being logged in or logged out (his current status on the chat).
  * 
- * @author Wojciech Zieliski
+ * @author Wojciech Zieliński
  */
 public class ChatState implements Serializable
 {
 	/**serialVersionUID for this class*/
-	private static final long serialVersionUID = 1L;
-	/**List of currently exchanged messages. It should be sorted by Date (first old)*/
-	private final ArrayList<ChatMessage> chatMessages;
+	private static final long serialVersionUID = 5L;
+	/**List of currently exchanged messages. It should be sorted by Date (first old).
+	 * It's not serialized by default - messages are written as encoded frames*/
+	private transient ArrayList<ChatMessage> chatMessages;
+	/**Already encoded frames of the chatMessages. null if they should be encoded
+	 * when this state is written*/
+	private transient List<byte[]> encodedMessages;
 	/**Set of string names of users currently logged in. TreeSet is used so 
-	 * that the names are sorted - it's easier to display and browse through them*/
-	private final Set<String> names;
+	 * that the names are sorted - it's easier to display and browse through them.
+	 * It's not serialized by default - names are written together with frames of messages*/
+	private transient Set<String> names;
 	/**Status of the user at the moment*/
 	private final UserStatus userStatus;
+	/**id given by the client to the message this state answers. 0 if it doesn't answer a message*/
+	private long clientMessageId;
+	/**port on which the server transfers attachments. 0 if it's not known or attachments are not accepted*/
+	private int attachmentPort;
+	/**epoch of the server's history to which sequence numbers of messages belong. 0 if it's not known*/
+	private long historyEpoch;
+	/**encoded names and frames of messages. Created when this state is written for the first time,
+	 * so state broadcast to many clients is encoded once*/
+	private transient byte[] payload;
+	/**compressed payload. Created when this state is written compressed for the first time,
+	 * so state broadcast to many clients is compressed once*/
+	private transient byte[] compressedPayload;
 	
 	/**
 	 * Constructor that sets all the values that are needed to determine chat state
@@ -40,9 +65,26 @@ public class ChatState implements Serializable
 	 */
 	public ChatState(final ArrayList<ChatMessage> chatMessages,
 	final Set<String> names, final UserStatus userStatus)
+	{
+		this(chatMessages, null, names, userStatus);
+	}
+	
+	/**
+	 * Constructor that sets all the values that are needed to determine chat state,
+	 * together with already encoded frames of the messages. Frames are written
+	 * instead of encoding the messages again.
+	 * 
+	 * @param chatMessages - messages that have been recently exchanged and need to be sent.
+	 * @param encodedMessages - frames of the chatMessages created by ChatMessage.encode().
+	 * @param names - names of users that are currently logged in.
+	 * @param userStatus current status of the user to which this messages is going to be sent.
+	 */
+	public ChatState(final ArrayList<ChatMessage> chatMessages, final List<byte[]> encodedMessages,
+	final Set<String> names, final UserStatus userStatus)
 	{
 		this.chatMessages = chatMessages;
 		Collections.sort(chatMessages);
+		this.encodedMessages = encodedMessages;
 		this.names = names;
 		this.userStatus = userStatus;
 	}
@@ -77,6 +119,70 @@ public class ChatState implements Serializable
 		return userStatus;
 	}
 	
+	/**
+	 * Method that sets id of the client's message this state answers, e.g. when
+	 * the message has been accepted or rejected.
+	 * 
+	 * @param clientMessageId id given to the message by the client
+	 */
+	public void setClientMessageId(final long clientMessageId)
+	{
+		this.clientMessageId = clientMessageId;
+	}
+	
+	/**
+	 * Method that returns id of the client's message this state answers.
+	 * 
+	 * @return id given to the message by the client. 0 if this state doesn't answer a message.
+	 */
+	public long getClientMessageId()
+	{
+		return clientMessageId;
+	}
+	
+	/**
+	 * Method that sets port on which the server transfers attachments.
+	 * It's sent to the client when it logs in.
+	 * 
+	 * @param attachmentPort port on which attachments are transferred
+	 */
+	public void setAttachmentPort(final int attachmentPort)
+	{
+		this.attachmentPort = attachmentPort;
+	}
+	
+	/**
+	 * Method that returns port on which the server transfers attachments.
+	 * 
+	 * @return port on which attachments are transferred. 0 if it's not known or attachments are not accepted.
+	 */
+	public int getAttachmentPort()
+	{
+		return attachmentPort;
+	}
+	
+	/**
+	 * Method that sets epoch of the server's history. It's sent to the client when
+	 * it logs in, so that the client knows whether its cached messages are numbered
+	 * the same way as the server's ones.
+	 * 
+	 * @param historyEpoch epoch of the history to which sequence numbers belong
+	 */
+	public void setHistoryEpoch(final long historyEpoch)
+	{
+		this.historyEpoch = historyEpoch;
+	}
+	
+	/**
+	 * Method that returns epoch of the server's history.
+	 * 
+	 * @return epoch of the history to which sequence numbers belong. 0 if it's not known.
+	 */
+	public long getHistoryEpoch()
+	{
+		return historyEpoch;
+	}
+	
 	/**
 	 * Method that returns true if user that receives this message is logged in to the server.
 	 * false if he has been logged out.
@@ -88,7 +194,12 @@ public class ChatState implements Serializable
 	{
 		return userStatus == UserStatus.CONTINUES_WORKING ||
 				userStatus == UserStatus.JUST_LOGGED_IN ||
-				userStatus == UserStatus.MESSAGE_REJECTED;
+				userStatus == UserStatus.MESSAGE_REJECTED ||
+				userStatus == UserStatus.READ_ONLY ||
+				userStatus == UserStatus.MESSAGE_ACCEPTED ||
+				userStatus == UserStatus.DIRECT_MESSAGE ||
+				userStatus == UserStatus.QUERY_RESULT ||
+				userStatus == UserStatus.SERVER_OVERLOADED;
 	}
 	
 	/**
@@ -139,10 +250,148 @@ public class ChatState implements Serializable
 		}
 	}
 	
+	/**
+	 * Method that writes this state. Names and messages are written as one payload
+	 * that is encoded (and compressed, if the client has agreed to it and it's large enough)
+	 * only once, however many clients the state is written to. Frames of messages that
+	 * are already encoded are written without encoding them again. Compressed payload is
+	 * written only if it's smaller than the original one.
+	 * 
+	 * @param out stream to which this state is written
+	 * @throws IOException if writing fails
+	 */
+	private void writeObject(final ObjectOutputStream out) throws IOException
+	{
+		out.defaultWriteObject();
+		final byte[] payload = getPayload();
+		byte[] compressedPayload = null;
+		if(out instanceof ChatStateOutputStream && ((ChatStateOutputStream) out).shouldCompress(payload.length))
+		{
+			compressedPayload = getCompressedPayload();
+		}
+		final boolean isCompressed = compressedPayload != null && compressedPayload.length < payload.length;
+		out.writeBoolean(isCompressed);
+		out.writeInt(payload.length);
+		if(isCompressed)
+		{
+			out.writeInt(compressedPayload.length);
+			out.write(compressedPayload);
+		}
+		else
+		{
+			out.write(payload);
+		}
+	}
+	
+	/**
+	 * Method that returns encoded names and frames of messages of this state.
+	 * 
+	 * @return encoded names and frames of messages
+	 */
+	private synchronized byte[] getPayload()
+	{
+		if(payload != null)
+		{
+			return payload;
+		}
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (final DataOutputStream out = new DataOutputStream(bytes))
+		{
+			out.writeInt(names.size());
+			for (final String name : names)
+			{
+				out.writeUTF(name);
+			}
+			if(encodedMessages == null)
+			{
+				out.writeInt(chatMessages.size());
+				for (final ChatMessage message : chatMessages)
+				{
+					final byte[] frame = message.encode();
+					out.writeInt(frame.length);
+					out.write(frame);
+				}
+			}
+			else
+			{
+				out.writeInt(encodedMessages.size());
+				for (final byte[] frame : encodedMessages)
+				{
+					out.writeInt(frame.length);
+					out.write(frame);
+				}
+			}
+		}
+		catch (final IOException e)
+		{
+			//writing to memory doesn't fail
+			throw new IllegalStateException(e);
+		}
+		payload = bytes.toByteArray();
+		return payload;
+	}
+	
+	/**
+	 * Method that returns compressed names and frames of messages of this state.
+	 * 
+	 * @return compressed payload
+	 */
+	private synchronized byte[] getCompressedPayload()
+	{
+		if(compressedPayload == null)
+		{
+			compressedPayload = PayloadCompression.compress(getPayload());
+		}
+		return compressedPayload;
+	}
+	
+	/**
+	 * Method that reads this state, decompresses its payload if it's compressed,
+	 * and decodes names and frames of messages.
+	 * 
+	 * @param in stream from which this state is read
+	 * @throws IOException if reading fails
+	 * @throws ClassNotFoundException if class of the state is not found
+	 */
+	private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException
+	{
+		in.defaultReadObject();
+		final boolean isCompressed = in.readBoolean();
+		final byte[] payload = new byte[in.readInt()];
+		if(isCompressed)
+		{
+			final byte[] compressedPayload = new byte[in.readInt()];
+			in.readFully(compressedPayload);
+			PayloadCompression.decompress(compressedPayload, payload);
+		}
+		else
+		{
+			in.readFully(payload);
+		}
+		try (final DataInputStream payloadIn = new DataInputStream(new ByteArrayInputStream(payload)))
+		{
+			final int namesCount = payloadIn.readInt();
+			names = new TreeSet<String>();
+			for (int i = 0; i < namesCount; ++i)
+			{
+				names.add(payloadIn.readUTF());
+			}
+			final int count = payloadIn.readInt();
+			chatMessages = new ArrayList<ChatMessage>(count);
+			for (int i = 0; i < count; ++i)
+			{
+				final byte[] frame = new byte[payloadIn.readInt()];
+				payloadIn.readFully(frame);
+				chatMessages.add(ChatMessage.decode(frame));
+			}
+		}
+		Collections.sort(chatMessages);
+	}
+	
 	/**
 	 * Enumeration representing current status of client that receives this status update.
 	 * 
-	 * @author Wojciech Zieliski
+	 * @author Wojciech Zieliński
 	 */
 	public enum UserStatus
 	{
@@ -157,6 +406,16 @@ public class ChatState implements Serializable
 		/**User attempted log in, but his user name has been rejected. Should try to change it.*/
 		USER_NAME_REJECTED,
 		/**User has been rejected by the server for unknown reason.*/
-		REJECTED
+		REJECTED,
+		/**User sent a message to a replica, which only serves history. Message has not been added.*/
+		READ_ONLY,
+		/**Answer to the search. Messages are the ones that have been found, not the latest ones.*/
+		QUERY_RESULT,
+		/**User's message has been accepted. State tells which one. It has messages only if user has missed some.*/
+		MESSAGE_ACCEPTED,
+		/**Direct messages of one conversation. Names are participants of the conversation, not logged in users.*/
+		DIRECT_MESSAGE,
+		/**User's message has been refused because the server is overloaded. State tells which one. Should try again later.*/
+		SERVER_OVERLOADED
 	}
 }
@@ -0,0 +1,57 @@
+package wzielin3.proz.server;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+/**
+ * Stream to which chat states are sent to one client. It tells chat states
+ * written to it if the client has agreed to receive compressed messages, and how
+ * large messages have to be to be compressed. Compression is agreed when the client
+ * logs in, so clients that don't know it still receive uncompressed states.
+ * 
+ * @author Wojciech Zieliński
+ */
+public class ChatStateOutputStream extends ObjectOutputStream
+{
+	/**number of bytes from which messages and names are compressed. -1 if they are never compressed*/
+	private final int compressionThreshold;
+	/**boolean value telling if the client has agreed to receive compressed states*/
+	private volatile boolean isCompressing;
+	
+	/**
+	 * Constructor that creates stream that doesn't compress until the client agrees to it.
+	 * 
+	 * @param out stream to which states are written
+	 * @param compressionThreshold number of bytes from which messages and names are compressed.
+	 * -1 if they are never compressed.
+	 * @throws IOException if stream header can't be written
+	 */
+	public ChatStateOutputStream(final OutputStream out, final int compressionThreshold) throws IOException
+	{
+		super(out);
+		this.compressionThreshold = compressionThreshold;
+		isCompressing = false;
+	}
+	
+	/**
+	 * Method that sets if the client has agreed to receive compressed states.
+	 * 
+	 * @param isCompressing true if the client can decompress states
+	 */
+	public void setCompressing(final boolean isCompressing)
+	{
+		this.isCompressing = isCompressing;
+	}
+	
+	/**
+	 * Method that checks if messages and names of given size should be compressed.
+	 * 
+	 * @param length number of bytes of encoded messages and names
+	 * @return true if they should be compressed
+	 */
+	boolean shouldCompress(final int length)
+	{
+		return isCompressing && compressionThreshold >= 0 && length >= compressionThreshold;
+	}
+}
@@ -0,0 +1,105 @@
+package wzielin3.proz.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Class that compresses encoded messages and names of chat states with DEFLATE.
+ * Both sides use the same preset dictionary of words common in chat, so even
+ * states that have few messages compress well - DEFLATE can refer to the dictionary
+ * before it has seen any repetitions in the data.
+ * 
+ * @author Wojciech Zieliński
+ */
+class PayloadCompression
+{
+	/**
+	 * Preset dictionary shared by the server and the client. It must never change
+	 * without changing serialVersionUID of ChatState. Most common words are at the end,
+	 * because DEFLATE refers to the end of the dictionary with the shortest distances.
+	 */
+	private static final byte[] DICTIONARY = ("Server has been created "
+			+ "http://www. https://www. .com .org .pl :) :( :D ;) xD haha lol ok okay thanks thank you "
+			+ "please sorry hello hi hey yes yeah no nope maybe today tomorrow yesterday tonight morning "
+			+ "good great nice cool right really sure well think know want need going about "
+			+ "what when where which there their they them then than this that with have from "
+			+ "would could should will just like your you're don't can't it's I'm "
+			+ "the and for are but not you all any can her was one our out get has him his how "
+			+ "now see who did its let say she too use is it in of to a I ").getBytes(StandardCharsets.UTF_8);
+	/**compression level - compressing once per state is cheap compared to writing to every client*/
+	private static final int LEVEL = Deflater.BEST_SPEED;
+	
+	/**
+	 * Method that compresses bytes.
+	 * 
+	 * @param data bytes to be compressed
+	 * @return compressed bytes
+	 */
+	static byte[] compress(final byte[] data)
+	{
+		final Deflater deflater = new Deflater(LEVEL, true);
+		try
+		{
+			deflater.setDictionary(DICTIONARY);
+			deflater.setInput(data);
+			deflater.finish();
+			final ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 64);
+			final byte[] buffer = new byte[8192];
+			while(deflater.finished() == false)
+			{
+				out.write(buffer, 0, deflater.deflate(buffer));
+			}
+			return out.toByteArray();
+		}
+		finally
+		{
+			deflater.end();
+		}
+	}
+	
+	/**
+	 * Method that decompresses bytes created by compress() method.
+	 * 
+	 * @param compressed compressed bytes
+	 * @param data array of the size of decompressed bytes, to which they are written
+	 * @throws IOException if bytes are not properly compressed or have other size
+	 */
+	static void decompress(final byte[] compressed, final byte[] data) throws IOException
+	{
+		final Inflater inflater = new Inflater(true);
+		try
+		{
+			inflater.setDictionary(DICTIONARY);
+			//raw inflater needs one byte after the data to finish
+			final byte[] input = new byte[compressed.length + 1];
+			System.arraycopy(compressed, 0, input, 0, compressed.length);
+			inflater.setInput(input);
+			int length = 0;
+			while(length < data.length)
+			{
+				final int inflated = inflater.inflate(data, length, data.length - length);
+				if(inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+				{
+					break;
+				}
+				length += inflated;
+			}
+			if(length != data.length || inflater.finished() == false)
+			{
+				throw new IOException("Compressed messages have wrong size");
+			}
+		}
+		catch (final DataFormatException e)
+		{
+			throw new IOException("Compressed messages are corrupted", e);
+		}
+		finally
+		{
+			inflater.end();
+		}
+	}
+}
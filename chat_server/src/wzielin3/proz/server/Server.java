@@ -1,30 +1,255 @@
 package wzielin3.proz.server;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import wzielin3.proz.server.attachment.AttachmentServer;
+import wzielin3.proz.server.attachment.AttachmentStore;
+import wzielin3.proz.server.config.ConfigurationException;
+import wzielin3.proz.server.config.ServerConfiguration;
+import wzielin3.proz.server.config.ServerConfiguration.ServerRole;
+import wzielin3.proz.server.config.ServerConfiguration.TransportMode;
+import wzielin3.proz.server.cluster.ClusterNode;
 import wzielin3.proz.server.controller.Controller;
+import wzielin3.proz.server.controller.EventIntake;
 import wzielin3.proz.server.events.ApplicationEvent;
+import wzielin3.proz.server.events.ShutdownEvent;
 import wzielin3.proz.server.model.ServerModel;
+import wzielin3.proz.server.network.LoopbackTransport;
 import wzielin3.proz.server.network.ServerNetworkManager;
+import wzielin3.proz.server.replica.LogTailer;
 import wzielin3.proz.server.view.View;
 
 /**
  * Class responsible for creating all objects that the server composes of.
+ * Server can be started from command line (configuration is read from
+ * arguments, environment and properties file, port is asked in console only
+ * if it's not configured) or embedded, e.g. with loopback transport in tests.
  * 
- * @author Wojciech Zieliski
+ * @author Wojciech Zieliński
  */
 public class Server
 {
-	public static void main(final String[] args)
+	/**queue from which controller reads events*/
+	private final BlockingQueue<ApplicationEvent> blockingQueue;
+	/**network manager of this server*/
+	private final ServerNetworkManager networkManager;
+	/**controller of this server*/
+	private final Controller controller;
+	/**model of this server*/
+	private final ServerModel model;
+	/**time in milliseconds the server waits for orderly shutdown*/
+	private final int shutdownTimeoutMillis;
+	/**connection with other server nodes. null if server works alone*/
+	private final ClusterNode clusterNode;
+	/**thread that follows the log of the primary. null if this server is not a replica*/
+	private final LogTailer logTailer;
+	/**thread that transfers attachments. null if attachments are not accepted*/
+	private AttachmentServer attachmentServer;
+	
+	/**
+	 * Constructor that creates the server from already created network manager.
+	 * 
+	 * @param configuration configuration of the server
+	 * @param blockingQueue queue from which controller reads events. The same queue
+	 * should be used by network manager.
+	 * @param networkManager network manager of this server
+	 */
+	public Server(final ServerConfiguration configuration,
+			final BlockingQueue<ApplicationEvent> blockingQueue, final ServerNetworkManager networkManager)
+	{
+		this(configuration, blockingQueue, networkManager, null);
+	}
+	
+	/**
+	 * Constructor that creates the server as one of nodes sharing the chat room.
+	 * 
+	 * @param configuration configuration of the server
+	 * @param blockingQueue queue from which controller reads events. The same queue
+	 * should be used by network manager and cluster node.
+	 * @param networkManager network manager of this server
+	 * @param clusterNode connection with other server nodes. null if server works alone.
+	 */
+	public Server(final ServerConfiguration configuration,
+			final BlockingQueue<ApplicationEvent> blockingQueue, final ServerNetworkManager networkManager,
+			final ClusterNode clusterNode)
+	{
+		this.clusterNode = clusterNode;
+		this.blockingQueue = blockingQueue;
+		this.networkManager = networkManager;
+		shutdownTimeoutMillis = configuration.getShutdownTimeoutMillis();
+		model = new ServerModel(configuration);
+		controller = new Controller(blockingQueue, networkManager, model, clusterNode,
+				Controller.newSearchExecutor(configuration.getSearchThreads()));
+		logTailer = configuration.getServerRole() == ServerRole.REPLICA
+				? new LogTailer(new File(configuration.getHistoryLogFile()),
+						configuration.getReplicaPollMillis(), blockingQueue)
+				: null;
+	}
+	
+	/**
+	 * Method that creates the server with network manager chosen by the configuration.
+	 * 
+	 * @param configuration configuration of the server
+	 * @return created server
+	 * @throws IOException when ServerSocket can't be created on configured port,
+	 * saved history or the log can't be loaded, connection with the relay can't be made
+	 * or attachments can't be stored
+	 */
+	public static Server create(final ServerConfiguration configuration) throws IOException
+	{
+		final BlockingQueue<ApplicationEvent> blockingQueue = new EventIntake(configuration);
+		final ServerNetworkManager networkManager;
+		if(configuration.getTransportMode() == TransportMode.LOOPBACK)
+		{
+			networkManager = new ServerNetworkManager(configuration, blockingQueue);
+		}
+		else if(configuration.hasPort())
+		{
+			networkManager = new ServerNetworkManager(configuration.getPort(), configuration, blockingQueue);
+		}
+		else
+		{
+			networkManager = new View(configuration, blockingQueue).getServerNetworkManagerFromConsole();
+		}
+		ClusterNode clusterNode = null;
+		if(configuration.hasClusterRelay())
+		{
+			clusterNode = new ClusterNode(configuration.getClusterNodeId(),
+					configuration.getClusterRelayHost(), configuration.getClusterRelayPort(), blockingQueue);
+		}
+		final Server server = new Server(configuration, blockingQueue, networkManager, clusterNode);
+		server.model.loadSnapshot();
+		server.model.openLog();
+		if(configuration.hasAttachmentPort())
+		{
+			final AttachmentStore store = new AttachmentStore(new File(configuration.getAttachmentDirectory()));
+			server.attachmentServer = new AttachmentServer(configuration.getAttachmentPort(), store, configuration);
+			server.model.setAttachmentStore(store, server.attachmentServer.getPort());
+		}
+		return server;
+	}
+	
+	/**
+	 * Method that returns transport that connects simulated clients to this server in memory.
+	 * 
+	 * @return transport that connects simulated clients to this server in memory
+	 */
+	public LoopbackTransport getLoopbackTransport()
+	{
+		return new LoopbackTransport(networkManager, blockingQueue);
+	}
+	
+	/**
+	 * Method that returns number of messages from users that have been accepted.
+	 * 
+	 * @return number of accepted messages
+	 */
+	public long getAcceptedMessageCount()
+	{
+		return model.getAcceptedMessageCount();
+	}
+	
+	/**
+	 * Method that returns number of messages from users that have been rejected,
+	 * because users hadn't received the latest messages.
+	 * 
+	 * @return number of rejected messages
+	 */
+	public long getRejectedMessageCount()
+	{
+		return model.getRejectedMessageCount();
+	}
+	
+	/**
+	 * Method that starts accepting clients. After it returns the server is ready
+	 * for connections, but events are handled only after run() is invoked.
+	 */
+	public void start()
 	{
-		final BlockingQueue<ApplicationEvent> blockingQueue =
-				new LinkedBlockingQueue<ApplicationEvent>();
-		final ServerNetworkManager networkManager = new View(blockingQueue).getServerNetworkManagerFromConsole();
-		final ServerModel model = new ServerModel();
-		final Controller controller = new Controller(blockingQueue, networkManager, model);
+		if(clusterNode != null)
+		{
+			clusterNode.start();
+		}
+		if(logTailer != null)
+		{
+			logTailer.start();
+		}
+		if(attachmentServer != null)
+		{
+			attachmentServer.start();
+		}
 		networkManager.start();
-		System.out.println("Server Running");
+	}
+	
+	/**
+	 * Method that handles events. It returns when controller stops.
+	 */
+	public void run()
+	{
 		controller.start();
+	}
+	
+	/**
+	 * Method that stops the server in orderly way: it stops accepting clients,
+	 * handles events that are already in the queue, logs out all clients and
+	 * saves the history. It waits until controller stops, but not longer than
+	 * configured shutdown timeout.
+	 * 
+	 * @return true if the server has stopped in time
+	 */
+	public boolean shutdown()
+	{
+		if(logTailer != null)
+		{
+			logTailer.close();
+		}
+		if(attachmentServer != null)
+		{
+			attachmentServer.close();
+		}
+		try
+		{
+			blockingQueue.put(new ShutdownEvent());
+			return controller.awaitStop(shutdownTimeoutMillis);
+		}
+		catch (final InterruptedException e)
+		{
+			return false;
+		}
+	}
+	
+	public static void main(final String[] args)
+	{
+		final long startTime = System.nanoTime();
+		final Server server;
+		try
+		{
+			server = create(ServerConfiguration.load(args, System.getenv()));
+		}
+		catch (final ConfigurationException e)
+		{
+			System.out.println("Wrong configuration: " + e.getMessage());
+			return;
+		}
+		catch (final IOException e)
+		{
+			//port, files of the history, relay and attachments can fail, so the cause is shown as it is
+			System.out.println("Couldn't create server: " + e);
+			return;
+		}
+		Runtime.getRuntime().addShutdownHook(new Thread()
+		{
+			@Override
+			public void run()
+			{
+				server.shutdown();
+			}
+		});
+		server.start();
+		System.out.println("Server Running (ready in "
+				+ (System.nanoTime() - startTime) / 1000000 + " ms)");
+		server.run();
 		System.out.println("Server stopped");
 	}
 }
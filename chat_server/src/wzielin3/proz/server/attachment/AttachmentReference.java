@@ -0,0 +1,128 @@
+package wzielin3.proz.server.attachment;
+
+/**
+ * Reference to a file stored by the attachment server. Chat messages carry only
+ * the reference as their content - the file itself is uploaded and downloaded over
+ * a separate connection, so large files never delay ordinary messages.
+ * 
+ * @author Wojciech Zieliński
+ */
+public class AttachmentReference
+{
+	/**prefix of the content of a message that carries a reference*/
+	public static final String PREFIX = "/attachment ";
+	/**number of characters of hexadecimal SHA-256 hash*/
+	private static final int HASH_LENGTH = 64;
+	/**hexadecimal SHA-256 hash of the file*/
+	private final String hash;
+	/**size of the file in bytes*/
+	private final long size;
+	/**name of the file given by the user who has uploaded it*/
+	private final String name;
+	
+	/**
+	 * Constructor that creates reference to a stored file.
+	 * 
+	 * @param hash hexadecimal SHA-256 hash of the file
+	 * @param size size of the file in bytes
+	 * @param name name of the file given by the user who has uploaded it
+	 */
+	public AttachmentReference(final String hash, final long size, final String name)
+	{
+		this.hash = hash;
+		this.size = size;
+		this.name = name;
+	}
+	
+	/**
+	 * Method that reads reference from the content of a message.
+	 * 
+	 * @param content content of a message
+	 * @return reference carried by the message. null if the message is an ordinary one.
+	 */
+	public static AttachmentReference fromContent(final String content)
+	{
+		if(content == null || content.startsWith(PREFIX) == false)
+		{
+			return null;
+		}
+		final String[] parts = content.substring(PREFIX.length()).split(" ", 3);
+		if(parts.length < 3 || isValidHash(parts[0]) == false)
+		{
+			return null;
+		}
+		try
+		{
+			final long size = Long.parseLong(parts[1]);
+			return size < 0 ? null : new AttachmentReference(parts[0], size, parts[2]);
+		}
+		catch (final NumberFormatException e)
+		{
+			return null;
+		}
+	}
+	
+	/**
+	 * Method that checks if text is hexadecimal SHA-256 hash. Only such names
+	 * are used for stored files, so no other file can be read through a reference.
+	 * 
+	 * @param hash text to be checked
+	 * @return true if text has 64 lower case hexadecimal digits
+	 */
+	public static boolean isValidHash(final String hash)
+	{
+		if(hash == null || hash.length() != HASH_LENGTH)
+		{
+			return false;
+		}
+		for (int i = 0; i < hash.length(); ++i)
+		{
+			final char c = hash.charAt(i);
+			if((c < '0' || c > '9') && (c < 'a' || c > 'f'))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Method that returns content of the message that carries this reference.
+	 * 
+	 * @return content of the message
+	 */
+	public String toContent()
+	{
+		return PREFIX + hash + " " + size + " " + name;
+	}
+	
+	/**
+	 * Method that returns hexadecimal SHA-256 hash of the file.
+	 * 
+	 * @return hash of the file
+	 */
+	public String getHash()
+	{
+		return hash;
+	}
+	
+	/**
+	 * Method that returns size of the file in bytes.
+	 * 
+	 * @return size of the file in bytes
+	 */
+	public long getSize()
+	{
+		return size;
+	}
+	
+	/**
+	 * Method that returns name of the file given by the user who has uploaded it.
+	 * 
+	 * @return name of the file
+	 */
+	public String getName()
+	{
+		return name;
+	}
+}
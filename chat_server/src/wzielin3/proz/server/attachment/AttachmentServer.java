@@ -0,0 +1,371 @@
+package wzielin3.proz.server.attachment;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import wzielin3.proz.server.config.ServerConfiguration;
+
+/**
+ * Thread that accepts connections on which files are uploaded and downloaded.
+ * Files are transferred on a port separate from the chat connection and by
+ * a separate pool of threads, so neither the controller nor any chat connection
+ * waits for them. Every connection transfers one file:
+ * 
+ * upload - client sends UPLOAD, name and size of the file, and waits for GRANT
+ * of the first WINDOW_CHUNKS chunks (or ERROR if the file is too large). Then it sends
+ * chunks of at most CHUNK_BYTES, each preceded by its length, and zero length at the end.
+ * Client sends only as many chunks as it has been granted. Server grants more when
+ * chunks have been written to disk, so a client never sends faster than the server
+ * stores. Server answers with OK, hash and size of the file, or ERROR and the reason.
+ * 
+ * download - client sends DOWNLOAD and hash of the file. Server answers with OK
+ * and size of the file, followed by the file sent straight from the disk to the socket
+ * with FileChannel.transferTo(), or ERROR and the reason.
+ * 
+ * @author Wojciech Zieliński
+ */
+public class AttachmentServer extends Thread
+{
+	/**command that starts upload*/
+	public static final byte UPLOAD = 'U';
+	/**command that starts download*/
+	public static final byte DOWNLOAD = 'D';
+	/**answer that tells that transfer has succeeded*/
+	public static final byte OK = 0;
+	/**answer that tells that transfer has failed, followed by the reason*/
+	public static final byte ERROR = 1;
+	/**answer that allows client to send more chunks, followed by their number*/
+	public static final byte GRANT = 2;
+	/**maximum number of bytes in one chunk of an upload*/
+	public static final int CHUNK_BYTES = 64 * 1024;
+	/**number of chunks client may send before it's given more*/
+	public static final int WINDOW_CHUNKS = 16;
+	/**channel on which connections are accepted*/
+	private final ServerSocketChannel serverChannel;
+	/**store of uploaded files*/
+	private final AttachmentStore store;
+	/**maximum size of uploaded file in bytes*/
+	private final long maxBytes;
+	/**time in milliseconds after which connection that sends nothing is closed*/
+	private final int timeoutMillis;
+	/**threads that transfer files*/
+	private final ExecutorService transfers;
+	/**boolean value telling if new connections should be accepted. set to false on close()*/
+	private volatile boolean keepAccepting;
+	
+	/**
+	 * Constructor that starts listening on given port. To start accepting
+	 * connections the start() method needs to be invoked.
+	 * 
+	 * @param port port on which connections are accepted. 0 if any free port should be used.
+	 * @param store store of uploaded files
+	 * @param configuration configuration of the server
+	 * @throws IOException when port can't be used
+	 */
+	public AttachmentServer(final int port, final AttachmentStore store,
+			final ServerConfiguration configuration) throws IOException
+	{
+		super("attachments");
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.bind(new InetSocketAddress(port));
+		this.store = store;
+		maxBytes = configuration.getAttachmentMaxBytes();
+		timeoutMillis = configuration.getAttachmentTimeoutMillis();
+		transfers = Executors.newFixedThreadPool(configuration.getAttachmentThreads(), new ThreadFactory()
+		{
+			@Override
+			public Thread newThread(final Runnable runnable)
+			{
+				final Thread thread = new Thread(runnable, "attachment transfer");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		keepAccepting = true;
+		setDaemon(true);
+	}
+	
+	/**
+	 * Method that returns port on which connections are accepted.
+	 * 
+	 * @return port on which connections are accepted
+	 */
+	public int getPort()
+	{
+		return serverChannel.socket().getLocalPort();
+	}
+	
+	/**
+	 * Method that stops accepting connections and stops transfers.
+	 */
+	public void close()
+	{
+		keepAccepting = false;
+		try
+		{
+			serverChannel.close();
+		}
+		catch (final IOException e)
+		{
+		}
+		transfers.shutdownNow();
+	}
+	
+	/**
+	 * Method that accepts connections and hands them to transfer threads.
+	 */
+	@Override
+	public void run()
+	{
+		while(keepAccepting)
+		{
+			final SocketChannel channel;
+			try
+			{
+				channel = serverChannel.accept();
+			}
+			catch (final IOException e)
+			{
+				continue;
+			}
+			try
+			{
+				transfers.execute(new Transfer(channel));
+			}
+			catch (final RejectedExecutionException e)
+			{
+				close(channel);
+			}
+		}
+	}
+	
+	/**
+	 * Method that closes channel of a connection.
+	 * 
+	 * @param channel channel to be closed
+	 */
+	private static void close(final SocketChannel channel)
+	{
+		try
+		{
+			channel.close();
+		}
+		catch (final IOException e)
+		{
+		}
+	}
+	
+	/**
+	 * Method that receives uploaded file, stores it and sends its hash to the client.
+	 * 
+	 * @param input stream from which the upload is read
+	 * @param output stream to which answers are written
+	 * @throws IOException when connection or file fails
+	 */
+	private void upload(final DataInputStream input, final DataOutputStream output) throws IOException
+	{
+		input.readUTF(); //name is sent in the message, it's not needed to store the file
+		if(input.readLong() > maxBytes)
+		{
+			sendError(output, "File can't be larger than " + maxBytes + " bytes");
+			return;
+		}
+		output.writeByte(GRANT);
+		output.writeInt(WINDOW_CHUNKS);
+		output.flush();
+		final MessageDigest digest = newDigest();
+		final File temporaryFile = store.createTemporaryFile();
+		boolean isStored = false;
+		try
+		{
+			long size = 0;
+			try (final FileOutputStream file = new FileOutputStream(temporaryFile))
+			{
+				final byte[] chunk = new byte[CHUNK_BYTES];
+				int chunks = 0;
+				int length;
+				while((length = input.readInt()) != 0)
+				{
+					if(length < 0 || length > CHUNK_BYTES || size + length > maxBytes)
+					{
+						sendError(output, "File can't be larger than " + maxBytes + " bytes");
+						return;
+					}
+					input.readFully(chunk, 0, length);
+					file.write(chunk, 0, length);
+					digest.update(chunk, 0, length);
+					size += length;
+					if(++chunks % (WINDOW_CHUNKS / 2) == 0)
+					{
+						output.writeByte(GRANT);
+						output.writeInt(WINDOW_CHUNKS / 2);
+						output.flush();
+					}
+				}
+			}
+			final String hash = toHex(digest.digest());
+			store.store(temporaryFile, hash);
+			isStored = true;
+			output.writeByte(OK);
+			output.writeUTF(hash);
+			output.writeLong(size);
+			output.flush();
+		}
+		finally
+		{
+			if(isStored == false)
+			{
+				temporaryFile.delete();
+			}
+		}
+	}
+	
+	/**
+	 * Method that sends stored file to the client. File is sent with transferTo(),
+	 * so its bytes don't have to be copied through the memory of this process.
+	 * 
+	 * @param input stream from which the hash is read
+	 * @param output stream to which the answer is written
+	 * @param channel channel to which the file is sent
+	 * @throws IOException when connection or file fails
+	 */
+	private void download(final DataInputStream input, final DataOutputStream output,
+			final SocketChannel channel) throws IOException
+	{
+		final File file = store.getFile(input.readUTF());
+		if(file == null || file.isFile() == false)
+		{
+			sendError(output, "There is no such attachment");
+			return;
+		}
+		try (final FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+		{
+			final long size = fileChannel.size();
+			output.writeByte(OK);
+			output.writeLong(size);
+			output.flush();
+			long position = 0;
+			while(position < size)
+			{
+				position += fileChannel.transferTo(position, size - position, channel);
+			}
+		}
+	}
+	
+	/**
+	 * Method that sends to the client the reason why transfer has failed.
+	 * 
+	 * @param output stream to which the answer is written
+	 * @param reason reason of the failure
+	 * @throws IOException when connection fails
+	 */
+	private static void sendError(final DataOutputStream output, final String reason) throws IOException
+	{
+		output.writeByte(ERROR);
+		output.writeUTF(reason);
+		output.flush();
+	}
+	
+	/**
+	 * Method that creates digest that computes hashes of files.
+	 * 
+	 * @return SHA-256 digest
+	 */
+	private static MessageDigest newDigest()
+	{
+		try
+		{
+			return MessageDigest.getInstance("SHA-256");
+		}
+		catch (final NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException("Every Java platform has SHA-256", e);
+		}
+	}
+	
+	/**
+	 * Method that writes bytes as lower case hexadecimal digits.
+	 * 
+	 * @param bytes bytes to be written
+	 * @return hexadecimal text
+	 */
+	private static String toHex(final byte[] bytes)
+	{
+		final StringBuilder builder = new StringBuilder(bytes.length * 2);
+		for (final byte b : bytes)
+		{
+			builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return builder.toString();
+	}
+	
+	/**
+	 * Task that handles one connection: reads the command and transfers the file.
+	 * 
+	 * @author Wojciech Zieliński
+	 */
+	private class Transfer implements Runnable
+	{
+		/**channel of the connection*/
+		private final SocketChannel channel;
+		
+		/**
+		 * Constructor that creates task for given connection.
+		 * 
+		 * @param channel channel of the connection
+		 */
+		public Transfer(final SocketChannel channel)
+		{
+			this.channel = channel;
+		}
+		
+		@Override
+		public void run()
+		{
+			try
+			{
+				channel.socket().setSoTimeout(timeoutMillis);
+				final DataInputStream input = new DataInputStream(
+						new BufferedInputStream(channel.socket().getInputStream()));
+				final DataOutputStream output = new DataOutputStream(
+						new BufferedOutputStream(channel.socket().getOutputStream()));
+				final byte command = input.readByte();
+				if(command == UPLOAD)
+				{
+					upload(input, output);
+				}
+				else if(command == DOWNLOAD)
+				{
+					download(input, output, channel);
+				}
+				else
+				{
+					sendError(output, "Unknown command");
+				}
+			}
+			catch (final IOException e)
+			{
+				//only this transfer fails
+			}
+			finally
+			{
+				close(channel);
+			}
+		}
+	}
+}
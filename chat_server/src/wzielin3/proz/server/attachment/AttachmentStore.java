@@ -0,0 +1,100 @@
+package wzielin3.proz.server.attachment;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Store of uploaded files addressed by their content. Every file is kept in
+ * the directory of the store under its SHA-256 hash, so the same file uploaded
+ * many times is stored once. Files are first written to temporary files
+ * and moved under their names only when they are complete, so a file that can
+ * be found by its hash is never partly written.
+ * 
+ * @author Wojciech Zieliński
+ */
+public class AttachmentStore
+{
+	/**suffix of files that are being uploaded*/
+	private static final String TEMPORARY_SUFFIX = ".part";
+	/**directory in which files are stored*/
+	private final File directory;
+	
+	/**
+	 * Constructor that opens store in given directory. Directory is created
+	 * if it doesn't exist, and files of uploads that have been interrupted are deleted.
+	 * 
+	 * @param directory directory in which files are stored
+	 * @throws IOException when directory can't be created
+	 */
+	public AttachmentStore(final File directory) throws IOException
+	{
+		this.directory = directory;
+		if(directory.isDirectory() == false && directory.mkdirs() == false)
+		{
+			throw new IOException("Can't create directory " + directory);
+		}
+		final File[] files = directory.listFiles();
+		for (final File file : files == null ? new File[0] : files)
+		{
+			if(file.getName().endsWith(TEMPORARY_SUFFIX))
+			{
+				file.delete();
+			}
+		}
+	}
+	
+	/**
+	 * Method that checks if file with given hash and size is stored.
+	 * 
+	 * @param reference reference to the file
+	 * @return true if the file is stored
+	 */
+	public boolean contains(final AttachmentReference reference)
+	{
+		final File file = getFile(reference.getHash());
+		return file != null && file.isFile() && file.length() == reference.getSize();
+	}
+	
+	/**
+	 * Method that returns stored file with given hash.
+	 * 
+	 * @param hash hexadecimal SHA-256 hash of the file
+	 * @return the file, which may not exist. null if hash is not valid.
+	 */
+	public File getFile(final String hash)
+	{
+		return AttachmentReference.isValidHash(hash) ? new File(directory, hash) : null;
+	}
+	
+	/**
+	 * Method that creates temporary file to which an upload is written.
+	 * 
+	 * @return created file
+	 * @throws IOException when file can't be created
+	 */
+	File createTemporaryFile() throws IOException
+	{
+		return File.createTempFile("upload", TEMPORARY_SUFFIX, directory);
+	}
+	
+	/**
+	 * Method that stores complete upload under its hash. If the same file is
+	 * already stored, the upload is only deleted.
+	 * 
+	 * @param temporaryFile complete upload
+	 * @param hash hexadecimal SHA-256 hash of the upload
+	 * @throws IOException when file can't be moved
+	 */
+	void store(final File temporaryFile, final String hash) throws IOException
+	{
+		final File file = getFile(hash);
+		if(file.isFile())
+		{
+			Files.delete(temporaryFile.toPath());
+			return;
+		}
+		Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+	}
+}
@@ -0,0 +1,172 @@
+package wzielin3.proz.server.cluster;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+import java.util.concurrent.BlockingQueue;
+import wzielin3.proz.server.events.ApplicationEvent;
+import wzielin3.proz.server.events.ClusterDisconnectedEvent;
+import wzielin3.proz.server.events.ClusterRecordEvent;
+
+/**
+ * Connection of this server with the relay that connects server nodes sharing one
+ * chat room. Records published by the controller are sent to the relay, and records
+ * delivered by the relay (in global order) are sent to the controller's events queue
+ * as ClusterRecordEvents. When connection is lost ClusterDisconnectedEvent is sent after them.
+ * 
+ * @author Wojciech Zieliński
+ */
+public class ClusterNode extends Thread
+{
+	/**id of this node, unique in the cluster*/
+	private final String nodeId;
+	/**socket connected to the relay*/
+	private final Socket socket;
+	/**stream to which records are published*/
+	private final ObjectOutputStream objectOutputStream;
+	/**stream from which ordered records are read*/
+	private final ObjectInputStream objectInputStream;
+	/**queue to which received records are sent*/
+	private final BlockingQueue<ApplicationEvent> eventsQueue;
+	/**boolean value telling if connection with the relay works*/
+	private volatile boolean isConnected;
+	
+	/**
+	 * Constructor that connects this node to the relay. To start receiving records
+	 * start() method needs to be invoked.
+	 * 
+	 * @param nodeId id of this node, unique in the cluster
+	 * @param host host of the relay
+	 * @param port port of the relay
+	 * @param eventsQueue queue to which received records are sent
+	 * @throws IOException if connection with the relay can't be made
+	 */
+	public ClusterNode(final String nodeId, final String host, final int port,
+			final BlockingQueue<ApplicationEvent> eventsQueue) throws IOException
+	{
+		this.nodeId = nodeId;
+		this.eventsQueue = eventsQueue;
+		socket = new Socket(host, port);
+		socket.setTcpNoDelay(true);
+		objectOutputStream = new ObjectOutputStream(socket.getOutputStream());
+		objectOutputStream.flush();
+		objectInputStream = new ObjectInputStream(socket.getInputStream());
+		isConnected = true;
+		setDaemon(true);
+	}
+	
+	/**
+	 * Method that returns id of this node.
+	 * 
+	 * @return id of this node
+	 */
+	public String getNodeId()
+	{
+		return nodeId;
+	}
+	
+	/**
+	 * Method that returns boolean value telling if connection with the relay works.
+	 * 
+	 * @return true if connection with the relay works
+	 */
+	public boolean isConnected()
+	{
+		return isConnected;
+	}
+	
+	/**
+	 * Method that publishes record to all nodes. The record comes back to
+	 * this node from the relay, in global order.
+	 * 
+	 * @param type what the record describes
+	 * @param userName name of the user concerned by the record
+	 * @param content content of the message. null for presence records
+	 * @param sentTime time in milliseconds when the message was sent
+	 * @return true if record has been sent to the relay. false if connection doesn't work.
+	 */
+	public synchronized boolean publish(final ClusterRecord.Type type, final String userName,
+			final String content, final long sentTime)
+	{
+		if(isConnected == false)
+		{
+			return false;
+		}
+		try
+		{
+			objectOutputStream.writeObject(new ClusterRecord(type, nodeId, userName, content, sentTime));
+			objectOutputStream.reset();
+			objectOutputStream.flush();
+			return true;
+		}
+		catch (final IOException e)
+		{
+			close();
+			return false;
+		}
+	}
+	
+	/**
+	 * Method that closes connection with the relay.
+	 */
+	public void close()
+	{
+		isConnected = false;
+		try
+		{
+			socket.close();
+		}
+		catch (final IOException e)
+		{
+		}
+	}
+	
+	/**
+	 * Method that reads records delivered by the relay. Connection is closed also
+	 * when publishing fails, so reading ends then too.
+	 */
+	@Override
+	public void run()
+	{
+		while(isConnected)
+		{
+			try
+			{
+				final ClusterRecord record = (ClusterRecord) objectInputStream.readObject();
+				putEvent(new ClusterRecordEvent(record));
+			}
+			catch (final IOException | ClassNotFoundException | ClassCastException e)
+			{
+				if(isConnected)
+				{
+					System.out.println("Connection with relay has been lost");
+				}
+				close();
+			}
+		}
+		putEvent(new ClusterDisconnectedEvent());
+	}
+	
+	/**
+	 * Method that sends event to the controller's events queue. If the thread is
+	 * interrupted while waiting for room, the event is put again, so that no record is lost.
+	 * 
+	 * @param event event to be sent
+	 */
+	private void putEvent(final ApplicationEvent event)
+	{
+		while(true)
+		{
+			try
+			{
+				eventsQueue.put(event);
+				return;
+			}
+			catch (final InterruptedException e)
+			{
+				continue;
+			}
+		}
+	}
+}
@@ -0,0 +1,151 @@
+package wzielin3.proz.server.cluster;
+
+import java.io.Serializable;
+
+/**
+ * Record exchanged between server nodes through the relay. It describes
+ * a message accepted by one of the nodes or a change of presence of a user.
+ * Relay gives every record a global sequence number and delivers records to all
+ * nodes in the order of these numbers.
+ * 
+ * @author Wojciech Zieliński
+ */
+public class ClusterRecord implements Serializable
+{
+	/**serialVersionUID for this class*/
+	private static final long serialVersionUID = 1L;
+	/**what this record describes*/
+	private final Type type;
+	/**id of the node that has published this record*/
+	private final String nodeId;
+	/**name of the user concerned by this record*/
+	private final String userName;
+	/**content of the message. null for presence records*/
+	private final String content;
+	/**time in milliseconds when the message was sent*/
+	private final long sentTime;
+	/**global sequence number given by the relay. -1 before the record reaches the relay*/
+	private final long sequence;
+	
+	/**
+	 * Constructor that creates record that hasn't been sequenced yet.
+	 * 
+	 * @param type what this record describes
+	 * @param nodeId id of the node that publishes this record
+	 * @param userName name of the user concerned by this record
+	 * @param content content of the message. null for presence records
+	 * @param sentTime time in milliseconds when the message was sent
+	 */
+	public ClusterRecord(final Type type, final String nodeId, final String userName,
+			final String content, final long sentTime)
+	{
+		this(type, nodeId, userName, content, sentTime, -1);
+	}
+	
+	/**
+	 * Constructor that sets all values of the record.
+	 * 
+	 * @param type what this record describes
+	 * @param nodeId id of the node that publishes this record
+	 * @param userName name of the user concerned by this record
+	 * @param content content of the message. null for presence records
+	 * @param sentTime time in milliseconds when the message was sent
+	 * @param sequence global sequence number given by the relay
+	 */
+	private ClusterRecord(final Type type, final String nodeId, final String userName,
+			final String content, final long sentTime, final long sequence)
+	{
+		this.type = type;
+		this.nodeId = nodeId;
+		this.userName = userName;
+		this.content = content;
+		this.sentTime = sentTime;
+		this.sequence = sequence;
+	}
+	
+	/**
+	 * Method that returns copy of this record with given global sequence number.
+	 * 
+	 * @param sequence global sequence number
+	 * @return sequenced copy of this record
+	 */
+	ClusterRecord withSequence(final long sequence)
+	{
+		return new ClusterRecord(type, nodeId, userName, content, sentTime, sequence);
+	}
+	
+	/**
+	 * Method that returns what this record describes.
+	 * 
+	 * @return what this record describes
+	 */
+	public Type getType()
+	{
+		return type;
+	}
+	
+	/**
+	 * Method that returns id of the node that has published this record.
+	 * 
+	 * @return id of the node that has published this record
+	 */
+	public String getNodeId()
+	{
+		return nodeId;
+	}
+	
+	/**
+	 * Method that returns name of the user concerned by this record.
+	 * 
+	 * @return name of the user concerned by this record
+	 */
+	public String getUserName()
+	{
+		return userName;
+	}
+	
+	/**
+	 * Method that returns content of the message.
+	 * 
+	 * @return content of the message. null for presence records
+	 */
+	public String getContent()
+	{
+		return content;
+	}
+	
+	/**
+	 * Method that returns time in milliseconds when the message was sent.
+	 * 
+	 * @return time in milliseconds when the message was sent
+	 */
+	public long getSentTime()
+	{
+		return sentTime;
+	}
+	
+	/**
+	 * Method that returns global sequence number given by the relay.
+	 * 
+	 * @return global sequence number. -1 if record hasn't reached the relay.
+	 */
+	public long getSequence()
+	{
+		return sequence;
+	}
+	
+	/**
+	 * Enumeration of things that a record can describe.
+	 * 
+	 * @author Wojciech Zieliński
+	 */
+	public enum Type
+	{
+		/**Message accepted by one of the nodes.*/
+		MESSAGE,
+		/**User has logged in to one of the nodes.*/
+		USER_JOINED,
+		/**User has logged out from one of the nodes.*/
+		USER_LEFT
+	}
+}
@@ -0,0 +1,339 @@
+package wzielin3.proz.server.cluster;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Lightweight broker that connects server nodes sharing one chat room.
+ * Every record published by a node gets next global sequence number and is
+ * delivered to all nodes (including the one that published it) in the order of these
+ * numbers, so all nodes apply messages and presence changes in the same order.
+ * Relay remembers which users are logged in to which node: a node that connects
+ * receives presence of all users, and when a node disconnects its users are logged out
+ * on all other nodes. Every node has its own queue of records to send and thread that
+ * writes them, so node that reads slowly doesn't delay delivery to other nodes.
+ * It can be run as a separate process or started in a test.
+ * 
+ * @author Wojciech Zieliński
+ */
+public class Relay extends Thread
+{
+	/**maximum number of records waiting to be sent to one node. Node that falls further behind is disconnected*/
+	private static final int MAX_QUEUED_RECORDS = 100000;
+	/**socket on which nodes connect*/
+	private final ServerSocket serverSocket;
+	/**connections with all nodes*/
+	private final List<NodeConnection> nodes;
+	/**names of users logged in to each node, by node id*/
+	private final Map<String, Set<String>> nodeIdToUserNamesMap;
+	/**sequence number that will be given to next record*/
+	private long nextSequence;
+	
+	/**
+	 * Constructor that creates the relay listening on given port.
+	 * To start accepting nodes start() method needs to be invoked.
+	 * 
+	 * @param port port on which nodes connect
+	 * @throws IOException if ServerSocket can't be created
+	 */
+	public Relay(final int port) throws IOException
+	{
+		serverSocket = new ServerSocket(port);
+		nodes = new ArrayList<NodeConnection>();
+		nodeIdToUserNamesMap = new HashMap<String, Set<String>>();
+		nextSequence = 0;
+	}
+	
+	/**
+	 * Method that returns port on which nodes connect.
+	 * 
+	 * @return port on which nodes connect
+	 */
+	public int getPort()
+	{
+		return serverSocket.getLocalPort();
+	}
+	
+	/**
+	 * Method that stops the relay and disconnects all nodes.
+	 */
+	public void close()
+	{
+		try
+		{
+			serverSocket.close();
+		}
+		catch (final IOException e)
+		{
+		}
+		synchronized (this)
+		{
+			for (final NodeConnection node : nodes)
+			{
+				node.close();
+			}
+			nodes.clear();
+		}
+	}
+	
+	/**
+	 * Method that accepts nodes.
+	 */
+	@Override
+	public void run()
+	{
+		while(serverSocket.isClosed() == false)
+		{
+			try
+			{
+				final NodeConnection node = new NodeConnection(serverSocket.accept());
+				node.start();
+			}
+			catch (final IOException e)
+			{
+				continue;
+			}
+		}
+	}
+	
+	/**
+	 * Method that gives record next sequence number and queues it to be sent to all nodes.
+	 * Presence of users is updated.
+	 * 
+	 * @param record record published by one of the nodes
+	 */
+	private synchronized void publish(final ClusterRecord record)
+	{
+		final ClusterRecord sequencedRecord = record.withSequence(nextSequence++);
+		if(record.getType() == ClusterRecord.Type.USER_JOINED)
+		{
+			getUserNames(record.getNodeId()).add(record.getUserName());
+		}
+		else if(record.getType() == ClusterRecord.Type.USER_LEFT)
+		{
+			getUserNames(record.getNodeId()).remove(record.getUserName());
+		}
+		for (final NodeConnection node : new ArrayList<NodeConnection>(nodes))
+		{
+			node.send(sequencedRecord);
+		}
+	}
+	
+	/**
+	 * Method that returns set of names of users logged in to given node.
+	 * 
+	 * @param nodeId id of the node
+	 * @return set of names of users logged in to the node
+	 */
+	private Set<String> getUserNames(final String nodeId)
+	{
+		Set<String> userNames = nodeIdToUserNamesMap.get(nodeId);
+		if(userNames == null)
+		{
+			userNames = new HashSet<String>();
+			nodeIdToUserNamesMap.put(nodeId, userNames);
+		}
+		return userNames;
+	}
+	
+	/**
+	 * Method that adds newly connected node and queues presence of all users to be sent to it.
+	 * 
+	 * @param node newly connected node
+	 */
+	private synchronized void addNode(final NodeConnection node)
+	{
+		for (final Map.Entry<String, Set<String>> entry : nodeIdToUserNamesMap.entrySet())
+		{
+			for (final String userName : entry.getValue())
+			{
+				node.send(new ClusterRecord(ClusterRecord.Type.USER_JOINED, entry.getKey(),
+						userName, null, System.currentTimeMillis()).withSequence(nextSequence - 1));
+			}
+		}
+		nodes.add(node);
+	}
+	
+	/**
+	 * Method that removes disconnected node and logs out its users on all other nodes.
+	 * 
+	 * @param node disconnected node
+	 */
+	private synchronized void removeNode(final NodeConnection node)
+	{
+		if(nodes.remove(node) == false || node.nodeId == null)
+		{
+			return;
+		}
+		final Set<String> userNames = nodeIdToUserNamesMap.remove(node.nodeId);
+		if(userNames == null)
+		{
+			return;
+		}
+		for (final String userName : userNames)
+		{
+			publish(new ClusterRecord(ClusterRecord.Type.USER_LEFT, node.nodeId,
+					userName, null, System.currentTimeMillis()));
+		}
+	}
+	
+	/**
+	 * Connection with one node. Its thread reads records published by the node,
+	 * and its writer thread sends records queued for the node.
+	 * 
+	 * @author Wojciech Zieliński
+	 */
+	private class NodeConnection extends Thread
+	{
+		/**socket of the connection*/
+		private final Socket socket;
+		/**stream to which records are sent*/
+		private final ObjectOutputStream objectOutputStream;
+		/**stream from which records are read*/
+		private final ObjectInputStream objectInputStream;
+		/**id of the node. Known after the first record. Used only by this thread and under relay lock*/
+		private volatile String nodeId;
+		/**records waiting to be sent to the node*/
+		private final BlockingQueue<ClusterRecord> outboundQueue;
+		/**thread that sends queued records to the node*/
+		private final Thread writer;
+		
+		/**
+		 * Constructor that creates streams of the connection.
+		 * 
+		 * @param socket socket of the connection
+		 * @throws IOException if streams can't be created
+		 */
+		public NodeConnection(final Socket socket) throws IOException
+		{
+			this.socket = socket;
+			objectOutputStream = new ObjectOutputStream(socket.getOutputStream());
+			objectOutputStream.flush();
+			objectInputStream = new ObjectInputStream(socket.getInputStream());
+			nodeId = null;
+			outboundQueue = new LinkedBlockingQueue<ClusterRecord>(MAX_QUEUED_RECORDS);
+			writer = new Thread()
+			{
+				@Override
+				public void run()
+				{
+					writeRecords();
+				}
+			};
+		}
+		
+		/**
+		 * Method that queues record to be sent to the node. Invoked under relay lock,
+		 * so it never waits for the network. If the node has fallen too far behind,
+		 * connection is closed instead.
+		 * 
+		 * @param record record to be sent
+		 */
+		public void send(final ClusterRecord record)
+		{
+			if(outboundQueue.offer(record) == false)
+			{
+				//reading thread detects closed connection and removes the node
+				close();
+			}
+		}
+		
+		/**
+		 * Method invoked by the writer thread. It sends queued records to the node,
+		 * flushing the stream when there are no more records waiting.
+		 * Returns when connection is closed.
+		 */
+		private void writeRecords()
+		{
+			try
+			{
+				while(true)
+				{
+					ClusterRecord record = outboundQueue.take();
+					while(record != null)
+					{
+						objectOutputStream.writeObject(record);
+						objectOutputStream.reset();
+						record = outboundQueue.poll();
+					}
+					objectOutputStream.flush();
+				}
+			}
+			catch (final IOException | InterruptedException e)
+			{
+				//reading thread detects broken connection and removes the node
+				close();
+			}
+		}
+		
+		/**
+		 * Method that closes the connection and stops the writer thread.
+		 */
+		public void close()
+		{
+			try
+			{
+				socket.close();
+			}
+			catch (final IOException e)
+			{
+			}
+			writer.interrupt();
+		}
+		
+		/**
+		 * Method that reads records published by the node.
+		 */
+		@Override
+		public void run()
+		{
+			writer.start();
+			addNode(this);
+			while(true)
+			{
+				try
+				{
+					final ClusterRecord record = (ClusterRecord) objectInputStream.readObject();
+					nodeId = record.getNodeId();
+					publish(record);
+				}
+				catch (final IOException | ClassNotFoundException | ClassCastException e)
+				{
+					close();
+					removeNode(this);
+					return;
+				}
+			}
+		}
+	}
+	
+	public static void main(final String[] args)
+	{
+		if(args.length != 1)
+		{
+			System.out.println("Usage: Relay port");
+			return;
+		}
+		try
+		{
+			final Relay relay = new Relay(Integer.parseInt(args[0]));
+			relay.start();
+			System.out.println("Relay Running on port " + relay.getPort());
+		}
+		catch (final IOException | NumberFormatException e)
+		{
+			System.out.println("Couldn't create relay: " + e.getMessage());
+		}
+	}
+}
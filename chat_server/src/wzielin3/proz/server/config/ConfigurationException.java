@@ -0,0 +1,34 @@
+package wzielin3.proz.server.config;
+
+/**
+ * Exception thrown when configuration of the server can't be read
+ * or some of its values are not valid.
+ * 
+ * @author Wojciech Zieliński
+ */
+public class ConfigurationException extends Exception
+{
+	/**serialVersionUID for this class*/
+	private static final long serialVersionUID = 1L;
+	
+	/**
+	 * Constructor that takes message describing what is wrong with the configuration.
+	 * 
+	 * @param message description of the problem
+	 */
+	public ConfigurationException(final String message)
+	{
+		super(message);
+	}
+	
+	/**
+	 * Constructor that takes message and the cause of the problem.
+	 * 
+	 * @param message description of the problem
+	 * @param cause exception that caused the problem
+	 */
+	public ConfigurationException(final String message, final Throwable cause)
+	{
+		super(message, cause);
+	}
+}
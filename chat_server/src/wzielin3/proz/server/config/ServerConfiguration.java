@@ -0,0 +1,1336 @@
+package wzielin3.proz.server.config;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Typed and validated configuration of the server. Values are read from
+ * (in order of importance, last one wins): default values, properties file,
+ * environment variables and command line arguments.
+ * Properties file is given by "--config=path" argument or CHAT_CONFIG environment variable.
+ * Command line arguments have form "--key=value", e.g. "--server.port=5000".
+ * Environment variables have form CHAT_KEY, where dots in the key are replaced
+ * with underscores, e.g. CHAT_SERVER_PORT.
+ * 
+ * @author Wojciech Zieliński
+ */
+public class ServerConfiguration
+{
+	/**key of the transport used to connect clients*/
+	public static final String TRANSPORT = "server.transport";
+	/**key of the port on which server listens*/
+	public static final String PORT = "server.port";
+	/**key of the maximum number of clients connected at the same time*/
+	public static final String MAX_CLIENTS = "server.maxClients";
+	/**key of the maximum number of clients connected at the same time from one address*/
+	public static final String MAX_CLIENTS_PER_ADDRESS = "server.maxClientsPerAddress";
+	/**key of the length of the queue of connections waiting to be accepted*/
+	public static final String ACCEPT_BACKLOG = "server.acceptBacklog";
+	/**key of the time in milliseconds in which client has to send stream header and log in request*/
+	public static final String HANDSHAKE_TIMEOUT = "server.handshakeTimeoutMillis";
+	/**key of the time in milliseconds after which client that sends nothing is logged out. 0 disables it*/
+	public static final String IDLE_TIMEOUT = "server.idleTimeoutMillis";
+	/**key of the length in milliseconds of one tick of the timer that finds idle clients*/
+	public static final String TIMER_TICK = "server.timerTickMillis";
+	/**key of the capacity of the queue of events read by the controller*/
+	public static final String EVENTS_QUEUE_CAPACITY = "events.queueCapacity";
+	/**key of the maximum length of user's name*/
+	public static final String NAME_MAX_LENGTH = "model.nameMaxLength";
+	/**key of the time in milliseconds acceptable between two messages without re sending*/
+	public static final String MAX_TIME_DIFFERENCE = "model.maxTimeDifferenceMillis";
+	/**key of the maximum number of bytes of cached message frames*/
+	public static final String FRAME_CACHE_MAX_BYTES = "model.frameCacheMaxBytes";
+	/**key of the number of messages kept in history. 0 means all messages are kept*/
+	public static final String HISTORY_MAX_MESSAGES = "history.maxMessages";
+	/**key of the time in milliseconds between two events read from one client*/
+	public static final String MILLIS_BETWEEN_MESSAGES = "client.millisBetweenMessages";
+	/**key of the file to which history is saved on shutdown and from which it's loaded on start. Not used by replica*/
+	public static final String HISTORY_SNAPSHOT_FILE = "history.snapshotFile";
+	/**key of the time in milliseconds the server waits for orderly shutdown*/
+	public static final String SHUTDOWN_TIMEOUT = "server.shutdownTimeoutMillis";
+	/**key of the address (host:port) of the relay connecting server nodes. Empty if server works alone*/
+	public static final String CLUSTER_RELAY = "cluster.relay";
+	/**key of the identifier of this server node. Random by default*/
+	public static final String CLUSTER_NODE_ID = "cluster.nodeId";
+	/**key of the role of this server: primary accepts messages, replica only serves history*/
+	public static final String ROLE = "server.role";
+	/**key of the file to which primary appends messages and which replica tails*/
+	public static final String HISTORY_LOG_FILE = "history.logFile";
+	/**key of the time in milliseconds replica waits before checking the log again*/
+	public static final String REPLICA_POLL = "replica.pollMillis";
+	/**key of the number of threads that search the history*/
+	public static final String SEARCH_THREADS = "search.threads";
+	/**key of the maximum number of messages returned by one search*/
+	public static final String SEARCH_MAX_RESULTS = "search.maxResults";
+	/**key of the number of newest messages indexed for search and author queries. 0 means all messages of history*/
+	public static final String INDEX_MAX_MESSAGES = "search.indexMaxMessages";
+	/**key of the comma separated names of users who can send admin queries*/
+	public static final String ADMIN_USERS = "admin.users";
+	/**key of the way messages of the history are kept in memory*/
+	public static final String HISTORY_STORE = "history.store";
+	/**key of the number of bytes of one chunk of memory of the off-heap history*/
+	public static final String OFF_HEAP_CHUNK_BYTES = "history.offHeapChunkBytes";
+	/**key of the file in which off-heap history is mapped. If it's not set direct buffers are used*/
+	public static final String OFF_HEAP_FILE = "history.offHeapFile";
+	/**key of the directory in which tiered history writes its segments. If it's not set temporary directory is used*/
+	public static final String SEGMENT_DIRECTORY = "history.segmentDirectory";
+	/**key of the number of newest messages that tiered history keeps in memory*/
+	public static final String HOT_MESSAGES = "history.hotMessages";
+	/**key of the number of messages moved to one segment of tiered history*/
+	public static final String SEGMENT_MESSAGES = "history.segmentMessages";
+	/**key of the number of messages in one compressed block of a segment*/
+	public static final String BLOCK_MESSAGES = "history.blockMessages";
+	/**key of the number of blocks read from segments that are kept in memory*/
+	public static final String COLD_CACHE_BLOCKS = "history.coldCacheBlocks";
+	/**key of the maximum number of missed messages sent to a client that logs in with cached history*/
+	public static final String LOGIN_MAX_CATCH_UP = "login.maxCatchUpMessages";
+	/**key of the number of ids of accepted messages remembered for every user*/
+	public static final String DEDUP_WINDOW_SIZE = "dedup.windowSize";
+	/**key of the time in milliseconds for which ids of accepted messages are remembered*/
+	public static final String DEDUP_WINDOW_MILLIS = "dedup.windowMillis";
+	/**key of the maximum number of users for which ids of accepted messages are remembered*/
+	public static final String DEDUP_MAX_USERS = "dedup.maxUsers";
+	/**key of the way messages from users who aren't up to date are handled*/
+	public static final String STALE_MESSAGES = "message.stalePolicy";
+	/**key of the maximum number of recipients of one direct message*/
+	public static final String DIRECT_MAX_RECIPIENTS = "direct.maxRecipients";
+	/**key of the number of messages kept for every conversation of direct messages*/
+	public static final String DIRECT_MAX_MESSAGES = "direct.maxMessages";
+	/**key of the maximum number of conversations of direct messages kept at once*/
+	public static final String DIRECT_MAX_CONVERSATIONS = "direct.maxConversations";
+	/**key of the port on which attachments are transferred*/
+	public static final String ATTACHMENT_PORT = "attachment.port";
+	/**key of the directory in which attachments are stored*/
+	public static final String ATTACHMENT_DIRECTORY = "attachment.directory";
+	/**key of the maximum size of an attachment in bytes*/
+	public static final String ATTACHMENT_MAX_BYTES = "attachment.maxBytes";
+	/**key of the number of threads that transfer attachments*/
+	public static final String ATTACHMENT_THREADS = "attachment.threads";
+	/**key of the time after which transfer of an attachment that sends nothing is closed*/
+	public static final String ATTACHMENT_TIMEOUT = "attachment.timeoutMillis";
+	/**key of the number of bytes from which chat states are compressed for clients that agree to it*/
+	public static final String COMPRESSION_THRESHOLD = "compression.thresholdBytes";
+	/**key of the size of the buffer to which chat states sent to one client are written*/
+	public static final String OUTPUT_BUFFER_BYTES = "server.outputBufferBytes";
+	/**key of the maximum time chat states wait in buffers while the controller is busy*/
+	public static final String MAX_FLUSH_DELAY = "server.maxFlushDelayMillis";
+	/**key of the TCP_NODELAY option of connections with clients*/
+	public static final String TCP_NO_DELAY = "server.tcpNoDelay";
+	/**key of the number of stripes into which connected clients are divided*/
+	public static final String CLIENT_STRIPES = "server.clientStripes";
+	/**key of the number of threads that write chat states to clients*/
+	public static final String FAN_OUT_THREADS = "server.fanOutThreads";
+	/**key of the number of session control events the controller takes in one round*/
+	public static final String CONTROL_LANE_WEIGHT = "events.controlWeight";
+	/**key of the number of messages and other events the controller takes in one round*/
+	public static final String MESSAGE_LANE_WEIGHT = "events.messageWeight";
+	/**key of the number of requests for chat state the controller takes in one round*/
+	public static final String POLL_LANE_WEIGHT = "events.pollWeight";
+	/**key of the maximum number of events waiting in one lane of the controller's intake*/
+	public static final String EVENTS_LANE_CAPACITY = "events.laneCapacity";
+	/**key of the time messages may wait for the controller without overloading it*/
+	public static final String EVENTS_TARGET_DELAY = "events.targetDelayMillis";
+	/**key of the time messages have to wait longer than the target to overload the controller*/
+	public static final String OVERLOAD_INTERVAL = "events.overloadIntervalMillis";
+	/**all known keys*/
+	private static final String[] KEYS = { TRANSPORT, PORT, MAX_CLIENTS, EVENTS_QUEUE_CAPACITY,
+			NAME_MAX_LENGTH, MAX_TIME_DIFFERENCE, FRAME_CACHE_MAX_BYTES, HISTORY_MAX_MESSAGES,
+			MILLIS_BETWEEN_MESSAGES, HISTORY_SNAPSHOT_FILE, SHUTDOWN_TIMEOUT,
+			MAX_CLIENTS_PER_ADDRESS, ACCEPT_BACKLOG, HANDSHAKE_TIMEOUT, IDLE_TIMEOUT, TIMER_TICK,
+			CLUSTER_RELAY, CLUSTER_NODE_ID, ROLE, HISTORY_LOG_FILE, REPLICA_POLL,
+			SEARCH_THREADS, SEARCH_MAX_RESULTS, INDEX_MAX_MESSAGES, ADMIN_USERS,
+			HISTORY_STORE, OFF_HEAP_CHUNK_BYTES, OFF_HEAP_FILE,
+			SEGMENT_DIRECTORY, HOT_MESSAGES, SEGMENT_MESSAGES, BLOCK_MESSAGES, COLD_CACHE_BLOCKS,
+			LOGIN_MAX_CATCH_UP, DEDUP_WINDOW_SIZE, DEDUP_WINDOW_MILLIS, DEDUP_MAX_USERS,
+			STALE_MESSAGES, DIRECT_MAX_RECIPIENTS, DIRECT_MAX_MESSAGES, DIRECT_MAX_CONVERSATIONS,
+			ATTACHMENT_PORT, ATTACHMENT_DIRECTORY, ATTACHMENT_MAX_BYTES, ATTACHMENT_THREADS, ATTACHMENT_TIMEOUT,
+			COMPRESSION_THRESHOLD, OUTPUT_BUFFER_BYTES, MAX_FLUSH_DELAY, TCP_NO_DELAY,
+			CLIENT_STRIPES, FAN_OUT_THREADS, CONTROL_LANE_WEIGHT, MESSAGE_LANE_WEIGHT, POLL_LANE_WEIGHT,
+			EVENTS_LANE_CAPACITY, EVENTS_TARGET_DELAY, OVERLOAD_INTERVAL };
+	/**prefix of environment variables read as configuration*/
+	private static final String ENVIRONMENT_PREFIX = "CHAT_";
+	/**command line argument that points to properties file*/
+	private static final String CONFIG_FILE_ARGUMENT = "--config=";
+	/**environment variable that points to properties file*/
+	private static final String CONFIG_FILE_VARIABLE = "CHAT_CONFIG";
+	
+	/**transport used to connect clients*/
+	private final TransportMode transportMode;
+	/**port on which server listens. -1 if it should be read from console*/
+	private final int port;
+	/**maximum number of clients connected at the same time*/
+	private final int maxClients;
+	/**maximum number of clients connected at the same time from one address*/
+	private final int maxClientsPerAddress;
+	/**length of the queue of connections waiting to be accepted*/
+	private final int acceptBacklog;
+	/**time in milliseconds in which client has to send stream header and log in request*/
+	private final int handshakeTimeoutMillis;
+	/**time in milliseconds after which client that sends nothing is logged out. 0 if never*/
+	private final long idleTimeoutMillis;
+	/**length in milliseconds of one tick of the timer that finds idle clients*/
+	private final long timerTickMillis;
+	/**capacity of the queue of events read by the controller*/
+	private final int eventsQueueCapacity;
+	/**maximum length of user's name*/
+	private final int nameMaxLength;
+	/**time in milliseconds acceptable between two messages without re sending*/
+	private final int maxTimeDifferenceMillis;
+	/**maximum number of bytes of cached message frames*/
+	private final long frameCacheMaxBytes;
+	/**number of messages kept in history. 0 means all messages are kept*/
+	private final int historyMaxMessages;
+	/**time in milliseconds between two events read from one client*/
+	private final int millisBetweenMessages;
+	/**file in which history is saved. null if history shouldn't be saved*/
+	private final String historySnapshotFile;
+	/**time in milliseconds the server waits for orderly shutdown*/
+	private final int shutdownTimeoutMillis;
+	/**host of the relay connecting server nodes. null if server works alone*/
+	private final String clusterRelayHost;
+	/**port of the relay connecting server nodes. -1 if server works alone*/
+	private final int clusterRelayPort;
+	/**identifier of this server node*/
+	private final String clusterNodeId;
+	/**role of this server*/
+	private final ServerRole serverRole;
+	/**file to which primary appends messages and which replica tails. null if there is none*/
+	private final String historyLogFile;
+	/**time in milliseconds replica waits before checking the log again*/
+	private final int replicaPollMillis;
+	/**number of threads that search the history*/
+	private final int searchThreads;
+	/**maximum number of messages returned by one search*/
+	private final int searchMaxResults;
+	/**number of newest messages indexed for search and author queries. 0 if all messages are indexed*/
+	private final int indexMaxMessages;
+	/**names of users who can send admin queries*/
+	private final Set<String> adminUsers;
+	/**way messages of the history are kept in memory*/
+	private final HistoryStore historyStore;
+	/**number of bytes of one chunk of memory of the off-heap history*/
+	private final int offHeapChunkBytes;
+	/**file in which off-heap history is mapped. null if direct buffers are used*/
+	private final String offHeapFile;
+	/**directory in which tiered history writes its segments. null if temporary directory should be used*/
+	private final String segmentDirectory;
+	/**number of newest messages that tiered history keeps in memory*/
+	private final int hotMessages;
+	/**number of messages moved to one segment of tiered history*/
+	private final int segmentMessages;
+	/**number of messages in one compressed block of a segment*/
+	private final int blockMessages;
+	/**number of blocks read from segments that are kept in memory*/
+	private final int coldCacheBlocks;
+	/**maximum number of missed messages sent to a client that logs in with cached history*/
+	private final int loginMaxCatchUp;
+	/**number of ids of accepted messages remembered for every user*/
+	private final int dedupWindowSize;
+	/**time in milliseconds for which ids of accepted messages are remembered*/
+	private final int dedupWindowMillis;
+	/**maximum number of users for which ids of accepted messages are remembered*/
+	private final int dedupMaxUsers;
+	/**way messages from users who aren't up to date are handled*/
+	private final StalePolicy stalePolicy;
+	/**maximum number of recipients of one direct message*/
+	private final int directMaxRecipients;
+	/**number of messages kept for every conversation of direct messages*/
+	private final int directMaxMessages;
+	/**maximum number of conversations of direct messages kept at once*/
+	private final int directMaxConversations;
+	/**port on which attachments are transferred. -1 if attachments are not accepted*/
+	private final int attachmentPort;
+	/**directory in which attachments are stored*/
+	private final String attachmentDirectory;
+	/**maximum size of an attachment in bytes*/
+	private final long attachmentMaxBytes;
+	/**number of threads that transfer attachments*/
+	private final int attachmentThreads;
+	/**time in milliseconds after which transfer of an attachment that sends nothing is closed*/
+	private final int attachmentTimeoutMillis;
+	/**number of bytes from which chat states are compressed. -1 if they are never compressed*/
+	private final int compressionThreshold;
+	/**size of the buffer to which chat states sent to one client are written*/
+	private final int outputBufferBytes;
+	/**maximum time in milliseconds chat states wait in buffers while the controller is busy*/
+	private final int maxFlushDelayMillis;
+	/**TCP_NODELAY option of connections with clients*/
+	private final boolean isTcpNoDelay;
+	/**number of stripes into which connected clients are divided*/
+	private final int clientStripes;
+	/**number of threads that write chat states to clients. 0 if the controller writes them*/
+	private final int fanOutThreads;
+	/**number of session control events the controller takes in one round*/
+	private final int controlLaneWeight;
+	/**number of messages and other events the controller takes in one round*/
+	private final int messageLaneWeight;
+	/**number of requests for chat state the controller takes in one round*/
+	private final int pollLaneWeight;
+	/**maximum number of events waiting in one lane of the controller's intake*/
+	private final int eventsLaneCapacity;
+	/**time in milliseconds messages may wait for the controller without overloading it*/
+	private final int eventsTargetDelayMillis;
+	/**time in milliseconds messages have to wait longer than the target to overload the controller*/
+	private final int overloadIntervalMillis;
+	
+	/**
+	 * Constructor that creates configuration with default values.
+	 */
+	public ServerConfiguration()
+	{
+		this(new Properties());
+	}
+	
+	/**
+	 * Constructor that creates configuration from given properties.
+	 * Values that are missing have default values.
+	 * 
+	 * @param properties properties with configuration values
+	 * @throws IllegalArgumentException if some value is not valid. Use load() method
+	 * to get ConfigurationException instead.
+	 */
+	public ServerConfiguration(final Properties properties)
+	{
+		try
+		{
+			transportMode = getEnum(properties, TRANSPORT, TransportMode.SOCKET);
+			port = getInt(properties, PORT, -1, -1, 65535);
+			maxClients = getInt(properties, MAX_CLIENTS, 100, 1, Integer.MAX_VALUE);
+			maxClientsPerAddress = getInt(properties, MAX_CLIENTS_PER_ADDRESS, 10, 1, Integer.MAX_VALUE);
+			acceptBacklog = getInt(properties, ACCEPT_BACKLOG, 50, 1, 65535);
+			handshakeTimeoutMillis = getInt(properties, HANDSHAKE_TIMEOUT, 5000, 1, Integer.MAX_VALUE);
+			idleTimeoutMillis = getLong(properties, IDLE_TIMEOUT, 30000, 0, Long.MAX_VALUE);
+			timerTickMillis = getLong(properties, TIMER_TICK, 100, 1, 60000);
+			eventsQueueCapacity = getInt(properties, EVENTS_QUEUE_CAPACITY, Integer.MAX_VALUE, 1, Integer.MAX_VALUE);
+			nameMaxLength = getInt(properties, NAME_MAX_LENGTH, 15, 1, 1000);
+			maxTimeDifferenceMillis = getInt(properties, MAX_TIME_DIFFERENCE, 500, 0, Integer.MAX_VALUE);
+			frameCacheMaxBytes = getLong(properties, FRAME_CACHE_MAX_BYTES, 4 * 1024 * 1024, 0, Long.MAX_VALUE);
+			historyMaxMessages = getInt(properties, HISTORY_MAX_MESSAGES, 0, 0, Integer.MAX_VALUE);
+			millisBetweenMessages = getInt(properties, MILLIS_BETWEEN_MESSAGES, 100, 0, 60000);
+			historySnapshotFile = getString(properties, HISTORY_SNAPSHOT_FILE, null);
+			shutdownTimeoutMillis = getInt(properties, SHUTDOWN_TIMEOUT, 10000, 0, Integer.MAX_VALUE);
+			final String relay = getString(properties, CLUSTER_RELAY, null);
+			if(relay == null)
+			{
+				clusterRelayHost = null;
+				clusterRelayPort = -1;
+			}
+			else
+			{
+				final int colon = relay.lastIndexOf(':');
+				final Properties portProperty = new Properties();
+				if(colon > 0)
+				{
+					portProperty.setProperty(CLUSTER_RELAY, relay.substring(colon + 1));
+				}
+				clusterRelayPort = getInt(portProperty, CLUSTER_RELAY, -1, 1, 65535);
+				if(clusterRelayPort == -1)
+				{
+					throw new ConfigurationException("Value of " + CLUSTER_RELAY
+							+ " should have form host:port, but is " + relay);
+				}
+				clusterRelayHost = relay.substring(0, colon);
+			}
+			clusterNodeId = getString(properties, CLUSTER_NODE_ID, UUID.randomUUID().toString());
+			serverRole = getEnum(properties, ROLE, ServerRole.PRIMARY);
+			historyLogFile = getString(properties, HISTORY_LOG_FILE, null);
+			replicaPollMillis = getInt(properties, REPLICA_POLL, 50, 1, 60000);
+			searchThreads = getInt(properties, SEARCH_THREADS, 1, 1, 64);
+			searchMaxResults = getInt(properties, SEARCH_MAX_RESULTS, 50, 1, 10000);
+			final Set<String> admins = new HashSet<String>();
+			for (final String name : getString(properties, ADMIN_USERS, "").split(","))
+			{
+				if(name.trim().length() > 0)
+				{
+					admins.add(name.trim());
+				}
+			}
+			adminUsers = Collections.unmodifiableSet(admins);
+			historyStore = getEnum(properties, HISTORY_STORE, HistoryStore.HEAP);
+			offHeapChunkBytes = getInt(properties, OFF_HEAP_CHUNK_BYTES, 64 << 20, 1 << 20, 1 << 30);
+			offHeapFile = getString(properties, OFF_HEAP_FILE, null);
+			segmentDirectory = getString(properties, SEGMENT_DIRECTORY, null);
+			hotMessages = getInt(properties, HOT_MESSAGES, 10000, 0, Integer.MAX_VALUE);
+			segmentMessages = getInt(properties, SEGMENT_MESSAGES, 4096, 1, 1 << 20);
+			blockMessages = getInt(properties, BLOCK_MESSAGES, 256, 1, 1 << 16);
+			coldCacheBlocks = getInt(properties, COLD_CACHE_BLOCKS, 64, 1, 1 << 20);
+			//indexes are kept on heap, so history kept outside of it is indexed only partially
+			indexMaxMessages = getInt(properties, INDEX_MAX_MESSAGES, historyStore == HistoryStore.OFF_HEAP
+					|| historyStore == HistoryStore.TIERED ? 100000 : 0, 0, Integer.MAX_VALUE);
+			loginMaxCatchUp = getInt(properties, LOGIN_MAX_CATCH_UP, 1000, 1, 1000000);
+			dedupWindowSize = getInt(properties, DEDUP_WINDOW_SIZE, 256, 1, 65536);
+			dedupWindowMillis = getInt(properties, DEDUP_WINDOW_MILLIS, 10 * 60 * 1000, 1, Integer.MAX_VALUE);
+			dedupMaxUsers = getInt(properties, DEDUP_MAX_USERS, 10000, 1, Integer.MAX_VALUE);
+			stalePolicy = getEnum(properties, STALE_MESSAGES, StalePolicy.REJECT);
+			directMaxRecipients = getInt(properties, DIRECT_MAX_RECIPIENTS, 8, 1, 1000);
+			directMaxMessages = getInt(properties, DIRECT_MAX_MESSAGES, 1000, 1, 1000000);
+			directMaxConversations = getInt(properties, DIRECT_MAX_CONVERSATIONS, 10000, 1, Integer.MAX_VALUE);
+			attachmentPort = getInt(properties, ATTACHMENT_PORT, -1, -1, 65535);
+			attachmentDirectory = getString(properties, ATTACHMENT_DIRECTORY, "attachments");
+			attachmentMaxBytes = getLong(properties, ATTACHMENT_MAX_BYTES, 64 << 20, 1, Long.MAX_VALUE);
+			attachmentThreads = getInt(properties, ATTACHMENT_THREADS, 4, 1, 256);
+			attachmentTimeoutMillis = getInt(properties, ATTACHMENT_TIMEOUT, 30000, 1, Integer.MAX_VALUE);
+			compressionThreshold = getInt(properties, COMPRESSION_THRESHOLD, 1024, -1, Integer.MAX_VALUE);
+			outputBufferBytes = getInt(properties, OUTPUT_BUFFER_BYTES, 16 * 1024, 512, 16 << 20);
+			maxFlushDelayMillis = getInt(properties, MAX_FLUSH_DELAY, 2, 0, 60000);
+			isTcpNoDelay = getBoolean(properties, TCP_NO_DELAY, true);
+			clientStripes = getInt(properties, CLIENT_STRIPES, 64, 1, 1024);
+			fanOutThreads = getInt(properties, FAN_OUT_THREADS,
+					Runtime.getRuntime().availableProcessors(), 0, 1024);
+			controlLaneWeight = getInt(properties, CONTROL_LANE_WEIGHT, 8, 1, 1 << 20);
+			messageLaneWeight = getInt(properties, MESSAGE_LANE_WEIGHT, 4, 1, 1 << 20);
+			pollLaneWeight = getInt(properties, POLL_LANE_WEIGHT, 1, 1, 1 << 20);
+			eventsLaneCapacity = getInt(properties, EVENTS_LANE_CAPACITY, 10000, 1, Integer.MAX_VALUE);
+			eventsTargetDelayMillis = getInt(properties, EVENTS_TARGET_DELAY, 5, 1, 60000);
+			overloadIntervalMillis = getInt(properties, OVERLOAD_INTERVAL, 100, 1, 60000);
+			if(serverRole == ServerRole.REPLICA && historyLogFile == null)
+			{
+				throw new ConfigurationException("Replica needs " + HISTORY_LOG_FILE + " to be set");
+			}
+			if(serverRole == ServerRole.REPLICA && historySnapshotFile != null)
+			{
+				//replica copies the whole log of the primary on every start
+				throw new ConfigurationException("Replica can't use " + HISTORY_SNAPSHOT_FILE);
+			}
+		}
+		catch (final ConfigurationException e)
+		{
+			throw new IllegalArgumentException(e.getMessage(), e);
+		}
+	}
+	
+	/**
+	 * Method that reads configuration from all sources: properties file,
+	 * environment variables and command line arguments.
+	 * 
+	 * @param args command line arguments of the server
+	 * @param environment environment variables of the server
+	 * @return read configuration
+	 * @throws ConfigurationException if configuration can't be read or is not valid
+	 */
+	public static ServerConfiguration load(final String[] args, final Map<String, String> environment)
+	throws ConfigurationException
+	{
+		final Properties properties = new Properties();
+		String configFile = environment.get(CONFIG_FILE_VARIABLE);
+		for (final String arg : args)
+		{
+			if(arg.startsWith(CONFIG_FILE_ARGUMENT))
+			{
+				configFile = arg.substring(CONFIG_FILE_ARGUMENT.length());
+			}
+		}
+		if(configFile != null)
+		{
+			try (final InputStream in = new FileInputStream(configFile))
+			{
+				properties.load(in);
+			}
+			catch (final IOException e)
+			{
+				throw new ConfigurationException("Couldn't read configuration file " + configFile, e);
+			}
+			for (final String key : properties.stringPropertyNames())
+			{
+				checkKnownKey(key);
+			}
+		}
+		for (final Map.Entry<String, String> variable : environment.entrySet())
+		{
+			final String name = variable.getKey();
+			if(name.startsWith(ENVIRONMENT_PREFIX) && name.equals(CONFIG_FILE_VARIABLE) == false)
+			{
+				properties.setProperty(toKey(name.substring(ENVIRONMENT_PREFIX.length())),
+						variable.getValue());
+			}
+		}
+		for (final String arg : args)
+		{
+			if(arg.startsWith(CONFIG_FILE_ARGUMENT))
+			{
+				continue;
+			}
+			final int separator = arg.indexOf('=');
+			if(arg.startsWith("--") == false || separator < 0)
+			{
+				throw new ConfigurationException("Wrong argument " + arg + ". Expected --key=value");
+			}
+			final String key = arg.substring(2, separator);
+			checkKnownKey(key);
+			properties.setProperty(key, arg.substring(separator + 1));
+		}
+		try
+		{
+			return new ServerConfiguration(properties);
+		}
+		catch (final IllegalArgumentException e)
+		{
+			throw new ConfigurationException(e.getMessage(), e);
+		}
+	}
+	
+	/**
+	 * Method that checks whether given key is one of known configuration keys.
+	 * 
+	 * @param key key to be checked
+	 * @throws ConfigurationException if key is not known
+	 */
+	private static void checkKnownKey(final String key) throws ConfigurationException
+	{
+		for (final String knownKey : KEYS)
+		{
+			if(knownKey.equals(key))
+			{
+				return;
+			}
+		}
+		throw new ConfigurationException("Unknown configuration key " + key);
+	}
+	
+	/**
+	 * Method that changes name of environment variable (without prefix) to the key
+	 * of configuration value. Matching is case insensitive and underscores match dots.
+	 * 
+	 * @param name name of environment variable without prefix
+	 * @return key of configuration value
+	 */
+	private static String toKey(final String name)
+	{
+		for (final String key : KEYS)
+		{
+			if(key.replace('.', '_').equalsIgnoreCase(name))
+			{
+				return key;
+			}
+		}
+		return name.toLowerCase().replace('_', '.');
+	}
+	
+	/**
+	 * Method that reads integer value from properties.
+	 * 
+	 * @param properties properties with configuration values
+	 * @param key key of the value
+	 * @param defaultValue value returned when the key is missing
+	 * @param min minimal valid value
+	 * @param max maximal valid value
+	 * @return read value
+	 * @throws ConfigurationException if value is not a number or is out of range
+	 */
+	private static int getInt(final Properties properties, final String key,
+			final int defaultValue, final int min, final int max) throws ConfigurationException
+	{
+		return (int) getLong(properties, key, defaultValue, min, max);
+	}
+	
+	/**
+	 * Method that reads long value from properties.
+	 * 
+	 * @param properties properties with configuration values
+	 * @param key key of the value
+	 * @param defaultValue value returned when the key is missing
+	 * @param min minimal valid value
+	 * @param max maximal valid value
+	 * @return read value
+	 * @throws ConfigurationException if value is not a number or is out of range
+	 */
+	private static long getLong(final Properties properties, final String key,
+			final long defaultValue, final long min, final long max) throws ConfigurationException
+	{
+		final String value = properties.getProperty(key);
+		if(value == null)
+		{
+			return defaultValue;
+		}
+		final long number;
+		try
+		{
+			number = Long.parseLong(value.trim());
+		}
+		catch (final NumberFormatException e)
+		{
+			throw new ConfigurationException("Value of " + key + " should be a number, but is " + value, e);
+		}
+		if(number < min || number > max)
+		{
+			throw new ConfigurationException("Value of " + key + " should be between "
+					+ min + " and " + max + ", but is " + value);
+		}
+		return number;
+	}
+	
+	/**
+	 * Method that reads boolean value from properties. Case of the value doesn't matter.
+	 * 
+	 * @param properties properties with configuration values
+	 * @param key key of the value
+	 * @param defaultValue value returned when the key is missing
+	 * @return read value
+	 * @throws ConfigurationException if value is neither true nor false
+	 */
+	private static boolean getBoolean(final Properties properties, final String key,
+			final boolean defaultValue) throws ConfigurationException
+	{
+		final String value = getString(properties, key, null);
+		if(value == null)
+		{
+			return defaultValue;
+		}
+		if(value.equalsIgnoreCase("true") || value.equalsIgnoreCase("false"))
+		{
+			return Boolean.parseBoolean(value);
+		}
+		throw new ConfigurationException("Value of " + key + " should be true or false, but is " + value);
+	}
+	
+	/**
+	 * Method that reads string value from properties. Empty value is treated as missing.
+	 * 
+	 * @param properties properties with configuration values
+	 * @param key key of the value
+	 * @param defaultValue value returned when the key is missing
+	 * @return read value
+	 */
+	private static String getString(final Properties properties, final String key,
+			final String defaultValue)
+	{
+		final String value = properties.getProperty(key);
+		if(value == null || value.trim().length() == 0)
+		{
+			return defaultValue;
+		}
+		return value.trim();
+	}
+	
+	/**
+	 * Method that reads value of an enumeration from properties. Case of the value doesn't matter.
+	 * 
+	 * @param properties properties with configuration values
+	 * @param key key of the value
+	 * @param defaultValue value returned when the key is missing
+	 * @return read value
+	 * @throws ConfigurationException if value is not a name of any constant of the enumeration
+	 */
+	private static <E extends Enum<E>> E getEnum(final Properties properties, final String key,
+			final E defaultValue) throws ConfigurationException
+	{
+		final String value = properties.getProperty(key);
+		if(value == null)
+		{
+			return defaultValue;
+		}
+		try
+		{
+			return Enum.valueOf(defaultValue.getDeclaringClass(), value.trim().toUpperCase());
+		}
+		catch (final IllegalArgumentException e)
+		{
+			throw new ConfigurationException("Value of " + key + " should be one of "
+					+ Arrays.toString(defaultValue.getDeclaringClass().getEnumConstants())
+					+ ", but is " + value, e);
+		}
+	}
+	
+	/**
+	 * Method that returns transport used to connect clients.
+	 * 
+	 * @return transport used to connect clients
+	 */
+	public TransportMode getTransportMode()
+	{
+		return transportMode;
+	}
+	
+	/**
+	 * Method that returns true if port was given in the configuration.
+	 * 
+	 * @return true if port was given. false if it should be read from console.
+	 */
+	public boolean hasPort()
+	{
+		return port >= 0;
+	}
+	
+	/**
+	 * Method that returns port on which server listens.
+	 * 
+	 * @return port on which server listens. -1 if it wasn't given.
+	 */
+	public int getPort()
+	{
+		return port;
+	}
+	
+	/**
+	 * Method that returns maximum number of clients connected at the same time.
+	 * 
+	 * @return maximum number of clients connected at the same time
+	 */
+	public int getMaxClients()
+	{
+		return maxClients;
+	}
+	
+	/**
+	 * Method that returns maximum number of clients connected at the same time from one address.
+	 * 
+	 * @return maximum number of clients connected at the same time from one address
+	 */
+	public int getMaxClientsPerAddress()
+	{
+		return maxClientsPerAddress;
+	}
+	
+	/**
+	 * Method that returns length of the queue of connections waiting to be accepted.
+	 * 
+	 * @return length of the queue of connections waiting to be accepted
+	 */
+	public int getAcceptBacklog()
+	{
+		return acceptBacklog;
+	}
+	
+	/**
+	 * Method that returns time in milliseconds in which client has to send
+	 * stream header and log in request.
+	 * 
+	 * @return time in milliseconds in which client has to send stream header and log in request
+	 */
+	public int getHandshakeTimeoutMillis()
+	{
+		return handshakeTimeoutMillis;
+	}
+	
+	/**
+	 * Method that returns time in milliseconds after which client that sends nothing is logged out.
+	 * 
+	 * @return time in milliseconds after which idle client is logged out. 0 if never.
+	 */
+	public long getIdleTimeoutMillis()
+	{
+		return idleTimeoutMillis;
+	}
+	
+	/**
+	 * Method that returns length in milliseconds of one tick of the timer that finds idle clients.
+	 * 
+	 * @return length in milliseconds of one tick of the timer that finds idle clients
+	 */
+	public long getTimerTickMillis()
+	{
+		return timerTickMillis;
+	}
+	
+	/**
+	 * Method that tells if this server is one of nodes sharing the chat room.
+	 * 
+	 * @return true if address of the relay is configured
+	 */
+	public boolean hasClusterRelay()
+	{
+		return clusterRelayHost != null;
+	}
+	
+	/**
+	 * Method that returns host of the relay connecting server nodes.
+	 * 
+	 * @return host of the relay. null if server works alone.
+	 */
+	public String getClusterRelayHost()
+	{
+		return clusterRelayHost;
+	}
+	
+	/**
+	 * Method that returns port of the relay connecting server nodes.
+	 * 
+	 * @return port of the relay. -1 if server works alone.
+	 */
+	public int getClusterRelayPort()
+	{
+		return clusterRelayPort;
+	}
+	
+	/**
+	 * Method that returns identifier of this server node.
+	 * 
+	 * @return identifier of this server node
+	 */
+	public String getClusterNodeId()
+	{
+		return clusterNodeId;
+	}
+	
+	/**
+	 * Method that returns role of this server.
+	 * 
+	 * @return role of this server
+	 */
+	public ServerRole getServerRole()
+	{
+		return serverRole;
+	}
+	
+	/**
+	 * Method that returns file to which primary appends messages and which replica tails.
+	 * 
+	 * @return path of the log file. null if there is none.
+	 */
+	public String getHistoryLogFile()
+	{
+		return historyLogFile;
+	}
+	
+	/**
+	 * Method that returns time in milliseconds replica waits before checking the log again.
+	 * 
+	 * @return time in milliseconds between two checks of the log
+	 */
+	public int getReplicaPollMillis()
+	{
+		return replicaPollMillis;
+	}
+	
+	/**
+	 * Method that returns number of threads that search the history.
+	 * 
+	 * @return number of threads that search the history
+	 */
+	public int getSearchThreads()
+	{
+		return searchThreads;
+	}
+	
+	/**
+	 * Method that returns maximum number of messages returned by one search.
+	 * 
+	 * @return maximum number of messages returned by one search
+	 */
+	public int getSearchMaxResults()
+	{
+		return searchMaxResults;
+	}
+	
+	/**
+	 * Method that returns number of newest messages indexed for search and author queries.
+	 * By default all messages are indexed, unless history is kept off heap or in segments.
+	 * 
+	 * @return number of newest indexed messages, 0 if all messages are indexed
+	 */
+	public int getIndexMaxMessages()
+	{
+		return indexMaxMessages;
+	}
+	
+	/**
+	 * Method that returns names of users who can send admin queries.
+	 * 
+	 * @return names of users who can send admin queries. Empty if there are none.
+	 */
+	public Set<String> getAdminUsers()
+	{
+		return adminUsers;
+	}
+	
+	/**
+	 * Method that returns the way messages of the history are kept in memory.
+	 * 
+	 * @return the way messages of the history are kept in memory
+	 */
+	public HistoryStore getHistoryStore()
+	{
+		return historyStore;
+	}
+	
+	/**
+	 * Method that returns number of bytes of one chunk of memory of the off-heap history.
+	 * 
+	 * @return number of bytes of one chunk of the off-heap history
+	 */
+	public int getOffHeapChunkBytes()
+	{
+		return offHeapChunkBytes;
+	}
+	
+	/**
+	 * Method that returns file in which off-heap history is mapped.
+	 * 
+	 * @return name of the file. null if direct buffers should be used
+	 */
+	public String getOffHeapFile()
+	{
+		return offHeapFile;
+	}
+	
+	/**
+	 * Method that returns directory in which tiered history writes its segments.
+	 * 
+	 * @return name of the directory. null if temporary directory should be used
+	 */
+	public String getSegmentDirectory()
+	{
+		return segmentDirectory;
+	}
+	
+	/**
+	 * Method that returns number of newest messages that tiered history keeps in memory.
+	 * Older messages are moved to segments.
+	 * 
+	 * @return number of messages kept in memory
+	 */
+	public int getHotMessages()
+	{
+		return hotMessages;
+	}
+	
+	/**
+	 * Method that returns number of messages moved to one segment of tiered history.
+	 * 
+	 * @return number of messages in one segment
+	 */
+	public int getSegmentMessages()
+	{
+		return segmentMessages;
+	}
+	
+	/**
+	 * Method that returns number of messages in one compressed block of a segment.
+	 * 
+	 * @return number of messages in one block
+	 */
+	public int getBlockMessages()
+	{
+		return blockMessages;
+	}
+	
+	/**
+	 * Method that returns number of blocks read from segments that are kept in memory.
+	 * 
+	 * @return number of cached blocks
+	 */
+	public int getColdCacheBlocks()
+	{
+		return coldCacheBlocks;
+	}
+	
+	/**
+	 * Method that returns maximum number of missed messages sent to a client
+	 * that logs in with cached history. Only the newest ones are sent if there are more.
+	 * 
+	 * @return maximum number of messages sent on log in
+	 */
+	public int getLoginMaxCatchUp()
+	{
+		return loginMaxCatchUp;
+	}
+	
+	/**
+	 * Method that returns number of ids of accepted messages remembered for every user.
+	 * 
+	 * @return number of remembered ids per user
+	 */
+	public int getDedupWindowSize()
+	{
+		return dedupWindowSize;
+	}
+	
+	/**
+	 * Method that returns time for which ids of accepted messages are remembered.
+	 * 
+	 * @return time in milliseconds
+	 */
+	public int getDedupWindowMillis()
+	{
+		return dedupWindowMillis;
+	}
+	
+	/**
+	 * Method that returns maximum number of users for which ids of accepted
+	 * messages are remembered. Users that haven't sent messages for the longest
+	 * time are forgotten first.
+	 * 
+	 * @return maximum number of users
+	 */
+	public int getDedupMaxUsers()
+	{
+		return dedupMaxUsers;
+	}
+	
+	/**
+	 * Method that returns the way messages from users who aren't up to date are handled.
+	 * 
+	 * @return the way stale messages are handled
+	 */
+	public StalePolicy getStalePolicy()
+	{
+		return stalePolicy;
+	}
+	
+	/**
+	 * Method that returns maximum number of recipients of one direct message.
+	 * 
+	 * @return maximum number of recipients
+	 */
+	public int getDirectMaxRecipients()
+	{
+		return directMaxRecipients;
+	}
+	
+	/**
+	 * Method that returns number of messages kept for every conversation of direct messages.
+	 * 
+	 * @return number of messages kept for a conversation
+	 */
+	public int getDirectMaxMessages()
+	{
+		return directMaxMessages;
+	}
+	
+	/**
+	 * Method that returns maximum number of conversations of direct messages kept at once.
+	 * 
+	 * @return maximum number of conversations
+	 */
+	public int getDirectMaxConversations()
+	{
+		return directMaxConversations;
+	}
+	
+	/**
+	 * Method that checks if attachments are accepted.
+	 * 
+	 * @return true if port of attachments is configured
+	 */
+	public boolean hasAttachmentPort()
+	{
+		return attachmentPort != -1;
+	}
+	
+	/**
+	 * Method that returns port on which attachments are transferred.
+	 * 
+	 * @return port on which attachments are transferred. 0 if any free port should be used,
+	 * -1 if attachments are not accepted.
+	 */
+	public int getAttachmentPort()
+	{
+		return attachmentPort;
+	}
+	
+	/**
+	 * Method that returns directory in which attachments are stored.
+	 * 
+	 * @return directory in which attachments are stored
+	 */
+	public String getAttachmentDirectory()
+	{
+		return attachmentDirectory;
+	}
+	
+	/**
+	 * Method that returns maximum size of an attachment in bytes.
+	 * 
+	 * @return maximum size of an attachment in bytes
+	 */
+	public long getAttachmentMaxBytes()
+	{
+		return attachmentMaxBytes;
+	}
+	
+	/**
+	 * Method that returns number of threads that transfer attachments.
+	 * 
+	 * @return number of threads that transfer attachments
+	 */
+	public int getAttachmentThreads()
+	{
+		return attachmentThreads;
+	}
+	
+	/**
+	 * Method that returns time in milliseconds after which transfer of an attachment
+	 * that sends nothing is closed.
+	 * 
+	 * @return timeout of transfers of attachments in milliseconds
+	 */
+	public int getAttachmentTimeoutMillis()
+	{
+		return attachmentTimeoutMillis;
+	}
+	
+	/**
+	 * Method that returns number of bytes of names and messages from which chat states
+	 * are compressed for clients that agree to it.
+	 * 
+	 * @return compression threshold in bytes. -1 if states are never compressed.
+	 */
+	public int getCompressionThreshold()
+	{
+		return compressionThreshold;
+	}
+	
+	/**
+	 * Method that returns size of the buffer to which chat states sent to one client are written.
+	 * 
+	 * @return size of the output buffer in bytes
+	 */
+	public int getOutputBufferBytes()
+	{
+		return outputBufferBytes;
+	}
+	
+	/**
+	 * Method that returns maximum time chat states wait in buffers while the controller
+	 * is busy. When the controller has no more events, buffers are flushed right away.
+	 * 
+	 * @return maximum delay of flushing in milliseconds. 0 if buffers are flushed after every event.
+	 */
+	public int getMaxFlushDelayMillis()
+	{
+		return maxFlushDelayMillis;
+	}
+	
+	/**
+	 * Method that returns TCP_NODELAY option of connections with clients.
+	 * 
+	 * @return true if Nagle's algorithm should be disabled
+	 */
+	public boolean isTcpNoDelay()
+	{
+		return isTcpNoDelay;
+	}
+	
+	/**
+	 * Method that returns number of stripes into which connected clients are divided.
+	 * Clients that connect or disconnect wait only for others in the same stripe.
+	 * 
+	 * @return number of stripes of connected clients
+	 */
+	public int getClientStripes()
+	{
+		return clientStripes;
+	}
+	
+	/**
+	 * Method that returns number of threads that write chat states to clients in parallel.
+	 * Every thread writes to clients of some of the stripes.
+	 * 
+	 * @return number of fan-out threads. 0 if the controller's thread writes to clients.
+	 */
+	public int getFanOutThreads()
+	{
+		return fanOutThreads;
+	}
+	
+	/**
+	 * Method that returns number of session control events (log in, log out) the controller
+	 * takes in one round of draining its intake, if they are waiting.
+	 * 
+	 * @return weight of the session control lane
+	 */
+	public int getControlLaneWeight()
+	{
+		return controlLaneWeight;
+	}
+	
+	/**
+	 * Method that returns number of messages and other events the controller takes
+	 * in one round of draining its intake, if they are waiting.
+	 * 
+	 * @return weight of the message lane
+	 */
+	public int getMessageLaneWeight()
+	{
+		return messageLaneWeight;
+	}
+	
+	/**
+	 * Method that returns number of requests for chat state the controller takes
+	 * in one round of draining its intake, if they are waiting.
+	 * 
+	 * @return weight of the poll lane
+	 */
+	public int getPollLaneWeight()
+	{
+		return pollLaneWeight;
+	}
+	
+	/**
+	 * Method that returns maximum number of events waiting in one lane of the controller's intake.
+	 * Threads that put events to a full lane wait until there is room.
+	 * 
+	 * @return capacity of one lane of the intake
+	 */
+	public int getEventsLaneCapacity()
+	{
+		return eventsLaneCapacity;
+	}
+	
+	/**
+	 * Method that returns time messages may wait for the controller without overloading it.
+	 * 
+	 * @return target time in milliseconds of waiting in the intake
+	 */
+	public int getEventsTargetDelayMillis()
+	{
+		return eventsTargetDelayMillis;
+	}
+	
+	/**
+	 * Method that returns time messages have to keep waiting longer than the target
+	 * for the controller to be overloaded. While it's overloaded new messages are refused.
+	 * 
+	 * @return time in milliseconds after which the controller is overloaded
+	 */
+	public int getOverloadIntervalMillis()
+	{
+		return overloadIntervalMillis;
+	}
+	
+	/**
+	 * Method that returns capacity of the queue of events read by the controller.
+	 * 
+	 * @return capacity of the queue of events read by the controller
+	 */
+	public int getEventsQueueCapacity()
+	{
+		return eventsQueueCapacity;
+	}
+	
+	/**
+	 * Method that returns maximum length of user's name.
+	 * 
+	 * @return maximum length of user's name
+	 */
+	public int getNameMaxLength()
+	{
+		return nameMaxLength;
+	}
+	
+	/**
+	 * Method that returns time in milliseconds acceptable between two messages without re sending.
+	 * 
+	 * @return time in milliseconds acceptable between two messages without re sending
+	 */
+	public int getMaxTimeDifferenceMillis()
+	{
+		return maxTimeDifferenceMillis;
+	}
+	
+	/**
+	 * Method that returns maximum number of bytes of cached message frames.
+	 * 
+	 * @return maximum number of bytes of cached message frames
+	 */
+	public long getFrameCacheMaxBytes()
+	{
+		return frameCacheMaxBytes;
+	}
+	
+	/**
+	 * Method that returns number of messages kept in history.
+	 * 
+	 * @return number of messages kept in history. 0 means all messages are kept.
+	 */
+	public int getHistoryMaxMessages()
+	{
+		return historyMaxMessages;
+	}
+	
+	/**
+	 * Method that returns time in milliseconds between two events read from one client.
+	 * 
+	 * @return time in milliseconds between two events read from one client
+	 */
+	public int getMillisBetweenMessages()
+	{
+		return millisBetweenMessages;
+	}
+	
+	/**
+	 * Method that returns file in which history is saved on shutdown and
+	 * from which it's loaded on start.
+	 * 
+	 * @return path of the file. null if history shouldn't be saved.
+	 */
+	public String getHistorySnapshotFile()
+	{
+		return historySnapshotFile;
+	}
+	
+	/**
+	 * Method that returns time in milliseconds the server waits for orderly shutdown.
+	 * 
+	 * @return time in milliseconds the server waits for orderly shutdown
+	 */
+	public int getShutdownTimeoutMillis()
+	{
+		return shutdownTimeoutMillis;
+	}
+	
+	/**
+	 * Enumeration of transports that can be used to connect clients.
+	 * 
+	 * @author Wojciech Zieliński
+	 */
+	public enum TransportMode
+	{
+		/**Clients connect over TCP sockets.*/
+		SOCKET,
+		/**Clients are connected in memory with LoopbackTransport. Used when server is embedded.*/
+		LOOPBACK
+	}
+	
+	/**
+	 * Enumeration of roles of the server.
+	 * 
+	 * @author Wojciech Zieliński
+	 */
+	public enum ServerRole
+	{
+		/**Server accepts messages and appends them to the log, if it's configured.*/
+		PRIMARY,
+		/**Server tails the log of the primary and only serves history. Messages are rejected.*/
+		REPLICA
+	}
+	
+	/**
+	 * Enumeration of ways messages of the history can be kept in memory.
+	 * 
+	 * @author Wojciech Zieliński
+	 */
+	public enum HistoryStore
+	{
+		/**Messages are kept as objects on a list.*/
+		HEAP,
+		/**Messages are kept in columns of primitive arrays. Takes less memory, messages are created when read.*/
+		COLUMNAR,
+		/**Messages are kept as frames outside of the Java heap, so they don't add work to the garbage collector.*/
+		OFF_HEAP,
+		/**Newest messages are kept in memory, older ones in compressed segment files.*/
+		TIERED
+	}
+	
+	/**
+	 * Enumeration of ways messages from users who haven't received the latest messages
+	 * are handled.
+	 * 
+	 * @author Wojciech Zieliński
+	 */
+	public enum StalePolicy
+	{
+		/**Message is rejected and user gets messages he has missed. He has to send it again.*/
+		REJECT,
+		/**Message is accepted after the latest messages and user gets messages he has missed with the acknowledgement.*/
+		MERGE
+	}
+}
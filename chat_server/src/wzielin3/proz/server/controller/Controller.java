@@ -1,17 +1,43 @@
 package wzielin3.proz.server.controller;
 
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import wzielin3.proz.server.ChatMessage;
 import wzielin3.proz.server.ChatState;
 import wzielin3.proz.server.ChatState.UserStatus;
+import wzielin3.proz.server.cluster.ClusterNode;
+import wzielin3.proz.server.cluster.ClusterRecord;
+import wzielin3.proz.server.events.AdminQueryEvent;
 import wzielin3.proz.server.events.ApplicationEvent;
+import wzielin3.proz.server.events.ClusterDisconnectedEvent;
+import wzielin3.proz.server.events.ClusterRecordEvent;
+import wzielin3.proz.server.events.ReplicatedMessagesEvent;
+import wzielin3.proz.server.events.SearchRequestEvent;
+import wzielin3.proz.server.events.SearchResultEvent;
+import wzielin3.proz.server.events.IdleSessionsEvent;
 import wzielin3.proz.server.events.LogInEvent;
 import wzielin3.proz.server.events.LogOutEvent;
 import wzielin3.proz.server.events.MessageEvent;
+import wzielin3.proz.server.events.RefusedMessageEvent;
+import wzielin3.proz.server.events.ShutdownEvent;
 import wzielin3.proz.server.events.StateRequestEvent;
+import wzielin3.proz.server.model.AuthorStatistics;
+import wzielin3.proz.server.model.InvertedIndex;
 import wzielin3.proz.server.model.ServerModel;
 import wzielin3.proz.server.network.ClientNetworkManager;
 import wzielin3.proz.server.network.ServerNetworkManager;
@@ -19,7 +45,7 @@ import wzielin3.proz.server.network.ServerNetworkManager;
 /**
  * Class responsible for handling connection between the view-network-model.
  * 
- * @author Wojciech Zieliski
+ * @author Wojciech Zieliński
  */
 public class Controller
 {
@@ -33,6 +59,20 @@ public class Controller
 	private final Map<Class<? extends ApplicationEvent >, ServerStrategy> eventsToStrategyMap;
 	/**Mapping ClientNetworkManagers to user names stored in the model*/
 	private final Map<ClientNetworkManager, String> clientToUserNameMap;
+	/**Mapping user names of clients connected to this server to their ClientNetworkManagers*/
+	private final Map<String, ClientNetworkManager> userNameToClientMap;
+	/**boolean value telling if controller should keep handling events*/
+	private boolean keepGoing;
+	/**latch released when controller stops*/
+	private final CountDownLatch stoppedLatch;
+	/**connection with other server nodes sharing the chat room. null if server works alone*/
+	private final ClusterNode clusterNode;
+	/**messages published by this node that the relay hasn't delivered back yet, oldest first*/
+	private final Queue<PendingMessage> pendingMessages;
+	/**names of users logged in to other server nodes*/
+	private final Set<String> remoteUserNames;
+	/**threads that search the history, so that searches don't delay other events*/
+	private final ExecutorService searchExecutor;
 	
 	/**
 	 * Constructor that initializes this controller. To start working the start() method needs to be invoked.
@@ -44,42 +84,189 @@ public class Controller
 	public Controller(final BlockingQueue<ApplicationEvent> eventsBlockingQueue,
 			final ServerNetworkManager networkManager, final ServerModel model)
 	{
+		this(eventsBlockingQueue, networkManager, model, null, newSearchExecutor(1));
+	}
+	
+	/**
+	 * Constructor that initializes this controller as one of server nodes sharing
+	 * the chat room. Accepted messages and presence changes are published to other nodes
+	 * and applied in the global order given by the relay.
+	 * To start working the start() method needs to be invoked.
+	 * 
+	 * @param eventsBlockingQueue blockingQueue from which events from network and view are read
+	 * @param networkManager used by this controller to send messages over network
+	 * @param model model for the server that uses this controller
+	 * @param clusterNode connection with other server nodes. null if server works alone.
+	 * @param searchExecutor threads that search the history. Shut down when controller stops.
+	 */
+	public Controller(final BlockingQueue<ApplicationEvent> eventsBlockingQueue,
+			final ServerNetworkManager networkManager, final ServerModel model,
+			final ClusterNode clusterNode, final ExecutorService searchExecutor)
+	{
+		this.clusterNode = clusterNode;
+		pendingMessages = new ArrayDeque<PendingMessage>();
+		remoteUserNames = new HashSet<String>();
+		this.searchExecutor = searchExecutor;
 		this.eventsBlockingQueue = eventsBlockingQueue;
 		this.networkManager = networkManager;
 		this.model = model;
 		clientToUserNameMap = new HashMap<ClientNetworkManager, String>();
+		userNameToClientMap = new HashMap<String, ClientNetworkManager>();
 		eventsToStrategyMap = 
 				new HashMap<Class<? extends ApplicationEvent>, Controller.ServerStrategy>();
 		eventsToStrategyMap.put(LogInEvent.class, new LoginInStrategy());
 		eventsToStrategyMap.put(MessageEvent.class, new MessageStrategy());
-		eventsToStrategyMap.put(LogOutEvent.class, new LogOutStrategy());
+		final LogOutStrategy logOutStrategy = new LogOutStrategy();
+		eventsToStrategyMap.put(LogOutEvent.class, logOutStrategy);
+		eventsToStrategyMap.put(IdleSessionsEvent.class, logOutStrategy);
 		eventsToStrategyMap.put(StateRequestEvent.class, new ResendMessagesStrategy());
+		eventsToStrategyMap.put(ShutdownEvent.class, new ShutdownStrategy());
+		eventsToStrategyMap.put(ClusterRecordEvent.class, new ClusterRecordStrategy());
+		eventsToStrategyMap.put(ClusterDisconnectedEvent.class, new ClusterDisconnectedStrategy());
+		eventsToStrategyMap.put(ReplicatedMessagesEvent.class, new ReplicatedMessagesStrategy());
+		eventsToStrategyMap.put(SearchRequestEvent.class, new SearchStrategy());
+		eventsToStrategyMap.put(SearchResultEvent.class, new SearchResultStrategy());
+		eventsToStrategyMap.put(AdminQueryEvent.class, new AdminQueryStrategy());
+		eventsToStrategyMap.put(RefusedMessageEvent.class, new RefusedMessageStrategy());
+		keepGoing = true;
+		stoppedLatch = new CountDownLatch(1);
 	}
 	
 	/**
-	 * Method that listens for the blockingQueue and handles events
+	 * Method that listens for the blockingQueue and handles events.
+	 * Chat states sent while handling events are flushed when there are no more
+	 * waiting events, or after the maximum flush delay if events keep coming.
+	 * It returns after ShutdownEvent has been handled.
 	 */
 	public void start()
 	{
-		while (true)
+		while (keepGoing)
 		{
-			ApplicationEvent event = null;
-			try
+			ApplicationEvent event = eventsBlockingQueue.poll();
+			if(event == null)
 			{
-				event = eventsBlockingQueue.take();
+				//all events have been handled, states they have sent are written together
+				networkManager.flushClients();
+				try
+				{
+					event = eventsBlockingQueue.take();
+				}
+				catch (final InterruptedException e)
+				{
+					continue;
+				}
 			}
-			catch (final InterruptedException e)
+			eventsToStrategyMap.get(event.getClass()).execute(event);
+			networkManager.flushClientsIfDelayed();
+		}
+		stoppedLatch.countDown();
+	}
+	
+	/**
+	 * Method that waits until this controller stops handling events.
+	 * 
+	 * @param timeoutMillis maximum time to wait in milliseconds
+	 * @return true if controller has stopped. false if time has run out.
+	 * @throws InterruptedException if thread was interrupted while waiting
+	 */
+	public boolean awaitStop(final long timeoutMillis) throws InterruptedException
+	{
+		return stoppedLatch.await(timeoutMillis, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Method that creates threads for searching the history. Threads are daemons,
+	 * so they don't keep the application alive.
+	 * 
+	 * @param threads number of threads
+	 * @return executor that runs searches
+	 */
+	public static ExecutorService newSearchExecutor(final int threads)
+	{
+		return Executors.newFixedThreadPool(threads, new ThreadFactory()
+		{
+			@Override
+			public Thread newThread(final Runnable runnable)
 			{
-				continue;
+				final Thread thread = new Thread(runnable, "search");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+	
+	/**
+	 * Method that publishes record to other server nodes, if this server is one of them.
+	 * 
+	 * @param type what the record describes
+	 * @param username name of the user concerned by the record
+	 * @param content content of the message. null for presence records
+	 * @return true if record has been published and will be delivered back by the relay.
+	 * false if server works alone or connection with the relay doesn't work.
+	 */
+	private boolean publish(final ClusterRecord.Type type, final String username, final String content)
+	{
+		if(clusterNode == null)
+		{
+			return false;
+		}
+		return clusterNode.publish(type, username, content, System.currentTimeMillis());
+	}
+	
+	/**
+	 * Method that checks if message is published to the relay and waits to be delivered back.
+	 * If connection with the relay has been lost, waiting messages are rejected when
+	 * ClusterDisconnectedEvent is handled, so that their authors can send them again.
+	 * 
+	 * @param username name of the author
+	 * @param clientMessageId id given to the message by the client. 0 if there is none.
+	 * @return true if message waits for the relay and shouldn't be published again
+	 */
+	private boolean isPendingMessage(final String username, final long clientMessageId)
+	{
+		for (final PendingMessage pending : pendingMessages)
+		{
+			if(clientMessageId != 0 && pending.clientMessageId == clientMessageId
+					&& pending.userName.equals(username))
+			{
+				return true;
 			}
-			eventsToStrategyMap.get(event.getClass()).execute(event);
+		}
+		return false;
+	}
+	
+	/**
+	 * Method that acknowledges accepted message to its author. If the author wasn't
+	 * up to date, messages the author has missed are sent with the acknowledgement.
+	 * 
+	 * @param client author of the message
+	 * @param clientMessageId id given to the message by the client. 0 if there is none.
+	 * @param isUpToDate whether the author was up to date when sending the message
+	 * @param previousMessageDate date of the last message the author had received
+	 */
+	private void acknowledgeMessage(final ClientNetworkManager client, final long clientMessageId,
+			final boolean isUpToDate, final Date previousMessageDate)
+	{
+		if(isUpToDate == false)
+		{
+			//message is merged, author gets missed messages with the acknowledgement
+			final ChatState state = previousMessageDate == null
+					? model.getChatState(ChatState.UserStatus.MESSAGE_ACCEPTED)
+					: model.getChatStateWithMessagesAfter(previousMessageDate,
+							ChatState.UserStatus.MESSAGE_ACCEPTED);
+			state.setClientMessageId(clientMessageId);
+			client.send(state);
+		}
+		else if(clientMessageId != 0)
+		{
+			client.send(model.getAcknowledgement(clientMessageId));
 		}
 	}
 	
 	/**
 	 * Class that provides common base for strategies used to handle events 
 	 * 
-	 * @author Wojciech Zieliski
+	 * @author Wojciech Zieliński
 	 */
 	private abstract class ServerStrategy
 	{
@@ -95,7 +282,7 @@ public class Controller
 	 * Strategy that handles LoginRequestEvent. it checks if the username of the user is already
 	 * in use. if it's not user is accepted. in different case he is rejected.
 	 * 
-	 * @author Wojciech Zieliski
+	 * @author Wojciech Zieliński
 	 */
 	private class LoginInStrategy extends ServerStrategy
 	{
@@ -118,10 +305,23 @@ public class Controller
 			{
 				final String username = event.getUserName();
 				model.addUser(username);
+				publish(ClusterRecord.Type.USER_JOINED, username, null);
 				networkManager.broadcast(model.getChatState(UserStatus.CONTINUES_WORKING));
 				clientToUserNameMap.put(client, username);
+				userNameToClientMap.put(username, client);
 				client.setLoggedIn();
-				client.send(model.getChatState(UserStatus.JUST_LOGGED_IN));
+				client.setCompressing(event.isAcceptingCompression());
+				//client that has older messages of the same history cached needs only the ones it missed
+				final boolean isCacheValid = event.getLastCachedSequence() >= 0
+						&& event.getCachedHistoryEpoch() != 0
+						&& event.getCachedHistoryEpoch() == model.getHistoryEpoch();
+				final ChatState state = isCacheValid
+						? model.getChatStateWithMessagesAfterSequence(
+								event.getLastCachedSequence(), UserStatus.JUST_LOGGED_IN)
+						: model.getChatState(UserStatus.JUST_LOGGED_IN);
+				state.setAttachmentPort(model.getAttachmentPort());
+				state.setHistoryEpoch(model.getHistoryEpoch());
+				client.send(state);
 			}
 			else 
 			{
@@ -135,7 +335,7 @@ public class Controller
 	/**
 	 * Strategy that handles MessageReceivedEvent
 	 * 
-	 * @author Wojciech Zieliski
+	 * @author Wojciech Zieliński
 	 */
 	private class MessageStrategy extends ServerStrategy
 	{
@@ -144,6 +344,13 @@ public class Controller
 		 * whether user who sent this message is up to date with received messages,
 		 * and then either accepts the message and resends status update to all,
 		 * or rejects the message and resends status update only to the author.
+		 * If the client has given the message an id, accepted message is acknowledged
+		 * to the author, and rejection carries the id. Message with id that has already
+		 * been accepted is only acknowledged again. In a cluster the message is remembered and
+		 * acknowledged only when the relay delivers it back, so that it's sent again if
+		 * the relay fails before that. If the server merges stale messages,
+		 * message from user who isn't up to date is accepted too, and messages he has
+		 * missed are sent with the acknowledgement. Direct messages are handled by sendDirectMessage().
 		 * 
 		 * @param e MessageEvent to be handled
 		 */
@@ -160,31 +367,109 @@ public class Controller
 			{
 				return;
 			}
+			if(model.isReadOnly())
+			{
+				final ChatState state = model.getChatState(ChatState.UserStatus.READ_ONLY);
+				state.setClientMessageId(event.getClientMessageId());
+				client.send(state);
+				return;
+			}
+			final String username = clientToUserNameMap.get(client);
+			if(model.isDuplicateMessage(username, event.getClientMessageId()))
+			{
+				//message sent again after reconnecting, it has already been accepted
+				client.send(model.getAcknowledgement(event.getClientMessageId()));
+				return;
+			}
+			if(isPendingMessage(username, event.getClientMessageId()))
+			{
+				//message sent again after reconnecting, it is acknowledged when relay delivers it
+				return;
+			}
+			if(event.getRecipients() != null)
+			{
+				sendDirectMessage(event, username);
+				return;
+			}
 			final Date previousMessageDate = event.getPreviousMessageDate();
-			if(model.isValidDate(previousMessageDate))
+			final boolean isUpToDate = model.isValidDate(previousMessageDate);
+			if((isUpToDate || model.isMergingStaleMessages()) && model.isValidContent(event.getMessageString()))
 			{
+				model.countAcceptedMessage();
+				//message is added, remembered and acknowledged when relay delivers it back in global order
+				if(publish(ClusterRecord.Type.MESSAGE, username, event.getMessageString()))
+				{
+					pendingMessages.add(new PendingMessage(username, event.getClientMessageId(),
+							isUpToDate, previousMessageDate));
+					return;
+				}
+				model.rememberMessageId(username, event.getClientMessageId());
 				final ChatMessage message = new ChatMessage(
 						event.getMessageString(), 
-						clientToUserNameMap.get(client), 
+						username, 
 						new Date());
 				model.addMessage(message);
 				networkManager.broadcast(model.getChatState(ChatState.UserStatus.CONTINUES_WORKING));
+				acknowledgeMessage(client, event.getClientMessageId(), isUpToDate, previousMessageDate);
 			}
 			else 
 			{
+				if(model.isValidContent(event.getMessageString()))
+				{
+					model.countRejectedMessage();
+				}
 				final ChatState state = model.getChatStateWithMessagesAfter(
 						previousMessageDate, ChatState.UserStatus.MESSAGE_REJECTED);
+				state.setClientMessageId(event.getClientMessageId());
 				client.send(state);
 			}
 			
 		}
 		
+		/**
+		 * Method that sends direct message to its recipients and the author, and adds it
+		 * to their conversation. Message is delivered only to the participants - no other
+		 * client is visited. All recipients have to be logged in to this server,
+		 * otherwise message is rejected. Direct messages don't depend on the history of
+		 * the chat room, so the author doesn't have to be up to date.
+		 * 
+		 * @param event MessageEvent with recipients
+		 * @param username name of the author
+		 */
+		private void sendDirectMessage(final MessageEvent event, final String username)
+		{
+			final ClientNetworkManager client = event.getClientNetworkManager();
+			final Set<String> recipients = event.getRecipients();
+			boolean isValid = model.isValidContent(event.getMessageString())
+					&& model.isValidRecipients(username, recipients);
+			for (final String recipient : recipients)
+			{
+				isValid = isValid && userNameToClientMap.containsKey(recipient);
+			}
+			if(isValid == false)
+			{
+				final ChatState state = model.getChatState(ChatState.UserStatus.MESSAGE_REJECTED);
+				state.setClientMessageId(event.getClientMessageId());
+				client.send(state);
+				return;
+			}
+			model.rememberMessageId(username, event.getClientMessageId());
+			final ChatState state = model.addDirectMessage(username, recipients, event.getMessageString());
+			for (final String participant : state.getLoggedInUserNames())
+			{
+				userNameToClientMap.get(participant).send(state);
+			}
+			if(event.getClientMessageId() != 0)
+			{
+				client.send(model.getAcknowledgement(event.getClientMessageId()));
+			}
+		}
 	}
 	
 	/**
-	 * Strategy that handles LogOutEvent
+	 * Strategy that handles LogOutEvent and IdleSessionsEvent
 	 * 
-	 * @author Wojciech Zieliski
+	 * @author Wojciech Zieliński
 	 */
 	private class LogOutStrategy extends ServerStrategy
 	{
@@ -192,31 +477,424 @@ public class Controller
 		 * Method that is invoked in response to LogOutEvent. It disconnects
 		 * the user from the server, resends update to him saying that log out succeeded
 		 * and resends update to all without this user mentioned in the logged in users status.
+		 * In response to IdleSessionsEvent all idle users are disconnected the same way,
+		 * and update is sent to all only once.
 		 */
 		@Override
 		public void execute(final ApplicationEvent e)
 		{
-			if(e instanceof LogOutEvent == false)
+			if(e instanceof LogOutEvent)
+			{
+				logOut(((LogOutEvent) e).getClientNetworkManager());
+			}
+			else if(e instanceof IdleSessionsEvent)
+			{
+				for (final ClientNetworkManager client : ((IdleSessionsEvent) e).getClients())
+				{
+					logOut(client);
+				}
+			}
+			else
 			{
 				return;
 			}
-			final LogOutEvent event = (LogOutEvent) e;
-			final ClientNetworkManager client = event.getClientNetworkManager();
+			networkManager.broadcast(model.getChatState(ChatState.UserStatus.CONTINUES_WORKING));
+		}
+		
+		/**
+		 * Method that disconnects the user from the server and sends him update
+		 * saying that log out succeeded.
+		 * 
+		 * @param client client to be disconnected
+		 */
+		private void logOut(final ClientNetworkManager client)
+		{
 			final String username = clientToUserNameMap.get(client);
 			clientToUserNameMap.remove(client);
+			if(username != null)
+			{
+				userNameToClientMap.remove(username);
+				publish(ClusterRecord.Type.USER_LEFT, username, null);
+			}
 			model.removeUser(username);
 			networkManager.removeClient(client);
 			client.send(model.getChatState(ChatState.UserStatus.LOGGED_OUT));
 			client.close();
-			networkManager.broadcast(model.getChatState(ChatState.UserStatus.CONTINUES_WORKING));
 		}
 		
 	}
 	
+	/**
+	 * Strategy that handles ShutdownEvent
+	 * 
+	 * @author Wojciech Zieliński
+	 */
+	private class ShutdownStrategy extends ServerStrategy
+	{
+		/**
+		 * Method that is invoked in response to ShutdownEvent. It stops accepting
+		 * new clients, handles all events that are already in the queue, sends
+		 * log out state to all clients and closes them, and then saves the history.
+		 * After that the controller stops.
+		 */
+		@Override
+		public void execute(final ApplicationEvent e)
+		{
+			if(e instanceof ShutdownEvent == false)
+			{
+				return;
+			}
+			networkManager.stopAccepting();
+			final ArrayList<ApplicationEvent> remainingEvents = new ArrayList<ApplicationEvent>();
+			eventsBlockingQueue.drainTo(remainingEvents);
+			for (final ApplicationEvent event : remainingEvents)
+			{
+				if(event instanceof ShutdownEvent == false)
+				{
+					eventsToStrategyMap.get(event.getClass()).execute(event);
+				}
+			}
+			for (final String username : clientToUserNameMap.values())
+			{
+				model.removeUser(username);
+			}
+			clientToUserNameMap.clear();
+			userNameToClientMap.clear();
+			networkManager.closeAllClients(model.getChatState(ChatState.UserStatus.LOGGED_OUT));
+			if(clusterNode != null)
+			{
+				//relay logs out users of this node on all other nodes
+				clusterNode.close();
+			}
+			try
+			{
+				model.saveSnapshot();
+			}
+			catch (final IOException exception)
+			{
+				System.out.println("Couldn't save history: " + exception.getMessage());
+			}
+			model.close();
+			searchExecutor.shutdownNow();
+			keepGoing = false;
+		}
+	}
+	
+	/**
+	 * Strategy that handles ClusterRecordEvent
+	 * 
+	 * @author Wojciech Zieliński
+	 */
+	private class ClusterRecordStrategy extends ServerStrategy
+	{
+		/**
+		 * Method that is invoked in response to ClusterRecordEvent. Messages (from
+		 * all nodes, this one included) are added to the model in the global order
+		 * given by the relay. They are dated by this node, so that history stays
+		 * ordered by date. Presence changes of users of other nodes are applied to the model.
+		 * After every change update is sent to all local users. Message published by this node
+		 * is remembered and acknowledged to its author after the update. Relay delivers
+		 * records of one node in the order they were published, so it is the oldest pending message.
+		 */
+		@Override
+		public void execute(final ApplicationEvent e)
+		{
+			if(e instanceof ClusterRecordEvent == false)
+			{
+				return;
+			}
+			final ClusterRecord record = ((ClusterRecordEvent) e).getRecord();
+			final boolean isLocal = record.getNodeId().equals(clusterNode.getNodeId());
+			PendingMessage pending = null;
+			switch (record.getType())
+			{
+			case MESSAGE:
+				model.addMessage(new ChatMessage(record.getContent(), record.getUserName(), new Date()));
+				if(isLocal)
+				{
+					pending = pendingMessages.poll();
+				}
+				break;
+			case USER_JOINED:
+				if(isLocal)
+				{
+					return; //already added
+				}
+				model.addUser(record.getUserName());
+				remoteUserNames.add(record.getUserName());
+				break;
+			case USER_LEFT:
+				if(isLocal)
+				{
+					return; //already removed
+				}
+				model.removeUser(record.getUserName());
+				remoteUserNames.remove(record.getUserName());
+				break;
+			}
+			networkManager.broadcast(model.getChatState(ChatState.UserStatus.CONTINUES_WORKING));
+			if(pending != null)
+			{
+				model.rememberMessageId(pending.userName, pending.clientMessageId);
+				final ClientNetworkManager author = userNameToClientMap.get(pending.userName);
+				if(author != null)
+				{
+					acknowledgeMessage(author, pending.clientMessageId,
+							pending.isUpToDate, pending.previousMessageDate);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Strategy that handles ClusterDisconnectedEvent
+	 * 
+	 * @author Wojciech Zieliński
+	 */
+	private class ClusterDisconnectedStrategy extends ServerStrategy
+	{
+		/**
+		 * Method that is invoked in response to ClusterDisconnectedEvent. Messages waiting
+		 * for the relay are rejected, so that their authors can send them again, and users
+		 * of other nodes are removed from the model. From now on this node works alone.
+		 */
+		@Override
+		public void execute(final ApplicationEvent e)
+		{
+			if(e instanceof ClusterDisconnectedEvent == false)
+			{
+				return;
+			}
+			for (final String userName : remoteUserNames)
+			{
+				model.removeUser(userName);
+			}
+			remoteUserNames.clear();
+			networkManager.broadcast(model.getChatState(ChatState.UserStatus.CONTINUES_WORKING));
+			PendingMessage pending;
+			while((pending = pendingMessages.poll()) != null)
+			{
+				final ClientNetworkManager author = userNameToClientMap.get(pending.userName);
+				if(author != null)
+				{
+					final ChatState state = model.getChatStateWithMessagesAfter(
+							pending.previousMessageDate, ChatState.UserStatus.MESSAGE_REJECTED);
+					state.setClientMessageId(pending.clientMessageId);
+					author.send(state);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Strategy that handles ReplicatedMessagesEvent
+	 * 
+	 * @author Wojciech Zieliński
+	 */
+	private class ReplicatedMessagesStrategy extends ServerStrategy
+	{
+		/**
+		 * Method that is invoked in response to ReplicatedMessagesEvent. Messages read
+		 * from the log of the primary are added to the model with their original dates
+		 * and sequence numbers, and one update is sent to all users.
+		 */
+		@Override
+		public void execute(final ApplicationEvent e)
+		{
+			if(e instanceof ReplicatedMessagesEvent == false)
+			{
+				return;
+			}
+			boolean isAdded = false;
+			for (final ChatMessage message : ((ReplicatedMessagesEvent) e).getMessages())
+			{
+				isAdded = model.addReplicatedMessage(message) || isAdded;
+			}
+			if(isAdded)
+			{
+				networkManager.broadcast(model.getChatState(ChatState.UserStatus.CONTINUES_WORKING));
+			}
+		}
+	}
+	
+	/**
+	 * Strategy that handles SearchRequestEvent
+	 * 
+	 * @author Wojciech Zieliński
+	 */
+	private class SearchStrategy extends ServerStrategy
+	{
+		/**
+		 * Method that is invoked in response to SearchRequestEvent. The index
+		 * is searched by search threads, and the result comes back to the controller
+		 * as SearchResultEvent, so that long searches don't delay messages.
+		 */
+		@Override
+		public void execute(final ApplicationEvent e)
+		{
+			if(e instanceof SearchRequestEvent == false)
+			{
+				return;
+			}
+			final SearchRequestEvent event = (SearchRequestEvent) e;
+			final ClientNetworkManager client = event.getClientNetworkManager();
+			if(client.getIsLoggedIn() == false)
+			{
+				return;
+			}
+			final InvertedIndex index = model.getSearchIndex();
+			final int limit = Math.max(0, Math.min(event.getLimit(), model.getSearchMaxResults()));
+			try
+			{
+				searchExecutor.execute(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						final long[] sequences = index.search(event.getQuery(), event.getAuthor(),
+								event.getFrom(), event.getTo(), limit);
+						try
+						{
+							eventsBlockingQueue.put(new SearchResultEvent(client, sequences));
+						}
+						catch (final InterruptedException exception)
+						{
+							//server is shutting down
+						}
+					}
+				});
+			}
+			catch (final RejectedExecutionException exception)
+			{
+				//server is shutting down
+			}
+		}
+	}
+	
+	/**
+	 * Strategy that handles SearchResultEvent
+	 * 
+	 * @author Wojciech Zieliński
+	 */
+	private class SearchResultStrategy extends ServerStrategy
+	{
+		/**
+		 * Method that is invoked in response to SearchResultEvent. It sends
+		 * found messages to the client that asked for them, if he's still logged in.
+		 */
+		@Override
+		public void execute(final ApplicationEvent e)
+		{
+			if(e instanceof SearchResultEvent == false)
+			{
+				return;
+			}
+			final SearchResultEvent event = (SearchResultEvent) e;
+			final ClientNetworkManager client = event.getClientNetworkManager();
+			if(client.getIsLoggedIn() == false)
+			{
+				return;
+			}
+			client.send(model.getChatStateWithMessages(event.getSequences(), ChatState.UserStatus.QUERY_RESULT));
+		}
+	}
+	
+	/**
+	 * Strategy that handles AdminQueryEvent
+	 * 
+	 * @author Wojciech Zieliński
+	 */
+	private class AdminQueryStrategy extends ServerStrategy
+	{
+		/**
+		 * Method that is invoked in response to AdminQueryEvent. If author of the event
+		 * is an administrator, he gets latest messages of given user or statistics
+		 * of users. Both are read from indexes of the model, without going through history.
+		 */
+		@Override
+		public void execute(final ApplicationEvent e)
+		{
+			if(e instanceof AdminQueryEvent == false)
+			{
+				return;
+			}
+			final AdminQueryEvent event = (AdminQueryEvent) e;
+			final ClientNetworkManager client = event.getClientNetworkManager();
+			if(client.getIsLoggedIn() == false)
+			{
+				return;
+			}
+			if(model.isAdmin(clientToUserNameMap.get(client)) == false)
+			{
+				client.send(model.getChatStateWithNotes(
+						Collections.singletonList("Only administrators can do that."), UserStatus.QUERY_RESULT));
+				return;
+			}
+			final int limit = Math.max(0, Math.min(event.getLimit(), model.getSearchMaxResults()));
+			if(event.getQuery() == AdminQueryEvent.Query.MESSAGES_OF_USER)
+			{
+				client.send(model.getChatStateWithMessagesOf(event.getUserName(), limit, UserStatus.QUERY_RESULT));
+				return;
+			}
+			final ArrayList<String> notes = new ArrayList<String>();
+			if(event.getUserName() != null)
+			{
+				final AuthorStatistics statistics = model.getAuthorStatistics(event.getUserName());
+				notes.add(statistics == null ? event.getUserName() + " hasn't sent any message."
+						: statistics.toString());
+			}
+			else
+			{
+				for (final AuthorStatistics statistics : model.getMostActiveAuthors(limit))
+				{
+					notes.add(statistics.toString());
+				}
+				//statistics of all users come with statistics of the server's load
+				notes.add("Frame cache: hits: " + model.getFrameCacheHitCount()
+						+ ", misses: " + model.getFrameCacheMissCount()
+						+ ", hit rate: " + Math.round(model.getFrameCacheHitRate() * 100) + "%");
+				if(eventsBlockingQueue instanceof EventIntake)
+				{
+					notes.add(((EventIntake) eventsBlockingQueue).getStatistics());
+				}
+			}
+			client.send(model.getChatStateWithNotes(notes, UserStatus.QUERY_RESULT));
+		}
+	}
+	
+	/**
+	 * Strategy that handles RefusedMessageEvent
+	 * 
+	 * @author Wojciech Zieliński
+	 */
+	private class RefusedMessageStrategy extends ServerStrategy
+	{
+		/**
+		 * Method that is invoked in response to RefusedMessageEvent. It tells the author
+		 * that the message has been refused because the server is overloaded.
+		 * Nothing else is done, the model isn't touched.
+		 */
+		@Override
+		public void execute(final ApplicationEvent e)
+		{
+			if(e instanceof RefusedMessageEvent == false)
+			{
+				return;
+			}
+			final RefusedMessageEvent event = (RefusedMessageEvent) e;
+			final ClientNetworkManager client = event.getClientNetworkManager();
+			if(client.getIsLoggedIn() == false)
+			{
+				return;
+			}
+			client.send(model.getOverloadNotice(event.getClientMessageId()));
+		}
+	}
+	
 	/**
 	 * Strategy that handle ResendMessagesEvent
 	 * 
-	 * @author Wojciech Zieliski
+	 * @author Wojciech Zieliński
 	 */
 	private class ResendMessagesStrategy extends ServerStrategy
 	{
@@ -243,4 +921,39 @@ public class Controller
 			client.send(state);
 		}
 	}
+	
+	/**
+	 * Message published to the relay by this node, waiting to be delivered back
+	 * before it's acknowledged to its author.
+	 * 
+	 * @author Wojciech Zieliński
+	 */
+	private static class PendingMessage
+	{
+		/**name of the author*/
+		private final String userName;
+		/**id given to the message by the client. 0 if there is none*/
+		private final long clientMessageId;
+		/**whether the author was up to date when sending the message*/
+		private final boolean isUpToDate;
+		/**date of the last message the author had received*/
+		private final Date previousMessageDate;
+		
+		/**
+		 * Constructor that creates the pending message.
+		 * 
+		 * @param userName name of the author
+		 * @param clientMessageId id given to the message by the client. 0 if there is none.
+		 * @param isUpToDate whether the author was up to date when sending the message
+		 * @param previousMessageDate date of the last message the author had received
+		 */
+		public PendingMessage(final String userName, final long clientMessageId,
+				final boolean isUpToDate, final Date previousMessageDate)
+		{
+			this.userName = userName;
+			this.clientMessageId = clientMessageId;
+			this.isUpToDate = isUpToDate;
+			this.previousMessageDate = previousMessageDate;
+		}
+	}
 }
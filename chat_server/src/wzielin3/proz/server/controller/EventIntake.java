@@ -0,0 +1,833 @@
+package wzielin3.proz.server.controller;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import wzielin3.proz.server.config.ServerConfiguration;
+import wzielin3.proz.server.events.ApplicationEvent;
+import wzielin3.proz.server.events.IdleSessionsEvent;
+import wzielin3.proz.server.events.LogInEvent;
+import wzielin3.proz.server.events.LogOutEvent;
+import wzielin3.proz.server.events.MessageEvent;
+import wzielin3.proz.server.events.RefusedMessageEvent;
+import wzielin3.proz.server.events.ShutdownEvent;
+import wzielin3.proz.server.events.StateRequestEvent;
+import wzielin3.proz.server.network.ClientNetworkManager;
+
+/**
+ * Queue of events read by the controller, divided into lanes. Session control events
+ * (log in, log out, idle sessions, shutdown) don't wait behind a flood of messages,
+ * so users whose connections are lost are logged out right away and no states are
+ * broadcast to them. Lanes are drained by weighted round robin - in every round
+ * each lane gives at most as many events as its weight, so lower lanes are slowed
+ * down but never starved. Requests for chat state are merged - there is at most one
+ * waiting request of every client, the one that asks for the most messages.
+ * Events of one lane are taken in order they were put, events of different
+ * lanes may be taken in different order, e.g. messages waiting behind log out
+ * of their author are handled after it, as sent by logged out user.
+ * <p>
+ * Every lane is bounded, producers wait when their lane is full. Time messages wait
+ * in the intake is measured the way CoDel does it - when it stays above the target
+ * for a whole interval, the controller is overloaded. Until messages wait shorter
+ * than the target again new messages are refused: the controller gets cheap
+ * RefusedMessageEvent instead, and the thread that has put the message waits
+ * up to one interval, so it stops reading its socket for that time. Requests for chat
+ * state are dropped, clients repeat them anyway.
+ * 
+ * @author Wojciech Zieliński
+ */
+public class EventIntake extends AbstractQueue<ApplicationEvent> implements BlockingQueue<ApplicationEvent>
+{
+	/**
+	 * Lanes of events, from the highest priority.
+	 * 
+	 * @author Wojciech Zieliński
+	 */
+	public enum Lane
+	{
+		/**events that start and end sessions, and answers to refused messages*/
+		CONTROL,
+		/**messages and all other events*/
+		MESSAGE,
+		/**requests for chat state, merged per client*/
+		POLL
+	}
+	
+	/**lock guarding all lanes*/
+	private final ReentrantLock lock;
+	/**condition signalled when event is put*/
+	private final Condition notEmpty;
+	/**conditions signalled when event is taken from a lane, indexed by ordinal of the lane*/
+	private final Condition[] notFull;
+	/**condition signalled when the controller stops being overloaded*/
+	private final Condition notOverloaded;
+	/**maximum number of waiting events*/
+	private final int capacity;
+	/**maximum number of waiting events in one lane*/
+	private final int laneCapacity;
+	/**waiting session control events*/
+	private final ArrayDeque<ApplicationEvent> controlEvents;
+	/**waiting messages and other events, with times they were put*/
+	private final ArrayDeque<WaitingEvent> messageEvents;
+	/**waiting requests for chat state, at most one per client, in order of the first request*/
+	private final LinkedHashMap<ClientNetworkManager, StateRequestEvent> pollEvents;
+	/**number of events every lane can give in one round, indexed by ordinal of the lane*/
+	private final int[] weights;
+	/**number of events every lane can still give in current round*/
+	private final int[] credits;
+	/**time in nanoseconds messages may wait without overloading the controller*/
+	private final long targetDelayNanos;
+	/**time in nanoseconds messages have to wait longer than the target to overload the controller*/
+	private final long intervalNanos;
+	/**time in nanoseconds when the controller becomes overloaded if messages keep waiting
+	 * longer than the target. 0 if the last taken message hasn't waited that long*/
+	private long firstAboveTargetNanos;
+	/**boolean value telling if the controller is overloaded and messages are refused*/
+	private boolean isOverloaded;
+	/**information about overload starting or ending, to be printed after the lock is released*/
+	private String overloadReport;
+	/**time in nanoseconds the last taken message has waited*/
+	private long lastDelayNanos;
+	/**number of times the controller has become overloaded*/
+	private long overloadsCount;
+	/**number of refused messages*/
+	private long refusedMessagesCount;
+	/**number of dropped requests for chat state*/
+	private long droppedPollsCount;
+	/**number of requests for chat state merged with waiting ones*/
+	private long mergedPollsCount;
+	
+	/**
+	 * Constructor that creates empty intake.
+	 * 
+	 * @param configuration configuration of the server
+	 */
+	public EventIntake(final ServerConfiguration configuration)
+	{
+		lock = new ReentrantLock();
+		notEmpty = lock.newCondition();
+		notFull = new Condition[Lane.values().length];
+		for (int i = 0; i < notFull.length; ++i)
+		{
+			notFull[i] = lock.newCondition();
+		}
+		notOverloaded = lock.newCondition();
+		capacity = configuration.getEventsQueueCapacity();
+		laneCapacity = configuration.getEventsLaneCapacity();
+		controlEvents = new ArrayDeque<ApplicationEvent>();
+		messageEvents = new ArrayDeque<WaitingEvent>();
+		pollEvents = new LinkedHashMap<ClientNetworkManager, StateRequestEvent>();
+		weights = new int[] { configuration.getControlLaneWeight(),
+				configuration.getMessageLaneWeight(), configuration.getPollLaneWeight() };
+		credits = weights.clone();
+		targetDelayNanos = TimeUnit.MILLISECONDS.toNanos(configuration.getEventsTargetDelayMillis());
+		intervalNanos = TimeUnit.MILLISECONDS.toNanos(configuration.getOverloadIntervalMillis());
+		firstAboveTargetNanos = 0;
+		isOverloaded = false;
+		overloadReport = null;
+		lastDelayNanos = 0;
+		overloadsCount = 0;
+		refusedMessagesCount = 0;
+		droppedPollsCount = 0;
+		mergedPollsCount = 0;
+	}
+	
+	/**
+	 * Method that returns lane to which event belongs. Log out requested by the user
+	 * goes to the message lane, behind messages the user has sent before, so that they
+	 * are handled. Only log out after lost connection is urgent.
+	 * 
+	 * @param event the event
+	 * @return lane of the event
+	 */
+	public static Lane getLane(final ApplicationEvent event)
+	{
+		if(event instanceof LogOutEvent)
+		{
+			return ((LogOutEvent) event).isConnectionLost() ? Lane.CONTROL : Lane.MESSAGE;
+		}
+		if(event instanceof LogInEvent || event instanceof IdleSessionsEvent
+				|| event instanceof ShutdownEvent || event instanceof RefusedMessageEvent)
+		{
+			return Lane.CONTROL;
+		}
+		if(event instanceof StateRequestEvent)
+		{
+			return Lane.POLL;
+		}
+		return Lane.MESSAGE;
+	}
+	
+	/**
+	 * Method that returns boolean value telling if the controller is overloaded
+	 * and new messages are refused.
+	 * 
+	 * @return true if the controller is overloaded
+	 */
+	public boolean isOverloaded()
+	{
+		lock.lock();
+		try
+		{
+			return isOverloaded;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Method that returns number of messages refused because the controller was overloaded.
+	 * 
+	 * @return number of refused messages
+	 */
+	public long getRefusedMessagesCount()
+	{
+		lock.lock();
+		try
+		{
+			return refusedMessagesCount;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Method that returns statistics of the intake: overloads, refused and dropped events,
+	 * merged requests, waiting events and how long the last message has waited.
+	 * 
+	 * @return one line description of the statistics
+	 */
+	public String getStatistics()
+	{
+		lock.lock();
+		try
+		{
+			return "Intake: " + (isOverloaded ? "overloaded" : "not overloaded")
+					+ ", overloads: " + overloadsCount
+					+ ", refused messages: " + refusedMessagesCount
+					+ ", dropped polls: " + droppedPollsCount
+					+ ", merged polls: " + mergedPollsCount
+					+ ", waiting control/message/poll events: " + controlEvents.size()
+					+ "/" + messageEvents.size() + "/" + pollEvents.size()
+					+ ", last message waited " + TimeUnit.NANOSECONDS.toMillis(lastDelayNanos) + " ms";
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Method that returns number of events waiting in given lane.
+	 * 
+	 * @param lane the lane
+	 * @return number of waiting events
+	 */
+	public int size(final Lane lane)
+	{
+		lock.lock();
+		try
+		{
+			switch(lane)
+			{
+			case CONTROL:
+				return controlEvents.size();
+			case MESSAGE:
+				return messageEvents.size();
+			default:
+				return pollEvents.size();
+			}
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Method that returns lane to which event would be added now. Message is added
+	 * to the control lane as RefusedMessageEvent if the controller is overloaded.
+	 * Should be invoked while holding the lock.
+	 * 
+	 * @param event the event
+	 * @return lane to which event would be added
+	 */
+	private Lane getTargetLane(final ApplicationEvent event)
+	{
+		return isOverloaded && event instanceof MessageEvent ? Lane.CONTROL : getLane(event);
+	}
+	
+	/**
+	 * Method that waits until event is taken from the lane to which given event would be added,
+	 * or from any lane if the intake is full. Should be invoked while holding the lock.
+	 * 
+	 * @param event event that has no room
+	 * @param nanos maximum time to wait in nanoseconds
+	 * @return estimate of the remaining time to wait
+	 * @throws InterruptedException if thread was interrupted while waiting
+	 */
+	private long awaitRoom(final ApplicationEvent event, final long nanos) throws InterruptedException
+	{
+		return notFull[getTargetLane(event).ordinal()].awaitNanos(nanos);
+	}
+	
+	/**
+	 * Method that wakes producers waiting for room in all lanes, e.g. after lane
+	 * of waiting messages has changed. Should be invoked while holding the lock.
+	 */
+	private void signalAllLanes()
+	{
+		for (final Condition condition : notFull)
+		{
+			condition.signalAll();
+		}
+	}
+	
+	/**
+	 * Method that adds event to its lane. Request for chat state is merged with
+	 * waiting request of the same client, if there is one, or dropped if the controller
+	 * is overloaded. Message is replaced with RefusedMessageEvent if the controller
+	 * is overloaded. Should be invoked while holding the lock.
+	 * 
+	 * @param event event to be added
+	 * @return event that has been added, merged or dropped in place of the given one.
+	 * null if there is no room for it.
+	 */
+	private ApplicationEvent enqueue(final ApplicationEvent event)
+	{
+		ApplicationEvent added = event;
+		final Lane lane = getTargetLane(event);
+		if(lane == Lane.POLL)
+		{
+			final StateRequestEvent request = (StateRequestEvent) event;
+			final StateRequestEvent waiting = pollEvents.get(request.getClientNetworkManager());
+			if(waiting != null)
+			{
+				if(asksForMore(request, waiting))
+				{
+					pollEvents.put(request.getClientNetworkManager(), request);
+				}
+				++mergedPollsCount;
+				return event;
+			}
+			if(isOverloaded || pollEvents.size() >= laneCapacity)
+			{
+				++droppedPollsCount;
+				return event;
+			}
+		}
+		else if(lane == Lane.CONTROL && event instanceof MessageEvent)
+		{
+			added = new RefusedMessageEvent((MessageEvent) event);
+		}
+		if(countEvents() >= capacity)
+		{
+			return null;
+		}
+		switch(lane)
+		{
+		case CONTROL:
+			if(controlEvents.size() >= laneCapacity)
+			{
+				return null;
+			}
+			controlEvents.add(added);
+			break;
+		case MESSAGE:
+			if(messageEvents.size() >= laneCapacity)
+			{
+				return null;
+			}
+			messageEvents.add(new WaitingEvent(added));
+			break;
+		default:
+			final StateRequestEvent request = (StateRequestEvent) added;
+			pollEvents.put(request.getClientNetworkManager(), request);
+			break;
+		}
+		if(added != event)
+		{
+			++refusedMessagesCount;
+		}
+		notEmpty.signal();
+		return added;
+	}
+	
+	/**
+	 * Method that makes thread whose message has been refused wait until the controller
+	 * is not overloaded, but not longer than one interval. Should be invoked while holding the lock.
+	 * 
+	 * @throws InterruptedException if thread was interrupted while waiting
+	 */
+	private void awaitNotOverloaded() throws InterruptedException
+	{
+		long nanos = intervalNanos;
+		while(isOverloaded && nanos > 0)
+		{
+			nanos = notOverloaded.awaitNanos(nanos);
+		}
+	}
+	
+	/**
+	 * Method that checks if the controller is overloaded, after message has been taken.
+	 * Controller becomes overloaded when messages wait longer than the target for a whole
+	 * interval, and stops being overloaded when message waits shorter than the target
+	 * or there are no more waiting messages. Should be invoked while holding the lock.
+	 * 
+	 * @param message taken message
+	 */
+	private void checkOverload(final WaitingEvent message)
+	{
+		final long now = System.nanoTime();
+		lastDelayNanos = now - message.putNanos;
+		if(lastDelayNanos < targetDelayNanos || messageEvents.isEmpty())
+		{
+			firstAboveTargetNanos = 0;
+			if(isOverloaded)
+			{
+				isOverloaded = false;
+				notOverloaded.signalAll();
+				signalAllLanes();
+				overloadReport = "Controller is no longer overloaded. Messages refused so far: "
+						+ refusedMessagesCount;
+			}
+		}
+		else if(firstAboveTargetNanos == 0)
+		{
+			firstAboveTargetNanos = now + intervalNanos;
+		}
+		else if(now >= firstAboveTargetNanos && isOverloaded == false)
+		{
+			isOverloaded = true;
+			++overloadsCount;
+			signalAllLanes();
+			overloadReport = "Controller is overloaded, new messages are refused. Messages wait "
+					+ TimeUnit.NANOSECONDS.toMillis(lastDelayNanos) + " ms";
+		}
+	}
+	
+	/**
+	 * Method that returns information about overload starting or ending, if there is one,
+	 * and forgets it. Should be invoked while holding the lock.
+	 * 
+	 * @return information to be printed. null if there is none.
+	 */
+	private String takeOverloadReport()
+	{
+		final String report = overloadReport;
+		overloadReport = null;
+		return report;
+	}
+	
+	/**
+	 * Method that prints information about overload starting or ending.
+	 * 
+	 * @param report information to be printed. null if there is none.
+	 */
+	private static void printOverloadReport(final String report)
+	{
+		if(report != null)
+		{
+			System.out.println(report);
+		}
+	}
+	
+	/**
+	 * Method that checks if request for chat state asks for more messages than the other one,
+	 * i.e. for messages since earlier date. Request without date asks for none.
+	 * 
+	 * @param request the request
+	 * @param other the other request
+	 * @return true if the request asks for more messages
+	 */
+	private static boolean asksForMore(final StateRequestEvent request, final StateRequestEvent other)
+	{
+		if(request.getLastMessageDate() == null)
+		{
+			return false;
+		}
+		return other.getLastMessageDate() == null
+				|| request.getLastMessageDate().before(other.getLastMessageDate());
+	}
+	
+	/**
+	 * Method that takes event from the lane chosen by weighted round robin.
+	 * Should be invoked while holding the lock, when there is at least one event.
+	 * 
+	 * @return taken event
+	 */
+	private ApplicationEvent dequeue()
+	{
+		while(true)
+		{
+			if(credits[Lane.CONTROL.ordinal()] > 0 && controlEvents.isEmpty() == false)
+			{
+				--credits[Lane.CONTROL.ordinal()];
+				return taken(Lane.CONTROL, controlEvents.poll());
+			}
+			if(credits[Lane.MESSAGE.ordinal()] > 0 && messageEvents.isEmpty() == false)
+			{
+				--credits[Lane.MESSAGE.ordinal()];
+				final WaitingEvent message = messageEvents.poll();
+				checkOverload(message);
+				return taken(Lane.MESSAGE, message.event);
+			}
+			if(credits[Lane.POLL.ordinal()] > 0 && pollEvents.isEmpty() == false)
+			{
+				--credits[Lane.POLL.ordinal()];
+				final Iterator<StateRequestEvent> iterator = pollEvents.values().iterator();
+				final StateRequestEvent request = iterator.next();
+				iterator.remove();
+				return taken(Lane.POLL, request);
+			}
+			//lanes with events have given all they could in this round
+			System.arraycopy(weights, 0, credits, 0, weights.length);
+		}
+	}
+	
+	/**
+	 * Method that signals producer waiting for room in the lane from which event has been taken.
+	 * If the intake was full, producers of all lanes are signalled, because all of them have room now.
+	 * Should be invoked while holding the lock.
+	 * 
+	 * @param lane lane from which event has been taken
+	 * @param event taken event
+	 * @return the same event
+	 */
+	private ApplicationEvent taken(final Lane lane, final ApplicationEvent event)
+	{
+		if(countEvents() + 1 >= capacity)
+		{
+			signalAllLanes();
+		}
+		else
+		{
+			notFull[lane.ordinal()].signal();
+		}
+		return event;
+	}
+	
+	/**
+	 * Method that returns number of waiting events. Should be invoked while holding the lock.
+	 * 
+	 * @return number of waiting events
+	 */
+	private int countEvents()
+	{
+		return controlEvents.size() + messageEvents.size() + pollEvents.size();
+	}
+	
+	@Override
+	public boolean offer(final ApplicationEvent event)
+	{
+		if(event == null)
+		{
+			throw new NullPointerException();
+		}
+		lock.lock();
+		try
+		{
+			return enqueue(event) != null;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	@Override
+	public boolean offer(final ApplicationEvent event, final long timeout, final TimeUnit unit)
+			throws InterruptedException
+	{
+		if(event == null)
+		{
+			throw new NullPointerException();
+		}
+		long nanos = unit.toNanos(timeout);
+		lock.lockInterruptibly();
+		try
+		{
+			ApplicationEvent added;
+			while((added = enqueue(event)) == null)
+			{
+				if(nanos <= 0)
+				{
+					return false;
+				}
+				nanos = awaitRoom(event, nanos);
+			}
+			if(added instanceof RefusedMessageEvent && added != event)
+			{
+				awaitNotOverloaded();
+			}
+			return true;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	@Override
+	public void put(final ApplicationEvent event) throws InterruptedException
+	{
+		if(event == null)
+		{
+			throw new NullPointerException();
+		}
+		lock.lockInterruptibly();
+		try
+		{
+			ApplicationEvent added;
+			while((added = enqueue(event)) == null)
+			{
+				awaitRoom(event, Long.MAX_VALUE);
+			}
+			if(added instanceof RefusedMessageEvent && added != event)
+			{
+				//producer stops reading its client for a while, e.g. socket listener
+				awaitNotOverloaded();
+			}
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	@Override
+	public ApplicationEvent poll()
+	{
+		final ApplicationEvent event;
+		final String report;
+		lock.lock();
+		try
+		{
+			event = countEvents() == 0 ? null : dequeue();
+			report = takeOverloadReport();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+		printOverloadReport(report);
+		return event;
+	}
+	
+	@Override
+	public ApplicationEvent poll(final long timeout, final TimeUnit unit) throws InterruptedException
+	{
+		long nanos = unit.toNanos(timeout);
+		final ApplicationEvent event;
+		final String report;
+		lock.lockInterruptibly();
+		try
+		{
+			while(countEvents() == 0)
+			{
+				if(nanos <= 0)
+				{
+					return null;
+				}
+				nanos = notEmpty.awaitNanos(nanos);
+			}
+			event = dequeue();
+			report = takeOverloadReport();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+		printOverloadReport(report);
+		return event;
+	}
+	
+	@Override
+	public ApplicationEvent take() throws InterruptedException
+	{
+		final ApplicationEvent event;
+		final String report;
+		lock.lockInterruptibly();
+		try
+		{
+			while(countEvents() == 0)
+			{
+				notEmpty.await();
+			}
+			event = dequeue();
+			report = takeOverloadReport();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+		printOverloadReport(report);
+		return event;
+	}
+	
+	/**
+	 * Method that returns event that would be taken next, without taking it.
+	 * Weights are not considered - event of the highest non empty lane is returned.
+	 */
+	@Override
+	public ApplicationEvent peek()
+	{
+		lock.lock();
+		try
+		{
+			if(controlEvents.isEmpty() == false)
+			{
+				return controlEvents.peek();
+			}
+			if(messageEvents.isEmpty() == false)
+			{
+				return messageEvents.peek().event;
+			}
+			return pollEvents.isEmpty() ? null : pollEvents.values().iterator().next();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	@Override
+	public int size()
+	{
+		lock.lock();
+		try
+		{
+			return countEvents();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	@Override
+	public int remainingCapacity()
+	{
+		lock.lock();
+		try
+		{
+			return capacity - countEvents();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Method that moves all waiting events to given collection, lane after lane,
+	 * from the highest priority.
+	 */
+	@Override
+	public int drainTo(final Collection<? super ApplicationEvent> collection)
+	{
+		return drainTo(collection, Integer.MAX_VALUE);
+	}
+	
+	/**
+	 * Method that moves at most given number of waiting events to given collection, lane after lane,
+	 * from the highest priority.
+	 */
+	@Override
+	public int drainTo(final Collection<? super ApplicationEvent> collection, final int maxElements)
+	{
+		lock.lock();
+		try
+		{
+			int drained = 0;
+			while(drained < maxElements && controlEvents.isEmpty() == false)
+			{
+				collection.add(controlEvents.poll());
+				++drained;
+			}
+			while(drained < maxElements && messageEvents.isEmpty() == false)
+			{
+				collection.add(messageEvents.poll().event);
+				++drained;
+			}
+			final Iterator<StateRequestEvent> iterator = pollEvents.values().iterator();
+			while(drained < maxElements && iterator.hasNext())
+			{
+				collection.add(iterator.next());
+				iterator.remove();
+				++drained;
+			}
+			if(drained > 0)
+			{
+				signalAllLanes();
+			}
+			return drained;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Method that returns iterator over copy of waiting events, lane after lane.
+	 * Events can't be removed with it.
+	 */
+	@Override
+	public Iterator<ApplicationEvent> iterator()
+	{
+		lock.lock();
+		try
+		{
+			final List<ApplicationEvent> events = new ArrayList<ApplicationEvent>(countEvents());
+			events.addAll(controlEvents);
+			for (final WaitingEvent message : messageEvents)
+			{
+				events.add(message.event);
+			}
+			events.addAll(pollEvents.values());
+			return Collections.unmodifiableList(events).iterator();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Event waiting in the intake together with time it was put.
+	 * 
+	 * @author Wojciech Zieliński
+	 */
+	private static class WaitingEvent
+	{
+		/**the event*/
+		private final ApplicationEvent event;
+		/**time in nanoseconds when the event was put*/
+		private final long putNanos;
+		
+		/**
+		 * Constructor that remembers current time as time the event was put.
+		 * 
+		 * @param event the event
+		 */
+		public WaitingEvent(final ApplicationEvent event)
+		{
+			this.event = event;
+			this.putNanos = System.nanoTime();
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package wzielin3.proz.server.events;
+
+/**
+ * Event that is created when administrator wants to see messages of one user
+ * or statistics of users' activity. Server answers with ChatState with
+ * QUERY_RESULT status. Users who are not administrators get only a refusal.
+ * 
+ * @author Wojciech Zieliński
+ */
+public class AdminQueryEvent extends NetworkEvent
+{
+	/**serialVersionUID for this class*/
+	private static final long serialVersionUID = 1L;
+	/**what administrator wants to see*/
+	private final Query query;
+	/**name of the user concerned. null if query concerns all users*/
+	private final String userName;
+	/**maximum number of returned messages or statistics*/
+	private final int limit;
+	
+	/**
+	 * Constructor that takes the query.
+	 * 
+	 * @param query what administrator wants to see
+	 * @param userName name of the user concerned. null if query concerns all users
+	 * (allowed only for statistics).
+	 * @param limit maximum number of returned messages or statistics
+	 */
+	public AdminQueryEvent(final Query query, final String userName, final int limit)
+	{
+		this.query = query;
+		this.userName = userName;
+		this.limit = limit;
+	}
+	
+	/**
+	 * Method that returns what administrator wants to see.
+	 * 
+	 * @return what administrator wants to see
+	 */
+	public Query getQuery()
+	{
+		return query;
+	}
+	
+	/**
+	 * Method that returns name of the user concerned.
+	 * 
+	 * @return name of the user concerned. null if query concerns all users.
+	 */
+	public String getUserName()
+	{
+		return userName;
+	}
+	
+	/**
+	 * Method that returns maximum number of returned messages or statistics.
+	 * 
+	 * @return maximum number of returned messages or statistics
+	 */
+	public int getLimit()
+	{
+		return limit;
+	}
+	
+	/**
+	 * Enumeration of admin queries.
+	 * 
+	 * @author Wojciech Zieliński
+	 */
+	public enum Query
+	{
+		/**Latest messages of one user.*/
+		MESSAGES_OF_USER,
+		/**Statistics of one user, or of the most active users.*/
+		USER_STATISTICS
+	}
+}
@@ -5,7 +5,7 @@ import java.io.Serializable;
 /**
  * Common base for all events in the application.
  * 
- * @author Wojciech Zieliski
+ * @author Wojciech Zieliński
  */
 public abstract class ApplicationEvent implements Serializable
 {
@@ -0,0 +1,15 @@
+package wzielin3.proz.server.events;
+
+/**
+ * Event that is created on the server side when connection of this node with the relay
+ * has been lost. It's never sent over network. It follows records that have been delivered
+ * before the connection was lost, so when controller receives it, messages still waiting for
+ * the relay will never be delivered and users of other nodes aren't known any more.
+ * 
+ * @author Wojciech Zieliński
+ */
+public class ClusterDisconnectedEvent extends ApplicationEvent
+{
+	/**serialVersionUID for this class*/
+	private static final long serialVersionUID = 1L;
+}
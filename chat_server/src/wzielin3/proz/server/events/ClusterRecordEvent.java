@@ -0,0 +1,37 @@
+package wzielin3.proz.server.events;
+
+import wzielin3.proz.server.cluster.ClusterRecord;
+
+/**
+ * Event that is created on the server side when the relay delivers a record
+ * published by one of the server nodes (this one included). It's never sent to clients.
+ * 
+ * @author Wojciech Zieliński
+ */
+public class ClusterRecordEvent extends ApplicationEvent
+{
+	/**serialVersionUID for this class*/
+	private static final long serialVersionUID = 1L;
+	/**record delivered by the relay*/
+	private final ClusterRecord record;
+	
+	/**
+	 * Constructor that takes record delivered by the relay.
+	 * 
+	 * @param record record delivered by the relay
+	 */
+	public ClusterRecordEvent(final ClusterRecord record)
+	{
+		this.record = record;
+	}
+	
+	/**
+	 * Method that returns record delivered by the relay.
+	 * 
+	 * @return record delivered by the relay
+	 */
+	public ClusterRecord getRecord()
+	{
+		return record;
+	}
+}
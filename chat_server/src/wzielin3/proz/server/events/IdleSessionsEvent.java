@@ -0,0 +1,40 @@
+package wzielin3.proz.server.events;
+
+import java.util.List;
+import wzielin3.proz.server.network.ClientNetworkManager;
+
+/**
+ * Event that is created on the server side when some clients haven't sent
+ * anything for longer than idle timeout. It's never sent over network.
+ * All clients that expired at the same moment are sent in one event, so that
+ * they are logged out together and other users get only one update.
+ * 
+ * @author Wojciech Zieliński
+ */
+public class IdleSessionsEvent extends ApplicationEvent
+{
+	/**serialVersionUID for this class*/
+	private static final long serialVersionUID = 1L;
+	/**clients that have been idle for too long*/
+	private final List<ClientNetworkManager> clients;
+	
+	/**
+	 * Constructor that takes clients that have been idle for too long.
+	 * 
+	 * @param clients clients that have been idle for too long
+	 */
+	public IdleSessionsEvent(final List<ClientNetworkManager> clients)
+	{
+		this.clients = clients;
+	}
+	
+	/**
+	 * Method that returns clients that have been idle for too long.
+	 * 
+	 * @return clients that have been idle for too long
+	 */
+	public List<ClientNetworkManager> getClients()
+	{
+		return clients;
+	}
+}
@@ -9,18 +9,24 @@ package wzielin3.proz.server.events;
  * On the server side it is processed to determine whether chosen 
  * user name is available.
  * 
- * @author Wojciech Zieliski
+ * @author Wojciech Zieliński
  */
 public class LogInEvent extends NetworkEvent
 {
 	/**serialVersionUID for this class*/
-	private static final long serialVersionUID = 1L;
+	private static final long serialVersionUID = 4L;
 	/**name with which user attempts to log in*/
 	private final String userName;
 	/**server name used to create Socket object*/
 	private final String serverName;
 	/**port value used to create Socket object*/
 	private final String port;
+	/**sequence number of the last message the client has cached. -1 if it has none*/
+	private long lastCachedSequence;
+	/**epoch of the history to which the cached messages belong. 0 if it's not known*/
+	private long cachedHistoryEpoch;
+	/**boolean value telling if the client can decompress chat states*/
+	private boolean isAcceptingCompression;
 	
 	/**
 	 * Constructor for LogInEvent.
@@ -33,6 +39,7 @@ public class LogInEvent extends NetworkEvent
 		this.userName = userName;
 		this.serverName = serverName;
 		this.port = port;
+		this.lastCachedSequence = -1;
 	}
 	
 	/**
@@ -72,4 +79,67 @@ public class LogInEvent extends NetworkEvent
 	{
 		return port;
 	}
+	
+	/**
+	 * Method that sets sequence number of the last message the client has cached
+	 * from previous sessions. Server then sends only messages after it.
+	 * 
+	 * @param lastCachedSequence sequence number of the last cached message. -1 if there is none.
+	 */
+	public void setLastCachedSequence(final long lastCachedSequence)
+	{
+		this.lastCachedSequence = lastCachedSequence;
+	}
+	
+	/**
+	 * Method that returns sequence number of the last message the client has cached.
+	 * 
+	 * @return sequence number of the last cached message. -1 if there is none.
+	 */
+	public long getLastCachedSequence()
+	{
+		return lastCachedSequence;
+	}
+	
+	/**
+	 * Method that sets epoch of the server's history to which the cached messages belong.
+	 * Server uses last cached sequence number only if it's the same as its current epoch.
+	 * 
+	 * @param cachedHistoryEpoch epoch of the cached history. 0 if it's not known.
+	 */
+	public void setCachedHistoryEpoch(final long cachedHistoryEpoch)
+	{
+		this.cachedHistoryEpoch = cachedHistoryEpoch;
+	}
+	
+	/**
+	 * Method that returns epoch of the server's history to which the cached messages belong.
+	 * 
+	 * @return epoch of the cached history. 0 if it's not known.
+	 */
+	public long getCachedHistoryEpoch()
+	{
+		return cachedHistoryEpoch;
+	}
+	
+	/**
+	 * Method that sets if the client can decompress chat states. Server compresses
+	 * large states only for clients that accept it.
+	 * 
+	 * @param isAcceptingCompression true if the client can decompress chat states
+	 */
+	public void setAcceptingCompression(final boolean isAcceptingCompression)
+	{
+		this.isAcceptingCompression = isAcceptingCompression;
+	}
+	
+	/**
+	 * Method that tells if the client can decompress chat states.
+	 * 
+	 * @return true if the client can decompress chat states
+	 */
+	public boolean isAcceptingCompression()
+	{
+		return isAcceptingCompression;
+	}
 }
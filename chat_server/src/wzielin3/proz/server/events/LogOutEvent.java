@@ -8,10 +8,33 @@ package wzielin3.proz.server.events;
  * user decides to log out, or in the network module when connection with client
  * simply is lost.
  * 
- * @author Wojciech Zieliski
+ * @author Wojciech Zieliński
  */
 public class LogOutEvent extends NetworkEvent
 {
 	/**serialVersionUID for this class*/
 	private static final long serialVersionUID = 1L;
+	/**boolean value telling if the event has been created by the network module, because
+	 * connection with client has been lost. It's never sent over network*/
+	private transient boolean isConnectionLost;
+	
+	/**
+	 * Method that marks this event as created because connection with client has been lost.
+	 * It should be used only in the network module of the server.
+	 */
+	public void setConnectionLost()
+	{
+		isConnectionLost = true;
+	}
+	
+	/**
+	 * Method that returns boolean value telling if connection with client has been lost,
+	 * or the user has decided to log out.
+	 * 
+	 * @return true if connection with client has been lost
+	 */
+	public boolean isConnectionLost()
+	{
+		return isConnectionLost;
+	}
 }
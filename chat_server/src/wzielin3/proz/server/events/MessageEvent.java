@@ -1,6 +1,7 @@
 package wzielin3.proz.server.events;
 
 import java.util.Date;
+import java.util.Set;
 
 /**
  * Event that is created when user sends a message to the server to be broadcasted.
@@ -9,16 +10,20 @@ import java.util.Date;
  * by the client has to be set. The date is needed for the server to determine 
  * whether user is up to date with his messages.
  * 
- * @author Wojciech Zieliski
+ * @author Wojciech Zieliński
  */
 public class MessageEvent extends NetworkEvent
 {
 	/**serialVersionUID for this class*/
-	private static final long serialVersionUID = 1L;
+	private static final long serialVersionUID = 3L;
 	/**String content of the message*/
 	private final String messageString;
 	/**Date of last received message by the client*/
 	private Date previousMessageDate;
+	/**id given to the message by the client. 0 if client doesn't give ids*/
+	private long clientMessageId;
+	/**names of users to whom the message is sent directly. null if it's sent to the chat room*/
+	private Set<String> recipients;
 	
 	/**
 	 * Basic constructor that sets the value of message content.
@@ -61,4 +66,47 @@ public class MessageEvent extends NetworkEvent
 		return previousMessageDate;
 	}
 	
+	/**
+	 * Method that should be invoked in the network manager on client side to give
+	 * the message an id. Server answers with ChatState that carries the same id,
+	 * so the client knows what happened to the message.
+	 * 
+	 * @param clientMessageId id of the message, greater than 0
+	 */
+	public void setClientMessageId(final long clientMessageId)
+	{
+		this.clientMessageId = clientMessageId;
+	}
+	
+	/**
+	 * Method that returns id given to the message by the client.
+	 * 
+	 * @return id of the message. 0 if client doesn't give ids.
+	 */
+	public long getClientMessageId()
+	{
+		return clientMessageId;
+	}
+	
+	/**
+	 * Method that makes this message a direct message, that only given users
+	 * and the author receive. It's not added to the history of the chat room.
+	 * 
+	 * @param recipients names of the recipients
+	 */
+	public void setRecipients(final Set<String> recipients)
+	{
+		this.recipients = recipients;
+	}
+	
+	/**
+	 * Method that returns names of users to whom the message is sent directly.
+	 * 
+	 * @return names of the recipients. null if the message is sent to the chat room.
+	 */
+	public Set<String> getRecipients()
+	{
+		return recipients;
+	}
+	
 }
@@ -7,7 +7,7 @@ import wzielin3.proz.server.network.ClientNetworkManager;
  * It allows the server to assign ClientNetworkManager object to it,
  * so that it's known where does it come from.
  * 
- * @author Wojciech Zieliski
+ * @author Wojciech Zieliński
  */
 public abstract class NetworkEvent extends ApplicationEvent
 {
@@ -0,0 +1,51 @@
+package wzielin3.proz.server.events;
+
+import wzielin3.proz.server.network.ClientNetworkManager;
+
+/**
+ * Event that is created on the server side in place of a message refused because
+ * the controller is overloaded. It only tells the controller to answer the author,
+ * so it costs much less than the message. It's never sent to clients.
+ * 
+ * @author Wojciech Zieliński
+ */
+public class RefusedMessageEvent extends ApplicationEvent
+{
+	/**serialVersionUID for this class*/
+	private static final long serialVersionUID = 1L;
+	/**client that has sent the message*/
+	private final ClientNetworkManager client;
+	/**id given to the message by the client*/
+	private final long clientMessageId;
+	
+	/**
+	 * Constructor that takes refused message.
+	 * 
+	 * @param message refused message
+	 */
+	public RefusedMessageEvent(final MessageEvent message)
+	{
+		this.client = message.getClientNetworkManager();
+		this.clientMessageId = message.getClientMessageId();
+	}
+	
+	/**
+	 * Method that returns client that has sent the message.
+	 * 
+	 * @return client that has sent the message
+	 */
+	public ClientNetworkManager getClientNetworkManager()
+	{
+		return client;
+	}
+	
+	/**
+	 * Method that returns id given to the message by the client.
+	 * 
+	 * @return id of the message. 0 if the client hasn't given it.
+	 */
+	public long getClientMessageId()
+	{
+		return clientMessageId;
+	}
+}
@@ -0,0 +1,38 @@
+package wzielin3.proz.server.events;
+
+import java.util.List;
+import wzielin3.proz.server.ChatMessage;
+
+/**
+ * Event that is created on the replica when new messages are read from the log
+ * of the primary server. It's never sent to clients.
+ * 
+ * @author Wojciech Zieliński
+ */
+public class ReplicatedMessagesEvent extends ApplicationEvent
+{
+	/**serialVersionUID for this class*/
+	private static final long serialVersionUID = 1L;
+	/**messages read from the log, in the order of the log*/
+	private final List<ChatMessage> messages;
+	
+	/**
+	 * Constructor that takes messages read from the log.
+	 * 
+	 * @param messages messages read from the log, in the order of the log
+	 */
+	public ReplicatedMessagesEvent(final List<ChatMessage> messages)
+	{
+		this.messages = messages;
+	}
+	
+	/**
+	 * Method that returns messages read from the log.
+	 * 
+	 * @return messages read from the log, in the order of the log
+	 */
+	public List<ChatMessage> getMessages()
+	{
+		return messages;
+	}
+}
@@ -0,0 +1,95 @@
+package wzielin3.proz.server.events;
+
+import java.util.Date;
+
+/**
+ * Event that is created when user wants to search the history of the chat.
+ * Server answers with ChatState with QUERY_RESULT status, which contains
+ * found messages.
+ * 
+ * @author Wojciech Zieliński
+ */
+public class SearchRequestEvent extends NetworkEvent
+{
+	/**serialVersionUID for this class*/
+	private static final long serialVersionUID = 1L;
+	/**words that messages have to contain*/
+	private final String query;
+	/**name of the author of messages. null if any author matches*/
+	private final String author;
+	/**earliest date of messages. null if there is no limit*/
+	private final Date from;
+	/**latest date of messages. null if there is no limit*/
+	private final Date to;
+	/**maximum number of messages user wants to get*/
+	private final int limit;
+	
+	/**
+	 * Constructor that takes query and filters of the search.
+	 * 
+	 * @param query words that messages have to contain
+	 * @param author name of the author of messages. null if any author matches.
+	 * @param from earliest date of messages. null if there is no limit.
+	 * @param to latest date of messages. null if there is no limit.
+	 * @param limit maximum number of messages user wants to get
+	 */
+	public SearchRequestEvent(final String query, final String author,
+			final Date from, final Date to, final int limit)
+	{
+		this.query = query;
+		this.author = author;
+		this.from = from;
+		this.to = to;
+		this.limit = limit;
+	}
+	
+	/**
+	 * Method that returns words that messages have to contain.
+	 * 
+	 * @return words that messages have to contain
+	 */
+	public String getQuery()
+	{
+		return query;
+	}
+	
+	/**
+	 * Method that returns name of the author of messages.
+	 * 
+	 * @return name of the author of messages. null if any author matches.
+	 */
+	public String getAuthor()
+	{
+		return author;
+	}
+	
+	/**
+	 * Method that returns earliest date of messages.
+	 * 
+	 * @return earliest date of messages. null if there is no limit.
+	 */
+	public Date getFrom()
+	{
+		return from;
+	}
+	
+	/**
+	 * Method that returns latest date of messages.
+	 * 
+	 * @return latest date of messages. null if there is no limit.
+	 */
+	public Date getTo()
+	{
+		return to;
+	}
+	
+	/**
+	 * Method that returns maximum number of messages user wants to get.
+	 * 
+	 * @return maximum number of messages user wants to get
+	 */
+	public int getLimit()
+	{
+		return limit;
+	}
+}
@@ -0,0 +1,52 @@
+package wzielin3.proz.server.events;
+
+import wzielin3.proz.server.network.ClientNetworkManager;
+
+/**
+ * Event that is created on the server side when search requested by the client
+ * is finished. Search runs outside of the controller's thread, and its result
+ * comes back to the controller as this event. It's never sent to clients.
+ * 
+ * @author Wojciech Zieliński
+ */
+public class SearchResultEvent extends ApplicationEvent
+{
+	/**serialVersionUID for this class*/
+	private static final long serialVersionUID = 1L;
+	/**client that requested the search*/
+	private final ClientNetworkManager client;
+	/**sequence numbers of found messages, latest first*/
+	private final long[] sequences;
+	
+	/**
+	 * Constructor that takes result of the search.
+	 * 
+	 * @param client client that requested the search
+	 * @param sequences sequence numbers of found messages, latest first
+	 */
+	public SearchResultEvent(final ClientNetworkManager client, final long[] sequences)
+	{
+		this.client = client;
+		this.sequences = sequences;
+	}
+	
+	/**
+	 * Method that returns client that requested the search.
+	 * 
+	 * @return client that requested the search
+	 */
+	public ClientNetworkManager getClientNetworkManager()
+	{
+		return client;
+	}
+	
+	/**
+	 * Method that returns sequence numbers of found messages.
+	 * 
+	 * @return sequence numbers of found messages, latest first
+	 */
+	public long[] getSequences()
+	{
+		return sequences;
+	}
+}
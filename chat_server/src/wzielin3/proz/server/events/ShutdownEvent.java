@@ -0,0 +1,15 @@
+package wzielin3.proz.server.events;
+
+/**
+ * Event that is created on the server side when the server should stop.
+ * It's never sent over network. When controller receives it, it stops accepting
+ * clients, handles events that are already in the queue, logs out all clients and
+ * saves the history.
+ * 
+ * @author Wojciech Zieliński
+ */
+public class ShutdownEvent extends ApplicationEvent
+{
+	/**serialVersionUID for this class*/
+	private static final long serialVersionUID = 1L;
+}
@@ -6,7 +6,7 @@ import java.util.Date;
  * Event that is created when client application finds out 
  * that some messages are missing and it wants to get the server to re send them.
  * 
- * @author Wojciech Zieliski
+ * @author Wojciech Zieliński
  */
 public class StateRequestEvent extends NetworkEvent
 {
@@ -0,0 +1,150 @@
+package wzielin3.proz.server.model;
+
+import java.util.Arrays;
+
+/**
+ * Activity of one author of messages: sequence numbers of his messages that
+ * are still in history, and counters of sent messages and bytes. Counters of the
+ * last minute are kept in one second buckets, so updating them costs the same
+ * no matter how many messages author sends. This class is not thread safe.
+ * 
+ * @author Wojciech Zieliński
+ */
+class AuthorActivity
+{
+	/**number of one second buckets of the rolling counters*/
+	private static final int BUCKETS = 60;
+	/**name of the author*/
+	private final String author;
+	/**sequence numbers of author's messages, in increasing order*/
+	private long[] sequences;
+	/**index of the first sequence number that is still in history*/
+	private int first;
+	/**index after the last sequence number*/
+	private int end;
+	/**number of bytes of all messages sent by the author*/
+	private long bytesSent;
+	/**second to which each bucket belongs*/
+	private final long[] bucketSeconds;
+	/**number of messages in each bucket*/
+	private final int[] bucketMessages;
+	/**number of bytes in each bucket*/
+	private final long[] bucketBytes;
+	
+	/**
+	 * Constructor that creates activity of an author who hasn't sent anything yet.
+	 * 
+	 * @param author name of the author
+	 */
+	public AuthorActivity(final String author)
+	{
+		this.author = author;
+		sequences = new long[8];
+		first = 0;
+		end = 0;
+		bytesSent = 0;
+		bucketSeconds = new long[BUCKETS];
+		Arrays.fill(bucketSeconds, -1);
+		bucketMessages = new int[BUCKETS];
+		bucketBytes = new long[BUCKETS];
+	}
+	
+	/**
+	 * Method that records message sent by the author.
+	 * 
+	 * @param sequence sequence number of the message. Greater than all recorded so far.
+	 * @param timeMillis time when the message was sent
+	 * @param bytes size of the message in bytes
+	 */
+	public void add(final long sequence, final long timeMillis, final int bytes)
+	{
+		if(end == sequences.length)
+		{
+			if(first > sequences.length / 2)
+			{
+				//most of the array are messages already removed from history
+				System.arraycopy(sequences, first, sequences, 0, end - first);
+			}
+			else
+			{
+				final long[] newSequences = new long[sequences.length * 2];
+				System.arraycopy(sequences, first, newSequences, 0, end - first);
+				sequences = newSequences;
+			}
+			end -= first;
+			first = 0;
+		}
+		sequences[end++] = sequence;
+		bytesSent += bytes;
+		final long second = timeMillis / 1000;
+		final int bucket = (int) (second % BUCKETS);
+		if(bucketSeconds[bucket] != second)
+		{
+			bucketSeconds[bucket] = second;
+			bucketMessages[bucket] = 0;
+			bucketBytes[bucket] = 0;
+		}
+		++bucketMessages[bucket];
+		bucketBytes[bucket] += bytes;
+	}
+	
+	/**
+	 * Method that forgets messages that have been removed from history.
+	 * 
+	 * @param sequence sequence number of the oldest message still in history
+	 */
+	public void removeBefore(final long sequence)
+	{
+		final int index = Arrays.binarySearch(sequences, first, end, sequence);
+		first = index >= 0 ? index : -index - 1;
+	}
+	
+	/**
+	 * Method that tells if author has no messages in history.
+	 * 
+	 * @return true if no message of the author is in history
+	 */
+	public boolean isEmpty()
+	{
+		return first == end;
+	}
+	
+	/**
+	 * Method that returns latest messages of the author.
+	 * 
+	 * @param limit maximum number of returned sequence numbers
+	 * @return sequence numbers of latest messages, latest first
+	 */
+	public long[] getLatestSequences(final int limit)
+	{
+		final int count = Math.min(limit, end - first);
+		final long[] latest = new long[count];
+		for (int i = 0; i < count; ++i)
+		{
+			latest[i] = sequences[end - 1 - i];
+		}
+		return latest;
+	}
+	
+	/**
+	 * Method that returns current statistics of the author.
+	 * 
+	 * @param nowMillis current time
+	 * @return statistics of the author
+	 */
+	public AuthorStatistics getStatistics(final long nowMillis)
+	{
+		final long nowSecond = nowMillis / 1000;
+		int messagesInLastMinute = 0;
+		long bytesInLastMinute = 0;
+		for (int i = 0; i < BUCKETS; ++i)
+		{
+			if(bucketSeconds[i] > nowSecond - BUCKETS && bucketSeconds[i] <= nowSecond)
+			{
+				messagesInLastMinute += bucketMessages[i];
+				bytesInLastMinute += bucketBytes[i];
+			}
+		}
+		return new AuthorStatistics(author, end - first, bytesSent, messagesInLastMinute, bytesInLastMinute);
+	}
+}
@@ -0,0 +1,120 @@
+package wzielin3.proz.server.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import wzielin3.proz.server.ChatMessage;
+
+/**
+ * Index of messages by their authors, together with statistics of authors'
+ * activity. It's updated on every added message in constant time, so messages
+ * and statistics of one author can be read without going through the history.
+ * This class is not thread safe - it should be used only by the thread that owns the model.
+ * 
+ * @author Wojciech Zieliński
+ */
+class AuthorIndex
+{
+	/**activity of authors mapped by their names*/
+	private final HashMap<String, AuthorActivity> authorToActivityMap;
+	
+	/**
+	 * Constructor that creates empty index.
+	 */
+	public AuthorIndex()
+	{
+		authorToActivityMap = new HashMap<String, AuthorActivity>();
+	}
+	
+	/**
+	 * Method that records message in the activity of its author.
+	 * 
+	 * @param message message with sequence number greater than all added so far
+	 */
+	public void add(final ChatMessage message)
+	{
+		AuthorActivity activity = authorToActivityMap.get(message.getAuthor());
+		if(activity == null)
+		{
+			activity = new AuthorActivity(message.getAuthor());
+			authorToActivityMap.put(message.getAuthor(), activity);
+		}
+		activity.add(message.getSequence(), message.getSentTime(), message.getEncodedContent().length);
+	}
+	
+	/**
+	 * Method that forgets messages that have been removed from history.
+	 * Counters of sent messages and bytes are not changed.
+	 * 
+	 * @param sequence sequence number of the oldest message still in history
+	 */
+	public void removeBefore(final long sequence)
+	{
+		for (final AuthorActivity activity : authorToActivityMap.values())
+		{
+			activity.removeBefore(sequence);
+		}
+	}
+	
+	/**
+	 * Method that removes all authors from the index.
+	 */
+	public void clear()
+	{
+		authorToActivityMap.clear();
+	}
+	
+	/**
+	 * Method that returns latest messages of given author.
+	 * 
+	 * @param author name of the author
+	 * @param limit maximum number of returned sequence numbers
+	 * @return sequence numbers of latest messages of the author, latest first
+	 */
+	public long[] getLatestSequences(final String author, final int limit)
+	{
+		final AuthorActivity activity = authorToActivityMap.get(author);
+		return activity == null ? new long[0] : activity.getLatestSequences(limit);
+	}
+	
+	/**
+	 * Method that returns statistics of given author.
+	 * 
+	 * @param author name of the author
+	 * @param nowMillis current time
+	 * @return statistics of the author. null if he hasn't sent any message.
+	 */
+	public AuthorStatistics getStatistics(final String author, final long nowMillis)
+	{
+		final AuthorActivity activity = authorToActivityMap.get(author);
+		return activity == null ? null : activity.getStatistics(nowMillis);
+	}
+	
+	/**
+	 * Method that returns statistics of the most active authors.
+	 * 
+	 * @param nowMillis current time
+	 * @param limit maximum number of returned statistics
+	 * @return statistics of authors, the most active in the last minute first
+	 */
+	public List<AuthorStatistics> getMostActive(final long nowMillis, final int limit)
+	{
+		final ArrayList<AuthorStatistics> statistics = new ArrayList<AuthorStatistics>(authorToActivityMap.size());
+		for (final AuthorActivity activity : authorToActivityMap.values())
+		{
+			statistics.add(activity.getStatistics(nowMillis));
+		}
+		Collections.sort(statistics, new Comparator<AuthorStatistics>()
+		{
+			@Override
+			public int compare(final AuthorStatistics first, final AuthorStatistics second)
+			{
+				final int byMessages = Integer.compare(second.getMessagesInLastMinute(), first.getMessagesInLastMinute());
+				return byMessages != 0 ? byMessages : Long.compare(second.getBytesSent(), first.getBytesSent());
+			}
+		});
+		return statistics.subList(0, Math.min(limit, statistics.size()));
+	}
+}
@@ -0,0 +1,97 @@
+package wzielin3.proz.server.model;
+
+/**
+ * Activity of one author of messages at the moment it was read from the model.
+ * Objects of this class don't change, so they can be handed to other threads.
+ * 
+ * @author Wojciech Zieliński
+ */
+public class AuthorStatistics
+{
+	/**name of the author*/
+	private final String author;
+	/**number of messages of the author still kept in history*/
+	private final int messagesCount;
+	/**number of bytes of all messages sent by the author*/
+	private final long bytesSent;
+	/**number of messages sent by the author in the last minute*/
+	private final int messagesInLastMinute;
+	/**number of bytes sent by the author in the last minute*/
+	private final long bytesInLastMinute;
+	
+	/**
+	 * Constructor that takes all values of statistics.
+	 * 
+	 * @param author name of the author
+	 * @param messagesCount number of messages of the author still kept in history
+	 * @param bytesSent number of bytes of all messages sent by the author
+	 * @param messagesInLastMinute number of messages sent by the author in the last minute
+	 * @param bytesInLastMinute number of bytes sent by the author in the last minute
+	 */
+	public AuthorStatistics(final String author, final int messagesCount, final long bytesSent,
+			final int messagesInLastMinute, final long bytesInLastMinute)
+	{
+		this.author = author;
+		this.messagesCount = messagesCount;
+		this.bytesSent = bytesSent;
+		this.messagesInLastMinute = messagesInLastMinute;
+		this.bytesInLastMinute = bytesInLastMinute;
+	}
+	
+	/**
+	 * Method that returns name of the author.
+	 * 
+	 * @return name of the author
+	 */
+	public String getAuthor()
+	{
+		return author;
+	}
+	
+	/**
+	 * Method that returns number of messages of the author still kept in history.
+	 * 
+	 * @return number of messages of the author still kept in history
+	 */
+	public int getMessagesCount()
+	{
+		return messagesCount;
+	}
+	
+	/**
+	 * Method that returns number of bytes of encoded content of all messages sent by the author.
+	 * 
+	 * @return number of bytes of all messages sent by the author
+	 */
+	public long getBytesSent()
+	{
+		return bytesSent;
+	}
+	
+	/**
+	 * Method that returns number of messages sent by the author in the last minute.
+	 * 
+	 * @return number of messages sent by the author in the last minute
+	 */
+	public int getMessagesInLastMinute()
+	{
+		return messagesInLastMinute;
+	}
+	
+	/**
+	 * Method that returns number of bytes sent by the author in the last minute.
+	 * 
+	 * @return number of bytes sent by the author in the last minute
+	 */
+	public long getBytesInLastMinute()
+	{
+		return bytesInLastMinute;
+	}
+	
+	@Override
+	public String toString()
+	{
+		return author + ": " + messagesCount + " messages in history, " + bytesSent + " bytes sent, "
+				+ messagesInLastMinute + " messages and " + bytesInLastMinute + " bytes in the last minute";
+	}
+}
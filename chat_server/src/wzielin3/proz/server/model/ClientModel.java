@@ -5,7 +5,7 @@ import java.util.Date;
 /**
  * Class modeling client's status in the chat. It contains his name and date of him joining the chat.
  * 
- * @author Wojciech Zieliski
+ * @author Wojciech Zieliński
  */
 class ClientModel
 {
@@ -0,0 +1,182 @@
+package wzielin3.proz.server.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import wzielin3.proz.server.ChatMessage;
+
+/**
+ * History that keeps messages in columns of primitive arrays instead of objects:
+ * sequence numbers and times as longs, authors as numbers of names kept once,
+ * and encoded contents. Per message there is no object header and no references
+ * except the content, so history takes much less memory and is not traced
+ * by the garbage collector message by message. Message objects are created
+ * only when they are read.
+ * 
+ * @author Wojciech Zieliński
+ */
+class ColumnarMessageHistory implements MessageHistory
+{
+	/**initial capacity of columns*/
+	private static final int INITIAL_CAPACITY = 1024;
+	/**sequence numbers of messages*/
+	private long[] sequences;
+	/**times of messages in milliseconds*/
+	private long[] sentTimes;
+	/**numbers of authors of messages*/
+	private int[] authorIds;
+	/**encoded contents of messages*/
+	private byte[][] contents;
+	/**position in columns of the oldest message*/
+	private int first;
+	/**position in columns after the newest message*/
+	private int end;
+	/**names of authors by their numbers*/
+	private final ArrayList<String> authors;
+	/**numbers of authors mapped by their names*/
+	private final HashMap<String, Integer> authorToIdMap;
+	
+	/**
+	 * Constructor that creates empty history.
+	 */
+	public ColumnarMessageHistory()
+	{
+		authors = new ArrayList<String>();
+		authorToIdMap = new HashMap<String, Integer>();
+		allocate(INITIAL_CAPACITY);
+	}
+	
+	/**
+	 * Method that creates empty columns.
+	 * 
+	 * @param capacity number of messages that fit in columns
+	 */
+	private void allocate(final int capacity)
+	{
+		sequences = new long[capacity];
+		sentTimes = new long[capacity];
+		authorIds = new int[capacity];
+		contents = new byte[capacity][];
+		first = 0;
+		end = 0;
+	}
+	
+	@Override
+	public void add(final ChatMessage message)
+	{
+		if(end == sequences.length)
+		{
+			makeRoom();
+		}
+		Integer authorId = authorToIdMap.get(message.getAuthor());
+		if(authorId == null)
+		{
+			authorId = authors.size();
+			authors.add(message.getAuthor());
+			authorToIdMap.put(message.getAuthor(), authorId);
+		}
+		sequences[end] = message.getSequence();
+		sentTimes[end] = message.getSentTime();
+		authorIds[end] = authorId;
+		contents[end] = message.getEncodedContent();
+		++end;
+	}
+	
+	/**
+	 * Method that makes room for the next message. If most of the columns is taken
+	 * by removed messages, messages are moved to the beginning. In different case
+	 * columns grow twice.
+	 */
+	private void makeRoom()
+	{
+		final int size = end - first;
+		final int capacity = first > sequences.length / 2 ? sequences.length : sequences.length * 2;
+		sequences = moveTo(sequences, capacity, size);
+		sentTimes = moveTo(sentTimes, capacity, size);
+		authorIds = moveTo(authorIds, capacity, size);
+		final byte[][] newContents = capacity == contents.length ? contents : new byte[capacity][];
+		System.arraycopy(contents, first, newContents, 0, size);
+		Arrays.fill(newContents, size, Math.min(end, capacity), null);
+		contents = newContents;
+		first = 0;
+		end = size;
+	}
+	
+	/**
+	 * Method that moves live part of the column to the beginning of a column of given capacity.
+	 * 
+	 * @param column column to be moved
+	 * @param capacity capacity of the result
+	 * @param size number of messages in the column
+	 * @return column with messages at the beginning
+	 */
+	private long[] moveTo(final long[] column, final int capacity, final int size)
+	{
+		final long[] result = capacity == column.length ? column : new long[capacity];
+		System.arraycopy(column, first, result, 0, size);
+		return result;
+	}
+	
+	/**
+	 * Method that moves live part of the column to the beginning of a column of given capacity.
+	 * 
+	 * @param column column to be moved
+	 * @param capacity capacity of the result
+	 * @param size number of messages in the column
+	 * @return column with messages at the beginning
+	 */
+	private int[] moveTo(final int[] column, final int capacity, final int size)
+	{
+		final int[] result = capacity == column.length ? column : new int[capacity];
+		System.arraycopy(column, first, result, 0, size);
+		return result;
+	}
+	
+	@Override
+	public int size()
+	{
+		return end - first;
+	}
+	
+	@Override
+	public ChatMessage get(final int index)
+	{
+		final int position = first + index;
+		return new ChatMessage(sequences[position], sentTimes[position],
+				authors.get(authorIds[position]), contents[position]);
+	}
+	
+	@Override
+	public long getSequence(final int index)
+	{
+		return sequences[first + index];
+	}
+	
+	@Override
+	public long getSentTime(final int index)
+	{
+		return sentTimes[first + index];
+	}
+	
+	@Override
+	public void removeOldest(final int count)
+	{
+		//contents are released at once, primitive columns are reused later
+		Arrays.fill(contents, first, first + count, null);
+		first += count;
+	}
+	
+	@Override
+	public void clear()
+	{
+		authors.clear();
+		authorToIdMap.clear();
+		allocate(INITIAL_CAPACITY);
+	}
+	
+	@Override
+	public void close()
+	{
+		clear();
+	}
+}
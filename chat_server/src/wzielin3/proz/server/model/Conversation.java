@@ -0,0 +1,79 @@
+package wzielin3.proz.server.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import wzielin3.proz.server.ChatMessage;
+
+/**
+ * Direct messages exchanged by a group of users. Messages are kept separately
+ * from the history of the chat room, and only given number of the newest ones is kept.
+ * 
+ * @author Wojciech Zieliński
+ */
+class Conversation
+{
+	/**names of users taking part in the conversation, sorted*/
+	private final TreeSet<String> participants;
+	/**messages of the conversation, oldest first*/
+	private final ArrayList<ChatMessage> messages;
+	/**maximum number of messages kept*/
+	private final int maxMessages;
+	
+	/**
+	 * Constructor that creates conversation without messages.
+	 * 
+	 * @param participants names of users taking part in the conversation
+	 * @param maxMessages maximum number of messages kept
+	 */
+	public Conversation(final Set<String> participants, final int maxMessages)
+	{
+		this.participants = new TreeSet<String>(participants);
+		this.messages = new ArrayList<ChatMessage>();
+		this.maxMessages = maxMessages;
+	}
+	
+	/**
+	 * Method that returns key identifying conversation of given users.
+	 * The order of the names doesn't matter.
+	 * 
+	 * @param participants names of users taking part in the conversation
+	 * @return key of the conversation
+	 */
+	public static String getKey(final Set<String> participants)
+	{
+		final StringBuilder key = new StringBuilder();
+		for (final String name : new TreeSet<String>(participants))
+		{
+			//lengths are written, so keys of different groups never collide
+			key.append(name.length()).append(':').append(name);
+		}
+		return key.toString();
+	}
+	
+	/**
+	 * Method that returns names of users taking part in the conversation.
+	 * 
+	 * @return sorted names of participants
+	 */
+	public Set<String> getParticipants()
+	{
+		return Collections.unmodifiableSet(participants);
+	}
+	
+	/**
+	 * Method that adds message to the conversation. The oldest messages are removed
+	 * if there are too many of them (in batches, so that the list isn't shifted on every message).
+	 * 
+	 * @param message message to be added
+	 */
+	public void addMessage(final ChatMessage message)
+	{
+		messages.add(message);
+		if(messages.size() > maxMessages + maxMessages / 4)
+		{
+			messages.subList(0, messages.size() - maxMessages).clear();
+		}
+	}
+}
@@ -0,0 +1,227 @@
+package wzielin3.proz.server.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import wzielin3.proz.server.ChatMessage;
+
+/**
+ * Immutable file with a run of old messages of the history. Messages are written
+ * as frames created by ChatMessage.encode(), grouped in blocks that are compressed
+ * separately, so reading one message needs only its block. Sparse index - offset,
+ * first sequence number and first sent time of every block - is kept in memory.
+ * 
+ * @author Wojciech Zieliński
+ */
+class HistorySegment
+{
+	/**file with the blocks*/
+	private final File file;
+	/**number of messages in the segment*/
+	private final int size;
+	/**number of messages in every block, except the last one*/
+	private final int blockMessages;
+	/**offsets of the blocks in the file, and length of the file as the last element*/
+	private final long[] blockOffsets;
+	/**sequence numbers of the first messages of the blocks*/
+	private final long[] blockFirstSequences;
+	/**sent times of the first messages of the blocks*/
+	private final long[] blockFirstSentTimes;
+	
+	/**
+	 * Private constructor used by write() method.
+	 * 
+	 * @param file file with the blocks
+	 * @param size number of messages in the segment
+	 * @param blockMessages number of messages in every block
+	 * @param blockOffsets offsets of the blocks and length of the file
+	 * @param blockFirstSequences sequence numbers of the first messages of the blocks
+	 * @param blockFirstSentTimes sent times of the first messages of the blocks
+	 */
+	private HistorySegment(final File file, final int size, final int blockMessages, final long[] blockOffsets,
+			final long[] blockFirstSequences, final long[] blockFirstSentTimes)
+	{
+		this.file = file;
+		this.size = size;
+		this.blockMessages = blockMessages;
+		this.blockOffsets = blockOffsets;
+		this.blockFirstSequences = blockFirstSequences;
+		this.blockFirstSentTimes = blockFirstSentTimes;
+	}
+	
+	/**
+	 * Method that writes given messages to new segment file.
+	 * 
+	 * @param file file to be created
+	 * @param messages messages to be written, oldest first
+	 * @param blockMessages number of messages in one block
+	 * @return segment with the written messages
+	 * @throws IOException if the file can't be written
+	 */
+	public static HistorySegment write(final File file, final List<ChatMessage> messages,
+			final int blockMessages) throws IOException
+	{
+		final int count = messages.size();
+		final int blocks = (count + blockMessages - 1) / blockMessages;
+		final long[] blockOffsets = new long[blocks + 1];
+		final long[] blockFirstSequences = new long[blocks];
+		final long[] blockFirstSentTimes = new long[blocks];
+		final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		final byte[] buffer = new byte[64 * 1024];
+		try (final FileOutputStream output = new FileOutputStream(file))
+		{
+			long offset = 0;
+			for (int block = 0; block < blocks; ++block)
+			{
+				final ByteArrayOutputStream frames = new ByteArrayOutputStream();
+				final DataOutputStream framesOutput = new DataOutputStream(frames);
+				final int end = Math.min(count, (block + 1) * blockMessages);
+				blockFirstSequences[block] = messages.get(block * blockMessages).getSequence();
+				blockFirstSentTimes[block] = messages.get(block * blockMessages).getSentTime();
+				for (int i = block * blockMessages; i < end; ++i)
+				{
+					final byte[] frame = messages.get(i).encode();
+					framesOutput.writeInt(frame.length);
+					framesOutput.write(frame);
+				}
+				deflater.reset();
+				deflater.setInput(frames.toByteArray());
+				deflater.finish();
+				blockOffsets[block] = offset;
+				while(deflater.finished() == false)
+				{
+					final int length = deflater.deflate(buffer);
+					output.write(buffer, 0, length);
+					offset += length;
+				}
+			}
+			blockOffsets[blocks] = offset;
+		}
+		finally
+		{
+			deflater.end();
+		}
+		return new HistorySegment(file, count, blockMessages, blockOffsets,
+				blockFirstSequences, blockFirstSentTimes);
+	}
+	
+	/**
+	 * Method that returns number of messages in this segment.
+	 * 
+	 * @return number of messages in this segment
+	 */
+	public int size()
+	{
+		return size;
+	}
+	
+	/**
+	 * Method that returns number of the block that contains given message.
+	 * 
+	 * @param index position of the message in this segment
+	 * @return number of the block
+	 */
+	public int getBlockNumber(final int index)
+	{
+		return index / blockMessages;
+	}
+	
+	/**
+	 * Method that returns position of the first message of given block in this segment.
+	 * 
+	 * @param block number of the block
+	 * @return position of the first message of the block
+	 */
+	public int getBlockStart(final int block)
+	{
+		return block * blockMessages;
+	}
+	
+	/**
+	 * Method that reads and decompresses given block.
+	 * 
+	 * @param block number of the block
+	 * @return messages of the block, oldest first
+	 * @throws IOException if the file can't be read or is damaged
+	 */
+	public ChatMessage[] readBlock(final int block) throws IOException
+	{
+		final byte[] compressed = new byte[(int) (blockOffsets[block + 1] - blockOffsets[block])];
+		try (final RandomAccessFile input = new RandomAccessFile(file, "r"))
+		{
+			input.seek(blockOffsets[block]);
+			input.readFully(compressed);
+		}
+		final ChatMessage[] messages = new ChatMessage[Math.min(blockMessages, size - block * blockMessages)];
+		final Inflater inflater = new Inflater();
+		final ByteArrayOutputStream frames = new ByteArrayOutputStream(compressed.length * 4);
+		try
+		{
+			inflater.setInput(compressed);
+			final byte[] buffer = new byte[64 * 1024];
+			while(inflater.finished() == false)
+			{
+				final int length = inflater.inflate(buffer);
+				if(length == 0 && inflater.needsInput())
+				{
+					throw new IOException("Block " + block + " of " + file + " is truncated");
+				}
+				frames.write(buffer, 0, length);
+			}
+		}
+		catch (final DataFormatException e)
+		{
+			throw new IOException("Block " + block + " of " + file + " is damaged", e);
+		}
+		finally
+		{
+			inflater.end();
+		}
+		final DataInputStream input = new DataInputStream(new ByteArrayInputStream(frames.toByteArray()));
+		for (int i = 0; i < messages.length; ++i)
+		{
+			final byte[] frame = new byte[input.readInt()];
+			input.readFully(frame);
+			messages[i] = ChatMessage.decode(frame);
+		}
+		return messages;
+	}
+	
+	/**
+	 * Method that returns messages put in place of given block when it can't be read.
+	 * They keep order of the history: sequence numbers continue from the first message
+	 * of the block and all of them have its sent time.
+	 * 
+	 * @param block number of the block
+	 * @return messages saying that the original ones have been lost, oldest first
+	 */
+	public ChatMessage[] getLostBlock(final int block)
+	{
+		final ChatMessage[] messages = new ChatMessage[Math.min(blockMessages, size - block * blockMessages)];
+		final Date sentDate = new Date(blockFirstSentTimes[block]);
+		for (int i = 0; i < messages.length; ++i)
+		{
+			messages[i] = new ChatMessage(new ChatMessage("Message has been lost", "Server", sentDate),
+					blockFirstSequences[block] + i);
+		}
+		return messages;
+	}
+	
+	/**
+	 * Method that deletes file of this segment. Segment can't be read afterwards.
+	 */
+	public void delete()
+	{
+		file.delete();
+	}
+}
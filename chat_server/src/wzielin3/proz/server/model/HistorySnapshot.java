@@ -0,0 +1,128 @@
+package wzielin3.proz.server.model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import wzielin3.proz.server.ChatMessage;
+
+/**
+ * Compact snapshot of the message history, the sequence counter and the epoch
+ * of the history. It's written
+ * when server stops and read in one sequential pass when server starts again.
+ * Messages are stored as frames created by ChatMessage.encode(). Messages are
+ * streamed from and to the history, so no copy of the whole history is made.
+ * 
+ * @author Wojciech Zieliński
+ */
+class HistorySnapshot
+{
+	/**value written at the beginning of every snapshot file*/
+	private static final int MAGIC = 0x43485332;
+	/**size of the buffer used for reading and writing*/
+	private static final int BUFFER_SIZE = 64 * 1024;
+	/**sequence number that should be given to next added message*/
+	private final long nextSequence;
+	/**epoch of the history to which sequence numbers belong*/
+	private final long historyEpoch;
+	
+	/**
+	 * Private constructor - snapshots are created by read().
+	 * 
+	 * @param nextSequence sequence number that should be given to next added message
+	 * @param historyEpoch epoch of the history to which sequence numbers belong
+	 */
+	private HistorySnapshot(final long nextSequence, final long historyEpoch)
+	{
+		this.nextSequence = nextSequence;
+		this.historyEpoch = historyEpoch;
+	}
+	
+	/**
+	 * Method that returns sequence number that should be given to next added message.
+	 * 
+	 * @return sequence number that should be given to next added message
+	 */
+	public long getNextSequence()
+	{
+		return nextSequence;
+	}
+	
+	/**
+	 * Method that returns epoch of the history to which sequence numbers belong.
+	 * 
+	 * @return epoch of the saved history
+	 */
+	public long getHistoryEpoch()
+	{
+		return historyEpoch;
+	}
+	
+	/**
+	 * Method that writes snapshot of given history to given file. Snapshot is first written
+	 * to a temporary file which then replaces the given one, so that
+	 * a failed write never destroys previous snapshot.
+	 * 
+	 * @param file file to which snapshot is written
+	 * @param nextSequence sequence number that should be given to next added message
+	 * @param historyEpoch epoch of the history to which sequence numbers belong
+	 * @param messages messages of the history
+	 * @throws IOException if writing fails
+	 */
+	public static void write(final File file, final long nextSequence, final long historyEpoch,
+			final MessageHistory messages) throws IOException
+	{
+		final File temporaryFile = new File(file.getPath() + ".tmp");
+		try (final DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(temporaryFile), BUFFER_SIZE)))
+		{
+			out.writeInt(MAGIC);
+			out.writeLong(nextSequence);
+			out.writeLong(historyEpoch);
+			out.writeInt(messages.size());
+			for (int i = 0; i < messages.size(); ++i)
+			{
+				final byte[] frame = messages.get(i).encode();
+				out.writeInt(frame.length);
+				out.write(frame);
+			}
+		}
+		Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+	
+	/**
+	 * Method that reads snapshot from given file into given history.
+	 * 
+	 * @param file file from which snapshot is read
+	 * @param messages history to which read messages are added
+	 * @return snapshot with the sequence counter and the epoch of the history
+	 * @throws IOException if reading fails or the file is not a snapshot
+	 */
+	public static HistorySnapshot read(final File file, final MessageHistory messages) throws IOException
+	{
+		try (final DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE)))
+		{
+			if(in.readInt() != MAGIC)
+			{
+				throw new IOException(file + " is not a history snapshot");
+			}
+			final long nextSequence = in.readLong();
+			final long historyEpoch = in.readLong();
+			final int count = in.readInt();
+			for (int i = 0; i < count; ++i)
+			{
+				final byte[] frame = new byte[in.readInt()];
+				in.readFully(frame);
+				messages.add(ChatMessage.decode(frame));
+			}
+			return new HistorySnapshot(nextSequence, historyEpoch);
+		}
+	}
+}
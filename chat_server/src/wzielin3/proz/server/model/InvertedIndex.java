@@ -0,0 +1,288 @@
+package wzielin3.proz.server.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import wzielin3.proz.server.ChatMessage;
+
+/**
+ * Full text index of chat messages. Every message is a document with its own
+ * number (in order of adding). For every word the index keeps compressed list
+ * of documents that contain it, and for every document - sequence number,
+ * time and author of the message, so that results can be filtered without
+ * looking at the messages. Index is updated by the thread that owns the model,
+ * and can be searched by other threads at the same time.
+ * 
+ * @author Wojciech Zieliński
+ */
+public class InvertedIndex
+{
+	/**lists of documents mapped by words they contain*/
+	private final HashMap<String, PostingList> termToPostingsMap;
+	/**numbers given to authors, so that documents keep ints instead of names*/
+	private final HashMap<String, Integer> authorToIdMap;
+	/**sequence numbers of messages, by document*/
+	private long[] sequences;
+	/**times of messages in milliseconds, by document*/
+	private long[] times;
+	/**numbers of authors of messages, by document*/
+	private int[] authorIds;
+	/**number of documents in the index*/
+	private int documentsCount;
+	/**lock that lets many searches run at the same time, but not together with adding*/
+	private final ReentrantReadWriteLock lock;
+	
+	/**
+	 * Constructor that creates empty index.
+	 */
+	public InvertedIndex()
+	{
+		termToPostingsMap = new HashMap<String, PostingList>();
+		authorToIdMap = new HashMap<String, Integer>();
+		sequences = new long[1024];
+		times = new long[1024];
+		authorIds = new int[1024];
+		documentsCount = 0;
+		lock = new ReentrantReadWriteLock();
+	}
+	
+	/**
+	 * Method that adds message to the index. Messages should be added
+	 * in the order of their sequence numbers.
+	 * 
+	 * @param message message to be added
+	 */
+	public void add(final ChatMessage message)
+	{
+		final Set<String> terms = tokenize(message.getContent());
+		lock.writeLock().lock();
+		try
+		{
+			if(documentsCount == sequences.length)
+			{
+				final int newLength = sequences.length * 2;
+				sequences = Arrays.copyOf(sequences, newLength);
+				times = Arrays.copyOf(times, newLength);
+				authorIds = Arrays.copyOf(authorIds, newLength);
+			}
+			final int document = documentsCount++;
+			sequences[document] = message.getSequence();
+			times[document] = message.getSentTime();
+			Integer authorId = authorToIdMap.get(message.getAuthor());
+			if(authorId == null)
+			{
+				authorId = authorToIdMap.size();
+				authorToIdMap.put(message.getAuthor(), authorId);
+			}
+			authorIds[document] = authorId;
+			for (final String term : terms)
+			{
+				PostingList postings = termToPostingsMap.get(term);
+				if(postings == null)
+				{
+					postings = new PostingList();
+					termToPostingsMap.put(term, postings);
+				}
+				postings.add(document);
+			}
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Method that removes all documents from the index.
+	 */
+	public void clear()
+	{
+		lock.writeLock().lock();
+		try
+		{
+			termToPostingsMap.clear();
+			authorToIdMap.clear();
+			documentsCount = 0;
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Method that returns number of documents in the index.
+	 * 
+	 * @return number of documents in the index
+	 */
+	public int getDocumentsCount()
+	{
+		lock.readLock().lock();
+		try
+		{
+			return documentsCount;
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Method that finds latest messages that contain all words of the query
+	 * and match the filters. Can be invoked by any thread.
+	 * 
+	 * @param query words that messages have to contain. If there are none, all messages match.
+	 * @param author name of the author of messages. null if any author matches.
+	 * @param from earliest time of messages. null if there is no limit.
+	 * @param to latest time of messages. null if there is no limit.
+	 * @param limit maximum number of returned messages
+	 * @return sequence numbers of found messages, latest first
+	 */
+	public long[] search(final String query, final String author, final Date from,
+			final Date to, final int limit)
+	{
+		final Set<String> terms = tokenize(query);
+		final long fromTime = from == null ? Long.MIN_VALUE : from.getTime();
+		final long toTime = to == null ? Long.MAX_VALUE : to.getTime();
+		lock.readLock().lock();
+		try
+		{
+			int authorId = -1;
+			if(author != null)
+			{
+				final Integer id = authorToIdMap.get(author);
+				if(id == null)
+				{
+					return new long[0];
+				}
+				authorId = id;
+			}
+			final int[] candidates = terms.isEmpty() ? null : findDocumentsWithAll(terms);
+			final int candidatesCount = candidates == null ? documentsCount : candidates.length;
+			final long[] found = new long[Math.min(limit, candidatesCount)];
+			int foundCount = 0;
+			for (int i = candidatesCount - 1; i >= 0 && foundCount < found.length; --i)
+			{
+				final int document = candidates == null ? i : candidates[i];
+				if((authorId == -1 || authorIds[document] == authorId)
+				&& times[document] >= fromTime && times[document] <= toTime)
+				{
+					found[foundCount++] = sequences[document];
+				}
+			}
+			return Arrays.copyOf(found, foundCount);
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Method that finds documents that contain all given words. Lists are
+	 * intersected from the shortest one, so the result never grows.
+	 * Should be invoked with the lock held.
+	 * 
+	 * @param terms words that documents have to contain
+	 * @return documents in increasing order
+	 */
+	private int[] findDocumentsWithAll(final Set<String> terms)
+	{
+		final ArrayList<PostingList> lists = new ArrayList<PostingList>(terms.size());
+		for (final String term : terms)
+		{
+			final PostingList postings = termToPostingsMap.get(term);
+			if(postings == null)
+			{
+				return new int[0];
+			}
+			lists.add(postings);
+		}
+		Collections.sort(lists, new Comparator<PostingList>()
+		{
+			@Override
+			public int compare(final PostingList first, final PostingList second)
+			{
+				return Integer.compare(first.getCount(), second.getCount());
+			}
+		});
+		int[] result = lists.get(0).decode();
+		for (int i = 1; i < lists.size() && result.length > 0; ++i)
+		{
+			result = intersect(result, lists.get(i).decode());
+		}
+		return result;
+	}
+	
+	/**
+	 * Method that returns documents that are on both sorted lists.
+	 * 
+	 * @param first documents in increasing order
+	 * @param second documents in increasing order
+	 * @return common documents in increasing order
+	 */
+	private static int[] intersect(final int[] first, final int[] second)
+	{
+		final int[] common = new int[Math.min(first.length, second.length)];
+		int count = 0;
+		int i = 0;
+		int j = 0;
+		while(i < first.length && j < second.length)
+		{
+			if(first[i] < second[j])
+			{
+				++i;
+			}
+			else if(first[i] > second[j])
+			{
+				++j;
+			}
+			else
+			{
+				common[count++] = first[i];
+				++i;
+				++j;
+			}
+		}
+		return Arrays.copyOf(common, count);
+	}
+	
+	/**
+	 * Method that splits text into lower case words. Everything that is not
+	 * a letter or a digit separates words.
+	 * 
+	 * @param text text to be split. null is treated as empty text.
+	 * @return distinct words of the text, in order of appearance
+	 */
+	static Set<String> tokenize(final String text)
+	{
+		final Set<String> terms = new LinkedHashSet<String>();
+		if(text == null)
+		{
+			return terms;
+		}
+		int start = -1;
+		for (int i = 0; i <= text.length(); ++i)
+		{
+			final boolean isWordCharacter = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+			if(isWordCharacter && start == -1)
+			{
+				start = i;
+			}
+			else if(isWordCharacter == false && start != -1)
+			{
+				terms.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+				start = -1;
+			}
+		}
+		return terms;
+	}
+}
@@ -0,0 +1,71 @@
+package wzielin3.proz.server.model;
+
+import java.util.ArrayList;
+import wzielin3.proz.server.ChatMessage;
+
+/**
+ * History that keeps messages as objects on a list.
+ * 
+ * @author Wojciech Zieliński
+ */
+class ListMessageHistory implements MessageHistory
+{
+	/**messages of the history, oldest first*/
+	private final ArrayList<ChatMessage> messages;
+	
+	/**
+	 * Constructor that creates empty history.
+	 */
+	public ListMessageHistory()
+	{
+		messages = new ArrayList<ChatMessage>();
+	}
+	
+	@Override
+	public void add(final ChatMessage message)
+	{
+		messages.add(message);
+	}
+	
+	@Override
+	public int size()
+	{
+		return messages.size();
+	}
+	
+	@Override
+	public ChatMessage get(final int index)
+	{
+		return messages.get(index);
+	}
+	
+	@Override
+	public long getSequence(final int index)
+	{
+		return messages.get(index).getSequence();
+	}
+	
+	@Override
+	public long getSentTime(final int index)
+	{
+		return messages.get(index).getSentTime();
+	}
+	
+	@Override
+	public void removeOldest(final int count)
+	{
+		messages.subList(0, count).clear();
+	}
+	
+	@Override
+	public void clear()
+	{
+		messages.clear();
+	}
+	
+	@Override
+	public void close()
+	{
+		messages.clear();
+	}
+}
@@ -0,0 +1,127 @@
+package wzielin3.proz.server.model;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import wzielin3.proz.server.ChatMessage;
+
+/**
+ * Cache of already encoded message frames. Frames are kept by sequence number
+ * of the message. When total size of cached frames exceeds given limit,
+ * frames that were least recently used are removed. Clients that are catching up
+ * usually ask for the same few latest messages, so their frames are encoded only once.
+ * This class is not thread safe - it should be used only by the thread that owns the model.
+ * 
+ * @author Wojciech Zieliński
+ */
+class MessageFrameCache
+{
+	/**frames mapped by sequence number of their messages, in the order of access*/
+	private final LinkedHashMap<Long, byte[]> sequenceToFrameMap;
+	/**maximum number of bytes of all frames in this cache*/
+	private final long maxBytes;
+	/**number of bytes of all frames currently in this cache*/
+	private long cachedBytes;
+	/**number of frames found in this cache*/
+	private long hitCount;
+	/**number of frames that had to be encoded*/
+	private long missCount;
+	
+	/**
+	 * Constructor that creates empty cache.
+	 * 
+	 * @param maxBytes maximum number of bytes of all frames kept in this cache
+	 */
+	public MessageFrameCache(final long maxBytes)
+	{
+		this.maxBytes = maxBytes;
+		sequenceToFrameMap = new LinkedHashMap<Long, byte[]>(16, 0.75f, true);
+		cachedBytes = 0;
+		hitCount = 0;
+		missCount = 0;
+	}
+	
+	/**
+	 * Method that returns encoded frame of given message. If the frame is not
+	 * in the cache message is encoded and the frame is added to the cache.
+	 * 
+	 * @param message message which frame should be returned
+	 * @return encoded frame of the message
+	 */
+	public byte[] getFrame(final ChatMessage message)
+	{
+		if(message.getSequence() < 0)
+		{
+			//message is not in history (e.g. a note from the server), so it's not cached
+			return message.encode();
+		}
+		final Long sequence = message.getSequence();
+		byte[] frame = sequenceToFrameMap.get(sequence);
+		if(frame != null)
+		{
+			++hitCount;
+			return frame;
+		}
+		++missCount;
+		frame = message.encode();
+		sequenceToFrameMap.put(sequence, frame);
+		cachedBytes += frame.length;
+		evictOverLimit();
+		return frame;
+	}
+	
+	/**
+	 * Method that removes least recently used frames until size of
+	 * the cache is within the limit.
+	 */
+	private void evictOverLimit()
+	{
+		final Iterator<Map.Entry<Long, byte[]>> iterator = sequenceToFrameMap.entrySet().iterator();
+		while(cachedBytes > maxBytes && iterator.hasNext())
+		{
+			cachedBytes -= iterator.next().getValue().length;
+			iterator.remove();
+		}
+	}
+	
+	/**
+	 * Method that returns number of frames found in the cache.
+	 * 
+	 * @return number of frames found in the cache
+	 */
+	public long getHitCount()
+	{
+		return hitCount;
+	}
+	
+	/**
+	 * Method that returns number of frames that had to be encoded.
+	 * 
+	 * @return number of frames that had to be encoded
+	 */
+	public long getMissCount()
+	{
+		return missCount;
+	}
+	
+	/**
+	 * Method that returns part of requests for frames that were found in the cache.
+	 * 
+	 * @return value between 0 and 1. 0 if there were no requests yet.
+	 */
+	public double getHitRate()
+	{
+		final long requests = hitCount + missCount;
+		return requests == 0 ? 0 : (double) hitCount / requests;
+	}
+	
+	/**
+	 * Method that returns number of bytes of all frames currently in the cache.
+	 * 
+	 * @return number of bytes of all frames currently in the cache
+	 */
+	public long getCachedBytes()
+	{
+		return cachedBytes;
+	}
+}
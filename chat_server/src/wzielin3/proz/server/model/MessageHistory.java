@@ -0,0 +1,70 @@
+package wzielin3.proz.server.model;
+
+import wzielin3.proz.server.ChatMessage;
+
+/**
+ * Storage of the messages of the history, in order of their sequence numbers.
+ * Implementations decide how messages are kept (e.g. as objects or in columns
+ * of primitive arrays). Sequence numbers and times can be read without creating
+ * message objects, so that the model can search the history cheaply.
+ * Implementations are not thread safe - they should be used only by the thread that owns the model.
+ * 
+ * @author Wojciech Zieliński
+ */
+interface MessageHistory
+{
+	/**
+	 * Method that adds message at the end of the history.
+	 * 
+	 * @param message message with sequence number greater than all added so far
+	 */
+	void add(ChatMessage message);
+	
+	/**
+	 * Method that returns number of messages in the history.
+	 * 
+	 * @return number of messages in the history
+	 */
+	int size();
+	
+	/**
+	 * Method that returns message at given position.
+	 * 
+	 * @param index position of the message. 0 is the oldest one.
+	 * @return message at given position
+	 */
+	ChatMessage get(int index);
+	
+	/**
+	 * Method that returns sequence number of the message at given position.
+	 * 
+	 * @param index position of the message. 0 is the oldest one.
+	 * @return sequence number of the message
+	 */
+	long getSequence(int index);
+	
+	/**
+	 * Method that returns time in milliseconds of the message at given position.
+	 * 
+	 * @param index position of the message. 0 is the oldest one.
+	 * @return time in milliseconds when the message was sent
+	 */
+	long getSentTime(int index);
+	
+	/**
+	 * Method that removes oldest messages.
+	 * 
+	 * @param count number of messages to be removed
+	 */
+	void removeOldest(int count);
+	
+	/**
+	 * Method that removes all messages.
+	 */
+	void clear();
+	
+	/**
+	 * Method that releases resources of the history. It can't be used after that.
+	 */
+	void close();
+}
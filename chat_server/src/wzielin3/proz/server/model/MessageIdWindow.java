@@ -0,0 +1,65 @@
+package wzielin3.proz.server.model;
+
+/**
+ * Window of ids that clients have given to their recently accepted messages.
+ * It's used to find messages that have been sent again, e.g. after reconnecting,
+ * although they have already been accepted. Only given number of newest ids is kept,
+ * in a ring of primitive arrays, and ids older than given time are not taken
+ * into account. For windows of a few hundred ids scanning the ring is as fast
+ * as hashing, and it takes no memory per id except two longs.
+ * 
+ * @author Wojciech Zieliński
+ */
+class MessageIdWindow
+{
+	/**ids of messages. 0 means empty place - clients don't give id 0*/
+	private final long[] ids;
+	/**times at which ids have been added, in milliseconds*/
+	private final long[] times;
+	/**place in which the next id is put*/
+	private int next;
+	
+	/**
+	 * Constructor that creates empty window.
+	 * 
+	 * @param size maximum number of ids in the window
+	 */
+	public MessageIdWindow(final int size)
+	{
+		ids = new long[size];
+		times = new long[size];
+		next = 0;
+	}
+	
+	/**
+	 * Method that tells if given id has been added to the window after given time.
+	 * 
+	 * @param id id of the message
+	 * @param oldestTime ids added before this time are not taken into account
+	 * @return true if message with given id has already been accepted
+	 */
+	public boolean contains(final long id, final long oldestTime)
+	{
+		for (int i = 0; i < ids.length; ++i)
+		{
+			if(ids[i] == id && times[i] >= oldestTime)
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Method that adds id to the window. The oldest id is forgotten if the window is full.
+	 * 
+	 * @param id id of the message, not 0
+	 * @param time current time in milliseconds
+	 */
+	public void add(final long id, final long time)
+	{
+		ids[next] = id;
+		times[next] = time;
+		next = (next + 1) % ids.length;
+	}
+}
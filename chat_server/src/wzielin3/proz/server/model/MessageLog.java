@@ -0,0 +1,145 @@
+package wzielin3.proz.server.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import wzielin3.proz.server.ChatMessage;
+
+/**
+ * Append only log of accepted messages. Every record is length of the frame
+ * followed by the frame of the message (see ChatMessage.encode()). Primary server
+ * appends every message it accepts, and replicas tail the same file to keep
+ * their own copy of the history. Records are only appended, so readers never
+ * need to lock the file - incomplete record at the end is simply read again later.
+ * 
+ * @author Wojciech Zieliński
+ */
+public class MessageLog
+{
+	/**file to which records are appended*/
+	private final RandomAccessFile file;
+	/**sequence number of the last message in the log. -1 if log is empty*/
+	private long lastSequence;
+	/**time in milliseconds at which the first message in the log was sent. 0 if log is empty*/
+	private long firstSentTime;
+	
+	/**
+	 * Constructor that opens log for appending. Existing records are read to find
+	 * the last sequence number, and incomplete record at the end (left by a crash)
+	 * is cut off.
+	 * 
+	 * @param path file of the log. Created if it doesn't exist.
+	 * @throws IOException if file can't be opened or read
+	 */
+	public MessageLog(final File path) throws IOException
+	{
+		file = new RandomAccessFile(path, "rw");
+		lastSequence = -1;
+		firstSentTime = 0;
+		byte[] frame;
+		while((frame = readFrame(file)) != null)
+		{
+			final ChatMessage message = ChatMessage.decode(frame);
+			if(lastSequence == -1)
+			{
+				firstSentTime = message.getSentTime();
+			}
+			lastSequence = message.getSequence();
+		}
+		file.setLength(file.getFilePointer());
+	}
+	
+	/**
+	 * Method that returns sequence number of the last message in the log.
+	 * 
+	 * @return sequence number of the last message. -1 if log is empty.
+	 */
+	public long getLastSequence()
+	{
+		return lastSequence;
+	}
+	
+	/**
+	 * Method that returns time at which the first message in the log was sent.
+	 * Log is never shortened, so it identifies the numbering of messages in the log.
+	 * 
+	 * @return time in milliseconds of the first message. 0 if log is empty.
+	 */
+	public long getFirstSentTime()
+	{
+		return firstSentTime;
+	}
+	
+	/**
+	 * Method that appends message to the log. Record is written with one
+	 * write, so readers see either nothing or the whole length field.
+	 * 
+	 * @param sequence sequence number of the message
+	 * @param frame encoded frame of the message
+	 * @throws IOException if record can't be written
+	 */
+	public void append(final long sequence, final byte[] frame) throws IOException
+	{
+		file.write(encodeRecord(frame));
+		lastSequence = sequence;
+	}
+	
+	/**
+	 * Method that creates record of the log from frame of the message.
+	 * 
+	 * @param frame encoded frame of the message
+	 * @return length of the frame followed by the frame
+	 */
+	public static byte[] encodeRecord(final byte[] frame)
+	{
+		final byte[] record = new byte[4 + frame.length];
+		record[0] = (byte) (frame.length >>> 24);
+		record[1] = (byte) (frame.length >>> 16);
+		record[2] = (byte) (frame.length >>> 8);
+		record[3] = (byte) frame.length;
+		System.arraycopy(frame, 0, record, 4, frame.length);
+		return record;
+	}
+	
+	/**
+	 * Method that closes the log.
+	 */
+	public void close()
+	{
+		try
+		{
+			file.close();
+		}
+		catch (final IOException e) { }
+	}
+	
+	/**
+	 * Method that reads next record from the log. If the record is not complete
+	 * (it's still being written) position of the file is not changed.
+	 * 
+	 * @param file log file positioned at the beginning of a record
+	 * @return frame of the next message. null if there is no complete record.
+	 * @throws IOException if file can't be read
+	 */
+	public static byte[] readFrame(final RandomAccessFile file) throws IOException
+	{
+		final long position = file.getFilePointer();
+		final long available = file.length() - position;
+		if(available < 4)
+		{
+			return null;
+		}
+		final byte[] header = new byte[4];
+		file.readFully(header);
+		final int length = ((header[0] & 0xFF) << 24) | ((header[1] & 0xFF) << 16)
+				| ((header[2] & 0xFF) << 8) | (header[3] & 0xFF);
+		if(length < 0 || available - 4 < length)
+		{
+			file.seek(position);
+			return null;
+		}
+		final byte[] frame = new byte[length];
+		file.readFully(frame);
+		return frame;
+	}
+}
@@ -0,0 +1,248 @@
+package wzielin3.proz.server.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import wzielin3.proz.server.ChatMessage;
+
+/**
+ * History that keeps messages outside of the Java heap: in direct buffers, or in
+ * a memory mapped file if one is given. Every message is kept as its frame
+ * (see ChatMessage.encode()) preceded by length, and positions of the frames are
+ * kept in an index that is also outside of the heap. Heap use and work of the
+ * garbage collector don't depend on the number of messages - message objects are
+ * created only when they are read, e.g. when ChatState is being built.
+ * Memory is taken in chunks, and chunks that contain only removed messages are released.
+ * Mapped file isn't shrunk when chunks are released - its beginning just isn't used anymore.
+ * 
+ * @author Wojciech Zieliński
+ */
+class OffHeapMessageHistory implements MessageHistory
+{
+	/**number of bytes of one entry of the index*/
+	private static final int INDEX_ENTRY_BYTES = 8;
+	/**number of entries in one chunk of the index*/
+	private static final int INDEX_ENTRIES_PER_CHUNK = 1 << 16;
+	/**offset of the sequence number in a record (after length of the frame)*/
+	private static final int SEQUENCE_OFFSET = 4;
+	/**offset of the time in a record*/
+	private static final int TIME_OFFSET = 12;
+	/**number of bytes of one chunk of records*/
+	private final int chunkBytes;
+	/**file in which chunks of records are mapped. null if direct buffers are used*/
+	private final RandomAccessFile mappedFile;
+	/**chunks of records. Released chunks are null*/
+	private final ArrayList<ByteBuffer> dataChunks;
+	/**chunks of the index. Released chunks are null*/
+	private final ArrayList<ByteBuffer> indexChunks;
+	/**position after the last record, counted from the beginning of the first chunk*/
+	private long endPosition;
+	/**number of the entry of the index of the oldest message*/
+	private long firstEntry;
+	/**number of the entry of the index after the newest message*/
+	private long endEntry;
+	
+	/**
+	 * Constructor that creates empty history.
+	 * 
+	 * @param chunkBytes number of bytes of one chunk of records. Has to be greater than the longest frame.
+	 * @param file file in which records are mapped. null if records should be kept in direct buffers.
+	 * The file is scratch space - it's overwritten and deleted on close().
+	 * @throws IllegalStateException if the file can't be opened
+	 */
+	public OffHeapMessageHistory(final int chunkBytes, final File file)
+	{
+		this.chunkBytes = chunkBytes;
+		try
+		{
+			mappedFile = file == null ? null : new RandomAccessFile(file, "rw");
+		}
+		catch (final IOException e)
+		{
+			throw new IllegalStateException("Couldn't open " + file + ": " + e.getMessage(), e);
+		}
+		dataChunks = new ArrayList<ByteBuffer>();
+		indexChunks = new ArrayList<ByteBuffer>();
+		endPosition = 0;
+		firstEntry = 0;
+		endEntry = 0;
+	}
+	
+	@Override
+	public void add(final ChatMessage message)
+	{
+		final byte[] frame = message.encode();
+		final int recordLength = 4 + frame.length;
+		if(recordLength > chunkBytes)
+		{
+			throw new IllegalArgumentException("Message doesn't fit in a chunk: " + recordLength + " bytes");
+		}
+		int offset = (int) (endPosition % chunkBytes);
+		if(offset + recordLength > chunkBytes)
+		{
+			//records don't cross chunks
+			endPosition += chunkBytes - offset;
+			offset = 0;
+		}
+		final ByteBuffer chunk = getDataChunk(endPosition / chunkBytes, true);
+		chunk.putInt(offset, frame.length);
+		chunk.position(offset + 4);
+		chunk.put(frame);
+		setIndexEntry(endEntry, endPosition);
+		++endEntry;
+		endPosition += recordLength;
+	}
+	
+	/**
+	 * Method that returns chunk of records, allocating it if needed.
+	 * 
+	 * @param chunkNumber number of the chunk
+	 * @param allocate true if missing chunk should be allocated
+	 * @return chunk of records
+	 */
+	private ByteBuffer getDataChunk(final long chunkNumber, final boolean allocate)
+	{
+		final int number = (int) chunkNumber;
+		while(dataChunks.size() <= number && allocate)
+		{
+			dataChunks.add(allocateDataChunk(dataChunks.size()));
+		}
+		return dataChunks.get(number);
+	}
+	
+	/**
+	 * Method that allocates chunk of records, in the mapped file or as a direct buffer.
+	 * 
+	 * @param chunkNumber number of the chunk
+	 * @return new chunk
+	 */
+	private ByteBuffer allocateDataChunk(final int chunkNumber)
+	{
+		if(mappedFile == null)
+		{
+			return ByteBuffer.allocateDirect(chunkBytes);
+		}
+		try
+		{
+			return mappedFile.getChannel().map(FileChannel.MapMode.READ_WRITE,
+					(long) chunkNumber * chunkBytes, chunkBytes);
+		}
+		catch (final IOException e)
+		{
+			throw new IllegalStateException("Couldn't map history file: " + e.getMessage(), e);
+		}
+	}
+	
+	/**
+	 * Method that writes position of a record to the index.
+	 * 
+	 * @param entry number of the entry
+	 * @param position position of the record
+	 */
+	private void setIndexEntry(final long entry, final long position)
+	{
+		final int chunkNumber = (int) (entry / INDEX_ENTRIES_PER_CHUNK);
+		while(indexChunks.size() <= chunkNumber)
+		{
+			indexChunks.add(ByteBuffer.allocateDirect(INDEX_ENTRIES_PER_CHUNK * INDEX_ENTRY_BYTES));
+		}
+		indexChunks.get(chunkNumber).putLong((int) (entry % INDEX_ENTRIES_PER_CHUNK) * INDEX_ENTRY_BYTES, position);
+	}
+	
+	/**
+	 * Method that reads position of a record from the index.
+	 * 
+	 * @param index position of the message in the history. 0 is the oldest one.
+	 * @return position of the record of the message
+	 */
+	private long getRecordPosition(final int index)
+	{
+		final long entry = firstEntry + index;
+		return indexChunks.get((int) (entry / INDEX_ENTRIES_PER_CHUNK))
+				.getLong((int) (entry % INDEX_ENTRIES_PER_CHUNK) * INDEX_ENTRY_BYTES);
+	}
+	
+	@Override
+	public int size()
+	{
+		return (int) (endEntry - firstEntry);
+	}
+	
+	@Override
+	public ChatMessage get(final int index)
+	{
+		final long position = getRecordPosition(index);
+		final ByteBuffer chunk = getDataChunk(position / chunkBytes, false);
+		final int offset = (int) (position % chunkBytes);
+		final byte[] frame = new byte[chunk.getInt(offset)];
+		chunk.position(offset + 4);
+		chunk.get(frame);
+		try
+		{
+			return ChatMessage.decode(frame);
+		}
+		catch (final IOException e)
+		{
+			//frames are written only by this class
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	@Override
+	public long getSequence(final int index)
+	{
+		final long position = getRecordPosition(index);
+		return getDataChunk(position / chunkBytes, false).getLong((int) (position % chunkBytes) + SEQUENCE_OFFSET);
+	}
+	
+	@Override
+	public long getSentTime(final int index)
+	{
+		final long position = getRecordPosition(index);
+		return getDataChunk(position / chunkBytes, false).getLong((int) (position % chunkBytes) + TIME_OFFSET);
+	}
+	
+	@Override
+	public void removeOldest(final int count)
+	{
+		firstEntry += count;
+		//release chunks that contain only removed messages
+		final long firstPosition = size() == 0 ? endPosition : getRecordPosition(0);
+		for (int i = (int) (firstPosition / chunkBytes) - 1; i >= 0 && dataChunks.get(i) != null; --i)
+		{
+			dataChunks.set(i, null);
+		}
+		for (int i = (int) (firstEntry / INDEX_ENTRIES_PER_CHUNK) - 1; i >= 0 && indexChunks.get(i) != null; --i)
+		{
+			indexChunks.set(i, null);
+		}
+	}
+	
+	@Override
+	public void clear()
+	{
+		dataChunks.clear();
+		indexChunks.clear();
+		endPosition = 0;
+		firstEntry = 0;
+		endEntry = 0;
+	}
+	
+	@Override
+	public void close()
+	{
+		clear();
+		if(mappedFile != null)
+		{
+			try
+			{
+				mappedFile.setLength(0);
+				mappedFile.close();
+			}
+			catch (final IOException e) { }
+		}
+	}
+}
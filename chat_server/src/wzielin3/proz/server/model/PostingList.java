@@ -0,0 +1,100 @@
+package wzielin3.proz.server.model;
+
+/**
+ * Compressed list of documents that contain one term. Documents are added
+ * in increasing order, so only differences between them are kept, written
+ * as variable length numbers (7 bits in a byte, highest bit tells that more bytes follow).
+ * Most differences fit in one byte, so the list takes about one byte per document.
+ * This class is not thread safe - InvertedIndex guards it with its lock.
+ * 
+ * @author Wojciech Zieliński
+ */
+class PostingList
+{
+	/**encoded differences between documents*/
+	private byte[] data;
+	/**number of used bytes of data*/
+	private int length;
+	/**last added document. -1 if list is empty*/
+	private int lastDocument;
+	/**number of documents on the list*/
+	private int count;
+	
+	/**
+	 * Constructor that creates empty list.
+	 */
+	public PostingList()
+	{
+		data = new byte[4];
+		length = 0;
+		lastDocument = -1;
+		count = 0;
+	}
+	
+	/**
+	 * Method that adds document to the end of the list. Document that is
+	 * already the last one is not added again.
+	 * 
+	 * @param document document greater or equal to the last added document
+	 */
+	public void add(final int document)
+	{
+		if(document == lastDocument)
+		{
+			return;
+		}
+		int delta = document - lastDocument;
+		if(length + 5 > data.length)
+		{
+			final byte[] newData = new byte[data.length * 2];
+			System.arraycopy(data, 0, newData, 0, length);
+			data = newData;
+		}
+		while((delta & ~0x7F) != 0)
+		{
+			data[length++] = (byte) ((delta & 0x7F) | 0x80);
+			delta >>>= 7;
+		}
+		data[length++] = (byte) delta;
+		lastDocument = document;
+		++count;
+	}
+	
+	/**
+	 * Method that returns number of documents on the list.
+	 * 
+	 * @return number of documents on the list
+	 */
+	public int getCount()
+	{
+		return count;
+	}
+	
+	/**
+	 * Method that decodes all documents of the list.
+	 * 
+	 * @return documents in increasing order
+	 */
+	public int[] decode()
+	{
+		final int[] documents = new int[count];
+		int document = -1;
+		int position = 0;
+		for (int i = 0; i < count; ++i)
+		{
+			int delta = 0;
+			int shift = 0;
+			byte b;
+			do
+			{
+				b = data[position++];
+				delta |= (b & 0x7F) << shift;
+				shift += 7;
+			}
+			while((b & 0x80) != 0);
+			document += delta;
+			documents[i] = document;
+		}
+		return documents;
+	}
+}
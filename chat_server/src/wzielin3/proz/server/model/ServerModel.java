@@ -1,41 +1,326 @@
 package wzielin3.proz.server.model;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeSet;
 import wzielin3.proz.server.ChatMessage;
 import wzielin3.proz.server.ChatState;
+import wzielin3.proz.server.attachment.AttachmentReference;
+import wzielin3.proz.server.attachment.AttachmentStore;
+import wzielin3.proz.server.config.ServerConfiguration;
 
 /**
  * Model of this application. It stores names of all users currently
  * connected, and all chat messages that have been exchanged.
  * 
- * @author Wojciech Zieliski
+ * @author Wojciech Zieliński
  */
 public class ServerModel
 {
 	/**maximum length of user's name*/
-	private static final int NAME_MAX_LENGTH = 15;
+	private final int nameMaxLength;
 	/**time in milliseconds acceptable between two messages without re sending*/
-	private static final int TIME_MAX_DIFFERENCE = 500;
-	/**list of all delivered messages*/
-	private final ArrayList<ChatMessage> messages;
+	private final int timeMaxDifference;
+	/**number of messages kept in history. 0 means all messages are kept*/
+	private final int historyMaxMessages;
+	/**all delivered messages that are kept in history*/
+	private final MessageHistory messages;
 	/**Mapping client's names to their models*/
 	private final Map<String, ClientModel> nameToModelMap;
+	/**cache of encoded frames of messages, so that they aren't encoded for every client*/
+	private final MessageFrameCache frameCache;
+	/**sequence number that will be given to next added message*/
+	private long nextSequence;
+	/**epoch of the history - time in milliseconds of the message with which numbering started.
+	 * Sequence numbers are comparable only within one epoch. 0 if replica hasn't read any message yet*/
+	private long historyEpoch;
+	/**file in which history is saved. null if history shouldn't be saved*/
+	private final File snapshotFile;
+	/**file to which accepted messages are appended. null if they shouldn't be logged*/
+	private final File logFile;
+	/**log to which accepted messages are appended. null if it's not open*/
+	private MessageLog messageLog;
+	/**boolean value telling if this model is a replica that doesn't accept messages from users*/
+	private final boolean isReadOnly;
+	/**full text index of the messages*/
+	private final InvertedIndex searchIndex;
+	/**maximum number of messages returned by one search*/
+	private final int searchMaxResults;
+	/**number of newest messages kept in indexes. 0 if all messages of history are indexed*/
+	private final int indexMaxMessages;
+	/**messages and activity of authors*/
+	private final AuthorIndex authorIndex;
+	/**names of users who can send admin queries*/
+	private final Set<String> adminUsers;
+	/**maximum number of missed messages sent to a client that logs in with cached history*/
+	private final int loginMaxCatchUp;
+	/**ids of recently accepted messages mapped by names of their authors, least recently used first*/
+	private final LinkedHashMap<String, MessageIdWindow> messageIdWindows;
+	/**number of ids of accepted messages remembered for every user*/
+	private final int dedupWindowSize;
+	/**time in milliseconds for which ids of accepted messages are remembered*/
+	private final int dedupWindowMillis;
+	/**boolean value telling if messages from users who aren't up to date are accepted*/
+	private final boolean isMergingStaleMessages;
+	/**conversations of direct messages mapped by their keys (see Conversation.getKey()),
+	 * least recently used first. Conversation is kept only while all its participants are logged in*/
+	private final Map<String, Conversation> conversations;
+	/**conversations mapped by names of their participants*/
+	private final Map<String, List<Conversation>> userToConversationsMap;
+	/**maximum number of recipients of one direct message*/
+	private final int directMaxRecipients;
+	/**number of messages kept for every conversation*/
+	private final int directMaxMessages;
+	/**number of messages from users that have been accepted*/
+	private volatile long acceptedMessageCount;
+	/**number of messages from users that have been rejected because they weren't up to date*/
+	private volatile long rejectedMessageCount;
+	/**store of uploaded attachments. null if attachments are not accepted*/
+	private AttachmentStore attachmentStore;
+	/**port on which attachments are transferred. 0 if attachments are not accepted*/
+	private int attachmentPort;
 	
 	/**
-	 * Constructor that initializes the model of this server.
+	 * Constructor that initializes the model of this server with default configuration.
 	 */
 	public ServerModel()
 	{
-		messages = new ArrayList<ChatMessage>();
+		this(new ServerConfiguration());
+	}
+	
+	/**
+	 * Constructor that initializes the model of this server.
+	 * 
+	 * @param configuration configuration of the server
+	 */
+	public ServerModel(final ServerConfiguration configuration)
+	{
+		nameMaxLength = configuration.getNameMaxLength();
+		timeMaxDifference = configuration.getMaxTimeDifferenceMillis();
+		historyMaxMessages = configuration.getHistoryMaxMessages();
+		messages = createHistory(configuration);
 		nameToModelMap = new HashMap<String, ClientModel>();
-		//add one message so that the list is not empty and clients that connect
-		//have a date of last message
-		addMessage(new ChatMessage("Server has been created", "Server", new Date()));
+		frameCache = new MessageFrameCache(configuration.getFrameCacheMaxBytes());
+		searchIndex = new InvertedIndex();
+		searchMaxResults = configuration.getSearchMaxResults();
+		indexMaxMessages = configuration.getIndexMaxMessages();
+		authorIndex = new AuthorIndex();
+		adminUsers = configuration.getAdminUsers();
+		loginMaxCatchUp = configuration.getLoginMaxCatchUp();
+		dedupWindowSize = configuration.getDedupWindowSize();
+		dedupWindowMillis = configuration.getDedupWindowMillis();
+		isMergingStaleMessages = configuration.getStalePolicy() == ServerConfiguration.StalePolicy.MERGE;
+		acceptedMessageCount = 0;
+		final int directMaxConversations = configuration.getDirectMaxConversations();
+		conversations = new LinkedHashMap<String, Conversation>(16, 0.75f, true)
+		{
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<String, Conversation> eldest)
+			{
+				if(size() > directMaxConversations)
+				{
+					removeFromParticipants(eldest.getValue());
+					return true;
+				}
+				return false;
+			}
+		};
+		userToConversationsMap = new HashMap<String, List<Conversation>>();
+		directMaxRecipients = configuration.getDirectMaxRecipients();
+		directMaxMessages = configuration.getDirectMaxMessages();
+		rejectedMessageCount = 0;
+		final int dedupMaxUsers = configuration.getDedupMaxUsers();
+		messageIdWindows = new LinkedHashMap<String, MessageIdWindow>(16, 0.75f, true)
+		{
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<String, MessageIdWindow> eldest)
+			{
+				return size() > dedupMaxUsers;
+			}
+		};
+		nextSequence = 0;
+		historyEpoch = 0;
+		snapshotFile = configuration.getHistorySnapshotFile() == null ? null
+				: new File(configuration.getHistorySnapshotFile());
+		isReadOnly = configuration.getServerRole() == ServerConfiguration.ServerRole.REPLICA;
+		logFile = configuration.getHistoryLogFile() == null || isReadOnly ? null
+				: new File(configuration.getHistoryLogFile());
+		messageLog = null;
+		if(isReadOnly == false && logFile == null)
+		{
+			//add one message so that the list is not empty and clients that connect
+			//have a date of last message. Replica gets its messages from the log.
+			//If log is configured, message is added when log is opened, so that it's logged too.
+			addMessage(new ChatMessage("Server has been created", "Server", new Date()));
+			historyEpoch = messages.get(0).getSentTime();
+		}
+	}
+	
+	/**
+	 * method that creates storage of the history chosen by the configuration.
+	 * 
+	 * @param configuration configuration of the server
+	 * @return empty history
+	 */
+	private static MessageHistory createHistory(final ServerConfiguration configuration)
+	{
+		switch (configuration.getHistoryStore())
+		{
+		case COLUMNAR:
+			return new ColumnarMessageHistory();
+		case OFF_HEAP:
+			final String file = configuration.getOffHeapFile();
+			return new OffHeapMessageHistory(configuration.getOffHeapChunkBytes(),
+					file == null ? null : new File(file));
+		case TIERED:
+			return new TieredMessageHistory(getSegmentDirectory(configuration),
+					configuration.getHotMessages(), configuration.getSegmentMessages(),
+					configuration.getBlockMessages(), configuration.getColdCacheBlocks());
+		default:
+			return new ListMessageHistory();
+		}
+	}
+	
+	/**
+	 * method that returns directory for segments of tiered history: the configured one,
+	 * or a new temporary directory.
+	 * 
+	 * @param configuration configuration of the server
+	 * @return directory for segments
+	 * @throws IllegalStateException if temporary directory can't be created
+	 */
+	private static File getSegmentDirectory(final ServerConfiguration configuration)
+	{
+		if(configuration.getSegmentDirectory() != null)
+		{
+			return new File(configuration.getSegmentDirectory());
+		}
+		try
+		{
+			return Files.createTempDirectory("chat-history").toFile();
+		}
+		catch (final IOException e)
+		{
+			throw new IllegalStateException("Couldn't create directory for history segments: "
+					+ e.getMessage(), e);
+		}
+	}
+	
+	/**
+	 * method that tells if this model is a replica that only serves history.
+	 * 
+	 * @return true if messages from users shouldn't be accepted
+	 */
+	public boolean isReadOnly()
+	{
+		return isReadOnly;
+	}
+	
+	/**
+	 * method that opens log to which accepted messages are appended, if it's configured.
+	 * Sequence numbers continue after the last message in the log. It should be
+	 * invoked after loadSnapshot(). Message saying that server has been created
+	 * (or restarted, if history has been loaded) is added and appended to the log,
+	 * so that replicas have the same messages with the same sequence numbers.
+	 * Epoch of the history is taken from the first message in the log, as replicas do.
+	 * 
+	 * @return true if log has been opened
+	 * @throws IOException if log file can't be opened or read
+	 */
+	public boolean openLog() throws IOException
+	{
+		if(logFile == null)
+		{
+			return false;
+		}
+		messageLog = new MessageLog(logFile);
+		nextSequence = Math.max(nextSequence, messageLog.getLastSequence() + 1);
+		final long firstSentTime = messageLog.getFirstSentTime();
+		final ChatMessage notice = new ChatMessage(messages.size() == 0 ? "Server has been created"
+				: "Server has been restarted", "Server", new Date());
+		addMessage(notice);
+		//if log was empty, the notice is its first message
+		historyEpoch = firstSentTime != 0 ? firstSentTime : notice.getSentTime();
+		return true;
+	}
+	
+	/**
+	 * method that closes log to which accepted messages are appended, if it's open.
+	 */
+	public void closeLog()
+	{
+		if(messageLog != null)
+		{
+			messageLog.close();
+			messageLog = null;
+		}
+	}
+	
+	/**
+	 * method that closes the log and releases memory of the history.
+	 * Model shouldn't be used after it's closed.
+	 */
+	public void close()
+	{
+		closeLog();
+		messages.close();
+	}
+	
+	/**
+	 * method that loads history saved by saveSnapshot(), if snapshot file is configured
+	 * and exists. It should be invoked before the model is used, because it replaces
+	 * all the messages.
+	 * 
+	 * @return true if history has been loaded
+	 * @throws IOException if snapshot file exists but can't be read
+	 */
+	public boolean loadSnapshot() throws IOException
+	{
+		if(snapshotFile == null || snapshotFile.exists() == false)
+		{
+			return false;
+		}
+		messages.clear();
+		final HistorySnapshot snapshot = HistorySnapshot.read(snapshotFile, messages);
+		nextSequence = snapshot.getNextSequence();
+		historyEpoch = snapshot.getHistoryEpoch();
+		rebuildIndexes();
+		if(logFile == null)
+		{
+			//if log is configured, message is added when log is opened
+			addMessage(new ChatMessage("Server has been restarted", "Server", new Date()));
+		}
+		return true;
+	}
+	
+	/**
+	 * method that saves history and the sequence counter to the snapshot file,
+	 * if it's configured.
+	 * 
+	 * @return true if history has been saved
+	 * @throws IOException if snapshot can't be written
+	 */
+	public boolean saveSnapshot() throws IOException
+	{
+		if(snapshotFile == null)
+		{
+			return false;
+		}
+		HistorySnapshot.write(snapshotFile, nextSequence, historyEpoch, messages);
+		return true;
 	}
 	
 	/**
@@ -47,7 +332,7 @@ public class ServerModel
 	 */
 	public boolean isNameAllowed(final String userName)
 	{
-		if(nameToModelMap.containsKey(userName) || userName.length() > NAME_MAX_LENGTH
+		if(nameToModelMap.containsKey(userName) || userName.length() > nameMaxLength
 		|| userName.length() == 0)
 		{
 			return false;
@@ -66,25 +351,466 @@ public class ServerModel
 	}
 	
 	/**
-	 * method that removes given client's name from the list 
+	 * method that removes given client's name from the list. Conversations of direct
+	 * messages the user takes part in are removed too - names are not authenticated
+	 * and can be taken by someone else, so direct messages reach only the current session.
 	 * 
 	 * @param username - name of a client to remove
 	 */
 	public void removeUser(final String username)
 	{
 		nameToModelMap.remove(username);
+		final List<Conversation> userConversations = userToConversationsMap.remove(username);
+		if(userConversations == null)
+		{
+			return;
+		}
+		for (final Conversation conversation : userConversations)
+		{
+			conversations.remove(Conversation.getKey(conversation.getParticipants()));
+			removeFromParticipants(conversation);
+		}
+	}
+	
+	/**
+	 * method that removes conversation from the lists of conversations of its participants.
+	 * 
+	 * @param conversation conversation that is no longer kept
+	 */
+	private void removeFromParticipants(final Conversation conversation)
+	{
+		for (final String participant : conversation.getParticipants())
+		{
+			final List<Conversation> userConversations = userToConversationsMap.get(participant);
+			if(userConversations != null)
+			{
+				userConversations.remove(conversation);
+				if(userConversations.isEmpty())
+				{
+					userToConversationsMap.remove(participant);
+				}
+			}
+		}
 	}
 	
 	/**
-	 * method that adds message to the messages container
+	 * method that tells if user has already sent message with given id, and it has been
+	 * accepted. Windows of ids are kept also after user logs out, so messages sent again
+	 * after reconnecting are found.
+	 * 
+	 * @param userName name of the author
+	 * @param clientMessageId id given to the message by the client. 0 if there is none.
+	 * @return true if message has already been accepted and shouldn't be added again
+	 */
+	public boolean isDuplicateMessage(final String userName, final long clientMessageId)
+	{
+		final MessageIdWindow window = messageIdWindows.get(userName);
+		return clientMessageId != 0 && window != null
+				&& window.contains(clientMessageId, System.currentTimeMillis() - dedupWindowMillis);
+	}
+	
+	/**
+	 * method that remembers id of accepted message, so that it's not accepted again.
+	 * 
+	 * @param userName name of the author
+	 * @param clientMessageId id given to the message by the client. 0 if there is none.
+	 */
+	public void rememberMessageId(final String userName, final long clientMessageId)
+	{
+		if(clientMessageId == 0)
+		{
+			return;
+		}
+		MessageIdWindow window = messageIdWindows.get(userName);
+		if(window == null)
+		{
+			window = new MessageIdWindow(dedupWindowSize);
+			messageIdWindows.put(userName, window);
+		}
+		window.add(clientMessageId, System.currentTimeMillis());
+	}
+	
+	/**
+	 * method that adds message to the messages container. Message is given
+	 * next sequence number and appended to the log, if it's open. If history
+	 * is limited oldest messages are removed (in batches, so that the list
+	 * isn't shifted on every message).
 	 * 
 	 * @param chatMessage
 	 */
 	public void addMessage(final ChatMessage chatMessage)
 	{	
-		messages.add(chatMessage);
+		final ChatMessage message = new ChatMessage(chatMessage, nextSequence++);
+		storeMessage(message);
+		if(messageLog != null)
+		{
+			try
+			{
+				//frame is cached, so it's not encoded again for the broadcast
+				messageLog.append(message.getSequence(), frameCache.getFrame(message));
+			}
+			catch (final IOException e)
+			{
+				//chat keeps working, only replicas stop receiving messages
+				System.out.println("Couldn't append message to the log: " + e.getMessage());
+				closeLog();
+			}
+		}
+	}
+	
+	/**
+	 * method that adds message read from the log of the primary server. Message
+	 * keeps its sequence number, so that replica numbers messages as the primary does,
+	 * and it isn't appended to any log. Message that replica already has is skipped.
+	 * 
+	 * @param message message decoded from the log
+	 * @return true if message has been added
+	 */
+	public boolean addReplicatedMessage(final ChatMessage message)
+	{
+		if(message.getSequence() < nextSequence)
+		{
+			return false;
+		}
+		if(historyEpoch == 0)
+		{
+			//replica reads the log from the beginning, so this is the first message in the log
+			historyEpoch = message.getSentTime();
+		}
+		nextSequence = message.getSequence() + 1;
+		storeMessage(message);
+		return true;
+	}
+	
+	/**
+	 * method that returns epoch of the history. Sequence numbers of messages
+	 * can be compared only if they belong to the same epoch - when server is started
+	 * without its history or log, numbering starts again in a new epoch.
+	 * 
+	 * @return epoch of the history. 0 if replica hasn't read any message yet.
+	 */
+	public long getHistoryEpoch()
+	{
+		return historyEpoch;
+	}
+	
+	/**
+	 * method that adds numbered message to the messages container and indexes.
+	 * If history is limited oldest messages are removed (in batches, so that the list
+	 * isn't shifted on every message). If indexes are limited only the newest messages
+	 * can be found in them.
+	 * 
+	 * @param message message with its sequence number
+	 */
+	private void storeMessage(final ChatMessage message)
+	{
+		messages.add(message);
+		searchIndex.add(message);
+		authorIndex.add(message);
+		if(historyMaxMessages > 0 && messages.size() > historyMaxMessages + historyMaxMessages / 10)
+		{
+			messages.removeOldest(messages.size() - historyMaxMessages);
+			authorIndex.removeBefore(messages.getSequence(0));
+		}
+		final int first = getFirstIndexed();
+		if(searchIndex.getDocumentsCount() > 2 * (messages.size() - first))
+		{
+			//messages out of the indexed ones are found no more. index is rebuilt only after
+			//it doubles, so cost of rebuilding is spread over added messages
+			authorIndex.removeBefore(messages.getSequence(first));
+			searchIndex.clear();
+			for (int i = first; i < messages.size(); ++i)
+			{
+				searchIndex.add(messages.get(i));
+			}
+		}
+	}
+	
+	/**
+	 * method that returns index of the oldest message of history that should be indexed.
+	 * 
+	 * @return index of the oldest indexed message
+	 */
+	private int getFirstIndexed()
+	{
+		return indexMaxMessages > 0 ? Math.max(0, messages.size() - indexMaxMessages) : 0;
+	}
+	
+	/**
+	 * method that indexes the messages again.
+	 */
+	private void rebuildIndexes()
+	{
+		searchIndex.clear();
+		authorIndex.clear();
+		for (int i = getFirstIndexed(); i < messages.size(); ++i)
+		{
+			final ChatMessage message = messages.get(i);
+			searchIndex.add(message);
+			authorIndex.add(message);
+		}
+	}
+	
+	/**
+	 * method that returns full text index of the messages. The index can be
+	 * searched by any thread, also when messages are being added.
+	 * 
+	 * @return full text index of the messages
+	 */
+	public InvertedIndex getSearchIndex()
+	{
+		return searchIndex;
+	}
+	
+	/**
+	 * method that returns maximum number of messages returned by one search.
+	 * 
+	 * @return maximum number of messages returned by one search
+	 */
+	public int getSearchMaxResults()
+	{
+		return searchMaxResults;
+	}
+	
+	/**
+	 * method that checks if user can send admin queries.
+	 * 
+	 * @param userName name of the user
+	 * @return true if user is an administrator
+	 */
+	public boolean isAdmin(final String userName)
+	{
+		return adminUsers.contains(userName);
+	}
+	
+	/**
+	 * method that returns latest messages of given author, without going through the history.
+	 * 
+	 * @param author name of the author
+	 * @param limit maximum number of returned messages
+	 * @param userStatus status of the user who is concerned by this ChatState update
+	 * @return current chat state with latest messages of the author
+	 */
+	public ChatState getChatStateWithMessagesOf(final String author, final int limit,
+			final ChatState.UserStatus userStatus)
+	{
+		return getChatStateWithMessages(authorIndex.getLatestSequences(author, limit), userStatus);
+	}
+	
+	/**
+	 * method that returns statistics of given author.
+	 * 
+	 * @param author name of the author
+	 * @return statistics of the author. null if he hasn't sent any message.
+	 */
+	public AuthorStatistics getAuthorStatistics(final String author)
+	{
+		return authorIndex.getStatistics(author, System.currentTimeMillis());
+	}
+	
+	/**
+	 * method that returns statistics of the most active authors.
+	 * 
+	 * @param limit maximum number of returned statistics
+	 * @return statistics of authors, the most active in the last minute first
+	 */
+	public List<AuthorStatistics> getMostActiveAuthors(final int limit)
+	{
+		return authorIndex.getMostActive(System.currentTimeMillis(), limit);
+	}
+	
+	/**
+	 * method returning current chat state with notes from the server, e.g. answer
+	 * to admin query. Notes are sent as messages of the server, but they are not
+	 * added to history.
+	 * 
+	 * @param notes lines of text to be sent
+	 * @param userStatus status of the user who is concerned by this ChatState update
+	 * @return current chat state with notes as messages
+	 */
+	public ChatState getChatStateWithNotes(final List<String> notes, final ChatState.UserStatus userStatus)
+	{
+		final ArrayList<ChatMessage> noteMessages = new ArrayList<ChatMessage>(notes.size());
+		final Date now = new Date();
+		for (final String note : notes)
+		{
+			noteMessages.add(new ChatMessage(note, "Server", now));
+		}
+		return new ChatState(noteMessages, getFrames(noteMessages),
+				new TreeSet<String>(nameToModelMap.keySet()), userStatus);
+	}
+	
+	/**
+	 * method that enables messages that carry references to attachments.
+	 * 
+	 * @param attachmentStore store of uploaded attachments
+	 * @param attachmentPort port on which attachments are transferred
+	 */
+	public void setAttachmentStore(final AttachmentStore attachmentStore, final int attachmentPort)
+	{
+		this.attachmentStore = attachmentStore;
+		this.attachmentPort = attachmentPort;
+	}
+	
+	/**
+	 * method that returns port on which attachments are transferred.
+	 * 
+	 * @return port on which attachments are transferred. 0 if attachments are not accepted.
+	 */
+	public int getAttachmentPort()
+	{
+		return attachmentPort;
+	}
+	
+	/**
+	 * method that checks if text can be content of a message. Message that carries
+	 * reference to an attachment is valid only if the attachment has been uploaded.
+	 * 
+	 * @param content text to be checked
+	 * @return true if text can be content of a message
+	 */
+	public boolean isValidContent(final String content)
+	{
+		if(ChatMessage.isValidContent(content) == false)
+		{
+			return false;
+		}
+		final AttachmentReference reference = AttachmentReference.fromContent(content);
+		return reference == null || (attachmentStore != null && attachmentStore.contains(reference));
+	}
+	
+	/**
+	 * method that tells if messages from users who aren't up to date should be
+	 * accepted, and missed messages sent with the acknowledgement.
+	 * 
+	 * @return true if stale messages should be accepted
+	 */
+	public boolean isMergingStaleMessages()
+	{
+		return isMergingStaleMessages;
+	}
+	
+	/**
+	 * method that counts message from a user that has been accepted.
+	 */
+	public void countAcceptedMessage()
+	{
+		++acceptedMessageCount;
+	}
+	
+	/**
+	 * method that counts message from a user that has been rejected because
+	 * the user wasn't up to date.
+	 */
+	public void countRejectedMessage()
+	{
+		++rejectedMessageCount;
+	}
+	
+	/**
+	 * method that returns number of messages from users that have been accepted.
+	 * It can be invoked from any thread.
+	 * 
+	 * @return number of accepted messages
+	 */
+	public long getAcceptedMessageCount()
+	{
+		return acceptedMessageCount;
+	}
+	
+	/**
+	 * method that returns number of messages from users that have been rejected
+	 * because users weren't up to date. It can be invoked from any thread.
+	 * 
+	 * @return number of rejected messages
+	 */
+	public long getRejectedMessageCount()
+	{
+		return rejectedMessageCount;
+	}
+	
+	/**
+	 * method that tells if direct message can be sent to given recipients.
+	 * 
+	 * @param author name of the author
+	 * @param recipients names of the recipients
+	 * @return true if there is at least one recipient other than the author, and not too many of them
+	 */
+	public boolean isValidRecipients(final String author, final Set<String> recipients)
+	{
+		return recipients.size() <= directMaxRecipients
+				&& (recipients.size() > 1 || recipients.contains(author) == false);
 	}
 	
+	/**
+	 * method that adds direct message to the conversation of its author and recipients.
+	 * Direct messages are not added to the history of the chat room and have no sequence numbers.
+	 * 
+	 * @param author name of the author
+	 * @param recipients names of the recipients
+	 * @param content content of the message
+	 * @return state with DIRECT_MESSAGE status, that should be sent to all participants
+	 * of the conversation. It has only the new message.
+	 */
+	public ChatState addDirectMessage(final String author, final Set<String> recipients, final String content)
+	{
+		final Set<String> participants = new TreeSet<String>(recipients);
+		participants.add(author);
+		final String key = Conversation.getKey(participants);
+		Conversation conversation = conversations.get(key);
+		if(conversation == null)
+		{
+			conversation = new Conversation(participants, directMaxMessages);
+			conversations.put(key, conversation);
+			for (final String participant : participants)
+			{
+				List<Conversation> userConversations = userToConversationsMap.get(participant);
+				if(userConversations == null)
+				{
+					userConversations = new ArrayList<Conversation>();
+					userToConversationsMap.put(participant, userConversations);
+				}
+				userConversations.add(conversation);
+			}
+		}
+		final ChatMessage message = new ChatMessage(content, author, new Date());
+		conversation.addMessage(message);
+		final ArrayList<ChatMessage> newMessages = new ArrayList<ChatMessage>(1);
+		newMessages.add(message);
+		return new ChatState(newMessages, getFrames(newMessages),
+				new TreeSet<String>(participants), ChatState.UserStatus.DIRECT_MESSAGE);
+	}
+	
+	/**
+	 * method that returns state that tells the client that its message has been accepted.
+	 * It has no messages - accepted message is sent to all clients separately.
+	 * 
+	 * @param clientMessageId id given to the message by the client
+	 * @return state with MESSAGE_ACCEPTED status
+	 */
+	public ChatState getAcknowledgement(final long clientMessageId)
+	{
+		final ChatState state = new ChatState(new ArrayList<ChatMessage>(), new ArrayList<byte[]>(),
+				new TreeSet<String>(nameToModelMap.keySet()), ChatState.UserStatus.MESSAGE_ACCEPTED);
+		state.setClientMessageId(clientMessageId);
+		return state;
+	}
+	
+	/**
+	 * method that returns state that tells the client that its message has been refused
+	 * because the server is overloaded. It has no messages and no names, so it costs
+	 * almost nothing to build and send.
+	 * 
+	 * @param clientMessageId id given to the message by the client
+	 * @return state with SERVER_OVERLOADED status
+	 */
+	public ChatState getOverloadNotice(final long clientMessageId)
+	{
+		final ChatState state = new ChatState(new ArrayList<ChatMessage>(), new ArrayList<byte[]>(),
+				new TreeSet<String>(), ChatState.UserStatus.SERVER_OVERLOADED);
+		state.setClientMessageId(clientMessageId);
+		return state;
+	}
 	
 	/**
 	 * method that returns all user names of connected clients
@@ -108,13 +834,15 @@ public class ServerModel
 		{
 			return list;
 		}
-		//iterate from back to get only latest messages
+		//iterate from back to get only latest messages. Only times are read
+		//until the first older message is found
+		final long time = date.getTime();
 		for(int i = messages.size() - 1; i >= 0; --i)
 		{
-			ChatMessage message = messages.get(i);
-			if(message.getSentDate().before(date) == false)
+			if(messages.getSentTime(i) >= time)
 			{
-				list.add(new ChatMessage(message));
+				//messages are immutable, there's no need to copy them
+				list.add(messages.get(i));
 			}
 			else 
 			{
@@ -154,7 +882,8 @@ public class ServerModel
 	 */
 	public ChatState getChatState(final ChatState.UserStatus userStatus)
 	{
-		return new ChatState(getRecentMessages(), 
+		final ArrayList<ChatMessage> recentMessages = getRecentMessages();
+		return new ChatState(recentMessages, getFrames(recentMessages),
 				new TreeSet<String>(nameToModelMap.keySet()), userStatus);
 	}
 
@@ -168,10 +897,152 @@ public class ServerModel
 	 */
 	public ChatState getChatStateWithMessagesAfter(final Date date, final ChatState.UserStatus userStatus)
 	{
-		return new ChatState(getAllMessagesAfter(date), 
+		final ArrayList<ChatMessage> messagesAfter = getAllMessagesAfter(date);
+		return new ChatState(messagesAfter, getFrames(messagesAfter),
 				new TreeSet<String>(nameToModelMap.keySet()), userStatus);
 	}
 	
+	/**
+	 * method returning current chat state with messages that have sequence numbers
+	 * greater than given one, e.g. missed by a client that has older messages cached.
+	 * If there are too many of them only the newest ones are included. Given sequence
+	 * number has to belong to the current epoch of the history.
+	 * 
+	 * @param sequence sequence number of the last message the client has
+	 * @param userStatus status of the user who is concerned by this ChatState update
+	 * @return current chat state with messages after given sequence number
+	 */
+	public ChatState getChatStateWithMessagesAfterSequence(final long sequence,
+			final ChatState.UserStatus userStatus)
+	{
+		//messages are kept in order of sequence numbers - find the first newer one
+		int low = 0;
+		int high = messages.size();
+		while(low < high)
+		{
+			final int middle = (low + high) >>> 1;
+			if(messages.getSequence(middle) <= sequence)
+			{
+				low = middle + 1;
+			}
+			else
+			{
+				high = middle;
+			}
+		}
+		final int first = Math.max(low, messages.size() - loginMaxCatchUp);
+		final ArrayList<ChatMessage> messagesAfter = new ArrayList<ChatMessage>(messages.size() - first);
+		for (int i = first; i < messages.size(); ++i)
+		{
+			messagesAfter.add(messages.get(i));
+		}
+		return new ChatState(messagesAfter, getFrames(messagesAfter),
+				new TreeSet<String>(nameToModelMap.keySet()), userStatus);
+	}
+	
+	/**
+	 * method returning current chat state with messages of given sequence numbers,
+	 * e.g. found by the search. Messages that are no longer in history are skipped.
+	 * 
+	 * @param sequences sequence numbers of messages to be included
+	 * @param userStatus status of the user who is concerned by this ChatState update
+	 * @return current chat state with messages of given sequence numbers
+	 */
+	public ChatState getChatStateWithMessages(final long[] sequences, final ChatState.UserStatus userStatus)
+	{
+		final ArrayList<ChatMessage> found = new ArrayList<ChatMessage>(sequences.length);
+		for (final long sequence : sequences)
+		{
+			final ChatMessage message = getMessage(sequence);
+			if(message != null)
+			{
+				found.add(message);
+			}
+		}
+		Collections.sort(found);
+		return new ChatState(found, getFrames(found),
+				new TreeSet<String>(nameToModelMap.keySet()), userStatus);
+	}
+	
+	/**
+	 * method that finds message of given sequence number. Messages are kept
+	 * in order of sequence numbers, so binary search is used.
+	 * 
+	 * @param sequence sequence number of the message
+	 * @return message of given sequence number. null if it's not in history.
+	 */
+	private ChatMessage getMessage(final long sequence)
+	{
+		int low = 0;
+		int high = messages.size() - 1;
+		while(low <= high)
+		{
+			final int middle = (low + high) >>> 1;
+			final long middleSequence = messages.getSequence(middle);
+			if(middleSequence < sequence)
+			{
+				low = middle + 1;
+			}
+			else if(middleSequence > sequence)
+			{
+				high = middle - 1;
+			}
+			else
+			{
+				return messages.get(middle);
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * method that returns encoded frames of given messages. Frames are taken from
+	 * the cache, only missing ones are encoded.
+	 * 
+	 * @param messagesToEncode messages which frames should be returned
+	 * @return list of frames in the same order as given messages
+	 */
+	private ArrayList<byte[]> getFrames(final ArrayList<ChatMessage> messagesToEncode)
+	{
+		final ArrayList<byte[]> frames = new ArrayList<byte[]>(messagesToEncode.size());
+		for (final ChatMessage message : messagesToEncode)
+		{
+			frames.add(frameCache.getFrame(message));
+		}
+		return frames;
+	}
+	
+	/**
+	 * method that returns part of requests for message frames that were
+	 * answered from the cache.
+	 * 
+	 * @return value between 0 and 1. 0 if no frames were requested yet.
+	 */
+	public double getFrameCacheHitRate()
+	{
+		return frameCache.getHitRate();
+	}
+	
+	/**
+	 * method that returns number of message frames that were found in the cache.
+	 * 
+	 * @return number of message frames that were found in the cache
+	 */
+	public long getFrameCacheHitCount()
+	{
+		return frameCache.getHitCount();
+	}
+	
+	/**
+	 * method that returns number of message frames that had to be encoded.
+	 * 
+	 * @return number of message frames that had to be encoded
+	 */
+	public long getFrameCacheMissCount()
+	{
+		return frameCache.getMissCount();
+	}
+	
 	/**
 	 * method that checks whether date give as argument is close enough or after the date
 	 * of last received message.
@@ -190,9 +1061,9 @@ public class ServerModel
 		{
 			return true;
 		}
-		final Date lastMessageDate = messages.get(messages.size()-1).getSentDate();
-		long differenceInMiliseconds = lastMessageDate.getTime() - date.getTime();
-		if(differenceInMiliseconds > TIME_MAX_DIFFERENCE) //more than half a second is bad
+		final long lastMessageTime = messages.getSentTime(messages.size() - 1);
+		long differenceInMiliseconds = lastMessageTime - date.getTime();
+		if(differenceInMiliseconds > timeMaxDifference)
 		{
 			return false;
 		}
@@ -0,0 +1,401 @@
+package wzielin3.proz.server.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import wzielin3.proz.server.ChatMessage;
+
+/**
+ * History that keeps only the newest messages in memory. When the hot tail grows
+ * over given number of messages, its oldest messages are moved to a new immutable
+ * segment file with compressed blocks (see HistorySegment). Segment is written by
+ * a background thread, and messages stay in memory until it's finished, so adding
+ * a message never waits for the disk. Cold messages are read transparently: block
+ * with the message is read and kept in a small LRU cache of blocks, so memory stays
+ * bounded while all messages can be read. Block that can't be read is replaced with
+ * messages saying that they have been lost, so a disk error doesn't stop the server.
+ * Segment files are deleted when their messages are removed from the history and
+ * when history is closed.
+ * 
+ * @author Wojciech Zieliński
+ */
+class TieredMessageHistory implements MessageHistory
+{
+	/**newest messages, kept in memory*/
+	private final ColumnarMessageHistory hot;
+	/**segments with older messages, oldest first*/
+	private final ArrayList<HistorySegment> segments;
+	/**number of messages removed from the first segment*/
+	private int removedFromFirstSegment;
+	/**number of messages in all segments, without the removed ones*/
+	private int coldSize;
+	/**directory in which segment files are created*/
+	private final File directory;
+	/**maximum number of messages in memory before they are moved to a segment*/
+	private final int hotMessages;
+	/**number of messages moved to one segment*/
+	private final int segmentMessages;
+	/**number of messages in one compressed block of a segment*/
+	private final int blockMessages;
+	/**blocks of segments read recently, in order of use*/
+	private final BlockCache blockCache;
+	/**number used to name next segment file*/
+	private long nextSegmentNumber;
+	/**boolean value telling if last attempt to write a segment failed*/
+	private boolean isSpillFailing;
+	/**thread that writes segments*/
+	private final ExecutorService segmentWriter;
+	/**segments being written in the background. null if none are*/
+	private Future<List<HistorySegment>> pendingSegments;
+	/**files of the segments being written in the background*/
+	private List<File> pendingSegmentFiles;
+	
+	/**
+	 * Constructor that creates empty history.
+	 * 
+	 * @param directory directory in which segment files are created. It's created if needed.
+	 * @param hotMessages maximum number of messages in memory before they are moved to a segment
+	 * @param segmentMessages number of messages moved to one segment
+	 * @param blockMessages number of messages in one compressed block of a segment
+	 * @param cacheBlocks number of blocks read from segments that are kept in memory
+	 */
+	public TieredMessageHistory(final File directory, final int hotMessages,
+			final int segmentMessages, final int blockMessages, final int cacheBlocks)
+	{
+		this.directory = directory;
+		this.hotMessages = hotMessages;
+		this.segmentMessages = segmentMessages;
+		this.blockMessages = blockMessages;
+		hot = new ColumnarMessageHistory();
+		segments = new ArrayList<HistorySegment>();
+		blockCache = new BlockCache(cacheBlocks);
+		removedFromFirstSegment = 0;
+		coldSize = 0;
+		nextSegmentNumber = 0;
+		isSpillFailing = false;
+		segmentWriter = Executors.newSingleThreadExecutor(new ThreadFactory()
+		{
+			@Override
+			public Thread newThread(final Runnable runnable)
+			{
+				final Thread thread = new Thread(runnable, "history-segments");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		pendingSegments = null;
+		pendingSegmentFiles = null;
+	}
+	
+	@Override
+	public void add(final ChatMessage message)
+	{
+		hot.add(message);
+		if(pendingSegments != null && pendingSegments.isDone())
+		{
+			completeSpill();
+		}
+		if(pendingSegments == null && hot.size() >= hotMessages + segmentMessages)
+		{
+			spill();
+		}
+	}
+	
+	/**
+	 * Method that starts writing oldest messages from memory to new segments
+	 * in the background, as many full segments as there are messages over the limit.
+	 * Messages stay in memory until completeSpill() is invoked.
+	 */
+	private void spill()
+	{
+		directory.mkdirs();
+		final int count = (hot.size() - hotMessages) / segmentMessages;
+		final List<File> files = new ArrayList<File>(count);
+		final List<List<ChatMessage>> runs = new ArrayList<List<ChatMessage>>(count);
+		for (int segment = 0; segment < count; ++segment)
+		{
+			files.add(new File(directory, "segment-" + nextSegmentNumber++ + ".seg"));
+			final List<ChatMessage> run = new ArrayList<ChatMessage>(segmentMessages);
+			for (int i = segment * segmentMessages; i < (segment + 1) * segmentMessages; ++i)
+			{
+				run.add(hot.get(i));
+			}
+			runs.add(run);
+		}
+		pendingSegmentFiles = files;
+		pendingSegments = segmentWriter.submit(new Callable<List<HistorySegment>>()
+		{
+			@Override
+			public List<HistorySegment> call() throws IOException
+			{
+				final List<HistorySegment> written = new ArrayList<HistorySegment>(runs.size());
+				for (int i = 0; i < runs.size(); ++i)
+				{
+					written.add(HistorySegment.write(files.get(i), runs.get(i), blockMessages));
+				}
+				return written;
+			}
+		});
+	}
+	
+	/**
+	 * Method that waits until segments being written in the background are finished,
+	 * and removes their messages from memory. If a segment couldn't be written, messages
+	 * stay in memory and it's tried again with the next message.
+	 */
+	private void completeSpill()
+	{
+		boolean isInterrupted = false;
+		try
+		{
+			while(true)
+			{
+				try
+				{
+					for (final HistorySegment segment : pendingSegments.get())
+					{
+						segments.add(segment);
+						coldSize += segment.size();
+						hot.removeOldest(segment.size());
+					}
+					isSpillFailing = false;
+					return;
+				}
+				catch (final InterruptedException e)
+				{
+					//messages can't be removed before the segment is finished
+					isInterrupted = true;
+				}
+			}
+		}
+		catch (final ExecutionException e)
+		{
+			for (final File file : pendingSegmentFiles)
+			{
+				file.delete();
+			}
+			if(isSpillFailing == false)
+			{
+				System.out.println("Couldn't write history segment: " + e.getCause().getMessage());
+				isSpillFailing = true;
+			}
+		}
+		finally
+		{
+			pendingSegments = null;
+			pendingSegmentFiles = null;
+			if(isInterrupted)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+	
+	@Override
+	public int size()
+	{
+		return coldSize + hot.size();
+	}
+	
+	@Override
+	public ChatMessage get(final int index)
+	{
+		if(index >= coldSize)
+		{
+			return hot.get(index - coldSize);
+		}
+		//segments have equal sizes, so segment is found without searching
+		final int position = removedFromFirstSegment + index;
+		final HistorySegment segment = segments.get(position / segmentMessages);
+		final int indexInSegment = position % segmentMessages;
+		final int block = segment.getBlockNumber(indexInSegment);
+		return getBlock(segment, block)[indexInSegment - segment.getBlockStart(block)];
+	}
+	
+	/**
+	 * Method that returns block of a segment, reading it if it's not in the cache.
+	 * Block that can't be read is replaced with messages saying that they have been lost.
+	 * It's kept in the cache like other blocks, so reading is tried again only after it's evicted.
+	 * 
+	 * @param segment segment with the block
+	 * @param block number of the block
+	 * @return messages of the block
+	 */
+	private ChatMessage[] getBlock(final HistorySegment segment, final int block)
+	{
+		final BlockKey key = new BlockKey(segment, block);
+		ChatMessage[] messages = blockCache.get(key);
+		if(messages == null)
+		{
+			try
+			{
+				messages = segment.readBlock(block);
+			}
+			catch (final IOException e)
+			{
+				System.out.println("Couldn't read history segment: " + e.getMessage());
+				messages = segment.getLostBlock(block);
+			}
+			blockCache.put(key, messages);
+		}
+		return messages;
+	}
+	
+	@Override
+	public long getSequence(final int index)
+	{
+		return index >= coldSize ? hot.getSequence(index - coldSize) : get(index).getSequence();
+	}
+	
+	@Override
+	public long getSentTime(final int index)
+	{
+		return index >= coldSize ? hot.getSentTime(index - coldSize) : get(index).getSentTime();
+	}
+	
+	@Override
+	public void removeOldest(final int count)
+	{
+		if(pendingSegments != null)
+		{
+			//removed messages may be the ones being written
+			completeSpill();
+		}
+		int remaining = count;
+		while(remaining > 0 && segments.isEmpty() == false)
+		{
+			final HistorySegment first = segments.get(0);
+			final int removed = Math.min(remaining, first.size() - removedFromFirstSegment);
+			removedFromFirstSegment += removed;
+			coldSize -= removed;
+			remaining -= removed;
+			if(removedFromFirstSegment == first.size())
+			{
+				removeFirstSegment();
+			}
+		}
+		hot.removeOldest(remaining);
+	}
+	
+	/**
+	 * Method that removes the oldest segment with its file and cached blocks.
+	 */
+	private void removeFirstSegment()
+	{
+		final HistorySegment first = segments.remove(0);
+		coldSize -= first.size() - removedFromFirstSegment;
+		removedFromFirstSegment = 0;
+		first.delete();
+		final Iterator<BlockKey> keys = blockCache.keySet().iterator();
+		while(keys.hasNext())
+		{
+			if(keys.next().segment == first)
+			{
+				keys.remove();
+			}
+		}
+	}
+	
+	@Override
+	public void clear()
+	{
+		if(pendingSegments != null)
+		{
+			completeSpill();
+		}
+		while(segments.isEmpty() == false)
+		{
+			removeFirstSegment();
+		}
+		hot.clear();
+	}
+	
+	@Override
+	public void close()
+	{
+		clear();
+		segmentWriter.shutdown();
+		hot.close();
+	}
+	
+	/**
+	 * Key of a block in the cache: segment and number of the block in it.
+	 * 
+	 * @author Wojciech Zieliński
+	 */
+	private static class BlockKey
+	{
+		/**segment with the block*/
+		private final HistorySegment segment;
+		/**number of the block in the segment*/
+		private final int block;
+		
+		/**
+		 * Constructor that creates key of given block.
+		 * 
+		 * @param segment segment with the block
+		 * @param block number of the block in the segment
+		 */
+		public BlockKey(final HistorySegment segment, final int block)
+		{
+			this.segment = segment;
+			this.block = block;
+		}
+		
+		@Override
+		public boolean equals(final Object object)
+		{
+			if(object instanceof BlockKey == false)
+			{
+				return false;
+			}
+			final BlockKey key = (BlockKey) object;
+			return segment == key.segment && block == key.block;
+		}
+		
+		@Override
+		public int hashCode()
+		{
+			return System.identityHashCode(segment) * 31 + block;
+		}
+	}
+	
+	/**
+	 * LRU cache of blocks read from segments.
+	 * 
+	 * @author Wojciech Zieliński
+	 */
+	private static class BlockCache extends LinkedHashMap<BlockKey, ChatMessage[]>
+	{
+		private static final long serialVersionUID = 1L;
+		/**maximum number of blocks in the cache*/
+		private final int capacity;
+		
+		/**
+		 * Constructor that creates empty cache.
+		 * 
+		 * @param capacity maximum number of blocks in the cache
+		 */
+		public BlockCache(final int capacity)
+		{
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+		
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<BlockKey, ChatMessage[]> eldest)
+		{
+			return size() > capacity;
+		}
+	}
+}
@@ -0,0 +1,108 @@
+package wzielin3.proz.server.network;
+
+import java.net.InetAddress;
+import java.util.HashMap;
+
+/**
+ * Class that decides whether new connection can be accepted. It limits
+ * the number of connections in total and from one address. Decision is made
+ * right after the socket is accepted, before anything is allocated for the
+ * connection, so a flood of connections can't exhaust the server.
+ * Every admitted connection has to be released when it's closed.
+ * This class is thread safe.
+ * 
+ * @author Wojciech Zieliński
+ */
+class AdmissionController
+{
+	/**maximum number of connections in total*/
+	private final int maxConnections;
+	/**maximum number of connections from one address*/
+	private final int maxConnectionsPerAddress;
+	/**number of connections currently admitted*/
+	private int connectionsCount;
+	/**number of connections currently admitted from each address. Addresses
+	 * without connections are removed*/
+	private final HashMap<InetAddress, Integer> addressToConnectionsCountMap;
+	/**number of connections rejected so far*/
+	private int rejectedCount;
+	
+	/**
+	 * Constructor that creates admission controller with given limits.
+	 * 
+	 * @param maxConnections maximum number of connections in total
+	 * @param maxConnectionsPerAddress maximum number of connections from one address
+	 */
+	public AdmissionController(final int maxConnections, final int maxConnectionsPerAddress)
+	{
+		this.maxConnections = maxConnections;
+		this.maxConnectionsPerAddress = maxConnectionsPerAddress;
+		connectionsCount = 0;
+		addressToConnectionsCountMap = new HashMap<InetAddress, Integer>();
+		rejectedCount = 0;
+	}
+	
+	/**
+	 * Method that tries to admit new connection from given address.
+	 * 
+	 * @param address address from which connection comes
+	 * @return true if connection is admitted and should be released later.
+	 * false if some limit would be exceeded.
+	 */
+	public synchronized boolean tryAdmit(final InetAddress address)
+	{
+		final Integer addressCount = addressToConnectionsCountMap.get(address);
+		final int count = addressCount == null ? 0 : addressCount;
+		if(connectionsCount >= maxConnections || count >= maxConnectionsPerAddress)
+		{
+			++rejectedCount;
+			return false;
+		}
+		++connectionsCount;
+		addressToConnectionsCountMap.put(address, count + 1);
+		return true;
+	}
+	
+	/**
+	 * Method that releases connection admitted earlier.
+	 * 
+	 * @param address address from which connection came
+	 */
+	public synchronized void release(final InetAddress address)
+	{
+		final Integer addressCount = addressToConnectionsCountMap.get(address);
+		if(addressCount == null)
+		{
+			return; //not admitted
+		}
+		if(addressCount == 1)
+		{
+			addressToConnectionsCountMap.remove(address);
+		}
+		else
+		{
+			addressToConnectionsCountMap.put(address, addressCount - 1);
+		}
+		--connectionsCount;
+	}
+	
+	/**
+	 * Method that returns number of connections currently admitted.
+	 * 
+	 * @return number of connections currently admitted
+	 */
+	public synchronized int getConnectionsCount()
+	{
+		return connectionsCount;
+	}
+	
+	/**
+	 * Method that returns number of connections rejected so far.
+	 * 
+	 * @return number of connections rejected so far
+	 */
+	public synchronized int getRejectedCount()
+	{
+		return rejectedCount;
+	}
+}
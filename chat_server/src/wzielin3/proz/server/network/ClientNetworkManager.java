@@ -1,74 +1,96 @@
 package wzielin3.proz.server.network;
 
-import java.io.IOException;
-import java.io.InvalidClassException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.Socket;
+import java.net.InetAddress;
+import java.util.Queue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
 import wzielin3.proz.server.ChatState;
 import wzielin3.proz.server.events.ApplicationEvent;
 import wzielin3.proz.server.events.LogOutEvent;
 import wzielin3.proz.server.events.NetworkEvent;
 
 /**
- * class that is responsible for connection with one client. When object of this class
+ * Common base for connections with one client. When object of this class
  * is created and connection succeeds, it's still not fully connected. It waits for the
  * login request from client to see it's user name. Then if this user name is available
  * connection is confirmed. Only then the connection is fully working
- * and messages can be send over it.
+ * and messages can be send over it. Subclasses decide how events and chat states
+ * are transported (e.g. over socket or in memory).
  * 
- * @author Wojciech Zieliski
+ * @author Wojciech Zieliński
  */
-public class ClientNetworkManager extends Thread
+public abstract class ClientNetworkManager
 {
-	/**socket of this clients connection*/
-	private final Socket socket;
-	/**stream from which objects are read*/
-	private final ObjectInputStream objectInputStream;
-	/**stream to which objects are sent*/
-	private final ObjectOutputStream objectOutputStream;
 	/**queue to which received objects are sent*/
 	private final BlockingQueue<ApplicationEvent> eventsQueue;
-	/**boolean value telling if thread should stop. set to false on close() invoked*/
-	private volatile boolean keepGoing;
 	/**boolean value telling if this client is logged in and can exchange messages*/
 	private volatile boolean isLoggedIn;
+	/**boolean value telling if broadcast states are written to this client. Set in order with
+	 * states sent to it, so states broadcast before log in are not written after the log in state*/
+	private volatile boolean isReceivingBroadcasts;
+	/**executor that writes to this client in order states were sent. null if they are written
+	 * on the thread that sends them. Set by ServerNetworkManager*/
+	private volatile Executor output;
+	/**time in milliseconds when last event was received from the client*/
+	private volatile long lastActivityMillis;
+	/**timeout that expires when client is idle for too long. Used only by ServerNetworkManager*/
+	private HashedWheelTimer.Timeout<ClientNetworkManager> idleTimeout;
+	/**queue to which this client adds itself when it has written states that haven't been flushed.
+	 * null if it flushes them right away. Set by ServerNetworkManager*/
+	private volatile Queue<ClientNetworkManager> unflushedClients;
+	/**boolean value telling if this client is in the queue of unflushed clients*/
+	private final AtomicBoolean isUnflushed;
 	
 	/**
-	 * constructor that initializes connection with specified client.
-	 * to start listening to client the start() method needs to be invoked.
-	 * from the socket.
+	 * constructor that initializes this connection.
 	 * 
-	 * @param socket - socket to which this client is going to connect
 	 * @param eventsQueue - blocking queue to which this client network manager
 	 * is going to send events concerning connection with his client
-	 * @throws IOException if couldn't create ObjectStreams
 	 */
-	public ClientNetworkManager(Socket socket,
-			BlockingQueue<ApplicationEvent> eventsQueue) throws IOException
+	protected ClientNetworkManager(final BlockingQueue<ApplicationEvent> eventsQueue)
 	{
-		this.socket = socket;
 		this.eventsQueue = eventsQueue;
-		objectOutputStream = new ObjectOutputStream(socket.getOutputStream());
-		objectInputStream = new ObjectInputStream(socket.getInputStream());
-		keepGoing = true;
-		isLoggedIn = false; 
+		isLoggedIn = false;
+		isReceivingBroadcasts = false;
+		output = null;
+		lastActivityMillis = System.currentTimeMillis();
+		idleTimeout = null;
+		unflushedClients = null;
+		isUnflushed = new AtomicBoolean(false);
 	}
 	
 	/**
 	 * method that sets current status of being logged in for this user as "true".
-	 * This method should be invoked when user's name is accepted and 
+	 * This method should be invoked when user's name is accepted and
 	 * he can start to exchange messages.
 	 * If user is logged in he can exchange messages. in different case he can not
 	 */
 	public void setLoggedIn()
 	{
 		this.isLoggedIn = true;
+		execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				isReceivingBroadcasts = true;
+			}
+		});
 	}
 	
 	/**
-	 * method that returns boolean value representing current status 
+	 * method that sets current status of being logged in for this user as "false".
+	 * Should be invoked by subclasses when connection is closed.
+	 */
+	protected void setLoggedOut()
+	{
+		this.isLoggedIn = false;
+		this.isReceivingBroadcasts = false;
+	}
+	
+	/**
+	 * method that returns boolean value representing current status
 	 * of being logged in for this user.
 	 * 
 	 * @return true if user is logged in. false if he is not.
@@ -79,97 +101,225 @@ public class ClientNetworkManager extends Thread
 	}
 	
 	/**
-	 * method that sends current chat state to the client concerned
+	 * method that returns boolean value telling if broadcast states should be written
+	 * to this client. Should be checked only by the thread that writes to the client.
+	 * 
+	 * @return true if client is logged in and its log in has been written
+	 */
+	boolean isReceivingBroadcasts()
+	{
+		return isReceivingBroadcasts && isLoggedIn;
+	}
+	
+	/**
+	 * method that sets executor that writes to this client.
+	 * 
+	 * @param output executor that writes to this client in order states were sent.
+	 * null if states should be written on the thread that sends them.
+	 */
+	void setOutput(final Executor output)
+	{
+		this.output = output;
+	}
+	
+	/**
+	 * method that executes task that writes to this client, by the executor
+	 * that writes to this client, if there is one.
+	 * 
+	 * @param task task to be executed
 	 */
-	public void send(ChatState state)
+	private void execute(final Runnable task)
 	{
-		try
+		final Executor output = this.output;
+		if(output == null)
 		{
-			objectOutputStream.writeObject(state);
+			task.run();
 		}
-		catch (IOException e)
+		else
 		{
-			//if connection is corrupted run method detects it and sends event
-			//to controller which then closes this client. no need to do it here
+			output.execute(task);
 		}
 	}
 	
 	/**
-	 * method that closes connection with this client.
-	 * should be invoked before removing this client.
-	 * calling this method closes this client and there is no going back. after
-	 * that object is useless.
+	 * method that returns time when last event was received from the client.
+	 * Every event counts as a heartbeat, e.g. periodic StateRequestEvent.
+	 * 
+	 * @return time in milliseconds when last event was received from the client
 	 */
-	public void close()
+	public long getLastActivityMillis()
 	{
-		keepGoing = false;
-		isLoggedIn = false;
-		try
+		return lastActivityMillis;
+	}
+	
+	/**
+	 * method that returns timeout that expires when client is idle for too long.
+	 * 
+	 * @return idle timeout. null if it hasn't been scheduled.
+	 */
+	HashedWheelTimer.Timeout<ClientNetworkManager> getIdleTimeout()
+	{
+		return idleTimeout;
+	}
+	
+	/**
+	 * method that sets timeout that expires when client is idle for too long.
+	 * 
+	 * @param idleTimeout idle timeout of this client
+	 */
+	void setIdleTimeout(final HashedWheelTimer.Timeout<ClientNetworkManager> idleTimeout)
+	{
+		this.idleTimeout = idleTimeout;
+	}
+	
+	/**
+	 * method that sends event received from the client to the events queue.
+	 * 
+	 * @param event event received from the client
+	 * @throws InterruptedException if thread was interrupted while waiting for the queue
+	 */
+	protected void dispatchEvent(final NetworkEvent event) throws InterruptedException
+	{
+		lastActivityMillis = System.currentTimeMillis();
+		event.setClientNetworkManager(this);
+		eventsQueue.put(event);
+	}
+	
+	/**
+	 * method that tells the controller that connection with the client has been lost
+	 * and log out is needed.
+	 * 
+	 * @throws InterruptedException if thread was interrupted while waiting for the queue
+	 */
+	protected void dispatchConnectionLost() throws InterruptedException
+	{
+		final LogOutEvent event = new LogOutEvent();
+		event.setConnectionLost();
+		dispatchEvent(event);
+	}
+	
+	/**
+	 * method that starts receiving events from the client.
+	 */
+	public abstract void start();
+	
+	/**
+	 * method that sends current chat state to the client concerned. State is written
+	 * by the thread that writes to this client, after all states sent before.
+	 * 
+	 * @param state ChatState to be sent
+	 */
+	public void send(final ChatState state)
+	{
+		execute(new Runnable()
 		{
-			if(objectInputStream != null) objectInputStream.close();
-		}
-		catch (Exception e) { }
-		
-		try
+			@Override
+			public void run()
+			{
+				write(state);
+			}
+		});
+	}
+	
+	/**
+	 * method that writes chat state to the client. Invoked only by the thread
+	 * that writes to this client.
+	 * 
+	 * @param state ChatState to be written
+	 */
+	protected abstract void write(ChatState state);
+	
+	/**
+	 * method that returns address of the client, if the connection has one.
+	 * 
+	 * @return address of the client. null for connections that are not made over network.
+	 */
+	public InetAddress getRemoteAddress()
+	{
+		return null;
+	}
+	
+	/**
+	 * method that sets if the client has agreed to receive compressed chat states.
+	 * Does nothing by default - for connections that don't serialize states.
+	 * 
+	 * @param isCompressing true if the client can decompress states
+	 */
+	public void setCompressing(final boolean isCompressing)
+	{
+	}
+	
+	/**
+	 * method that sets queue to which this client adds itself when it has written states
+	 * that haven't been flushed, so that they are flushed together with states of other clients.
+	 * 
+	 * @param unflushedClients queue of unflushed clients. null if states should be flushed right away.
+	 */
+	void setUnflushedClients(final Queue<ClientNetworkManager> unflushedClients)
+	{
+		this.unflushedClients = unflushedClients;
+	}
+	
+	/**
+	 * method that should be invoked by subclasses after they have written state
+	 * without flushing it. Client is added once to the queue of unflushed clients,
+	 * however many states it writes before it's flushed. If there is no queue,
+	 * client is flushed right away.
+	 */
+	protected void setUnflushed()
+	{
+		final Queue<ClientNetworkManager> unflushedClients = this.unflushedClients;
+		if(unflushedClients == null)
 		{
-			if(objectOutputStream != null)  objectOutputStream.close();
+			flush();
 		}
-		catch (Exception e) { }
-		
-		try
+		else if(isUnflushed.compareAndSet(false, true))
 		{
-			if(socket != null) socket.close();
+			unflushedClients.add(this);
 		}
-		catch (Exception e) { }
 	}
 	
 	/**
-	 * method responsible for listening to the client
+	 * method that flushes client taken from the queue of unflushed clients.
+	 * Flag is cleared before flushing, so state written during the flush adds the client again.
+	 */
+	void flushUnflushed()
+	{
+		isUnflushed.set(false);
+		flush();
+	}
+	
+	/**
+	 * method that makes sure that all chat states sent so far are written
+	 * to the connection. Does nothing by default - for connections that don't buffer.
 	 */
-	@Override
-	public void run()
+	public void flush()
 	{
-		/**time to sleep between two messages received by client. Additional defense mechanism
-		 * to protect from rogue clients that send too many messages*/
-		final int MILLISECONDS_BETWEEN_MESSAGES = 100;
-		while(true)
+	}
+	
+	/**
+	 * method that closes connection with this client.
+	 * should be invoked before removing this client.
+	 * calling this method closes this client and there is no going back. after
+	 * that object is useless. Client is logged out right away, connection is closed
+	 * after all states sent before are written.
+	 */
+	public void close()
+	{
+		setLoggedOut();
+		execute(new Runnable()
 		{
-			try
-			{
-				NetworkEvent event = (NetworkEvent) objectInputStream.readObject();
-				event.setClientNetworkManager(this);
-				eventsQueue.put(event);
-			}
-			catch (ClassNotFoundException | InvalidClassException | InterruptedException e)
-			{
-				continue;
-			}
-			catch (IOException e)
-			{
-				//if serverNetworkManager closes me i don't want to send event to queue
-				if(keepGoing == false)
-				{
-					return;
-				}
-				//stream failed. have to tell the controller that logout is needed
-				NetworkEvent event = new LogOutEvent();
-				event.setClientNetworkManager(this);
-				try
-				{
-					eventsQueue.put(event);
-					return;
-				}
-				catch (InterruptedException e1)
-				{
-				}
-			}
-			try
-			{
-				Thread.sleep(MILLISECONDS_BETWEEN_MESSAGES);
-			}
-			catch (InterruptedException e)
+			@Override
+			public void run()
 			{
+				closeConnection();
 			}
-		}
+		});
 	}
+	
+	/**
+	 * method that closes connection with the client. Invoked only by the thread
+	 * that writes to this client.
+	 */
+	protected abstract void closeConnection();
 }
@@ -0,0 +1,168 @@
+package wzielin3.proz.server.network;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Registry of connected clients that can be iterated without any lock.
+ * Clients are divided into stripes by their identity hash. Every stripe keeps
+ * its clients in an array that is never changed - adding or removing a client
+ * copies the array of one stripe and publishes the copy. Broadcast reads the arrays
+ * and doesn't wait for clients that connect or disconnect, and clients that
+ * connect or disconnect wait only for each other, and only within one stripe.
+ * 
+ * @author Wojciech Zieliński
+ */
+class ClientRegistry
+{
+	/**empty array of clients*/
+	private static final ClientNetworkManager[] EMPTY = new ClientNetworkManager[0];
+	/**clients of every stripe. Arrays are never changed after they are published*/
+	private final Stripe[] stripes;
+	/**mask that gives number of stripe from a hash*/
+	private final int mask;
+	
+	/**
+	 * Constructor that creates empty registry.
+	 * 
+	 * @param stripes number of stripes. Rounded up to a power of two.
+	 */
+	public ClientRegistry(final int stripes)
+	{
+		int count = 1;
+		while(count < stripes)
+		{
+			count <<= 1;
+		}
+		this.stripes = new Stripe[count];
+		for (int i = 0; i < count; ++i)
+		{
+			this.stripes[i] = new Stripe();
+		}
+		mask = count - 1;
+	}
+	
+	/**
+	 * Method that returns number of stripe of given client.
+	 * 
+	 * @param client the client
+	 * @return number of stripe to which the client belongs
+	 */
+	public int getStripe(final ClientNetworkManager client)
+	{
+		final int hash = System.identityHashCode(client);
+		return (hash ^ (hash >>> 16)) & mask;
+	}
+	
+	/**
+	 * Method that adds client to the registry.
+	 * 
+	 * @param client client to be added
+	 */
+	public void add(final ClientNetworkManager client)
+	{
+		final Stripe stripe = stripes[getStripe(client)];
+		synchronized (stripe)
+		{
+			final ClientNetworkManager[] clients = Arrays.copyOf(stripe.clients, stripe.clients.length + 1);
+			clients[clients.length - 1] = client;
+			stripe.clients = clients;
+		}
+	}
+	
+	/**
+	 * Method that removes client from the registry.
+	 * 
+	 * @param client client to be removed
+	 * @return true if client has been removed. false if it hasn't been in the registry.
+	 */
+	public boolean remove(final ClientNetworkManager client)
+	{
+		final Stripe stripe = stripes[getStripe(client)];
+		synchronized (stripe)
+		{
+			final ClientNetworkManager[] clients = stripe.clients;
+			for (int i = 0; i < clients.length; ++i)
+			{
+				if(clients[i] == client)
+				{
+					final ClientNetworkManager[] remaining = new ClientNetworkManager[clients.length - 1];
+					System.arraycopy(clients, 0, remaining, 0, i);
+					System.arraycopy(clients, i + 1, remaining, i, remaining.length - i);
+					stripe.clients = remaining;
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+	
+	/**
+	 * Method that removes all clients from the registry.
+	 * 
+	 * @return clients that have been removed
+	 */
+	public List<ClientNetworkManager> removeAll()
+	{
+		final List<ClientNetworkManager> removed = new ArrayList<ClientNetworkManager>();
+		for (final Stripe stripe : stripes)
+		{
+			synchronized (stripe)
+			{
+				removed.addAll(Arrays.asList(stripe.clients));
+				stripe.clients = EMPTY;
+			}
+		}
+		return removed;
+	}
+	
+	/**
+	 * Method that returns number of stripes.
+	 * 
+	 * @return number of stripes
+	 */
+	public int getStripeCount()
+	{
+		return stripes.length;
+	}
+	
+	/**
+	 * Method that returns clients of one stripe at the moment of the call. Returned array
+	 * is never changed, clients added or removed later are not reflected in it.
+	 * It must not be modified.
+	 * 
+	 * @param stripe number of the stripe
+	 * @return clients of the stripe
+	 */
+	public ClientNetworkManager[] getClients(final int stripe)
+	{
+		return stripes[stripe].clients;
+	}
+	
+	/**
+	 * Method that returns number of registered clients.
+	 * 
+	 * @return number of registered clients
+	 */
+	public int size()
+	{
+		int size = 0;
+		for (final Stripe stripe : stripes)
+		{
+			size += stripe.clients.length;
+		}
+		return size;
+	}
+	
+	/**
+	 * Clients of one stripe. Object is also the lock of the stripe's writers.
+	 * 
+	 * @author Wojciech Zieliński
+	 */
+	private static class Stripe
+	{
+		/**clients of the stripe. Replaced, never changed*/
+		private volatile ClientNetworkManager[] clients = EMPTY;
+	}
+}
@@ -0,0 +1,230 @@
+package wzielin3.proz.server.network;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import wzielin3.proz.server.ChatState;
+
+/**
+ * Workers that write chat states to clients in parallel. Every worker owns a group
+ * of stripes of the clients registry and is the only thread that writes to clients
+ * of these stripes, so states sent to one client and states broadcast to it are
+ * written in the order they were sent. Broadcast hands the same state to every worker
+ * and returns right away - state is encoded once, by the first worker that writes it,
+ * and the controller doesn't wait until it's written to every client. Time of the
+ * broadcast depends on number of workers rather than on number of clients.
+ * 
+ * @author Wojciech Zieliński
+ */
+class FanOut
+{
+	/**clients to which workers write*/
+	private final ClientRegistry clients;
+	/**workers. Worker with index i owns stripes i, i + workers.length, ...*/
+	private final Worker[] workers;
+	
+	/**
+	 * Constructor that creates workers. To start them start() method has to be invoked.
+	 * 
+	 * @param clients clients to which workers write
+	 * @param threads number of workers. Not more workers than stripes of the registry are created.
+	 * @param maxFlushDelayNanos maximum time in nanoseconds states wait in buffers while worker is busy
+	 */
+	public FanOut(final ClientRegistry clients, final int threads, final long maxFlushDelayNanos)
+	{
+		this.clients = clients;
+		workers = new Worker[Math.min(threads, clients.getStripeCount())];
+		for (int i = 0; i < workers.length; ++i)
+		{
+			workers[i] = new Worker(i, maxFlushDelayNanos);
+		}
+	}
+	
+	/**
+	 * Method that starts all workers.
+	 */
+	public void start()
+	{
+		for (final Worker worker : workers)
+		{
+			worker.start();
+		}
+	}
+	
+	/**
+	 * Method that makes worker that owns stripe of the client the only writer of the client.
+	 * 
+	 * @param client client to be written by worker
+	 * @param stripe stripe to which client belongs
+	 */
+	public void attach(final ClientNetworkManager client, final int stripe)
+	{
+		final Worker worker = workers[stripe % workers.length];
+		client.setUnflushedClients(worker.unflushedClients);
+		client.setOutput(worker);
+	}
+	
+	/**
+	 * Method that hands state to every worker, to be written to all clients that receive
+	 * broadcasts. Returns without waiting for the workers.
+	 * 
+	 * @param state ChatState to be broadcasted
+	 */
+	public void broadcast(final ChatState state)
+	{
+		for (final Worker worker : workers)
+		{
+			worker.execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					worker.broadcast(state);
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Method that stops workers after they have written all states handed to them
+	 * and waits until they stop.
+	 * 
+	 * @param timeoutMillis maximum time to wait in milliseconds
+	 */
+	public void shutdown(final long timeoutMillis)
+	{
+		for (final Worker worker : workers)
+		{
+			worker.execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					worker.keepGoing = false;
+				}
+			});
+		}
+		final long deadline = System.currentTimeMillis() + timeoutMillis;
+		for (final Worker worker : workers)
+		{
+			try
+			{
+				worker.join(Math.max(1, deadline - System.currentTimeMillis()));
+			}
+			catch (final InterruptedException e)
+			{
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Thread that writes states to clients of its stripes in the order they were handed to it.
+	 * States written while it's busy are flushed when it has nothing more to do, or after
+	 * the maximum flush delay, the same way controller flushes them.
+	 * 
+	 * @author Wojciech Zieliński
+	 */
+	private class Worker extends Thread implements Executor
+	{
+		/**number of the first stripe owned by this worker*/
+		private final int firstStripe;
+		/**tasks to be executed, in order they were handed*/
+		private final LinkedBlockingQueue<Runnable> tasks;
+		/**clients that have written states that haven't been flushed. Used only by this thread*/
+		private final Queue<ClientNetworkManager> unflushedClients;
+		/**maximum time in nanoseconds states wait in buffers while this worker is busy*/
+		private final long maxFlushDelayNanos;
+		/**boolean value telling if this worker should keep executing tasks. Used only by this thread*/
+		private boolean keepGoing;
+		
+		/**
+		 * Constructor that creates worker.
+		 * 
+		 * @param firstStripe number of the first stripe owned by this worker
+		 * @param maxFlushDelayNanos maximum time in nanoseconds states wait in buffers while worker is busy
+		 */
+		public Worker(final int firstStripe, final long maxFlushDelayNanos)
+		{
+			super("fan-out-" + firstStripe);
+			setDaemon(true);
+			this.firstStripe = firstStripe;
+			this.maxFlushDelayNanos = maxFlushDelayNanos;
+			tasks = new LinkedBlockingQueue<Runnable>();
+			unflushedClients = new ArrayDeque<ClientNetworkManager>();
+			keepGoing = true;
+		}
+		
+		/**
+		 * Method that hands task to this worker.
+		 */
+		@Override
+		public void execute(final Runnable task)
+		{
+			tasks.add(task);
+		}
+		
+		/**
+		 * Method that writes state to every client of stripes of this worker that receives broadcasts.
+		 * 
+		 * @param state ChatState to be broadcasted
+		 */
+		private void broadcast(final ChatState state)
+		{
+			for (int stripe = firstStripe; stripe < clients.getStripeCount(); stripe += workers.length)
+			{
+				for (final ClientNetworkManager client : clients.getClients(stripe))
+				{
+					if(client.isReceivingBroadcasts())
+						client.write(state);
+				}
+			}
+		}
+		
+		/**
+		 * Method that executes tasks until it's stopped.
+		 */
+		@Override
+		public void run()
+		{
+			long lastFlushNanos = System.nanoTime();
+			while(keepGoing)
+			{
+				Runnable task = tasks.poll();
+				if(task == null)
+				{
+					flushClients();
+					lastFlushNanos = System.nanoTime();
+					try
+					{
+						task = tasks.take();
+					}
+					catch (final InterruptedException e)
+					{
+						continue;
+					}
+				}
+				task.run();
+				if(System.nanoTime() - lastFlushNanos >= maxFlushDelayNanos)
+				{
+					flushClients();
+					lastFlushNanos = System.nanoTime();
+				}
+			}
+			flushClients();
+		}
+		
+		/**
+		 * Method that flushes every client that has written states since it was last flushed.
+		 */
+		private void flushClients()
+		{
+			ClientNetworkManager client;
+			while((client = unflushedClients.poll()) != null)
+			{
+				client.flushUnflushed();
+			}
+		}
+	}
+}
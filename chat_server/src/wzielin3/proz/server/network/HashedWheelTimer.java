@@ -0,0 +1,263 @@
+package wzielin3.proz.server.network;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Single thread timer based on a hashed wheel. Time is divided into ticks and
+ * every timeout is kept in a doubly linked list of the wheel bucket of its deadline,
+ * so scheduling and cancelling take constant time no matter how many timeouts there are.
+ * Once per tick the thread checks one bucket and hands all timeouts that have
+ * expired in it to the listener at once. Precision of the timer is one tick.
+ * 
+ * @param <T> type of items that timeouts are scheduled for
+ * @author Wojciech Zieliński
+ */
+class HashedWheelTimer<T> extends Thread
+{
+	/**buckets of the wheel. every bucket is a head of doubly linked list of timeouts*/
+	private final Timeout<T>[] wheel;
+	/**mask used to find bucket of a tick. wheel length is a power of two*/
+	private final int mask;
+	/**length of one tick in milliseconds*/
+	private final long tickMillis;
+	/**listener to which expired items are handed*/
+	private final ExpirationListener<T> listener;
+	/**number of ticks that have passed since the timer started*/
+	private long tick;
+	/**boolean value telling if thread should keep going. set to false on shutdown()*/
+	private volatile boolean keepGoing;
+	
+	/**
+	 * Constructor that creates the timer. To start counting time start() has to be invoked.
+	 * 
+	 * @param tickMillis length of one tick in milliseconds
+	 * @param ticksPerWheel number of buckets of the wheel. Rounded up to a power of two.
+	 * @param listener listener to which expired items are handed
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public HashedWheelTimer(final long tickMillis, final int ticksPerWheel,
+			final ExpirationListener<T> listener)
+	{
+		int length = 1;
+		while(length < ticksPerWheel)
+		{
+			length <<= 1;
+		}
+		wheel = new Timeout[length];
+		mask = length - 1;
+		this.tickMillis = tickMillis;
+		this.listener = listener;
+		tick = 0;
+		keepGoing = true;
+		setDaemon(true);
+		setName("HashedWheelTimer");
+	}
+	
+	/**
+	 * Method that schedules timeout for given item.
+	 * 
+	 * @param item item that will be handed to the listener when timeout expires
+	 * @param delayMillis time in milliseconds after which timeout expires
+	 * @return timeout that can be cancelled or rescheduled
+	 */
+	public synchronized Timeout<T> schedule(final T item, final long delayMillis)
+	{
+		final Timeout<T> timeout = new Timeout<T>(item);
+		add(timeout, delayMillis);
+		return timeout;
+	}
+	
+	/**
+	 * Method that moves already scheduled (or expired) timeout to a new deadline.
+	 * 
+	 * @param timeout timeout to be rescheduled
+	 * @param delayMillis time in milliseconds from now after which timeout expires
+	 */
+	public synchronized void reschedule(final Timeout<T> timeout, final long delayMillis)
+	{
+		if(timeout.isCancelled)
+		{
+			return;
+		}
+		unlink(timeout);
+		add(timeout, delayMillis);
+	}
+	
+	/**
+	 * Method that cancels timeout. Cancelled timeout never expires and
+	 * can't be rescheduled.
+	 * 
+	 * @param timeout timeout to be cancelled
+	 */
+	public synchronized void cancel(final Timeout<T> timeout)
+	{
+		timeout.isCancelled = true;
+		unlink(timeout);
+	}
+	
+	/**
+	 * Method that stops the timer. Timeouts that haven't expired never will.
+	 */
+	public void shutdown()
+	{
+		keepGoing = false;
+		interrupt();
+	}
+	
+	/**
+	 * Method that puts timeout in the bucket of its deadline.
+	 * 
+	 * @param timeout timeout to be added
+	 * @param delayMillis time in milliseconds from now after which timeout expires
+	 */
+	private void add(final Timeout<T> timeout, final long delayMillis)
+	{
+		final long ticks = Math.max(1, (delayMillis + tickMillis - 1) / tickMillis);
+		timeout.remainingRounds = (ticks - 1) / wheel.length;
+		timeout.bucket = (int) ((tick + ticks) & mask);
+		timeout.previous = null;
+		timeout.next = wheel[timeout.bucket];
+		if(timeout.next != null)
+		{
+			timeout.next.previous = timeout;
+		}
+		wheel[timeout.bucket] = timeout;
+	}
+	
+	/**
+	 * Method that removes timeout from its bucket, if it's in one.
+	 * 
+	 * @param timeout timeout to be removed
+	 */
+	private void unlink(final Timeout<T> timeout)
+	{
+		if(timeout.bucket < 0)
+		{
+			return;
+		}
+		if(timeout.previous != null)
+		{
+			timeout.previous.next = timeout.next;
+		}
+		else
+		{
+			wheel[timeout.bucket] = timeout.next;
+		}
+		if(timeout.next != null)
+		{
+			timeout.next.previous = timeout.previous;
+		}
+		timeout.previous = null;
+		timeout.next = null;
+		timeout.bucket = -1;
+	}
+	
+	/**
+	 * Method that moves the wheel by one tick and removes from the current bucket
+	 * all timeouts that have expired.
+	 * 
+	 * @return items of expired timeouts
+	 */
+	private synchronized List<T> advance()
+	{
+		++tick;
+		final List<T> expiredItems = new ArrayList<T>();
+		Timeout<T> timeout = wheel[(int) (tick & mask)];
+		while(timeout != null)
+		{
+			final Timeout<T> next = timeout.next;
+			if(timeout.remainingRounds > 0)
+			{
+				--timeout.remainingRounds;
+			}
+			else
+			{
+				unlink(timeout);
+				expiredItems.add(timeout.item);
+			}
+			timeout = next;
+		}
+		return expiredItems;
+	}
+	
+	/**
+	 * Method that counts ticks and hands expired items to the listener.
+	 */
+	@Override
+	public void run()
+	{
+		long nextTickTime = System.currentTimeMillis() + tickMillis;
+		while(keepGoing)
+		{
+			final long sleepTime = nextTickTime - System.currentTimeMillis();
+			if(sleepTime > 0)
+			{
+				try
+				{
+					Thread.sleep(sleepTime);
+				}
+				catch (final InterruptedException e)
+				{
+					continue;
+				}
+			}
+			nextTickTime += tickMillis;
+			final List<T> expiredItems = advance();
+			if(expiredItems.isEmpty() == false)
+			{
+				listener.expired(expiredItems);
+			}
+		}
+	}
+	
+	/**
+	 * Timeout scheduled in the timer. It's a node of doubly linked list of its bucket.
+	 * 
+	 * @param <T> type of the item of the timeout
+	 * @author Wojciech Zieliński
+	 */
+	public static class Timeout<T>
+	{
+		/**item handed to the listener when timeout expires*/
+		private final T item;
+		/**number of full turns of the wheel left before timeout expires*/
+		private long remainingRounds;
+		/**index of the bucket in which timeout is kept. -1 if it's in none*/
+		private int bucket;
+		/**previous timeout in the bucket*/
+		private Timeout<T> previous;
+		/**next timeout in the bucket*/
+		private Timeout<T> next;
+		/**boolean value telling if timeout has been cancelled*/
+		private boolean isCancelled;
+		
+		/**
+		 * Constructor that creates timeout for given item.
+		 * 
+		 * @param item item handed to the listener when timeout expires
+		 */
+		private Timeout(final T item)
+		{
+			this.item = item;
+			bucket = -1;
+			isCancelled = false;
+		}
+	}
+	
+	/**
+	 * Listener to which expired items are handed.
+	 * 
+	 * @param <T> type of the items
+	 * @author Wojciech Zieliński
+	 */
+	public interface ExpirationListener<T>
+	{
+		/**
+		 * Method invoked by the timer thread with all items that expired in one tick.
+		 * 
+		 * @param expiredItems items of expired timeouts
+		 */
+		void expired(List<T> expiredItems);
+	}
+}
@@ -0,0 +1,118 @@
+package wzielin3.proz.server.network;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import wzielin3.proz.server.ChatState;
+import wzielin3.proz.server.events.ApplicationEvent;
+import wzielin3.proz.server.events.NetworkEvent;
+
+/**
+ * class that is responsible for in-memory connection with one simulated client.
+ * No socket and no thread is used - events sent by the client go straight to
+ * the events queue on the client's thread, and chat states sent by the server
+ * wait in a lock-free queue until the client receives them. Used by tests and
+ * benchmarks that need many clients in one JVM without network costs.
+ * 
+ * @author Wojciech Zieliński
+ */
+public class LoopbackClientNetworkManager extends ClientNetworkManager
+{
+	/**chat states sent by the server and not yet received by the client*/
+	private final ConcurrentLinkedQueue<ChatState> receivedStates;
+	/**boolean value telling if this connection is still open*/
+	private volatile boolean isOpen;
+	
+	/**
+	 * constructor that initializes in-memory connection.
+	 * 
+	 * @param eventsQueue - blocking queue to which events sent by the client are sent
+	 */
+	LoopbackClientNetworkManager(final BlockingQueue<ApplicationEvent> eventsQueue)
+	{
+		super(eventsQueue);
+		receivedStates = new ConcurrentLinkedQueue<ChatState>();
+		isOpen = true;
+	}
+	
+	/**
+	 * method that does nothing - events are delivered on the client's thread
+	 * by sendToServer() method.
+	 */
+	@Override
+	public void start()
+	{
+	}
+	
+	/**
+	 * method that puts chat state in the queue of states to be received by the client
+	 */
+	@Override
+	protected void write(final ChatState state)
+	{
+		if(isOpen)
+		{
+			receivedStates.offer(state);
+		}
+	}
+	
+	/**
+	 * method that closes this connection. States already sent can still be received.
+	 */
+	@Override
+	protected void closeConnection()
+	{
+		isOpen = false;
+	}
+	
+	/**
+	 * method used by the simulated client to send event to the server.
+	 * 
+	 * @param event event to be sent to the server
+	 * @return true if event was sent. false if connection is closed.
+	 * @throws InterruptedException if thread was interrupted while waiting for the queue
+	 */
+	public boolean sendToServer(final NetworkEvent event) throws InterruptedException
+	{
+		if(isOpen == false)
+		{
+			return false;
+		}
+		dispatchEvent(event);
+		return true;
+	}
+	
+	/**
+	 * method used by the simulated client to receive chat state sent by the server.
+	 * 
+	 * @return oldest chat state not yet received. null if there is none.
+	 */
+	public ChatState receive()
+	{
+		return receivedStates.poll();
+	}
+	
+	/**
+	 * method used by the simulated client to drop the connection without logging out,
+	 * the same way broken socket does.
+	 * 
+	 * @throws InterruptedException if thread was interrupted while waiting for the queue
+	 */
+	public void disconnect() throws InterruptedException
+	{
+		if(isOpen)
+		{
+			isOpen = false;
+			dispatchConnectionLost();
+		}
+	}
+	
+	/**
+	 * method that returns boolean value telling if this connection is still open
+	 * 
+	 * @return true if connection is open
+	 */
+	public boolean isOpen()
+	{
+		return isOpen;
+	}
+}
@@ -0,0 +1,48 @@
+package wzielin3.proz.server.network;
+
+import java.util.concurrent.BlockingQueue;
+import wzielin3.proz.server.events.ApplicationEvent;
+
+/**
+ * Transport that connects simulated clients to the ServerNetworkManager
+ * in memory. Connections created by it behave for the controller the same
+ * way as socket connections, but there is no kernel socket overhead,
+ * so functional tests and benchmarks can run many clients in one JVM and measure
+ * the controller separately from the network.
+ * 
+ * @author Wojciech Zieliński
+ */
+public class LoopbackTransport
+{
+	/**network manager to which connections are added*/
+	private final ServerNetworkManager networkManager;
+	/**queue to which events from simulated clients are sent*/
+	private final BlockingQueue<ApplicationEvent> eventsQueue;
+	
+	/**
+	 * Constructor that creates transport for given network manager.
+	 * 
+	 * @param networkManager network manager to which connections are added
+	 * @param eventsQueue queue to which events from simulated clients are sent.
+	 * Should be the same queue the controller reads from.
+	 */
+	public LoopbackTransport(final ServerNetworkManager networkManager,
+			final BlockingQueue<ApplicationEvent> eventsQueue)
+	{
+		this.networkManager = networkManager;
+		this.eventsQueue = eventsQueue;
+	}
+	
+	/**
+	 * Method that creates new in-memory connection and adds it to the network manager.
+	 * Simulated client should then send LogInEvent like real client does.
+	 * 
+	 * @return new connection for the simulated client
+	 */
+	public LoopbackClientNetworkManager connect()
+	{
+		final LoopbackClientNetworkManager client = new LoopbackClientNetworkManager(eventsQueue);
+		networkManager.addClient(client);
+		return client;
+	}
+}
@@ -3,44 +3,188 @@ package wzielin3.proz.server.network;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 import wzielin3.proz.server.ChatState;
+import wzielin3.proz.server.config.ServerConfiguration;
 import wzielin3.proz.server.events.ApplicationEvent;
+import wzielin3.proz.server.events.IdleSessionsEvent;
 
 /**
  * Class responsible for listening for new client connections. It has
  * a collection of all connected clients. It can broadcast messages to all
  * connected clients
  * 
- * @author Wojciech Zieliski
+ * @author Wojciech Zieliński
  */
 public class ServerNetworkManager extends Thread
 {
-	/**set of clients connected to this manager. has to be synchronized because two threads
-	 * may use it (main thread by invoking e.g. removeClient() and this thread in run() method.*/
-	private final Set<ClientNetworkManager> clients;
+	/**clients connected to this manager. Used by the controller's thread and this thread in run()
+	 * method. Broadcast iterates it without any lock, so connecting and disconnecting
+	 * clients never wait for sending*/
+	private final ClientRegistry clients;
 	/**queue to which this manager sends its events*/
 	private final BlockingQueue<ApplicationEvent> eventsQueue;
-	/**Socket to listen for clients*/
+	/**Socket to listen for clients. null if clients are connected only in memory*/
 	private final ServerSocket serverSocket;
-	/**Maximum number of clients currently connected to server*/
-	private final static int MAX_CLIENTS_COUNT = 100;
+	/**configuration of the server*/
+	private final ServerConfiguration configuration;
+	/**boolean value telling if new clients should be accepted. set to false on stopAccepting()*/
+	private volatile boolean keepAccepting;
+	/**decides whether new socket connections can be accepted*/
+	private final AdmissionController admissionController;
+	/**timer that finds clients idle for too long. null if idle clients are not removed*/
+	private final HashedWheelTimer<ClientNetworkManager> idleTimer;
+	/**time in milliseconds after which client that sends nothing is logged out*/
+	private final long idleTimeoutMillis;
+	/**clients that have written chat states that haven't been flushed*/
+	private final ConcurrentLinkedQueue<ClientNetworkManager> unflushedClients;
+	/**maximum time in nanoseconds chat states wait in buffers while the controller is busy*/
+	private final long maxFlushDelayNanos;
+	/**time in nanoseconds of the last flush. Used only by the controller's thread*/
+	private long lastFlushNanos;
+	/**workers that write to clients in parallel. null if the controller's thread writes to them*/
+	private final FanOut fanOut;
 	
 	/**
 	 * constructor that initializes this network manager. to start listening for
 	 * connections the start() method needs to be invoked
 	 * 
 	 * @param port - port on which the network manager will listen for users
+	 * @param configuration - configuration of the server
+	 * @param eventsQueue - queue to which this manager sends its events
 	 * @throws IOException when ServerSocket can't be created on selected port
 	 */
-	public ServerNetworkManager(final int port, final BlockingQueue<ApplicationEvent> eventsQueue)
+	public ServerNetworkManager(final int port, final ServerConfiguration configuration,
+			final BlockingQueue<ApplicationEvent> eventsQueue)
 	throws IOException
 	{
-		this.serverSocket = new ServerSocket(port);
-		clients = new HashSet<ClientNetworkManager>();
+		this.serverSocket = new ServerSocket(port, configuration.getAcceptBacklog());
+		this.configuration = configuration;
+		admissionController = new AdmissionController(configuration.getMaxClients(),
+				configuration.getMaxClientsPerAddress());
+		clients = new ClientRegistry(configuration.getClientStripes());
 		this.eventsQueue = eventsQueue;
+		keepAccepting = true;
+		idleTimeoutMillis = configuration.getIdleTimeoutMillis();
+		idleTimer = createIdleTimer(configuration);
+		unflushedClients = new ConcurrentLinkedQueue<ClientNetworkManager>();
+		maxFlushDelayNanos = TimeUnit.MILLISECONDS.toNanos(configuration.getMaxFlushDelayMillis());
+		lastFlushNanos = System.nanoTime();
+		fanOut = createFanOut(configuration);
+	}
+	
+	/**
+	 * constructor that initializes this network manager without listening on any port.
+	 * Clients can be added only with addClient() method (e.g. by LoopbackTransport).
+	 * 
+	 * @param configuration - configuration of the server
+	 * @param eventsQueue - queue to which this manager sends its events
+	 */
+	public ServerNetworkManager(final ServerConfiguration configuration,
+			final BlockingQueue<ApplicationEvent> eventsQueue)
+	{
+		this.serverSocket = null;
+		this.configuration = configuration;
+		admissionController = new AdmissionController(configuration.getMaxClients(),
+				configuration.getMaxClientsPerAddress());
+		clients = new ClientRegistry(configuration.getClientStripes());
+		this.eventsQueue = eventsQueue;
+		keepAccepting = false;
+		idleTimeoutMillis = configuration.getIdleTimeoutMillis();
+		idleTimer = createIdleTimer(configuration);
+		unflushedClients = new ConcurrentLinkedQueue<ClientNetworkManager>();
+		maxFlushDelayNanos = TimeUnit.MILLISECONDS.toNanos(configuration.getMaxFlushDelayMillis());
+		lastFlushNanos = System.nanoTime();
+		fanOut = createFanOut(configuration);
+	}
+	
+	/**
+	 * Method that creates timer that finds idle clients.
+	 * 
+	 * @param configuration configuration of the server
+	 * @return created timer. null if idle clients should not be removed
+	 */
+	private HashedWheelTimer<ClientNetworkManager> createIdleTimer(final ServerConfiguration configuration)
+	{
+		if(configuration.getIdleTimeoutMillis() == 0)
+		{
+			return null;
+		}
+		return new HashedWheelTimer<ClientNetworkManager>(configuration.getTimerTickMillis(),
+				(int) (configuration.getIdleTimeoutMillis() / configuration.getTimerTickMillis()) + 1,
+				new IdleClientsListener());
+	}
+	
+	/**
+	 * Method that creates workers that write to clients in parallel.
+	 * 
+	 * @param configuration configuration of the server
+	 * @return created workers. null if the controller's thread should write to clients
+	 */
+	private FanOut createFanOut(final ServerConfiguration configuration)
+	{
+		if(configuration.getFanOutThreads() == 0)
+		{
+			return null;
+		}
+		return new FanOut(clients, configuration.getFanOutThreads(), maxFlushDelayNanos);
+	}
+	
+	/**
+	 * Method that starts accepting clients, the idle clients timer and fan-out workers.
+	 */
+	@Override
+	public synchronized void start()
+	{
+		if(idleTimer != null)
+		{
+			idleTimer.start();
+		}
+		if(fanOut != null)
+		{
+			fanOut.start();
+		}
+		super.start();
+	}
+	
+	/**
+	 * Method that adds already connected client to the clients set and
+	 * starts listening to it.
+	 * 
+	 * @param client client to be added
+	 */
+	public void addClient(final ClientNetworkManager client)
+	{
+		register(client);
+	}
+	
+	/**
+	 * Method that schedules idle timeout of the client, adds it to the clients
+	 * registry and starts listening to it. Client is prepared before it's added,
+	 * so it's complete when removeClient() or broadcast() can see it.
+	 * 
+	 * @param client client to be added
+	 */
+	private void register(final ClientNetworkManager client)
+	{
+		if(fanOut == null)
+		{
+			client.setUnflushedClients(unflushedClients);
+		}
+		else
+		{
+			fanOut.attach(client, clients.getStripe(client));
+		}
+		if(idleTimer != null)
+		{
+			client.setIdleTimeout(idleTimer.schedule(client, idleTimeoutMillis));
+		}
+		clients.add(client);
+		client.start();
 	}
 	
 	/**
@@ -50,67 +194,182 @@ public class ServerNetworkManager extends Thread
 	 */
 	public void removeClient(final ClientNetworkManager client)
 	{
-		synchronized (clients)
+		if(clients.remove(client))
+		{
+			unregister(client);
+		}
+	}
+	
+	/**
+	 * Method that cancels idle timeout of removed client and releases its admission,
+	 * if it has been admitted.
+	 * 
+	 * @param client removed client
+	 */
+	private void unregister(final ClientNetworkManager client)
+	{
+		if(client.getIdleTimeout() != null)
+		{
+			idleTimer.cancel(client.getIdleTimeout());
+		}
+		if(client.getRemoteAddress() != null)
+		{
+			admissionController.release(client.getRemoteAddress());
+		}
+	}
+	
+	/**
+	 * Method that returns number of connections rejected because of limits.
+	 * 
+	 * @return number of connections rejected because of limits
+	 */
+	public int getRejectedConnectionsCount()
+	{
+		return admissionController.getRejectedCount();
+	}
+	
+	/**
+	 * Method that stops accepting new clients. Clients already connected are not affected.
+	 */
+	public void stopAccepting()
+	{
+		keepAccepting = false;
+		try
+		{
+			if(serverSocket != null) serverSocket.close();
+		}
+		catch (IOException e)
 		{
-			clients.remove(client);
 		}
 	}
 	
 	/**
-	 * method that sends a message to every user currently connected to the server
+	 * Method that sends given state to every logged in client, makes sure
+	 * it's written to the connection, and then closes all clients. Waits until
+	 * fan-out workers have written everything, at most the shutdown timeout.
+	 * 
+	 * @param state ChatState to be sent before closing
+	 */
+	public void closeAllClients(final ChatState state)
+	{
+		for (final ClientNetworkManager client : clients.removeAll())
+		{
+			if(client.getIsLoggedIn())
+				client.send(state);
+			client.close();
+			unregister(client);
+		}
+		if(fanOut != null)
+		{
+			fanOut.shutdown(configuration.getShutdownTimeoutMillis());
+		}
+		if(idleTimer != null)
+		{
+			idleTimer.shutdown();
+		}
+	}
+	
+	/**
+	 * Method that flushes every client that has written chat states since it was last flushed.
+	 * Controller invokes it when it has handled all waiting events, so states sent by
+	 * many events go to every socket together, with one system call.
+	 */
+	public void flushClients()
+	{
+		lastFlushNanos = System.nanoTime();
+		ClientNetworkManager client;
+		while((client = unflushedClients.poll()) != null)
+		{
+			client.flushUnflushed();
+		}
+	}
+	
+	/**
+	 * Method that flushes clients if chat states have waited in buffers longer than
+	 * the maximum flush delay. Controller invokes it after every event, so states
+	 * are not delayed for long when events keep coming.
+	 */
+	public void flushClientsIfDelayed()
+	{
+		if(System.nanoTime() - lastFlushNanos >= maxFlushDelayNanos)
+		{
+			flushClients();
+		}
+	}
+	
+	/**
+	 * method that sends a message to every user currently connected to the server.
+	 * Clients are read from the registry without any lock - clients that connect
+	 * or disconnect at the same time may or may not receive the state. If there are
+	 * fan-out workers, state is handed to them and the method returns right away.
 	 * 
 	 * @param state ChatState to be broadcasted
 	 */
 	public void broadcast(final ChatState state)
 	{
-		synchronized (clients)
+		if(fanOut != null)
 		{
-			for (final ClientNetworkManager client : clients)
+			fanOut.broadcast(state);
+			return;
+		}
+		for (int stripe = 0; stripe < clients.getStripeCount(); ++stripe)
+		{
+			for (final ClientNetworkManager client : clients.getClients(stripe))
 			{
-				if(client.getIsLoggedIn())
-					client.send(state);
+				if(client.isReceivingBroadcasts())
+					client.write(state);
 			}
 		}
 	}
 	
+	/**
+	 * Method that returns number of clients connected to this manager.
+	 * 
+	 * @return number of connected clients
+	 */
+	public int getClientCount()
+	{
+		return clients.size();
+	}
+	
 	/**
 	 * method responsible for listening for new clients connections.
 	 */
 	@Override
 	public void run()
 	{
+		if(serverSocket == null)
+		{
+			return; //clients are added only in memory
+		}
 		while (true)
 		{
 			final Socket clientSocket = acceptNewClientSocket();
-			synchronized (clients)
+			if(clientSocket == null)
 			{
-				ClientNetworkManager clientManager = null;
-				try
-				{
-					clientManager = new ClientNetworkManager(clientSocket, eventsQueue);
-				}
-				catch (IOException e)
-				{ 
-					try
-					{
-						clientSocket.close();
-					}
-					catch (IOException e1)
-					{
-					}
-					continue; /*only one client connection failed. continue.*/
-				}	
-				clients.add(clientManager);
-				clientManager.start();
+				return; //stopped accepting
 			}
+			ClientNetworkManager clientManager = null;
+			try
+			{
+				clientManager = new SocketClientNetworkManager(clientSocket, eventsQueue, configuration);
+			}
+			catch (IOException e)
+			{ 
+				admissionController.release(clientSocket.getInetAddress());
+				closeSocket(clientSocket);
+				continue; /*only one client connection failed. continue.*/
+			}
+			register(clientManager);
 		}
 	}
 	
 	/**
 	 * Method that accepts new client connection and returns the socket
-	 * to which client is connected.
+	 * to which client is connected. Connections that exceed limits are
+	 * closed right away, before anything is allocated for them.
 	 * @return the socket
-	 * to which client is connected.
+	 * to which client is connected. null if manager stopped accepting clients.
 	 */
 	private Socket acceptNewClientSocket()
 	{
@@ -123,20 +382,75 @@ public class ServerNetworkManager extends Thread
 			}
 			catch (IOException e)
 			{
+				if(keepAccepting == false)
+				{
+					return null;
+				}
 				continue;
 			}
-			if(clients.size() > MAX_CLIENTS_COUNT)
+			if(admissionController.tryAdmit(clientSocket.getInetAddress()) == false)
 			{
-				try
+				closeSocket(clientSocket);
+				continue;
+			}
+			return clientSocket;
+		}
+	}
+	
+	/**
+	 * Method that closes socket of a client that won't be connected.
+	 * 
+	 * @param clientSocket socket to be closed
+	 */
+	private void closeSocket(final Socket clientSocket)
+	{
+		try
+		{
+			clientSocket.close();
+		}
+		catch (IOException e)
+		{
+		}
+	}
+	
+	/**
+	 * Listener that receives clients whose idle timeouts have expired. Clients that
+	 * have sent something in the meantime are scheduled again for the remaining time,
+	 * so activity of the clients doesn't touch the timer. Clients that really are idle
+	 * are sent to the controller in one event to be logged out.
+	 * 
+	 * @author Wojciech Zieliński
+	 */
+	private class IdleClientsListener implements HashedWheelTimer.ExpirationListener<ClientNetworkManager>
+	{
+		@Override
+		public void expired(final List<ClientNetworkManager> expiredClients)
+		{
+			final long now = System.currentTimeMillis();
+			final List<ClientNetworkManager> idleClients = new ArrayList<ClientNetworkManager>();
+			for (final ClientNetworkManager client : expiredClients)
+			{
+				final long idleMillis = now - client.getLastActivityMillis();
+				if(idleMillis < idleTimeoutMillis)
 				{
-					clientSocket.close();
+					idleTimer.reschedule(client.getIdleTimeout(), idleTimeoutMillis - idleMillis);
 				}
-				catch (IOException e)
+				else
 				{
-					continue;
+					idleClients.add(client);
 				}
 			}
-			return clientSocket;
+			if(idleClients.isEmpty())
+			{
+				return;
+			}
+			try
+			{
+				eventsQueue.put(new IdleSessionsEvent(idleClients));
+			}
+			catch (final InterruptedException e)
+			{
+			}
 		}
 	}
 }
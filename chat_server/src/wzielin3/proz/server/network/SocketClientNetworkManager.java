@@ -0,0 +1,255 @@
+package wzielin3.proz.server.network;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.BlockingQueue;
+import wzielin3.proz.server.ChatState;
+import wzielin3.proz.server.ChatStateOutputStream;
+import wzielin3.proz.server.config.ServerConfiguration;
+import wzielin3.proz.server.events.ApplicationEvent;
+import wzielin3.proz.server.events.NetworkEvent;
+
+/**
+ * class that is responsible for connection with one client over a socket.
+ * Events are read from the socket by a separate listener thread. Chat states
+ * are written to a buffer and sent when the connection is flushed, so states
+ * sent to the client one after another go to the socket together.
+ * 
+ * @author Wojciech Zieliński
+ */
+public class SocketClientNetworkManager extends ClientNetworkManager
+{
+	/**socket of this clients connection*/
+	private final Socket socket;
+	/**stream from which objects are read. Created by the listener thread, because
+	 * it blocks until client sends stream header*/
+	private volatile ObjectInputStream objectInputStream;
+	/**stream to which objects are sent*/
+	private final ChatStateOutputStream objectOutputStream;
+	/**thread that listens to the client*/
+	private final ClientListener clientListener;
+	/**boolean value telling if thread should stop. set to false on close() invoked*/
+	private volatile boolean keepGoing;
+	/**time to sleep between two messages received by client. Additional defense mechanism
+	 * to protect from rogue clients that send too many messages*/
+	private final int millisecondsBetweenMessages;
+	/**time in milliseconds in which client has to send stream header and first event*/
+	private final int handshakeTimeoutMillis;
+	
+	/**
+	 * constructor that initializes connection with specified client.
+	 * to start listening to client the start() method needs to be invoked.
+	 * from the socket.
+	 * 
+	 * @param socket - socket to which this client is going to connect
+	 * @param eventsQueue - blocking queue to which this client network manager
+	 * is going to send events concerning connection with his client
+	 * @param configuration - configuration of the server. Time to sleep between two messages
+	 * received by client, time in which client has to send stream header and first event
+	 * (half-open connections are closed after that time, so they don't take up the listener thread),
+	 * compression threshold, size of the output buffer and TCP_NODELAY option are read from it.
+	 * @throws IOException if couldn't create ObjectOutputStream
+	 */
+	public SocketClientNetworkManager(Socket socket,
+			BlockingQueue<ApplicationEvent> eventsQueue, ServerConfiguration configuration) throws IOException
+	{
+		super(eventsQueue);
+		this.socket = socket;
+		this.millisecondsBetweenMessages = configuration.getMillisBetweenMessages();
+		this.handshakeTimeoutMillis = configuration.getHandshakeTimeoutMillis();
+		//states are gathered in the buffer and flushed explicitly, so Nagle's algorithm
+		//would only delay the last segment of every flush
+		socket.setTcpNoDelay(configuration.isTcpNoDelay());
+		objectOutputStream = new ChatStateOutputStream(new BufferedOutputStream(socket.getOutputStream(),
+				configuration.getOutputBufferBytes()), configuration.getCompressionThreshold());
+		//client waits for the header of the stream before it sends its first event
+		objectOutputStream.flush();
+		objectInputStream = null;
+		clientListener = new ClientListener();
+		keepGoing = true;
+	}
+	
+	/**
+	 * method that starts the thread listening to the client
+	 */
+	@Override
+	public void start()
+	{
+		clientListener.start();
+	}
+	
+	/**
+	 * method that returns address of the client
+	 */
+	@Override
+	public InetAddress getRemoteAddress()
+	{
+		return socket.getInetAddress();
+	}
+	
+	/**
+	 * method that writes current chat state to the buffer of the client concerned.
+	 * It's sent when the client is flushed.
+	 */
+	@Override
+	protected void write(ChatState state)
+	{
+		try
+		{
+			objectOutputStream.writeObject(state);
+			setUnflushed();
+		}
+		catch (IOException e)
+		{
+			//if connection is corrupted run method detects it and sends event
+			//to controller which then closes this client. no need to do it here
+		}
+	}
+	
+	/**
+	 * method that sets if the client has agreed to receive compressed chat states
+	 */
+	@Override
+	public void setCompressing(final boolean isCompressing)
+	{
+		objectOutputStream.setCompressing(isCompressing);
+	}
+	
+	/**
+	 * method that writes all buffered data to the socket. Stream is reset before,
+	 * so neither side keeps references to states that have already been sent.
+	 */
+	@Override
+	public void flush()
+	{
+		try
+		{
+			objectOutputStream.reset();
+			objectOutputStream.flush();
+		}
+		catch (IOException e)
+		{
+			//as in write() - broken connection is detected by the listener
+		}
+	}
+	
+	/**
+	 * method that closes connection with this client.
+	 * should be invoked before removing this client.
+	 * calling this method closes this client and there is no going back. after
+	 * that object is useless.
+	 */
+	@Override
+	public void close()
+	{
+		//connection lost from now on is expected, controller doesn't have to be told
+		keepGoing = false;
+		super.close();
+	}
+	
+	/**
+	 * method that flushes states still in the buffer and closes the socket.
+	 */
+	@Override
+	protected void closeConnection()
+	{
+		//closing the input stream closes the socket, states still in the buffer have to be sent first
+		flush();
+		final ObjectInputStream objectInputStream = this.objectInputStream;
+		try
+		{
+			if(objectInputStream != null) objectInputStream.close();
+		}
+		catch (Exception e) { }
+		
+		try
+		{
+			if(objectOutputStream != null)  objectOutputStream.close();
+		}
+		catch (Exception e) { }
+		
+		try
+		{
+			if(socket != null) socket.close();
+		}
+		catch (Exception e) { }
+	}
+	
+	/**
+	 * Thread responsible for listening to the client
+	 * 
+	 * @author Wojciech Zieliński
+	 */
+	private class ClientListener extends Thread
+	{
+		/**
+		 * method responsible for listening to the client
+		 */
+		@Override
+		public void run()
+		{
+			try
+			{
+				socket.setSoTimeout(handshakeTimeoutMillis);
+				objectInputStream = new ObjectInputStream(socket.getInputStream());
+				final NetworkEvent event = (NetworkEvent) objectInputStream.readObject();
+				socket.setSoTimeout(0);
+				dispatchEvent(event);
+			}
+			catch (IOException | ClassNotFoundException | ClassCastException | InterruptedException e)
+			{
+				//handshake failed. controller has to remove this client
+				connectionLost();
+				return;
+			}
+			while(true)
+			{
+				try
+				{
+					NetworkEvent event = (NetworkEvent) objectInputStream.readObject();
+					dispatchEvent(event);
+				}
+				catch (ClassNotFoundException | InvalidClassException | InterruptedException e)
+				{
+					continue;
+				}
+				catch (IOException e)
+				{
+					connectionLost();
+					return;
+				}
+				try
+				{
+					Thread.sleep(millisecondsBetweenMessages);
+				}
+				catch (InterruptedException e)
+				{
+				}
+			}
+		}
+		
+		/**
+		 * method that tells the controller that logout is needed, unless
+		 * connection has been closed by the server.
+		 */
+		private void connectionLost()
+		{
+			//if serverNetworkManager closes me i don't want to send event to queue
+			while(keepGoing)
+			{
+				try
+				{
+					dispatchConnectionLost();
+					return;
+				}
+				catch (InterruptedException e)
+				{
+				}
+			}
+		}
+	}
+}
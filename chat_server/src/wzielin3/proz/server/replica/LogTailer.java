@@ -0,0 +1,138 @@
+package wzielin3.proz.server.replica;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.concurrent.BlockingQueue;
+import wzielin3.proz.server.ChatMessage;
+import wzielin3.proz.server.events.ApplicationEvent;
+import wzielin3.proz.server.events.ReplicatedMessagesEvent;
+import wzielin3.proz.server.model.MessageLog;
+
+/**
+ * Thread that follows the message log of the primary server and sends new
+ * messages to the replica's events queue as ReplicatedMessagesEvents. Replica
+ * keeps its own copy of the history, so history requests sent to it never
+ * delay messages handled by the primary.
+ * 
+ * @author Wojciech Zieliński
+ */
+public class LogTailer extends Thread
+{
+	/**maximum number of messages sent in one event*/
+	private static final int MAX_BATCH = 1000;
+	/**file of the log*/
+	private final File path;
+	/**time in milliseconds to wait when there are no new messages*/
+	private final int pollMillis;
+	/**queue to which read messages are sent*/
+	private final BlockingQueue<ApplicationEvent> eventsQueue;
+	/**sequence number of the last read message. -1 if none has been read*/
+	private long lastSequence;
+	/**boolean value telling if thread should keep reading. set to false on close()*/
+	private volatile boolean keepGoing;
+	
+	/**
+	 * Constructor that creates tailer of given log. To start reading
+	 * start() method needs to be invoked. Log doesn't have to exist yet.
+	 * 
+	 * @param path file of the log
+	 * @param pollMillis time in milliseconds to wait when there are no new messages
+	 * @param eventsQueue queue to which read messages are sent
+	 */
+	public LogTailer(final File path, final int pollMillis,
+			final BlockingQueue<ApplicationEvent> eventsQueue)
+	{
+		this.path = path;
+		this.pollMillis = pollMillis;
+		this.eventsQueue = eventsQueue;
+		lastSequence = -1;
+		keepGoing = true;
+		setDaemon(true);
+	}
+	
+	/**
+	 * Method that stops reading the log.
+	 */
+	public void close()
+	{
+		keepGoing = false;
+		interrupt();
+	}
+	
+	/**
+	 * Method that reads the log until close() is invoked.
+	 */
+	@Override
+	public void run()
+	{
+		RandomAccessFile file = null;
+		try
+		{
+			while(keepGoing)
+			{
+				if(file == null && path.exists())
+				{
+					file = new RandomAccessFile(path, "r");
+				}
+				if(file == null || readNewMessages(file) == false)
+				{
+					Thread.sleep(pollMillis);
+				}
+			}
+		}
+		catch (final IOException e)
+		{
+			System.out.println("Couldn't read the log: " + e.getMessage());
+		}
+		catch (final InterruptedException e)
+		{
+			//closed
+		}
+		finally
+		{
+			try
+			{
+				if(file != null) file.close();
+			}
+			catch (final IOException e) { }
+		}
+	}
+	
+	/**
+	 * Method that reads complete records added to the log since the last call
+	 * and sends them to the events queue.
+	 * 
+	 * @param file open log
+	 * @return true if some messages have been read
+	 * @throws IOException if log can't be read
+	 * @throws InterruptedException if thread was interrupted while waiting for the queue
+	 */
+	private boolean readNewMessages(final RandomAccessFile file) throws IOException, InterruptedException
+	{
+		if(file.length() < file.getFilePointer())
+		{
+			//log has been created again, start from the beginning
+			file.seek(0);
+			lastSequence = -1;
+		}
+		final ArrayList<ChatMessage> batch = new ArrayList<ChatMessage>();
+		byte[] frame;
+		while(batch.size() < MAX_BATCH && (frame = MessageLog.readFrame(file)) != null)
+		{
+			final ChatMessage message = ChatMessage.decode(frame);
+			if(message.getSequence() > lastSequence)
+			{
+				lastSequence = message.getSequence();
+				batch.add(message);
+			}
+		}
+		if(batch.isEmpty())
+		{
+			return false;
+		}
+		eventsQueue.put(new ReplicatedMessagesEvent(batch));
+		return true;
+	}
+}
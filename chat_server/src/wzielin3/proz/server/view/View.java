@@ -2,6 +2,7 @@ package wzielin3.proz.server.view;
 
 import java.util.Scanner;
 import java.util.concurrent.BlockingQueue;
+import wzielin3.proz.server.config.ServerConfiguration;
 import wzielin3.proz.server.events.ApplicationEvent;
 import wzielin3.proz.server.network.ServerNetworkManager;
 
@@ -10,7 +11,7 @@ import wzielin3.proz.server.network.ServerNetworkManager;
  * asks for the port number for the server to start. Then based on the
  * port number returns ServerNetworkManager.
  * 
- * @author Wojciech Zieliski
+ * @author Wojciech Zieliński
  */
 public class View
 {
@@ -18,14 +19,18 @@ public class View
 	private static final Scanner in = new Scanner(System.in); 
 	/**BlockingQueue needed only to create ServerNetworkManager for the Server*/
 	private final BlockingQueue<ApplicationEvent> blockingQueue;
+	/**configuration needed only to create ServerNetworkManager for the Server*/
+	private final ServerConfiguration configuration;
 	
 	/**
 	 * Constructor that takes BlockingQueue to which events will be send
 	 * 
+	 * @param configuration configuration of the server
 	 * @param blockingQueue BlockingQueue to which events will be send
 	 */
-	public View(final BlockingQueue<ApplicationEvent> blockingQueue)
+	public View(final ServerConfiguration configuration, final BlockingQueue<ApplicationEvent> blockingQueue)
 	{
+		this.configuration = configuration;
 		this.blockingQueue = blockingQueue;
 	}
 	
@@ -42,7 +47,7 @@ public class View
 			try
 			{
 				int port = getPortFromConsole();
-				networkManager = new ServerNetworkManager(port, blockingQueue);
+				networkManager = new ServerNetworkManager(port, configuration, blockingQueue);
 			}
 			catch (Exception e)
 			{